@@ -19,11 +19,18 @@ package net.bobgardner.cash;
 
 import static javax.swing.SwingUtilities.invokeLater;
 
+import net.bobgardner.cash.metrics.Metrics;
+import net.bobgardner.cash.metrics.StartupTrace;
 import net.bobgardner.cash.model.*;
+import net.bobgardner.cash.server.ApiServer;
 import net.bobgardner.cash.view.AccountView;
 
 import org.joda.time.DateMidnight;
 
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.net.InetAddress;
 import java.math.BigDecimal;
 
 /**
@@ -32,13 +39,65 @@ import java.math.BigDecimal;
  * @author wrg007 (Bob Gardner)
  */
 public class App {
-  public static void main(String[] args) {
+  private static final String SERVER_FLAG = "--server";
+  private static final String BIND_FLAG = "--bind=";
+  /**
+   * System property that prints the {@link StartupTrace} to standard error
+   * once the first window is showing.
+   */
+  private static final String TRACE_PROPERTY = "quickcash.startupTrace";
+
+  /**
+   * Starts the Swing UI, or with {@code --server[=port]} serves the data as
+   * JSON over HTTP instead. The server listens on the loopback interface
+   * unless {@code --bind=address} names another, such as {@code 0.0.0.0}.
+   */
+  public static void main(String[] args) throws IOException {
+    final StartupTrace trace = StartupTrace.INSTANCE;
+    trace.mark("main");
+    Metrics.INSTANCE.register();
+    Metrics.INSTANCE.register("Cashbox", Cashbox.INSTANCE);
+    Metrics.INSTANCE.register("StartupTrace", trace);
+
     // TODO: Load data from database
     makeFakeData();
+    // Loading is not an edit the user can undo
+    Cashbox.INSTANCE.getUndoLog().clear();
+    trace.mark("data loaded");
+
+    // A null host name is the loopback address
+    InetAddress bind = InetAddress.getByName(null);
+    for (String arg : args) {
+      if (arg.startsWith(BIND_FLAG)) {
+        bind = InetAddress.getByName(arg.substring(BIND_FLAG.length()));
+      }
+    }
+    for (String arg : args) {
+      if (arg.equals(SERVER_FLAG) || arg.startsWith(SERVER_FLAG + "=")) {
+        int port = ApiServer.DEFAULT_PORT;
+        if (arg.length() > SERVER_FLAG.length()) {
+          port = Integer.parseInt(arg.substring(SERVER_FLAG.length() + 1));
+        }
+        ApiServer server = new ApiServer(Cashbox.INSTANCE);
+        server.start(bind, port);
+        System.out.println("Serving on " + bind.getHostAddress() + " port " + server.getPort());
+        // The server's dispatcher thread keeps the process running
+        return;
+      }
+    }
 
     invokeLater(new Runnable() {
       public void run() {
-        new AccountView().setVisible(true);
+        AccountView view = new AccountView();
+        trace.mark("AccountView built");
+        view.addWindowListener(new WindowAdapter() {
+          @Override
+          public void windowOpened(WindowEvent e) {
+            trace.mark("AccountView visible");
+            if (Boolean.getBoolean(TRACE_PROPERTY)) System.err.print(trace.format());
+          }
+        });
+        view.setVisible(true);
       }
     });
   }
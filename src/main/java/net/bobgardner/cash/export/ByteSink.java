@@ -0,0 +1,230 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.export;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import net.bobgardner.cash.model.EpochDays;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Encodes text, numbers and dates straight into a fixed byte buffer as UTF-8,
+ * draining it to a channel whenever it fills. No strings are built; amounts
+ * cost one small BigInteger each unless they are too large for a long.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+final class ByteSink {
+  /**
+   * Characters that make a CSV field need quoting.
+   */
+  private static final String CSV_SPECIAL = ",\"\r\n";
+
+  private final ByteBuffer buffer;
+  private final byte[] digits = new byte[20];
+  private WritableByteChannel channel;
+  private long written;
+
+  ByteSink(int capacity) {
+    checkArgument(capacity >= 64, "Buffer too small.");
+    buffer = ByteBuffer.allocateDirect(capacity);
+  }
+
+  /**
+   * Starts writing to another channel, resetting the byte count.
+   */
+  void reset(WritableByteChannel channel) {
+    this.channel = channel;
+    buffer.clear();
+    written = 0;
+  }
+
+  long getBytesWritten() {
+    return written + buffer.position();
+  }
+
+  ByteSink ascii(char c) throws IOException {
+    if (!buffer.hasRemaining()) drain();
+    buffer.put((byte) c);
+    return this;
+  }
+
+  ByteSink ascii(String s) throws IOException {
+    for (int i = 0; i < s.length(); i++) {
+      ascii(s.charAt(i));
+    }
+    return this;
+  }
+
+  /**
+   * Appends text as UTF-8. Unpaired surrogates become '?'.
+   */
+  ByteSink text(String s) throws IOException {
+    return text(s, 0, s.length());
+  }
+
+  private ByteSink text(String s, int from, int to) throws IOException {
+    for (int i = from; i < to; i++) {
+      char c = s.charAt(i);
+      if (buffer.remaining() < 4) drain();
+      if (c < 0x80) {
+        buffer.put((byte) c);
+      } else if (c < 0x800) {
+        buffer.put((byte) (0xc0 | c >> 6));
+        buffer.put((byte) (0x80 | c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < to
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, s.charAt(++i));
+        buffer.put((byte) (0xf0 | cp >> 18));
+        buffer.put((byte) (0x80 | cp >> 12 & 0x3f));
+        buffer.put((byte) (0x80 | cp >> 6 & 0x3f));
+        buffer.put((byte) (0x80 | cp & 0x3f));
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        buffer.put((byte) '?');
+      } else {
+        buffer.put((byte) (0xe0 | c >> 12));
+        buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+        buffer.put((byte) (0x80 | c & 0x3f));
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Appends text as a CSV field, quoted only if it has to be.
+   */
+  ByteSink csv(String s) throws IOException {
+    boolean quote = false;
+    for (int i = 0; i < s.length() && !quote; i++) {
+      quote = CSV_SPECIAL.indexOf(s.charAt(i)) >= 0;
+    }
+    if (!quote) return text(s);
+    ascii('"');
+    int start = 0;
+    for (int i = s.indexOf('"'); i >= 0; i = s.indexOf('"', start)) {
+      text(s, start, i + 1).ascii('"');
+      start = i + 1;
+    }
+    return text(s, start, s.length()).ascii('"');
+  }
+
+  /**
+   * Appends text on one line, turning line breaks into spaces, for formats
+   * where a newline ends the field.
+   */
+  ByteSink line(String s) throws IOException {
+    int start = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '\r' || c == '\n') {
+        text(s, start, i).ascii(' ');
+        start = i + 1;
+      }
+    }
+    return text(s, start, s.length());
+  }
+
+  ByteSink number(long n) throws IOException {
+    if (n < 0) {
+      ascii('-');
+      if (n == Long.MIN_VALUE) return ascii("9223372036854775808");
+      n = -n;
+    }
+    return digits(n, 1, -1);
+  }
+
+  /**
+   * Appends a zero-padded number of at least {@code width} digits.
+   */
+  ByteSink number(int n, int width) throws IOException {
+    checkArgument(n >= 0);
+    return digits(n, width, -1);
+  }
+
+  /**
+   * Appends an amount in plain notation, like {@link BigDecimal#toPlainString()}.
+   */
+  ByteSink decimal(BigDecimal value) throws IOException {
+    int scale = value.scale();
+    if (scale < 0 || scale > 18 || value.unscaledValue().bitLength() > 62) {
+      return ascii(value.toPlainString());
+    }
+    long unscaled = value.unscaledValue().longValue();
+    if (unscaled < 0) {
+      ascii('-');
+      unscaled = -unscaled;
+    }
+    return digits(unscaled, scale + 1, scale);
+  }
+
+  /**
+   * Appends an {@link EpochDays} day as yyyy-MM-dd.
+   */
+  ByteSink isoDate(int day) throws IOException {
+    number(EpochDays.year(day), 4).ascii('-');
+    return number(EpochDays.monthOfYear(day), 2).ascii('-').number(EpochDays.dayOfMonth(day), 2);
+  }
+
+  /**
+   * Appends an {@link EpochDays} day as MM/dd/yyyy.
+   */
+  ByteSink usDate(int day) throws IOException {
+    number(EpochDays.monthOfYear(day), 2).ascii('/');
+    return number(EpochDays.dayOfMonth(day), 2).ascii('/').number(EpochDays.year(day), 4);
+  }
+
+  /**
+   * Writes out whatever is buffered.
+   */
+  void flush() throws IOException {
+    drain();
+  }
+
+  /**
+   * Appends the digits of a non-negative number, padded with zeros to
+   * {@code width}, with a decimal point {@code point} digits from the right
+   * if that is positive.
+   */
+  private ByteSink digits(long n, int width, int point) throws IOException {
+    int start = digits.length;
+    int count = 0;
+    do {
+      digits[--start] = (byte) ('0' + n % 10);
+      n /= 10;
+      count++;
+    } while (n > 0 || count < width);
+    if (buffer.remaining() < count + 1) drain();
+    for (int i = start; i < digits.length; i++) {
+      if (digits.length - i == point) buffer.put((byte) '.');
+      buffer.put(digits[i]);
+    }
+    return this;
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      written += channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
@@ -0,0 +1,135 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.export;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import net.bobgardner.cash.metrics.Counter;
+import net.bobgardner.cash.metrics.Histogram;
+import net.bobgardner.cash.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams {@link LedgerSnapshot}s to files. Text is encoded straight into one
+ * reusable buffer, which is drained to the channel as it fills, so memory use
+ * does not grow with the size of the export. Given a
+ * {@link java.nio.channels.FileChannel}, the buffer is written without further
+ * copying.
+ *
+ * An exporter is not thread-safe, but may be reused for any number of
+ * exports, one at a time.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class Exporter {
+  private static final Histogram EXPORT_NANOS = Metrics.INSTANCE.histogram("export.nanos");
+  private static final Counter BYTES = Metrics.INSTANCE.counter("export.bytes");
+  private static final Counter RECORDS = Metrics.INSTANCE.counter("export.records");
+
+  public static final int DEFAULT_BUFFER = 64 * 1024;
+
+  /**
+   * What an export wrote and how long it took.
+   */
+  public static final class Result {
+    private final int records;
+    private final long bytes;
+    private final long nanos;
+
+    Result(int records, long bytes, long nanos) {
+      this.records = records;
+      this.bytes = bytes;
+      this.nanos = nanos;
+    }
+
+    /**
+     * @return the rows written for CSV, the transactions for QIF
+     */
+    public int getRecords() {
+      return records;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    public double getBytesPerSecond() {
+      return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+    }
+
+    public double getRecordsPerSecond() {
+      return nanos == 0 ? 0 : records * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d records, %d bytes in %.1f ms (%.1f MB/s)", records, bytes,
+          nanos / 1e6, getBytesPerSecond() / (1024 * 1024));
+    }
+  }
+
+  private final ByteSink sink;
+
+  public Exporter() {
+    this(DEFAULT_BUFFER);
+  }
+
+  /**
+   * @param bufferSize bytes to encode before each write to the channel
+   */
+  public Exporter(int bufferSize) {
+    sink = new ByteSink(bufferSize);
+  }
+
+  /**
+   * Writes the snapshot to the channel, leaving the channel open.
+   */
+  public Result export(LedgerSnapshot snapshot, Format format, WritableByteChannel channel)
+      throws IOException {
+    checkNotNull(snapshot);
+    checkNotNull(format);
+    long start = System.nanoTime();
+    sink.reset(checkNotNull(channel));
+    int records = format.write(snapshot, sink);
+    sink.flush();
+    long nanos = System.nanoTime() - start;
+
+    EXPORT_NANOS.record(nanos);
+    BYTES.add(sink.getBytesWritten());
+    RECORDS.add(records);
+    return new Result(records, sink.getBytesWritten(), nanos);
+  }
+
+  /**
+   * Writes the snapshot to the stream, leaving the stream open.
+   */
+  public Result export(LedgerSnapshot snapshot, Format format, OutputStream out)
+      throws IOException {
+    Result result = export(snapshot, format, Channels.newChannel(out));
+    out.flush();
+    return result;
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.export;
+
+import java.io.IOException;
+
+/**
+ * The file formats a {@link LedgerSnapshot} can be exported in.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public enum Format {
+  /**
+   * One row per line item, with its transaction's fields repeated. A
+   * transaction without items gets one row with an empty category and amount
+   * zero. Transfers name the other account in the transfer column.
+   */
+  CSV {
+    @Override
+    int write(LedgerSnapshot s, ByteSink out) throws IOException {
+      out.ascii("account,date,check,payee,cleared,transfer,category,description,amount\r\n");
+      int rows = 0;
+      for (int a = 0; a < s.accountNames.length; a++) {
+        for (int t = s.firstTransaction[a]; t < s.firstTransaction[a + 1]; t++) {
+          int first = s.firstItem[t];
+          int end = s.firstItem[t + 1];
+          if (first == end) {
+            row(s, a, t, out).ascii(",,0\r\n");
+            rows++;
+          }
+          for (int i = first; i < end; i++) {
+            row(s, a, t, out).csv(s.categories[i]).ascii(',').csv(s.descriptions[i]).ascii(',')
+                .decimal(s.itemAmounts[i]).ascii("\r\n");
+            rows++;
+          }
+        }
+      }
+      return rows;
+    }
+
+    /**
+     * Writes the columns shared by all of a transaction's rows.
+     */
+    private ByteSink row(LedgerSnapshot s, int a, int t, ByteSink out) throws IOException {
+      out.csv(s.accountNames[a]).ascii(',').isoDate(s.days[t]).ascii(',').csv(s.checkNrs[t])
+          .ascii(',').csv(s.payees[t]).ascii(',').ascii(s.cleared[t] ? 'Y' : 'N').ascii(',');
+      if (s.transfers[t] != null) out.csv(s.transfers[t]);
+      return out.ascii(',');
+    }
+  },
+
+  /**
+   * Quicken Interchange Format: each account as an {@code !Account} header
+   * followed by its transactions, with line items as splits. Transfers use
+   * the bracketed account name as their category.
+   */
+  QIF {
+    @Override
+    int write(LedgerSnapshot s, ByteSink out) throws IOException {
+      int rows = 0;
+      for (int a = 0; a < s.accountNames.length; a++) {
+        // Checking and savings are both bank accounts to Quicken
+        out.ascii("!Option:AutoSwitch\n!Account\nN").line(s.accountNames[a])
+            .ascii("\nTBank\n^\n!Clear:AutoSwitch\n!Type:Bank\n");
+        for (int t = s.firstTransaction[a]; t < s.firstTransaction[a + 1]; t++) {
+          out.ascii('D').usDate(s.days[t]).ascii("\nT").decimal(s.amounts[t]).ascii('\n');
+          out.ascii('P').line(s.payees[t]).ascii('\n');
+          if (s.checkNrs[t].length() > 0) out.ascii('N').line(s.checkNrs[t]).ascii('\n');
+          if (s.cleared[t]) out.ascii("CX\n");
+          if (s.transfers[t] != null) out.ascii("L[").line(s.transfers[t]).ascii("]\n");
+          for (int i = s.firstItem[t]; i < s.firstItem[t + 1]; i++) {
+            out.ascii('S').line(s.categories[i]).ascii("\nE").line(s.descriptions[i])
+                .ascii("\n$").decimal(s.itemAmounts[i]).ascii('\n');
+          }
+          out.ascii("^\n");
+          rows++;
+        }
+      }
+      return rows;
+    }
+  };
+
+  /**
+   * Writes the snapshot, leaving the last bytes buffered.
+   *
+   * @return how many records were written
+   */
+  abstract int write(LedgerSnapshot snapshot, ByteSink out) throws IOException;
+}
@@ -0,0 +1,165 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.export;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.Cashbox;
+import net.bobgardner.cash.model.EpochDays;
+import net.bobgardner.cash.model.TransactionCursor;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An immutable copy of the exportable fields of some accounts, so an export
+ * can run on a background thread while the user keeps editing.
+ *
+ * Only references are copied: the model's strings, dates and amounts are
+ * immutable, so a snapshot costs a few array slots per row and no text. It
+ * is laid out as parallel arrays; each account's transactions and each
+ * transaction's items are contiguous, delimited by start offsets.
+ *
+ * Take snapshots on the thread that edits the model. They also hold the
+ * cashbox lock, so they never see half a
+ * {@link net.bobgardner.cash.model.UnitOfWork}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class LedgerSnapshot {
+  final String[] accountNames;
+  /**
+   * Index of each account's first transaction, plus the total at the end.
+   */
+  final int[] firstTransaction;
+
+  /**
+   * Dates as {@link EpochDays} numbers.
+   */
+  final int[] days;
+  final String[] payees;
+  final String[] checkNrs;
+  final boolean[] cleared;
+  final BigDecimal[] amounts;
+  /**
+   * Destination account name of each transfer, null for other transactions.
+   */
+  final String[] transfers;
+  /**
+   * Index of each transaction's first item, plus the total at the end.
+   */
+  final int[] firstItem;
+
+  BigDecimal[] itemAmounts;
+  String[] categories;
+  String[] descriptions;
+
+  /**
+   * Copies every account in the cashbox.
+   */
+  public static LedgerSnapshot of(Cashbox cashbox) {
+    synchronized (cashbox) {
+      return new LedgerSnapshot(cashbox.getAccounts());
+    }
+  }
+
+  /**
+   * Copies the given accounts of one cashbox.
+   *
+   * @throws IllegalArgumentException if an account is in another cashbox,
+   *         whose lock would not be held while it is copied
+   */
+  public static LedgerSnapshot of(Cashbox cashbox, Collection<Account> accounts) {
+    for (Account account : accounts) {
+      checkArgument(account.getCashbox() == cashbox, "Account %s is in another cashbox.",
+          account.getName());
+    }
+    synchronized (cashbox) {
+      return new LedgerSnapshot(accounts);
+    }
+  }
+
+  private LedgerSnapshot(Collection<Account> accounts) {
+    int transactionCount = 0;
+    for (Account account : accounts) {
+      transactionCount += account.getTransactions().size();
+    }
+    accountNames = new String[accounts.size()];
+    firstTransaction = new int[accounts.size() + 1];
+    days = new int[transactionCount];
+    payees = new String[transactionCount];
+    checkNrs = new String[transactionCount];
+    cleared = new boolean[transactionCount];
+    amounts = new BigDecimal[transactionCount];
+    transfers = new String[transactionCount];
+    firstItem = new int[transactionCount + 1];
+    itemAmounts = new BigDecimal[transactionCount];
+    categories = new String[transactionCount];
+    descriptions = new String[transactionCount];
+
+    int a = 0;
+    int t = 0;
+    int i = 0;
+    for (Account account : accounts) {
+      checkNotNull(account);
+      accountNames[a] = account.getName();
+      firstTransaction[a++] = t;
+      TransactionCursor cursor = account.cursor();
+      while (cursor.next()) {
+        days[t] = cursor.getDay();
+        payees[t] = cursor.getPayee();
+        checkNrs[t] = cursor.getCheckNr();
+        cleared[t] = cursor.isCleared();
+        amounts[t] = cursor.getAmount();
+        Account dest = cursor.getDestAccount();
+        if (dest != null) transfers[t] = dest.getName();
+        firstItem[t++] = i;
+        while (cursor.nextItem()) {
+          if (i == itemAmounts.length) grow();
+          itemAmounts[i] = cursor.getItemAmount();
+          categories[i] = cursor.getItemCategory().getName();
+          descriptions[i++] = cursor.getItemDescription();
+        }
+      }
+    }
+    firstTransaction[a] = t;
+    firstItem[t] = i;
+  }
+
+  private void grow() {
+    int length = Math.max(16, itemAmounts.length * 2);
+    itemAmounts = Arrays.copyOf(itemAmounts, length);
+    categories = Arrays.copyOf(categories, length);
+    descriptions = Arrays.copyOf(descriptions, length);
+  }
+
+  public int getAccountCount() {
+    return accountNames.length;
+  }
+
+  public int getTransactionCount() {
+    return days.length;
+  }
+
+  public int getItemCount() {
+    return firstItem[days.length];
+  }
+}
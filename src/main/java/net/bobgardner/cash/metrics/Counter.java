@@ -0,0 +1,54 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonically increasing count of events. Safe to update from any thread.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class Counter {
+  private final String name;
+  private final AtomicLong count = new AtomicLong();
+
+  Counter(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void increment() {
+    count.incrementAndGet();
+  }
+
+  public void add(long n) {
+    count.addAndGet(n);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  void reset() {
+    count.set(0);
+  }
+}
@@ -0,0 +1,143 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values (latencies in nanoseconds, batch sizes,
+ * fan-out counts). Values are bucketed by power of two, so recording is a
+ * handful of atomic adds and percentiles are accurate to within a factor of
+ * two, which is plenty for spotting regressions.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class Histogram implements HistogramMXBean {
+  private static final int BUCKETS = 64;
+
+  private final String name;
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  Histogram(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Records one value.
+   *
+   * @throws IllegalArgumentException if the value is negative
+   */
+  public void record(long value) {
+    checkArgument(value >= 0, "Value must not be negative.");
+    buckets.incrementAndGet(bucketOf(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * Records the time elapsed since {@code startNanos}, a value previously
+   * obtained from {@link System#nanoTime()}.
+   */
+  public void recordSince(long startNanos) {
+    record(Math.max(0, System.nanoTime() - startNanos));
+  }
+
+  @Override
+  public long getCount() {
+    return count.get();
+  }
+
+  @Override
+  public long getMax() {
+    return max.get();
+  }
+
+  @Override
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0.0 : (double) sum.get() / n;
+  }
+
+  @Override
+  public long getPercentile50() {
+    return getPercentile(0.50);
+  }
+
+  @Override
+  public long getPercentile90() {
+    return getPercentile(0.90);
+  }
+
+  @Override
+  public long getPercentile99() {
+    return getPercentile(0.99);
+  }
+
+  /**
+   * Returns the upper bound of the bucket containing the given quantile, capped
+   * at the largest value seen.
+   *
+   * @param quantile between 0 and 1 inclusive
+   */
+  public long getPercentile(double quantile) {
+    checkArgument(quantile >= 0.0 && quantile <= 1.0, "Quantile must be between 0 and 1.");
+    long n = count.get();
+    if (n == 0) return 0;
+    long rank = (long) Math.ceil(quantile * n);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank && seen > 0) return Math.min(upperBound(i), max.get());
+    }
+    return max.get();
+  }
+
+  void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  /**
+   * Bucket 0 holds 0, bucket i holds [2^(i-1), 2^i - 1].
+   */
+  private static int bucketOf(long value) {
+    return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+  }
+
+  private static long upperBound(int bucket) {
+    return bucket == 0 ? 0 : bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.metrics;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Maps;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Singleton registry of application counters and histograms. Metrics are
+ * created on first use and live for the life of the JVM; once
+ * {@link #register()} has been called they are visible on the platform MBean
+ * server under the {@value #DOMAIN} domain.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public enum Metrics implements MetricsMXBean {
+  INSTANCE;
+
+  public static final String DOMAIN = "net.bobgardner.cash";
+
+  private final ConcurrentMap<String, Counter> counters =
+      new ConcurrentHashMap<String, Counter>();
+  private final ConcurrentMap<String, Histogram> histograms =
+      new ConcurrentHashMap<String, Histogram>();
+  private volatile MBeanServer server;
+
+  /**
+   * Returns the counter with the given name, creating it if necessary.
+   */
+  public Counter counter(String name) {
+    Counter counter = counters.get(checkNotNull(name));
+    if (counter == null) {
+      Counter created = new Counter(name);
+      counter = counters.putIfAbsent(name, created);
+      if (counter == null) counter = created;
+    }
+    return counter;
+  }
+
+  /**
+   * Returns the histogram with the given name, creating (and, if the registry
+   * is already exposed, registering) it if necessary.
+   */
+  public Histogram histogram(String name) {
+    Histogram histogram = histograms.get(checkNotNull(name));
+    if (histogram == null) {
+      Histogram created = new Histogram(name);
+      histogram = histograms.putIfAbsent(name, created);
+      if (histogram == null) {
+        histogram = created;
+        if (server != null) registerHistogram(server, histogram);
+      }
+    }
+    return histogram;
+  }
+
+  /**
+   * Exposes the registry, and every histogram in it, on the platform MBean
+   * server. Calling this more than once has no effect.
+   */
+  public synchronized void register() {
+    if (server != null) return;
+    MBeanServer platform = ManagementFactory.getPlatformMBeanServer();
+    registerBean(platform, "Metrics", this);
+    server = platform;
+    for (Histogram histogram : histograms.values()) {
+      registerHistogram(platform, histogram);
+    }
+  }
+
+  /**
+   * Exposes some other management bean (such as a gauge over the model) next to
+   * the registry, under {@code type=<type>}.
+   */
+  public void register(String type, Object bean) {
+    registerBean(ManagementFactory.getPlatformMBeanServer(), type, bean);
+  }
+
+  @Override
+  public Map<String, Long> getCounters() {
+    SortedMap<String, Long> values = Maps.newTreeMap();
+    for (Counter counter : counters.values()) {
+      values.put(counter.getName(), counter.getCount());
+    }
+    return values;
+  }
+
+  @Override
+  public void reset() {
+    for (Counter counter : counters.values()) {
+      counter.reset();
+    }
+    for (Histogram histogram : histograms.values()) {
+      histogram.reset();
+    }
+  }
+
+  private static void registerHistogram(MBeanServer server, Histogram histogram) {
+    registerBean(server, "Histogram,name=" + ObjectName.quote(histogram.getName()), histogram);
+  }
+
+  private static void registerBean(MBeanServer server, String type, Object bean) {
+    try {
+      ObjectName name = new ObjectName(DOMAIN + ":type=" + type);
+      if (!server.isRegistered(name)) server.registerMBean(bean, name);
+    } catch (JMException e) {
+      throw new IllegalStateException("Could not register " + type + " with JMX.", e);
+    }
+  }
+}
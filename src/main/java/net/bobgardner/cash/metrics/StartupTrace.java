@@ -0,0 +1,71 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.metrics;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Maps;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * Record of how long a cold start takes to reach each phase, such as the data
+ * being loaded or the first {@code AccountView} becoming visible. Times are
+ * taken from JVM start, so class loading before {@code main} is counted.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public enum StartupTrace implements StartupTraceMXBean {
+  INSTANCE;
+
+  private final Map<String, Long> marks = Maps.newLinkedHashMap();
+
+  /**
+   * Records that a phase has been reached. Only the first time counts, so
+   * this can be called from code that runs again after startup.
+   */
+  public void mark(String phase) {
+    long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+    synchronized (marks) {
+      if (!marks.containsKey(checkNotNull(phase))) marks.put(phase, uptime);
+    }
+  }
+
+  @Override
+  public Map<String, Long> getMarks() {
+    synchronized (marks) {
+      return Maps.newLinkedHashMap(marks);
+    }
+  }
+
+  /**
+   * @return one line per phase, with the time since JVM start and since the
+   *         previous phase
+   */
+  public String format() {
+    StringBuilder out = new StringBuilder();
+    long previous = 0;
+    for (Map.Entry<String, Long> mark : getMarks().entrySet()) {
+      long millis = mark.getValue();
+      out.append(String.format("%6d ms (+%d) %s%n", millis, millis - previous, mark.getKey()));
+      previous = millis;
+    }
+    return out.toString();
+  }
+}
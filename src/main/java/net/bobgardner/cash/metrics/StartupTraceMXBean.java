@@ -0,0 +1,33 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link StartupTrace}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public interface StartupTraceMXBean {
+  /**
+   * @return milliseconds from JVM start to each phase reached so far, in the
+   *         order they were reached
+   */
+  Map<String, Long> getMarks();
+}
@@ -21,11 +21,24 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import net.bobgardner.cash.metrics.Counter;
+import net.bobgardner.cash.metrics.Metrics;
+import net.bobgardner.cash.persistence.Schema;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Observable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Observer;
+import java.util.SortedMap;
 import java.util.SortedSet;
 
 /**
@@ -36,23 +49,46 @@ import java.util.SortedSet;
  * that violates a uniqueness constraint will fail with
  * {@link IllegalArgumentException}.
  * 
+ * When transactions are added, removed or reordered by a new date, observers
+ * are notified with a {@link TransactionsChange} saying which, so a register
+ * can update just those rows.
+ * 
  * @author wrg007 (Bob Gardner)
  * 
  * @invariant id >= 0 and is unique across all valid accounts
  * @invariant name is nonempty and unique across all valid accounts
  * @invariant (institution, number) is unique across all valid accounts
  */
-public final class Account extends Observable implements Comparable<Account>, Observer {
+public final class Account extends MeteredObservable implements Comparable<Account> {
+  private static final Counter CREATES = Metrics.INSTANCE.counter("model.Account.create");
+  private static final Counter UPDATES = Metrics.INSTANCE.counter("model.Account.update");
+  private static final Counter DELETES = Metrics.INSTANCE.counter("model.Account.delete");
+
   /**
    * Record identifier.
    */
   private final int id;
+  private final Cashbox cashbox;
   private String name;
   private String institution;
   private String number;
   private Type type;
   private String notes;
   private final SortedSet<Transaction> transactions = Sets.newTreeSet();
+  private final DuplicateIndex duplicates;
+  private final BalanceCheckpoints checkpoints = new BalanceCheckpoints();
+  /**
+   * Sizes of the transaction set and of its transactions' line items, kept
+   * as they change so that memory estimates and JMX need not walk the rows.
+   * Written only by the thread that edits the model.
+   */
+  private volatile int transactionCount;
+  private volatile int itemCount;
+  /**
+   * Observers of the account's transactions and line items, which are not
+   * observable themselves to keep them small.
+   */
+  private final MeteredObservable rowEvents = new MeteredObservable() {};
 
   /**
    * True if this account is present in the database.
@@ -66,6 +102,56 @@ public final class Account extends Observable implements Comparable<Account>, Ob
     CHECKING, SAVINGS;
   }
 
+  /**
+   * The transactions one change added to or removed from an account, or the
+   * one it moved to a new date; the argument of notifications to an
+   * account's observers when its transaction set changes. Removed
+   * transactions have already been invalidated.
+   */
+  public static final class TransactionsChange {
+    private final Collection<Transaction> added;
+    private final Collection<Transaction> removed;
+    private final Transaction moved;
+    private final DateMidnight oldDate;
+
+    TransactionsChange(Collection<? extends Transaction> added,
+        Collection<? extends Transaction> removed) {
+      this.added = Collections.unmodifiableCollection(added);
+      this.removed = Collections.unmodifiableCollection(removed);
+      this.moved = null;
+      this.oldDate = null;
+    }
+
+    TransactionsChange(Transaction moved, DateMidnight oldDate) {
+      this.added = Collections.emptySet();
+      this.removed = Collections.emptySet();
+      this.moved = moved;
+      this.oldDate = oldDate;
+    }
+
+    public Collection<Transaction> getAdded() {
+      return added;
+    }
+
+    public Collection<Transaction> getRemoved() {
+      return removed;
+    }
+
+    /**
+     * @return the transaction whose date changed, or null
+     */
+    public Transaction getMoved() {
+      return moved;
+    }
+
+    /**
+     * @return the moved transaction's date before the change, or null
+     */
+    public DateMidnight getOldDate() {
+      return oldDate;
+    }
+  }
+
   /**
    * Create a new account with the given information. Creates the account,
    * stores it in the database (thus retrieving an id), and adds it to
@@ -76,9 +162,13 @@ public final class Account extends Observable implements Comparable<Account>, Ob
   public static Account newAccount(Cashbox cashbox, String name, String institution, String number,
       Type type, String notes) {
     // TODO interact with database
-    Account account = new Account(id_counter++, name, institution, number, type, notes);
+    Account account =
+        new Account(cashbox, cashbox.nextId(Schema.ACCOUNTS), name, institution, number, type,
+            notes);
     account.valid = true;
     cashbox.addAccount(account);
+    CREATES.increment();
+    cashbox.getUndoLog().recordCreate(account);
     return account;
   }
 
@@ -88,25 +178,76 @@ public final class Account extends Observable implements Comparable<Account>, Ob
    * account (and its transactions), and all future operations on the account
    * (or its transactions) will fail with {@link IllegalStateException}.
    * 
+   * The whole subtree is invalidated in one pass and observers of the account
+   * receive a single notification; the transactions and line items are not
+   * notified individually. The other halves of any transfers are deleted from
+   * their accounts as well.
+   * 
    * @param account the account to be deleted
    */
-  protected static void deleteAccount(Account account) {
+  public static void deleteAccount(Account account) {
     if (!account.valid) return; // Don't delete twice!
-    // TODO Interact with database
-    account.valid = false;
+    UndoLog undoLog = account.cashbox.getUndoLog();
+    undoLog.beginUnit("Delete account");
+    try {
+      List<Transaction> pairs = Lists.newArrayList();
+      for (Transaction transaction : account.transactions) {
+        Transaction pair = transaction.getPair();
+        if (pair != null && pair.isValid() && pair.getAccount() != account) pairs.add(pair);
+      }
+      Transaction.deleteTransactions(pairs, false);
+
+      account.cashbox.getDataWriter().deleteAccount(account);
+      // Must happen while still valid, since accounts are ordered by name
+      account.cashbox.removeAccount(account);
+      // The transactions stay in the set so that undo can restore them
+      for (Transaction transaction : account.transactions) {
+        transaction.invalidate();
+        transaction.tally(account.cashbox.getCategoryTree(), false);
+      }
+      account.valid = false;
+      DELETES.increment();
+      undoLog.recordDelete(account);
+    } finally {
+      undoLog.endUnit();
+    }
     account.setChanged();
     account.notifyObservers();
+    account.deleteObservers();
+    account.rowEvents.deleteObservers();
   }
 
-  // TODO these will go away, I just need them for current use/testing
-  private static int id_counter = 0;
+  /**
+   * Undoes {@link #deleteAccount(Account)}: revalidates the account with the
+   * transactions it had when it was deleted, writes it back to the database
+   * and returns it to {@link Cashbox}. Observers are notified once.
+   */
+  void restore() {
+    checkState(!valid, "Account is not deleted.");
+    valid = true;
+    for (Transaction transaction : transactions) {
+      transaction.revalidate();
+      transaction.tally(cashbox.getCategoryTree(), true);
+    }
+    cashbox.getDataWriter().write(this);
+    cashbox.addAccount(this);
+    CREATES.increment();
+    setChanged();
+    notifyObservers();
+  }
 
+  /**
+   * Visible for testing.
+   */
   protected static void resetCounter() {
-    id_counter = 0;
+    Cashbox.INSTANCE.resetIds(Schema.ACCOUNTS);
   }
 
-  private Account(int id, String name, String institution, String number, Type type, String notes) {
+  private Account(Cashbox cashbox, int id, String name, String institution, String number,
+      Type type, String notes) {
+    this.cashbox = checkNotNull(cashbox);
     this.id = id;
+    this.duplicates = new DuplicateIndex(id);
     checkNotNull(name);
     checkArgument(!"".equals(name.trim()), "Name must not be empty.");
     this.name = name.trim();
@@ -128,6 +269,10 @@ public final class Account extends Observable implements Comparable<Account>, Ob
     return id;
   }
 
+  public Cashbox getCashbox() {
+    return cashbox;
+  }
+
   public String getName() {
     checkValidity();
     return name;
@@ -138,11 +283,25 @@ public final class Account extends Observable implements Comparable<Account>, Ob
     checkValidity();
     checkNotNull(name);
     checkArgument(!"".equals(name.trim()), "Name must not be empty.");
-    this.name = name.trim();
+    String old = cashbox.renameAccount(this, name.trim());
+    UPDATES.increment();
+    cashbox.getUndoLog().recordChange(UndoLog.Property.ACCOUNT_NAME, this, old, this.name);
     setChanged();
     notifyObservers();
   }
 
+  /**
+   * Changes the name without re-sorting; see
+   * {@link Cashbox#renameAccount(Account, String)}.
+   * 
+   * @return the old name
+   */
+  String rename(String name) {
+    String old = this.name;
+    this.name = name;
+    return old;
+  }
+
   public String getInstitution() {
     checkValidity();
     return institution;
@@ -152,7 +311,11 @@ public final class Account extends Observable implements Comparable<Account>, Ob
     // TODO Interact with database
     checkValidity();
     checkNotNull(institution);
+    String old = this.institution;
     this.institution = institution.trim();
+    UPDATES.increment();
+    cashbox.getUndoLog().recordChange(UndoLog.Property.ACCOUNT_INSTITUTION, this, old,
+        this.institution);
     setChanged();
     notifyObservers();
   }
@@ -166,7 +329,10 @@ public final class Account extends Observable implements Comparable<Account>, Ob
     // TODO Interact with database
     checkValidity();
     checkNotNull(number);
+    String old = this.number;
     this.number = number.trim();
+    UPDATES.increment();
+    cashbox.getUndoLog().recordChange(UndoLog.Property.ACCOUNT_NUMBER, this, old, this.number);
     setChanged();
     notifyObservers();
   }
@@ -179,7 +345,10 @@ public final class Account extends Observable implements Comparable<Account>, Ob
   public void setType(Type type) {
     // TODO Interact with database
     checkValidity();
+    Type old = this.type;
     this.type = checkNotNull(type);
+    UPDATES.increment();
+    cashbox.getUndoLog().recordChange(UndoLog.Property.ACCOUNT_TYPE, this, old, type);
     setChanged();
     notifyObservers();
   }
@@ -193,7 +362,10 @@ public final class Account extends Observable implements Comparable<Account>, Ob
     // TODO Interact with database
     checkValidity();
     checkNotNull(notes);
+    String old = this.notes;
     this.notes = notes.trim();
+    UPDATES.increment();
+    cashbox.getUndoLog().recordChange(UndoLog.Property.ACCOUNT_NOTES, this, old, this.notes);
     setChanged();
     notifyObservers();
   }
@@ -203,26 +375,274 @@ public final class Account extends Observable implements Comparable<Account>, Ob
     return Collections.unmodifiableSortedSet(transactions);
   }
 
+  /**
+   * @return the total of the transactions that have been cleared against a
+   *         bank statement
+   */
+  public BigDecimal getClearedBalance() {
+    checkValidity();
+    BigDecimal balance = BigDecimal.ZERO;
+    for (Transaction transaction : transactions) {
+      if (transaction.isCleared()) balance = balance.add(transaction.getAmount());
+    }
+    return balance;
+  }
+
+  /**
+   * @return the balance after every transaction on or before the given date
+   */
+  public BigDecimal getBalance(DateMidnight date) {
+    checkValidity();
+    checkNotNull(date);
+    BigDecimal balance = checkpoints.closingBefore(BalanceCheckpoints.month(date));
+    // Ids are never negative, so these probes sort before any real transaction on their dates
+    Transaction from = Transaction.probe(this, date.withDayOfMonth(1), -1);
+    Transaction to = Transaction.probe(this, date.plusDays(1), -1);
+    for (Transaction transaction : transactions.subSet(from, to)) {
+      balance = balance.add(transaction.amount());
+    }
+    return balance;
+  }
+
+  /**
+   * @return the balance after every transaction
+   */
+  public BigDecimal getBalance() {
+    checkValidity();
+    return checkpoints.closingBefore(Integer.MAX_VALUE);
+  }
+
+  /**
+   * @return the balance at the end of each month whose transactions change
+   *         it, keyed by the last day of the month
+   */
+  public SortedMap<DateMidnight, BigDecimal> getMonthEndBalances() {
+    checkValidity();
+    SortedMap<DateMidnight, BigDecimal> balances = Maps.newTreeMap();
+    for (Map.Entry<Integer, BigDecimal> entry : checkpoints.closingBalances().entrySet()) {
+      int month = entry.getKey();
+      DateMidnight first = new DateMidnight(month / 12, month % 12 + 1, 1);
+      balances.put(first.dayOfMonth().withMaximumValue(), entry.getValue());
+    }
+    return balances;
+  }
+
+  /**
+   * @return fingerprints of this account's transactions, for spotting
+   *         statement lines that were imported before
+   */
+  public DuplicateIndex getDuplicateIndex() {
+    checkValidity();
+    return duplicates;
+  }
+
+  /**
+   * Registers an observer of the account's transactions and line items. Its
+   * {@link Observer#update} is passed the {@link Transaction} or
+   * {@link LineItem} that changed. Deletions, additions and date changes are
+   * reported to the account's own observers instead, with a
+   * {@link TransactionsChange}.
+   */
+  public void addRowObserver(Observer observer) {
+    rowEvents.addObserver(observer);
+  }
+
+  public void deleteRowObserver(Observer observer) {
+    rowEvents.deleteObserver(observer);
+  }
+
+  /**
+   * Called by a transaction in this account, or one of its line items, after
+   * it changes.
+   */
+  void rowChanged(Object row) {
+    rowEvents.fire(row);
+  }
+
+  /**
+   * Called by a transaction in this account when its fingerprint changes.
+   */
+  void fingerprintChanged(long oldFingerprint, long newFingerprint) {
+    duplicates.replace(oldFingerprint, newFingerprint);
+  }
+
+  /**
+   * Called by a transaction in this account when its amount changes.
+   */
+  void amountChanged(Transaction transaction, BigDecimal oldAmount) {
+    // Transactions staged by a unit of work are counted when they are added
+    if (!transactions.contains(transaction)) return;
+    checkpoints.add(BalanceCheckpoints.month(transaction.day()),
+        transaction.amount().subtract(oldAmount));
+  }
+
+  /**
+   * Takes a transaction out of the sorted set while its date changes.
+   * 
+   * @return whether it was in the set, to pass to {@link #dateChanged}
+   */
+  boolean dateChanging(Transaction transaction) {
+    if (!transactions.remove(transaction)) return false;
+    count(transaction, false);
+    return true;
+  }
+
+  /**
+   * Puts back a transaction taken out by {@link #dateChanging}.
+   */
+  void dateChanged(Transaction transaction, boolean wasPresent, DateMidnight oldDate) {
+    if (!wasPresent) return;
+    transactions.add(transaction);
+    count(transaction, true);
+    setChanged();
+    notifyObservers(new TransactionsChange(transaction, oldDate));
+  }
+
+  /**
+   * Called by a transaction in this account when one of its line items
+   * changes amount or category, or is added (old category null) or removed
+   * (new category null).
+   */
+  void itemChanged(Transaction transaction, Category oldCategory, BigDecimal oldAmount,
+      Category newCategory, BigDecimal newAmount) {
+    if (!transactions.contains(transaction)) return;
+    CategoryTree tree = cashbox.getCategoryTree();
+    if (oldCategory != null) {
+      tree.add(oldCategory, oldAmount.negate());
+    } else {
+      itemCount++;
+    }
+    if (newCategory != null) {
+      tree.add(newCategory, newAmount);
+    } else {
+      itemCount--;
+    }
+  }
+
+  /**
+   * Adds a transaction's amount to, or takes it from, its month's checkpoint
+   * and its line items' categories.
+   */
+  private void count(Transaction transaction, boolean add) {
+    transactionCount += add ? 1 : -1;
+    itemCount += add ? transaction.countItems() : -transaction.countItems();
+    BigDecimal amount = transaction.amount();
+    checkpoints.add(BalanceCheckpoints.month(transaction.day()), add ? amount : amount.negate());
+    transaction.tally(cashbox.getCategoryTree(), add);
+  }
+
+  /**
+   * Returns the transactions that sort after the one with the given date and
+   * id, which need not exist any more. Used to page through the register.
+   */
+  public SortedSet<Transaction> getTransactionsAfter(DateMidnight date, int id) {
+    checkValidity();
+    checkNotNull(date);
+    // Ids are ints, so the next possible transaction on the same date is id + 1
+    Transaction start = Transaction.probe(this, date, id + 1);
+    return Collections.unmodifiableSortedSet(transactions.tailSet(start));
+  }
+
   protected void addTransaction(Transaction transaction) {
     checkValidity();
     checkNotNull(transaction);
     checkArgument(transaction.isValid(), "Transaction is invalid.");
-    transaction.addObserver(this);
-    addObserver(transaction);
     transactions.add(transaction);
+    duplicates.add(transaction.fingerprint());
+    count(transaction, true);
     setChanged();
-    notifyObservers();
+    notifyObservers(new TransactionsChange(Collections.singleton(transaction),
+        Collections.<Transaction>emptySet()));
+  }
+
+  /**
+   * Adds a batch of restored transactions, notifying observers once.
+   * 
+   * Protected so that it is only called by
+   * {@link Transaction#restoreTransactions(Collection)}.
+   */
+  protected void addTransactions(Collection<? extends Transaction> restored) {
+    checkValidity();
+    for (Transaction transaction : restored) {
+      checkArgument(transaction.isValid(), "Transaction is invalid.");
+      transactions.add(transaction);
+      duplicates.add(transaction.fingerprint());
+      count(transaction, true);
+    }
+    setChanged();
+    notifyObservers(new TransactionsChange(restored, Collections.<Transaction>emptySet()));
   }
 
-  protected void removeTransaction(Transaction transaction) {
+  /**
+   * Adds and removes transactions for a {@link UnitOfWork}, notifying
+   * observers once even if nothing was added or removed (the unit may have
+   * changed the account's transactions in place).
+   */
+  void apply(Collection<? extends Transaction> added, Collection<? extends Transaction> removed) {
     checkValidity();
-    checkNotNull(transaction);
-    checkArgument(!transaction.isValid(), "Transaction is still valid.");
-    transaction.deleteObserver(this);
-    deleteObserver(transaction);
-    transactions.remove(transaction);
+    for (Transaction transaction : removed) {
+      transactions.remove(transaction);
+      duplicates.remove(transaction.fingerprint());
+      count(transaction, false);
+    }
+    for (Transaction transaction : added) {
+      transactions.add(transaction);
+      duplicates.add(transaction.fingerprint());
+      count(transaction, true);
+    }
     setChanged();
-    notifyObservers();
+    notifyObservers(new TransactionsChange(added, removed));
+  }
+
+  /**
+   * Removes a batch of deleted transactions, notifying observers once.
+   * 
+   * Protected so that it is only called by
+   * {@link Transaction#deleteTransactions(Collection)}.
+   * 
+   * @throws IllegalArgumentException if any of the transactions is valid
+   */
+  protected void removeTransactions(Collection<? extends Transaction> deleted) {
+    checkValidity();
+    for (Transaction transaction : deleted) {
+      checkArgument(!transaction.isValid(), "Transaction is still valid.");
+      transactions.remove(transaction);
+      duplicates.remove(transaction.fingerprint());
+      count(transaction, false);
+    }
+    setChanged();
+    notifyObservers(new TransactionsChange(Collections.<Transaction>emptySet(), deleted));
+  }
+
+  /**
+   * @return a read-only pass over this account's transactions and their line
+   *         items, in date order
+   */
+  public TransactionCursor cursor() {
+    checkValidity();
+    return new TransactionCursor(Collections.singleton(this).iterator());
+  }
+
+  /**
+   * Iterates the transaction set directly, for {@link TransactionCursor}.
+   */
+  Iterator<Transaction> transactionIterator() {
+    return transactions.iterator();
+  }
+
+  /**
+   * Size of the transaction set, for memory estimates and JMX. Works on
+   * deleted accounts, and from any thread.
+   */
+  int countTransactions() {
+    return transactionCount;
+  }
+
+  /**
+   * @see #countTransactions()
+   */
+  int countItems() {
+    return itemCount;
   }
 
   @Override
@@ -255,15 +675,7 @@ public final class Account extends Observable implements Comparable<Account>, Ob
   }
 
   @Override
-  public void update(Observable o, Object arg) {
-    // Observes its transactions
-    if (o instanceof Transaction) {
-      Transaction transaction = (Transaction) o;
-      // The only change we care about is deletion
-      if (!transaction.isValid()) {
-        // In which case we remove the transaction from the list
-        removeTransaction(transaction);
-      }
-    }
+  public int hashCode() {
+    return id;
   }
 }
@@ -0,0 +1,108 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import com.google.common.collect.Maps;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * An account's balance at the end of each month that has transactions.
+ *
+ * Changes are recorded as a change to one month's net total, which costs a
+ * map update. The running balances after that month are brought up to date
+ * only when next asked for, in one pass over the month totals, so a burst of
+ * edits is paid for once.
+ *
+ * Months are numbered {@code year * 12 + month - 1}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+final class BalanceCheckpoints {
+  /**
+   * Net amount of each month's transactions, leaving out months that net to
+   * zero.
+   */
+  private final TreeMap<Integer, BigDecimal> monthTotals = Maps.newTreeMap();
+  /**
+   * Balance at the end of each month in {@link #monthTotals}, current before
+   * {@link #staleFrom}.
+   */
+  private final TreeMap<Integer, BigDecimal> closing = Maps.newTreeMap();
+  private int staleFrom = Integer.MAX_VALUE;
+
+  static int month(DateMidnight date) {
+    return date.getYear() * 12 + date.getMonthOfYear() - 1;
+  }
+
+  /**
+   * @param day an {@link EpochDays} day number
+   */
+  static int month(int day) {
+    return EpochDays.month(day);
+  }
+
+  /**
+   * Adds an amount to a month's total.
+   */
+  void add(int month, BigDecimal amount) {
+    if (amount.signum() == 0) return;
+    BigDecimal total = monthTotals.get(month);
+    total = total == null ? amount : total.add(amount);
+    if (total.signum() == 0) {
+      monthTotals.remove(month);
+    } else {
+      monthTotals.put(month, total);
+    }
+    if (month < staleFrom) staleFrom = month;
+  }
+
+  /**
+   * @return the balance after every transaction before the given month
+   */
+  BigDecimal closingBefore(int month) {
+    refresh();
+    Map.Entry<Integer, BigDecimal> entry = closing.lowerEntry(month);
+    return entry == null ? BigDecimal.ZERO : entry.getValue();
+  }
+
+  /**
+   * @return the balance at the end of each month, by month number
+   */
+  NavigableMap<Integer, BigDecimal> closingBalances() {
+    refresh();
+    return closing;
+  }
+
+  private void refresh() {
+    if (staleFrom == Integer.MAX_VALUE) return;
+    Map.Entry<Integer, BigDecimal> before = closing.lowerEntry(staleFrom);
+    BigDecimal balance = before == null ? BigDecimal.ZERO : before.getValue();
+    closing.tailMap(staleFrom, true).clear();
+    for (Map.Entry<Integer, BigDecimal> entry : monthTotals.tailMap(staleFrom, true).entrySet()) {
+      balance = balance.add(entry.getValue());
+      closing.put(entry.getKey(), balance);
+    }
+    staleFrom = Integer.MAX_VALUE;
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+/**
+ * Bloom filter over 64-bit keys that are already well mixed, such as
+ * {@link DuplicateIndex} fingerprints. The probe positions are derived from the
+ * two halves of the key, so no further hashing is done.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+final class BloomFilter {
+  /**
+   * Ten bits and seven probes per key give about one false positive in a
+   * hundred.
+   */
+  static final int BITS_PER_KEY = 10;
+  private static final int PROBES = 7;
+
+  private final long[] words;
+  private final int bits;
+
+  /**
+   * @param capacity the number of keys the filter is sized for
+   */
+  BloomFilter(int capacity) {
+    this.words = new long[Math.max(1, (capacity * BITS_PER_KEY + 63) / 64)];
+    this.bits = words.length * 64;
+  }
+
+  void add(long key) {
+    int h1 = (int) key;
+    int h2 = (int) (key >>> 32);
+    for (int i = 0; i < PROBES; i++) {
+      int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+      words[bit >>> 6] |= 1L << bit;
+    }
+  }
+
+  /**
+   * @return false if the key was certainly never added
+   */
+  boolean mightContain(long key) {
+    int h1 = (int) key;
+    int h2 = (int) (key >>> 32);
+    for (int i = 0; i < PROBES; i++) {
+      int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+      if ((words[bit >>> 6] & (1L << bit)) == 0) return false;
+    }
+    return true;
+  }
+}
@@ -20,29 +20,239 @@ package net.bobgardner.cash.model;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import net.bobgardner.cash.persistence.BlockSource;
+import net.bobgardner.cash.persistence.DataWriter;
+import net.bobgardner.cash.persistence.IdGenerator;
+import net.bobgardner.cash.persistence.MemoryBlockSource;
+import net.bobgardner.cash.persistence.MeteredDataWriter;
+import net.bobgardner.cash.persistence.NullDataWriter;
+
 import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * Singleton representing the sum total of the application data, stored as a set
- * of accounts, a set of categories, and a set of budgets.
+ * One ledger: the sum total of a household's data, stored as a set of
+ * accounts, a set of categories, and a set of budgets. Each ledger has its own
+ * record identifiers, backing storage and undo history. The desktop
+ * application uses {@link #INSTANCE}; servers hosting many ledgers keep them
+ * in a {@link CashboxRegistry}.
+ * 
+ * Observers are told of each account added, removed or renamed with an
+ * {@link AccountChange}, so views of the account list can update one row, and
+ * of each category added, removed or renamed with a {@link CategoryChange}.
  * 
  * @author wrg007 (Bob Gardner)
  */
-public enum Cashbox implements Observer {
-  INSTANCE;
+public final class Cashbox extends MeteredObservable implements Observer, CashboxMXBean {
+  /**
+   * The ledger of the desktop application.
+   */
+  public static final Cashbox INSTANCE = new Cashbox();
+
+  /**
+   * What happened to the account list; the argument of notifications to a
+   * cashbox's observers.
+   */
+  public static final class AccountChange {
+    public static enum Kind {
+      ADDED, REMOVED, RENAMED;
+    }
+
+    private final Kind kind;
+    private final Account account;
+    private final String oldName;
+
+    AccountChange(Kind kind, Account account, String oldName) {
+      this.kind = kind;
+      this.account = account;
+      this.oldName = oldName;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * @return the account, which is still valid while observers run, even when
+     *         it has been removed
+     */
+    public Account getAccount() {
+      return account;
+    }
+
+    /**
+     * @return the name before a {@link Kind#RENAMED} change, otherwise null
+     */
+    public String getOldName() {
+      return oldName;
+    }
+  }
+
+  /**
+   * What happened to the category list; the argument of notifications to a
+   * cashbox's observers.
+   */
+  public static final class CategoryChange {
+    public static enum Kind {
+      ADDED, REMOVED, RENAMED;
+    }
+
+    private final Kind kind;
+    private final Category category;
+
+    CategoryChange(Kind kind, Category category) {
+      this.kind = kind;
+      this.category = category;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * @return the category, which has already been invalidated when it was
+     *         removed
+     */
+    public Category getCategory() {
+      return category;
+    }
+  }
+
+  /**
+   * Number of record identifiers reserved from the id source at a time.
+   */
+  private static final int ID_BLOCK_SIZE = 100;
 
   private final SortedSet<Account> accounts = Sets.newTreeSet();
   private final SortedSet<Category> categories = Sets.newTreeSet();
+  /**
+   * Accounts and categories by id and by {@link #normalize normalized} name,
+   * kept in step with the sorted sets.
+   */
+  private final IdIndex<Account> accountsById = new IdIndex<Account>();
+  private final Map<String, Account> accountsByName = Maps.newHashMap();
+  private final IdIndex<Category> categoriesById = new IdIndex<Category>();
+  private final Map<String, Category> categoriesByName = Maps.newHashMap();
+  /**
+   * Accounts by their names as given, kept in step with the sorted set in a
+   * concurrent map so that JMX can read it from its own thread.
+   */
+  private final ConcurrentMap<String, Account> namedAccounts =
+      new ConcurrentHashMap<String, Account>();
+  private final SortedSet<Budget> budgets = Sets.newTreeSet();
+  private final List<RecurringTransaction> recurring = Lists.newArrayList();
+  private volatile DataWriter dataWriter = NullDataWriter.INSTANCE;
+  private volatile BlockSource idSource = new MemoryBlockSource();
+  private final ConcurrentMap<String, IdGenerator> ids =
+      new ConcurrentHashMap<String, IdGenerator>();
+  private final UndoLog undoLog = new UndoLog();
+  private final CategoryTree categoryTree = new CategoryTree(this);
+  private final StringPool strings = new StringPool();
+
+  /**
+   * Rough shallow sizes, in bytes, used by {@link #estimateBytes()}.
+   */
+  private static final int ACCOUNT_BYTES = 200;
+  private static final int CATEGORY_BYTES = 120;
+  private static final int TRANSACTION_BYTES = 64;
+  private static final int LINE_ITEM_BYTES = 40;
+
+  /**
+   * Creates an empty ledger with no storage attached and in-memory record
+   * identifiers.
+   */
+  public Cashbox() {
+    // Collaborators are attached with the setters
+  }
+
+  /**
+   * @return where model changes are written; never null
+   */
+  public DataWriter getDataWriter() {
+    return dataWriter;
+  }
+
+  /**
+   * Attaches backing storage. Pass {@link NullDataWriter#INSTANCE} to detach.
+   * Real storage is wrapped in a {@link MeteredDataWriter} so its writes show
+   * up in the persistence metrics.
+   */
+  public void setDataWriter(DataWriter dataWriter) {
+    checkNotNull(dataWriter);
+    if (dataWriter != NullDataWriter.INSTANCE && !(dataWriter instanceof MeteredDataWriter)) {
+      dataWriter = new MeteredDataWriter(dataWriter);
+    }
+    this.dataWriter = dataWriter;
+  }
+
+  /**
+   * @return the undo/redo history of edits to this cashbox
+   */
+  public UndoLog getUndoLog() {
+    return undoLog;
+  }
+
+  /**
+   * Attaches the source of record identifiers. Should be called before any
+   * records are created, since identifiers already handed out from the old
+   * source are not known to the new one.
+   */
+  public void setIdSource(BlockSource idSource) {
+    this.idSource = checkNotNull(idSource);
+    ids.clear();
+  }
+
+  /**
+   * Returns the next record identifier for the given table. Safe to call from
+   * any thread.
+   */
+  int nextId(String table) {
+    IdGenerator generator = ids.get(table);
+    if (generator == null) {
+      IdGenerator created = new IdGenerator(idSource, table, ID_BLOCK_SIZE);
+      generator = ids.putIfAbsent(table, created);
+      if (generator == null) generator = created;
+    }
+    return generator.nextId();
+  }
+
+  /**
+   * Visible for testing. Restarts one table's identifiers at zero.
+   */
+  protected void resetIds(String table) {
+    ids.put(table, new IdGenerator(new MemoryBlockSource(), table, ID_BLOCK_SIZE));
+  }
 
   public SortedSet<Account> getAccounts() {
     return Collections.unmodifiableSortedSet(accounts);
   }
 
+  /**
+   * @return the account with the given id, or null if there is none
+   */
+  public Account getAccount(int id) {
+    return accountsById.get(id);
+  }
+
+  /**
+   * @return the account with the given name, ignoring case and surrounding
+   *         space, or null if there is none
+   */
+  public Account getAccount(String name) {
+    return accountsByName.get(normalize(name));
+  }
+
   /**
    * Adds an account to Cashbox.
    * 
@@ -51,31 +261,81 @@ public enum Cashbox implements Observer {
    * 
    * @param account the account to add (must be valid)
    * 
-   * @throws IllegalArgumentException if the account is invalid
+   * @throws IllegalArgumentException if the account is invalid, or another
+   *         account has its id or name
    */
   protected void addAccount(Account account) {
     // Validity check insures that database constraints are enforced
     checkNotNull(account);
     checkArgument(account.isValid(), "Account is invalid.");
-    account.addObserver(this);
+    String key = normalize(account.getName());
+    checkArgument(accountsById.get(account.getId()) == null,
+        "There is already an account with id %s.", account.getId());
+    checkArgument(!accountsByName.containsKey(key),
+        "There is already an account named %s.", account.getName());
+    accountsById.put(account.getId(), account);
+    accountsByName.put(key, account);
     accounts.add(account);
+    namedAccounts.put(account.getName(), account);
+    fireAccountChange(AccountChange.Kind.ADDED, account, null);
   }
 
   /**
    * Removes an account from Cashbox.
    * 
    * Protected so that it is only called by
-   * {@link Account#deleteAccount(Account)}.
+   * {@link Account#deleteAccount(Account)}, which does so just before it
+   * invalidates the account (accounts are ordered by name, which cannot be read
+   * once the account is invalid).
    * 
-   * @param account the account to remove (must be invalid)
+   * @param account the account to remove (must still be valid)
    * 
-   * @throws IllegalArgumentException if the account is valid
+   * @throws IllegalArgumentException if the account is invalid
    */
   protected void removeAccount(Account account) {
     checkNotNull(account);
-    checkArgument(!account.isValid(), "Account is still valid.");
-    account.deleteObserver(this);
+    checkArgument(account.isValid(), "Account is already invalid.");
+    accounts.remove(account);
+    accountsById.remove(account.getId());
+    accountsByName.remove(normalize(account.getName()));
+    namedAccounts.remove(account.getName());
+    fireAccountChange(AccountChange.Kind.REMOVED, account, null);
+  }
+
+  /**
+   * Gives an account a new name and moves it to its new place in the sorted
+   * set. Called by {@link Account#setName(String)}.
+   * 
+   * @return the old name
+   * @throws IllegalArgumentException if another account has the name
+   */
+  String renameAccount(Account account, String name) {
+    String key = normalize(name);
+    Account other = accountsByName.get(key);
+    checkArgument(other == null || other == account, "There is already an account named %s.",
+        name);
+    // Out of the set while its sort key changes
     accounts.remove(account);
+    String old = account.rename(name);
+    accounts.add(account);
+    accountsByName.remove(normalize(old));
+    accountsByName.put(key, account);
+    namedAccounts.remove(old);
+    namedAccounts.put(account.getName(), account);
+    fireAccountChange(AccountChange.Kind.RENAMED, account, old);
+    return old;
+  }
+
+  /**
+   * @return the key names are indexed and kept unique by
+   */
+  static String normalize(String name) {
+    return name.trim().toLowerCase(Locale.US);
+  }
+
+  private void fireAccountChange(AccountChange.Kind kind, Account account, String oldName) {
+    setChanged();
+    notifyObservers(new AccountChange(kind, account, oldName));
   }
 
   /**
@@ -83,28 +343,63 @@ public enum Cashbox implements Observer {
    */
   protected void clearAccounts() {
     accounts.clear();
+    accountsById.clear();
+    accountsByName.clear();
+    namedAccounts.clear();
+  }
+
+  /**
+   * @return a read-only pass over every account's transactions and their
+   *         line items, account by account in name order
+   */
+  public TransactionCursor cursor() {
+    return new TransactionCursor(accounts.iterator());
   }
 
   public SortedSet<Category> getCategories() {
     return Collections.unmodifiableSortedSet(categories);
   }
 
+  /**
+   * @return the category with the given id, or null if there is none
+   */
+  public Category getCategory(int id) {
+    return categoriesById.get(id);
+  }
+
+  /**
+   * @return the category with the given name, ignoring case and surrounding
+   *         space, or null if there is none
+   */
+  public Category getCategory(String name) {
+    return categoriesByName.get(normalize(name));
+  }
+
   /**
    * Adds a category to Cashbox.
    * 
    * Protected so that it is only called by
-   * {@link Category#newCategory(String, String)}.
+   * {@link Category#newCategory(Cashbox, String, String)}.
    * 
    * @param category the category to add (must be valid)
    * 
-   * @throws IllegalArgumentException if the category is invalid
+   * @throws IllegalArgumentException if the category is invalid, or another
+   *         category has its id or name
    */
   protected void addCategory(Category category) {
     // Validity check insures that database constraints are enforced
     checkNotNull(category);
     checkArgument(category.isValid(), "Category is invalid.");
+    String key = normalize(category.getName());
+    checkArgument(categoriesById.get(category.getId()) == null,
+        "There is already a category with id %s.", category.getId());
+    checkArgument(!categoriesByName.containsKey(key),
+        "There is already a category named %s.", category.getName());
+    categoriesById.put(category.getId(), category);
+    categoriesByName.put(key, category);
     category.addObserver(this);
     categories.add(category);
+    fireCategoryChange(CategoryChange.Kind.ADDED, category);
   }
 
   /**
@@ -122,6 +417,42 @@ public enum Cashbox implements Observer {
     checkArgument(!category.isValid(), "Category is still valid.");
     category.deleteObserver(this);
     categories.remove(category);
+    // Raw accessors, since the category is already invalid
+    if (categoriesById.get(category.id()) == category) {
+      categoriesById.remove(category.id());
+      categoriesByName.remove(normalize(category.name()));
+    }
+    fireCategoryChange(CategoryChange.Kind.REMOVED, category);
+  }
+
+  /**
+   * Gives a category a new name and moves it to its new place in the sorted
+   * set. Called by {@link Category#setName(String)}.
+   * 
+   * @return the old name
+   * @throws IllegalArgumentException if another category has the name
+   */
+  String renameCategory(Category category, String name) {
+    if (categoriesById.get(category.id()) != category) {
+      // Not one of ours, such as the shared Category.NONE
+      return category.rename(name);
+    }
+    String key = normalize(name);
+    Category other = categoriesByName.get(key);
+    checkArgument(other == null || other == category, "There is already a category named %s.",
+        name);
+    categories.remove(category);
+    String old = category.rename(name);
+    categories.add(category);
+    categoriesByName.remove(normalize(old));
+    categoriesByName.put(key, category);
+    fireCategoryChange(CategoryChange.Kind.RENAMED, category);
+    return old;
+  }
+
+  private void fireCategoryChange(CategoryChange.Kind kind, Category category) {
+    setChanged();
+    notifyObservers(new CategoryChange(kind, category));
   }
 
   /**
@@ -129,22 +460,122 @@ public enum Cashbox implements Observer {
    */
   protected void clearCategories() {
     categories.clear();
+    categoriesById.clear();
+    categoriesByName.clear();
+  }
+
+  /**
+   * @return an estimate of the memory held by this ledger's model objects,
+   *         not counting its undo history
+   */
+  public long estimateBytes() {
+    long bytes = CATEGORY_BYTES * (long) categories.size();
+    for (Account account : accounts) {
+      bytes += ACCOUNT_BYTES + TRANSACTION_BYTES * (long) account.countTransactions()
+          + LINE_ITEM_BYTES * (long) account.countItems();
+    }
+    return bytes + strings.getBytes() + undoLog.getSizeBytes();
+  }
+
+  /**
+   * @return the pool that transactions and line items intern their text in
+   */
+  StringPool getStringPool() {
+    return strings;
   }
 
   @Override
-  public void update(Observable o, Object arg) {
-    // Observes its accounts
-    if (o instanceof Account) {
-      Account account = (Account) o;
-      // The only change we care about is deletion
-      if (!account.isValid()) {
-        // In which case we remove the account
-        removeAccount(account);
-      }
+  public int getPooledStringCount() {
+    return strings.size();
+  }
+
+  @Override
+  public long getPooledStringHits() {
+    return strings.getHits();
+  }
+
+  @Override
+  public long getPooledStringSavedBytes() {
+    return strings.getSavedBytes();
+  }
+
+  public SortedSet<Budget> getBudgets() {
+    return Collections.unmodifiableSortedSet(budgets);
+  }
+
+  /**
+   * Adds a budget to Cashbox.
+   */
+  protected void addBudget(Budget budget) {
+    budgets.add(checkNotNull(budget));
+  }
+
+  /**
+   * @return totals by category, including subcategories
+   */
+  public CategoryTree getCategoryTree() {
+    return categoryTree;
+  }
+
+  public List<RecurringTransaction> getRecurringTransactions() {
+    return Collections.unmodifiableList(recurring);
+  }
+
+  /**
+   * Called only by
+   * {@link RecurringTransaction#newRecurringTransaction(Account, Recurrence, String, String)}.
+   */
+  void addRecurringTransaction(RecurringTransaction transaction) {
+    recurring.add(checkNotNull(transaction));
+  }
+
+  /**
+   * Called only by
+   * {@link RecurringTransaction#deleteRecurringTransaction(RecurringTransaction)}.
+   */
+  void removeRecurringTransaction(RecurringTransaction transaction) {
+    recurring.remove(transaction);
+  }
+
+  @Override
+  public int getAccountCount() {
+    return namedAccounts.size();
+  }
+
+  @Override
+  public int getCategoryCount() {
+    return categories.size();
+  }
+
+  /**
+   * Read from the JMX thread, so it works from the concurrent map of accounts
+   * and each account's running counts rather than the model's own collections.
+   */
+  @Override
+  public Map<String, Integer> getTransactionCounts() {
+    Map<String, Integer> counts = Maps.newTreeMap();
+    for (Map.Entry<String, Account> entry : namedAccounts.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().countTransactions());
+    }
+    return counts;
+  }
+
+  /**
+   * @see #getTransactionCounts()
+   */
+  @Override
+  public Map<String, Integer> getLineItemCounts() {
+    Map<String, Integer> counts = Maps.newTreeMap();
+    for (Map.Entry<String, Account> entry : namedAccounts.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().countItems());
     }
+    return counts;
+  }
 
+  @Override
+  public void update(Observable o, Object arg) {
     // Observes its categories
-    else if (o instanceof Category) {
+    if (o instanceof Category) {
       Category category = (Category) o;
       // The only change we care about is deletion
       if (!category.isValid()) {
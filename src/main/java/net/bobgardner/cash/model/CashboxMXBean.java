@@ -0,0 +1,57 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import java.util.Map;
+
+/**
+ * JMX view of the object counts held by {@link Cashbox}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public interface CashboxMXBean {
+  int getAccountCount();
+
+  int getCategoryCount();
+
+  /**
+   * @return the number of transactions in each account, keyed by account name
+   */
+  Map<String, Integer> getTransactionCounts();
+
+  /**
+   * @return the number of line items in each account, keyed by account name
+   */
+  Map<String, Integer> getLineItemCounts();
+
+  /**
+   * @return the number of distinct payees, check numbers and descriptions
+   *         held in the ledger's string pool
+   */
+  int getPooledStringCount();
+
+  /**
+   * @return the number of strings that were replaced by a pooled copy
+   */
+  long getPooledStringHits();
+
+  /**
+   * @return an estimate of the bytes those replaced strings would have held
+   */
+  long getPooledStringSavedBytes();
+}
@@ -0,0 +1,184 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.Lists;
+
+import net.bobgardner.cash.metrics.Counter;
+import net.bobgardner.cash.metrics.Metrics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps recently used ledgers in memory for a process hosting many of them.
+ *
+ * Callers {@link #acquire(String)} a ledger for the duration of a piece of
+ * work and {@link #release(String)} it afterwards. Ledgers are loaded on
+ * demand by a {@link Loader}; once released they stay resident until the
+ * registry needs room, when the least recently used are handed back to the
+ * loader for closing. Room is measured both in ledgers and in estimated bytes
+ * ({@link Cashbox#estimateBytes()}, taken at release). Acquired ledgers are
+ * never evicted, so the limits can be exceeded while many are in use.
+ *
+ * Thread-safe. Loading and unloading happen under the registry's lock, so a
+ * slow loader delays other callers.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class CashboxRegistry {
+  private static final Counter LOADS = Metrics.INSTANCE.counter("model.registry.load");
+  private static final Counter HITS = Metrics.INSTANCE.counter("model.registry.hit");
+  private static final Counter EVICTIONS = Metrics.INSTANCE.counter("model.registry.evict");
+
+  /**
+   * Opens and closes ledgers for a {@link CashboxRegistry}.
+   */
+  public interface Loader {
+    /**
+     * Creates the ledger with the given key, attaching its storage and id
+     * source and reading its data.
+     */
+    Cashbox load(String key);
+
+    /**
+     * Called once the ledger is no longer resident, to release its storage.
+     */
+    void unload(String key, Cashbox cashbox);
+  }
+
+  private static final class Entry {
+    final Cashbox cashbox;
+    int users;
+    long bytes;
+    long lastUsed;
+
+    Entry(Cashbox cashbox) {
+      this.cashbox = cashbox;
+    }
+  }
+
+  private final Loader loader;
+  private final int maxResident;
+  private final long maxBytes;
+  /**
+   * In access order, least recently used first.
+   */
+  private final LinkedHashMap<String, Entry> entries =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private long bytes;
+
+  /**
+   * @param maxResident how many ledgers to keep in memory
+   * @param maxBytes how much memory the resident ledgers may use
+   */
+  public CashboxRegistry(Loader loader, int maxResident, long maxBytes) {
+    this.loader = checkNotNull(loader);
+    checkArgument(maxResident > 0, "Must allow at least one resident ledger.");
+    checkArgument(maxBytes > 0, "Memory budget must be positive.");
+    this.maxResident = maxResident;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the ledger with the given key, loading it if it is not resident.
+   * It stays resident until the matching {@link #release(String)}.
+   */
+  public synchronized Cashbox acquire(String key) {
+    Entry entry = entries.get(checkNotNull(key));
+    if (entry == null) {
+      entry = new Entry(checkNotNull(loader.load(key), "Loader returned null."));
+      entries.put(key, entry);
+      LOADS.increment();
+    } else {
+      HITS.increment();
+    }
+    entry.users++;
+    entry.lastUsed = System.currentTimeMillis();
+    return entry.cashbox;
+  }
+
+  /**
+   * Ends a use of a ledger, re-estimating its size and evicting others if the
+   * registry is over its limits.
+   *
+   * @throws IllegalStateException if the ledger is not acquired
+   */
+  public synchronized void release(String key) {
+    Entry entry = entries.get(key);
+    checkState(entry != null && entry.users > 0, "Ledger %s is not acquired.", key);
+    entry.users--;
+    bytes -= entry.bytes;
+    entry.bytes = entry.cashbox.estimateBytes();
+    bytes += entry.bytes;
+    entry.lastUsed = System.currentTimeMillis();
+    evict(maxResident, maxBytes, Long.MAX_VALUE);
+  }
+
+  /**
+   * Unloads ledgers that have been released and unused for the given time,
+   * whatever the limits. Suitable for a periodic sweep.
+   */
+  public synchronized void evictIdle(long idleMillis) {
+    evict(0, 0, System.currentTimeMillis() - idleMillis);
+  }
+
+  public synchronized int getResidentCount() {
+    return entries.size();
+  }
+
+  /**
+   * @return the estimated size of the resident ledgers, as of their last
+   *         release
+   */
+  public synchronized long getResidentBytes() {
+    return bytes;
+  }
+
+  public synchronized boolean isResident(String key) {
+    return entries.containsKey(key);
+  }
+
+  /**
+   * Unloads released ledgers, least recently used first, until the limits are
+   * met, stopping at ledgers used since {@code usedBefore}.
+   */
+  private void evict(int residentLimit, long bytesLimit, long usedBefore) {
+    List<Map.Entry<String, Entry>> unloaded = Lists.newArrayList();
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while ((entries.size() > residentLimit || bytes > bytesLimit) && it.hasNext()) {
+      Map.Entry<String, Entry> next = it.next();
+      Entry entry = next.getValue();
+      if (entry.users > 0) continue;
+      if (entry.lastUsed > usedBefore) break;
+      it.remove();
+      bytes -= entry.bytes;
+      unloaded.add(next);
+    }
+    for (Map.Entry<String, Entry> next : unloaded) {
+      loader.unload(next.getKey(), next.getValue().cashbox);
+      EVICTIONS.increment();
+    }
+  }
+}
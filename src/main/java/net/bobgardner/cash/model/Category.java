@@ -21,7 +21,14 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
-import java.util.Observable;
+import com.google.common.collect.Lists;
+
+import net.bobgardner.cash.metrics.Counter;
+import net.bobgardner.cash.metrics.Metrics;
+import net.bobgardner.cash.persistence.Schema;
+
+import java.util.Collections;
+import java.util.List;
 
 /**
  * For use in categorizing {@link LineItem}s.
@@ -31,20 +38,34 @@ import java.util.Observable;
  * that violates a uniqueness constraint will fail with
  * {@link IllegalArgumentException}.
  * 
+ * Categories form a forest: each may have a parent, such as "Auto" for
+ * "Fuel". The totals of a ledger's categories, with and without their
+ * subcategories, are kept by its {@link CategoryTree}.
+ * 
  * @author wrg007 (Bob Gardner)
  * 
  * @invariant id >= 0 and is unique across all valid categories
  * @invariant name is nonempty and unique across all valid categories
  */
-public class Category extends Observable implements Comparable<Category> {
-  public static final Category NULL_CATEGORY = new Category(Integer.MIN_VALUE, "...", "...");
-  public static final Category NONE = new Category(Integer.MIN_VALUE + 1, "None", "");
+public class Category extends MeteredObservable implements Comparable<Category> {
+  private static final Counter CREATES = Metrics.INSTANCE.counter("model.Category.create");
+  private static final Counter UPDATES = Metrics.INSTANCE.counter("model.Category.update");
+  private static final Counter DELETES = Metrics.INSTANCE.counter("model.Category.delete");
+
+  // Shared by all ledgers; they nominally belong to the default one
+  public static final Category NULL_CATEGORY =
+      new Category(Cashbox.INSTANCE, Integer.MIN_VALUE, "...", "...");
+  public static final Category NONE =
+      new Category(Cashbox.INSTANCE, Integer.MIN_VALUE + 1, "None", "");
   /**
    * Record identifier.
    */
   private final int id;
+  private final Cashbox cashbox;
   private String name;
   private String description;
+  private Category parent;
+  private final List<Category> children = Lists.newArrayListWithCapacity(0);
 
   /**
    * True if this category is present in the database.
@@ -58,36 +79,78 @@ public class Category extends Observable implements Comparable<Category> {
    * 
    * @throws IllegalArgumentException if any uniqueness constraints are violated
    */
-  public static Category newCategory(String name, String description) {
+  public static Category newCategory(Cashbox cashbox, String name, String description) {
     // TODO interact with the database
-    Category category = new Category(id_counter++, name, description);
-    Cashbox.INSTANCE.addCategory(category);
+    Category category =
+        new Category(cashbox, cashbox.nextId(Schema.CATEGORIES), name, description);
+    cashbox.addCategory(category);
+    CREATES.increment();
+    cashbox.getUndoLog().recordCreate(category);
     return category;
   }
 
+  /**
+   * Creates a category in the desktop application's {@link Cashbox#INSTANCE}.
+   * 
+   * @see #newCategory(Cashbox, String, String)
+   */
+  public static Category newCategory(String name, String description) {
+    return newCategory(Cashbox.INSTANCE, name, description);
+  }
+
   /**
    * Deletes a category in the database and removes it from {@link Cashbox}.
    * This invalidates the category, and all future operations on the category
    * will fail with {@link IllegalStateException}.
    * 
+   * Its subcategories move up to its parent, and its own total is taken off
+   * its ancestors, as one undoable unit; line items still in the category
+   * then count only towards it.
+   * 
    * @param category the category to be deleted
    */
   public static void deleteCategory(Category category) {
     if (!category.valid) return; // Don't delete twice!
     // TODO interact with the database
-    category.valid = false;
+    UndoLog undoLog = category.cashbox.getUndoLog();
+    undoLog.beginUnit("Delete category");
+    try {
+      for (Category child : Lists.newArrayList(category.children)) {
+        child.setParent(category.parent);
+      }
+      if (category.parent != null) category.setParent(null);
+      category.valid = false;
+      DELETES.increment();
+      undoLog.recordDelete(category);
+    } finally {
+      undoLog.endUnit();
+    }
     category.setChanged();
     category.notifyObservers();
   }
 
-  // TODO these will go away, I just need them for current use/testing
-  private static int id_counter = 0;
+  /**
+   * Undoes {@link #deleteCategory(Category)}, returning the category to
+   * {@link Cashbox}.
+   */
+  void restore() {
+    checkState(!valid, "Category is not deleted.");
+    valid = true;
+    cashbox.addCategory(this);
+    CREATES.increment();
+    setChanged();
+    notifyObservers();
+  }
 
+  /**
+   * Visible for testing.
+   */
   protected static void resetCounter() {
-    id_counter = 0;
+    Cashbox.INSTANCE.resetIds(Schema.CATEGORIES);
   }
 
-  private Category(int id, String name, String description) {
+  private Category(Cashbox cashbox, int id, String name, String description) {
+    this.cashbox = checkNotNull(cashbox);
     this.id = id;
     checkNotNull(name);
     checkArgument(!"".equals(name.trim()), "Name must not be empty.");
@@ -115,7 +178,9 @@ public class Category extends Observable implements Comparable<Category> {
     checkValidity();
     checkNotNull(name);
     checkArgument(!"".equals(name.trim()), "Name must not be empty.");
-    this.name = name.trim();
+    String old = cashbox.renameCategory(this, name.trim());
+    UPDATES.increment();
+    cashbox.getUndoLog().recordChange(UndoLog.Property.CATEGORY_NAME, this, old, this.name);
     setChanged();
     notifyObservers();
   }
@@ -129,11 +194,97 @@ public class Category extends Observable implements Comparable<Category> {
     // TODO Interact with database
     checkValidity();
     checkNotNull(description);
+    String old = this.description;
     this.description = description.trim();
+    UPDATES.increment();
+    cashbox.getUndoLog().recordChange(UndoLog.Property.CATEGORY_DESCRIPTION, this, old,
+        this.description);
     setChanged();
     notifyObservers();
   }
 
+  /**
+   * @return the category this is a subcategory of, or null if it is a root
+   */
+  public Category getParent() {
+    checkValidity();
+    return parent;
+  }
+
+  /**
+   * Changes the name without re-sorting; see
+   * {@link Cashbox#renameCategory(Category, String)}.
+   * 
+   * @return the old name
+   */
+  String rename(String name) {
+    String old = this.name;
+    this.name = name;
+    return old;
+  }
+
+  /**
+   * Raw access for {@link Cashbox}'s indexes, which must also find deleted
+   * categories.
+   */
+  int id() {
+    return id;
+  }
+
+  String name() {
+    return name;
+  }
+
+  /**
+   * Raw access for the ancestor walks in {@link CategoryTree}.
+   */
+  Category parent() {
+    return parent;
+  }
+
+  /**
+   * Makes this a subcategory of another category of the same ledger, or a root
+   * category if {@code parent} is null.
+   * 
+   * @throws IllegalArgumentException if {@code parent} is this category or
+   *         one of its subcategories, or belongs to another ledger
+   */
+  public void setParent(Category parent) {
+    // TODO Interact with database
+    checkValidity();
+    checkArgument(this != NONE && this != NULL_CATEGORY, "Built-in categories have no parent.");
+    if (parent != null) {
+      checkArgument(parent.cashbox == cashbox, "Parent belongs to another ledger.");
+      checkArgument(parent != NONE && parent != NULL_CATEGORY,
+          "Built-in categories have no subcategories.");
+      parent.checkValidity();
+      for (Category c = parent; c != null; c = c.parent) {
+        checkArgument(c != this, "A category cannot be its own subcategory.");
+      }
+    }
+    Category old = this.parent;
+    if (old == parent) return;
+    // Before the link changes, while the old ancestors can still be walked
+    cashbox.getCategoryTree().reparent(this, old, parent);
+    if (old != null) old.children.remove(this);
+    if (parent != null) parent.children.add(this);
+    this.parent = parent;
+    UPDATES.increment();
+    cashbox.getUndoLog().recordChange(UndoLog.Property.CATEGORY_PARENT, this, old, parent);
+    setChanged();
+    notifyObservers();
+  }
+
+  /**
+   * @return the direct subcategories, by name
+   */
+  public List<Category> getChildren() {
+    checkValidity();
+    List<Category> sorted = Lists.newArrayList(children);
+    Collections.sort(sorted);
+    return sorted;
+  }
+
   @Override
   public String toString() {
     checkValidity();
@@ -0,0 +1,123 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Sets;
+
+import java.math.BigDecimal;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.SortedSet;
+
+/**
+ * Running totals of one {@link Cashbox}'s line items by category, both for
+ * each category alone and rolled up over its subcategories.
+ *
+ * Every change to a line item's amount or category, and every transaction
+ * entering or leaving an account, adjusts the totals along the category's
+ * ancestor path, so a change costs time proportional to the depth of the
+ * tree and reports read precomputed values.
+ *
+ * Totals are kept here rather than on the categories because
+ * {@link Category#NONE} is shared by all ledgers.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class CategoryTree {
+  private static final class Node {
+    BigDecimal total = BigDecimal.ZERO;
+    BigDecimal rolledUp = BigDecimal.ZERO;
+  }
+
+  private final Cashbox cashbox;
+  private final Map<Category, Node> nodes = new IdentityHashMap<Category, Node>();
+
+  CategoryTree(Cashbox cashbox) {
+    this.cashbox = cashbox;
+  }
+
+  /**
+   * @return the categories without a parent
+   */
+  public SortedSet<Category> getRoots() {
+    SortedSet<Category> roots = Sets.newTreeSet();
+    for (Category category : cashbox.getCategories()) {
+      if (category.getParent() == null) roots.add(category);
+    }
+    return roots;
+  }
+
+  /**
+   * @return the total of the line items in exactly this category
+   */
+  public BigDecimal getTotal(Category category) {
+    Node node = nodes.get(checkNotNull(category));
+    return node == null ? BigDecimal.ZERO : node.total;
+  }
+
+  /**
+   * @return the total of the line items in this category and all of its
+   *         subcategories
+   */
+  public BigDecimal getRolledUpTotal(Category category) {
+    Node node = nodes.get(checkNotNull(category));
+    return node == null ? BigDecimal.ZERO : node.rolledUp;
+  }
+
+  /**
+   * Adds an amount to a category's total and to the rolled-up totals of it
+   * and its ancestors.
+   */
+  void add(Category category, BigDecimal amount) {
+    if (amount.signum() == 0) return;
+    Node node = node(category);
+    node.total = node.total.add(amount);
+    for (Category c = category; c != null; c = c.parent()) {
+      node = node(c);
+      node.rolledUp = node.rolledUp.add(amount);
+    }
+  }
+
+  /**
+   * Moves a category's rolled-up total from its old ancestors to its new
+   * ones. Called while the category is being reparented.
+   */
+  void reparent(Category category, Category oldParent, Category newParent) {
+    BigDecimal amount = getRolledUpTotal(category);
+    if (amount.signum() == 0) return;
+    for (Category c = oldParent; c != null; c = c.parent()) {
+      Node node = node(c);
+      node.rolledUp = node.rolledUp.subtract(amount);
+    }
+    for (Category c = newParent; c != null; c = c.parent()) {
+      Node node = node(c);
+      node.rolledUp = node.rolledUp.add(amount);
+    }
+  }
+
+  private Node node(Category category) {
+    Node node = nodes.get(category);
+    if (node == null) {
+      node = new Node();
+      nodes.put(category, node);
+    }
+    return node;
+  }
+}
@@ -0,0 +1,171 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import com.google.common.collect.Maps;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Fingerprints of the transactions in one {@link Account}, for recognizing
+ * statement lines that have already been imported. A fingerprint covers the
+ * account, date, amount, payee and check number.
+ *
+ * Lookups go to a Bloom filter first, which answers most new lines without
+ * touching the exact fingerprint counts. The account keeps the index up to
+ * date as transactions are added, edited and deleted. Since a Bloom filter
+ * cannot forget, edits leave stale bits behind; the filter is rebuilt from the
+ * exact counts when those outnumber the live fingerprints, or when it fills.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class DuplicateIndex {
+  private static final int MIN_CAPACITY = 64;
+
+  private final int accountId;
+  /**
+   * Number of transactions with each fingerprint.
+   */
+  private final Map<Long, Integer> counts = Maps.newHashMap();
+  private BloomFilter filter = new BloomFilter(MIN_CAPACITY);
+  private int capacity = MIN_CAPACITY;
+  private int stale;
+
+  DuplicateIndex(int accountId) {
+    this.accountId = accountId;
+  }
+
+  /**
+   * Computes the fingerprint of a transaction or statement line in the given
+   * account. Payees are compared ignoring case and surrounding whitespace.
+   */
+  public static long fingerprint(int accountId, DateMidnight date, BigDecimal amount,
+      String payee, String checkNr) {
+    return fingerprint(accountId, EpochDays.of(date), amount, payee, checkNr);
+  }
+
+  /**
+   * @param day the date as an {@link EpochDays} day number
+   */
+  static long fingerprint(int accountId, int day, BigDecimal amount, String payee,
+      String checkNr) {
+    long hash = 0xcbf29ce484222325L;
+    hash = mix(hash, accountId);
+    hash = mix(hash, day);
+    BigDecimal normal = normalize(amount);
+    hash = mix(hash, normal.unscaledValue().longValue());
+    hash = mix(hash, normal.scale());
+    hash = mix(hash, payee.trim().toLowerCase(Locale.US));
+    hash = mix(hash, checkNr.trim());
+    // Final avalanche, so the filter can use the halves directly
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /**
+   * @return the amount without trailing zeros, so that 1.5 and 1.50 match;
+   *         amounts with fractions of a cent are kept exact rather than
+   *         rejected
+   */
+  private static BigDecimal normalize(BigDecimal amount) {
+    // stripTrailingZeros leaves zero's scale alone before Java 8
+    return amount.signum() == 0 ? BigDecimal.ZERO : amount.stripTrailingZeros();
+  }
+
+  private static long mix(long hash, long value) {
+    for (int i = 0; i < 64; i += 8) {
+      hash ^= (value >>> i) & 0xFF;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private static long mix(long hash, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    // Separates adjacent fields
+    return mix(hash, value.length());
+  }
+
+  /**
+   * @return the fingerprint a transaction with these details would have in
+   *         this account
+   */
+  public long fingerprint(DateMidnight date, BigDecimal amount, String payee, String checkNr) {
+    return fingerprint(accountId, date, amount, payee, checkNr);
+  }
+
+  /**
+   * @return the number of transactions in the account with the fingerprint
+   */
+  public int count(long fingerprint) {
+    if (!filter.mightContain(fingerprint)) return 0;
+    Integer count = counts.get(fingerprint);
+    return count == null ? 0 : count;
+  }
+
+  public boolean contains(long fingerprint) {
+    return count(fingerprint) > 0;
+  }
+
+  void add(long fingerprint) {
+    Integer count = counts.get(fingerprint);
+    counts.put(fingerprint, count == null ? 1 : count + 1);
+    if (counts.size() > capacity) {
+      rebuild();
+    } else {
+      filter.add(fingerprint);
+    }
+  }
+
+  void remove(long fingerprint) {
+    Integer count = counts.get(fingerprint);
+    if (count == null) return;
+    if (count == 1) {
+      counts.remove(fingerprint);
+      if (++stale > counts.size() && stale > MIN_CAPACITY) rebuild();
+    } else {
+      counts.put(fingerprint, count - 1);
+    }
+  }
+
+  void replace(long oldFingerprint, long newFingerprint) {
+    if (oldFingerprint == newFingerprint) return;
+    remove(oldFingerprint);
+    add(newFingerprint);
+  }
+
+  private void rebuild() {
+    capacity = Math.max(MIN_CAPACITY, 2 * counts.size());
+    filter = new BloomFilter(capacity);
+    for (Long fingerprint : counts.keySet()) {
+      filter.add(fingerprint);
+    }
+    stale = 0;
+  }
+}
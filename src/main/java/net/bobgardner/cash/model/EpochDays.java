@@ -0,0 +1,131 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import org.joda.time.DateMidnight;
+import org.joda.time.DateTimeZone;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Calendar days as the number of days since 1970-01-01, which is how
+ * {@link Transaction} stores its date: an {@code int} in place of a
+ * {@link DateMidnight}, and comparisons without touching a chronology.
+ *
+ * Only the year, month and day of a date are kept, so a date comes back as
+ * midnight in the default time zone. Dates are shared through a small cache,
+ * so that asking a register's rows for their dates over and over does not
+ * allocate.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class EpochDays {
+  /**
+   * Days from 0000-03-01 to 1970-01-01 in the proleptic Gregorian calendar.
+   */
+  private static final int EPOCH_OFFSET = 719468;
+  private static final int DAYS_PER_ERA = 146097;
+  /**
+   * Recently made dates, indexed by the low bits of the day number: about
+   * eleven years without collisions.
+   */
+  private static final int CACHE_SIZE = 4096;
+  private static final AtomicReferenceArray<DateMidnight> CACHE =
+      new AtomicReferenceArray<DateMidnight>(CACHE_SIZE);
+
+  private EpochDays() {
+    // Static methods only
+  }
+
+  /**
+   * @return the date's day number
+   */
+  public static int of(DateMidnight date) {
+    return of(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth());
+  }
+
+  /**
+   * @return the day number of the given year, month (1 to 12) and day
+   */
+  public static int of(int year, int month, int day) {
+    // Counted in 400-year eras of years that start on March 1
+    int y = month <= 2 ? year - 1 : year;
+    int era = (y >= 0 ? y : y - 399) / 400;
+    int yearOfEra = y - era * 400;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * DAYS_PER_ERA + dayOfEra - EPOCH_OFFSET;
+  }
+
+  /**
+   * @return midnight of the given day in the default time zone
+   */
+  public static DateMidnight toDate(int days) {
+    int slot = days & (CACHE_SIZE - 1);
+    DateMidnight date = CACHE.get(slot);
+    if (date != null && date.getZone() == DateTimeZone.getDefault() && of(date) == days) {
+      return date;
+    }
+    int ymd = civil(days);
+    date = new DateMidnight(ymd >> 9, (ymd >> 5) & 15, ymd & 31);
+    CACHE.set(slot, date);
+    return date;
+  }
+
+  public static int year(int days) {
+    return civil(days) >> 9;
+  }
+
+  /**
+   * @return the day's month of the year, 1 to 12
+   */
+  public static int monthOfYear(int days) {
+    return (civil(days) >> 5) & 15;
+  }
+
+  public static int dayOfMonth(int days) {
+    return civil(days) & 31;
+  }
+
+  /**
+   * @return the day's month, numbered {@code year * 12 + month - 1} as in
+   *         {@link BalanceCheckpoints}
+   */
+  static int month(int days) {
+    int ymd = civil(days);
+    return (ymd >> 9) * 12 + ((ymd >> 5) & 15) - 1;
+  }
+
+  /**
+   * @return the year, month and day packed as {@code year << 9 | month << 5 |
+   *         day}
+   */
+  private static int civil(int days) {
+    int z = days + EPOCH_OFFSET;
+    int era = (z >= 0 ? z : z - DAYS_PER_ERA + 1) / DAYS_PER_ERA;
+    int dayOfEra = z - era * DAYS_PER_ERA;
+    int yearOfEra =
+        (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / (DAYS_PER_ERA - 1)) / 365;
+    int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    int shifted = (5 * dayOfYear + 2) / 153;
+    int day = dayOfYear - (153 * shifted + 2) / 5 + 1;
+    int month = shifted < 10 ? shifted + 3 : shifted - 9;
+    int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    return year << 9 | month << 5 | day;
+  }
+}
@@ -0,0 +1,130 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+
+/**
+ * Map from record identifier to model object, kept in open-addressed
+ * {@code int[]} and {@code Object[]} tables so that a lookup neither boxes
+ * the key nor follows an entry object. Values are never null.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+final class IdIndex<V> {
+  private int[] keys = new int[16];
+  private Object[] values = new Object[16];
+  private int size;
+
+  @SuppressWarnings("unchecked")
+  V get(int key) {
+    int mask = keys.length - 1;
+    for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+      if (values[i] == null) return null;
+      if (keys[i] == key) return (V) values[i];
+    }
+  }
+
+  /**
+   * @return the value the key had before, or null
+   */
+  @SuppressWarnings("unchecked")
+  V put(int key, V value) {
+    checkNotNull(value);
+    // Kept at most half full, so probe runs stay short
+    if (2 * (size + 1) > keys.length) resize(2 * keys.length);
+    int mask = keys.length - 1;
+    int i = hash(key) & mask;
+    while (values[i] != null) {
+      if (keys[i] == key) {
+        Object old = values[i];
+        values[i] = value;
+        return (V) old;
+      }
+      i = (i + 1) & mask;
+    }
+    keys[i] = key;
+    values[i] = value;
+    size++;
+    return null;
+  }
+
+  /**
+   * @return the value removed, or null
+   */
+  @SuppressWarnings("unchecked")
+  V remove(int key) {
+    int mask = keys.length - 1;
+    int i = hash(key) & mask;
+    while (values[i] == null || keys[i] != key) {
+      if (values[i] == null) return null;
+      i = (i + 1) & mask;
+    }
+    Object old = values[i];
+    values[i] = null;
+    size--;
+    // Shift back later entries of the run that the hole would cut off
+    for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+      int home = hash(keys[j]) & mask;
+      boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+      if (!reachable) {
+        keys[i] = keys[j];
+        values[i] = values[j];
+        values[j] = null;
+        i = j;
+      }
+    }
+    return (V) old;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void clear() {
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  private void resize(int capacity) {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new int[capacity];
+    values = new Object[capacity];
+    int mask = capacity - 1;
+    for (int k = 0; k < oldKeys.length; k++) {
+      if (oldValues[k] == null) continue;
+      int i = hash(oldKeys[k]) & mask;
+      while (values[i] != null) {
+        i = (i + 1) & mask;
+      }
+      keys[i] = oldKeys[k];
+      values[i] = oldValues[k];
+    }
+  }
+
+  /**
+   * Spreads sequential ids over the table.
+   */
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
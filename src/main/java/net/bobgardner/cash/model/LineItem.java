@@ -17,12 +17,15 @@
 
 package net.bobgardner.cash.model;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import net.bobgardner.cash.metrics.Counter;
+import net.bobgardner.cash.metrics.Metrics;
+import net.bobgardner.cash.persistence.Schema;
+
 import java.math.BigDecimal;
-import java.util.Observable;
-import java.util.Observer;
 
 /**
  * Split-able parts of a transaction.
@@ -32,19 +35,28 @@ import java.util.Observer;
  * that violates a uniqueness constraint will fail with
  * {@link IllegalArgumentException}.
  * 
+ * Changes are reported through
+ * {@link Account#addRowObserver(java.util.Observer)}; line items are not
+ * observable themselves.
+ * 
  * @author wrg007 (Bob Gardner)
  * 
  * @invariant id >= 0 and is unique across all valid transactions
  */
-public class LineItem extends Observable implements Comparable<LineItem>, Observer {
+public class LineItem implements Comparable<LineItem> {
+  private static final Counter CREATES = Metrics.INSTANCE.counter("model.LineItem.create");
+  private static final Counter UPDATES = Metrics.INSTANCE.counter("model.LineItem.update");
+  private static final Counter DELETES = Metrics.INSTANCE.counter("model.LineItem.delete");
+
   /**
    * Record identifier. A negative number means that this is a new line item not
    * yet found in the database.
    */
   private final int id;
-  BigDecimal amount;
-  Category category;
-  String description;
+  private final Transaction transaction;
+  private BigDecimal amount;
+  private Category category;
+  private String description;
 
   /**
    * True if this transaction is present in the database.
@@ -59,9 +71,12 @@ public class LineItem extends Observable implements Comparable<LineItem>, Observ
   public static LineItem newLineItem(Transaction transaction, BigDecimal amount, Category category,
       String description) {
     // TODO interact with database
-    LineItem item = new LineItem(id_counter++, amount, category, description);
+    int id = transaction.getAccount().getCashbox().nextId(Schema.LINE_ITEMS);
+    LineItem item = new LineItem(transaction, id, amount, category, description);
     item.valid = true;
     transaction.addItem(item);
+    CREATES.increment();
+    item.undoLog().recordCreate(item);
     return item;
   }
 
@@ -73,36 +88,111 @@ public class LineItem extends Observable implements Comparable<LineItem>, Observ
    * @param item the line item to be deleted
    */
   public static void deleteLineItem(LineItem item) {
+    if (!item.valid) return;
     // TODO interact with database
     item.valid = false;
-    item.setChanged();
-    item.notifyObservers();
+    DELETES.increment();
+    item.undoLog().recordDelete(item);
+    // The transaction reports the removal
+    item.transaction.removeItem(item);
   }
 
-  // TODO these will go away, I just need them for current use/testing
-  protected static int id_counter = 0;
-
+  /**
+   * Visible for testing.
+   */
   protected static void resetCounter() {
-    id_counter = 0;
+    Cashbox.INSTANCE.resetIds(Schema.LINE_ITEMS);
   }
 
-  private LineItem(int id, BigDecimal amount, Category category, String description) {
+  private LineItem(Transaction transaction, int id, BigDecimal amount, Category category,
+      String description) {
+    this.transaction = checkNotNull(transaction);
     this.id = id;
-    this.amount = checkNotNull(amount);
+    this.amount = checkAmount(amount);
     this.category = checkNotNull(category);
     checkNotNull(description);
-    this.description = description.trim();
+    this.description = stringPool().intern(description.trim());
   }
 
   public boolean isValid() {
     return valid;
   }
 
+  /**
+   * @return the record identifier, even if this line item is deleted
+   */
+  int id() {
+    return id;
+  }
+
   public int getId() {
     checkValidity();
     return id;
   }
 
+  /**
+   * @return the amount, even if this line item is deleted
+   */
+  BigDecimal amount() {
+    return amount;
+  }
+
+  /**
+   * @return the category, even if this line item is deleted
+   */
+  Category category() {
+    return category;
+  }
+
+  /**
+   * @return the description, even if this line item is deleted
+   */
+  String description() {
+    return description;
+  }
+
+  public Transaction getTransaction() {
+    checkValidity();
+    return transaction;
+  }
+
+  /**
+   * Marks this line item deleted, without notifying anyone. Used when the
+   * whole transaction is deleted.
+   */
+  void invalidate() {
+    valid = false;
+    DELETES.increment();
+  }
+
+  /**
+   * Reverses {@link #invalidate()}, without notifying anyone.
+   */
+  void revalidate() {
+    valid = true;
+    CREATES.increment();
+  }
+
+  /**
+   * Builds a copy of this item in another transaction, with the same id. The
+   * copy is valid but not yet in the transaction.
+   */
+  LineItem copyTo(Transaction other) {
+    LineItem copy = new LineItem(other, id, amount, category, description);
+    copy.valid = true;
+    return copy;
+  }
+
+  /**
+   * Undoes {@link #deleteLineItem(LineItem)}, returning the item to its
+   * transaction.
+   */
+  void restore() {
+    checkState(!valid, "Line item is not deleted.");
+    revalidate();
+    transaction.addItem(this);
+  }
+
   public BigDecimal getAmount() {
     checkValidity();
     return amount;
@@ -111,9 +201,13 @@ public class LineItem extends Observable implements Comparable<LineItem>, Observ
   public void setAmount(BigDecimal amount) {
     // TODO Interact with database
     checkValidity();
-    this.amount = checkNotNull(amount);
-    setChanged();
-    notifyObservers();
+    BigDecimal old = this.amount;
+    this.amount = checkAmount(amount);
+    transaction.getAccount().itemChanged(transaction, category, old, category, amount);
+    transaction.refingerprint();
+    UPDATES.increment();
+    undoLog().recordChange(UndoLog.Property.LINE_ITEM_AMOUNT, this, old, amount);
+    transaction.getAccount().rowChanged(this);
   }
 
   public Category getCategory() {
@@ -124,9 +218,12 @@ public class LineItem extends Observable implements Comparable<LineItem>, Observ
   public void setCategory(Category category) {
     // TODO Interact with database
     checkValidity();
+    Category old = this.category;
     this.category = checkNotNull(category);
-    setChanged();
-    notifyObservers();
+    transaction.getAccount().itemChanged(transaction, old, amount, category, amount);
+    UPDATES.increment();
+    undoLog().recordChange(UndoLog.Property.LINE_ITEM_CATEGORY, this, old, category);
+    transaction.getAccount().rowChanged(this);
   }
 
   public String getDescription() {
@@ -138,15 +235,39 @@ public class LineItem extends Observable implements Comparable<LineItem>, Observ
     // TODO Interact with database
     checkValidity();
     checkNotNull(description);
-    this.description = description.trim();
-    setChanged();
-    notifyObservers();
+    String old = this.description;
+    this.description = stringPool().intern(description.trim());
+    UPDATES.increment();
+    undoLog().recordChange(UndoLog.Property.LINE_ITEM_DESCRIPTION, this, old, this.description);
+    transaction.getAccount().rowChanged(this);
+  }
+
+  /**
+   * Amounts are stored as whole cents (see {@link Schema#toCents}), so finer
+   * fractions are refused here rather than failing the database write.
+   *
+   * @return the amount
+   * @throws IllegalArgumentException if the amount has a fraction of a cent
+   */
+  static BigDecimal checkAmount(BigDecimal amount) {
+    checkNotNull(amount);
+    checkArgument(amount.signum() == 0 || amount.stripTrailingZeros().scale() <= 2,
+        "Amount %s has a fraction of a cent.", amount);
+    return amount;
   }
 
   protected void checkValidity() {
     checkState(valid, "This line item has been deleted.");
   }
 
+  private UndoLog undoLog() {
+    return transaction.getAccount().getCashbox().getUndoLog();
+  }
+
+  private StringPool stringPool() {
+    return transaction.getAccount().getCashbox().getStringPool();
+  }
+
   @Override
   public int compareTo(LineItem o) {
     return this.id == o.id ? 0 : this.id > o.id ? 1 : -1;
@@ -160,15 +281,7 @@ public class LineItem extends Observable implements Comparable<LineItem>, Observ
   }
 
   @Override
-  public void update(Observable o, Object arg) {
-    // Observes the transaction it belongs to
-    if (o instanceof Transaction) {
-      Transaction transaction = (Transaction) o;
-      // The only change we care about is deletion
-      if (!transaction.isValid()) {
-        // In which case we delete this line item
-        deleteLineItem(this);
-      }
-    }
+  public int hashCode() {
+    return id;
   }
 }
@@ -0,0 +1,61 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import net.bobgardner.cash.metrics.Histogram;
+import net.bobgardner.cash.metrics.Metrics;
+
+import java.util.Observable;
+
+/**
+ * {@link Observable} that records how many observers each notification reaches
+ * and how long they take to run.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+abstract class MeteredObservable extends Observable {
+  private static final Histogram FAN_OUT = Metrics.INSTANCE.histogram("model.notify.fanOut");
+  private static final Histogram CALLBACK_NANOS =
+      Metrics.INSTANCE.histogram("model.notify.callbackNanos");
+
+  @Override
+  public void notifyObservers(Object arg) {
+    if (!hasChanged()) return;
+    FAN_OUT.record(countObservers());
+    long start = System.nanoTime();
+    super.notifyObservers(arg);
+    CALLBACK_NANOS.recordSince(start);
+  }
+
+  /**
+   * Marks this object changed and notifies its observers, for model classes
+   * that change each other's state and then publish it.
+   */
+  void fireChanged() {
+    fire(null);
+  }
+
+  /**
+   * Marks this object changed and notifies its observers with the given
+   * argument.
+   */
+  void fire(Object arg) {
+    setChanged();
+    notifyObservers(arg);
+  }
+}
@@ -0,0 +1,226 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.joda.time.DateMidnight;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.Days;
+import org.joda.time.Months;
+import org.joda.time.Years;
+
+/**
+ * When a {@link RecurringTransaction} comes due: an immutable rule such as
+ * "every other Friday" or "the last Friday of each month", starting on a
+ * given date and optionally ending on another.
+ *
+ * Occurrences are numbered from zero and computed directly from their index,
+ * so finding the occurrences in a far-off range costs no more than finding
+ * the next one.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class Recurrence {
+  /**
+   * The unit a rule repeats in.
+   */
+  public static enum Frequency {
+    DAILY, WEEKLY, MONTHLY, NTH_WEEKDAY, YEARLY;
+  }
+
+  private final Frequency frequency;
+  private final int interval;
+  private final DateMidnight start;
+  private final DateMidnight end;
+  /**
+   * For {@link Frequency#NTH_WEEKDAY}: which week of the month (1 to 4, or -1
+   * for the last) and which day of the week.
+   */
+  private final int week;
+  private final int dayOfWeek;
+
+  private Recurrence(Frequency frequency, int interval, DateMidnight start, DateMidnight end,
+      int week, int dayOfWeek) {
+    checkArgument(interval > 0, "Interval must be positive.");
+    this.frequency = frequency;
+    this.interval = interval;
+    this.start = checkNotNull(start);
+    checkArgument(end == null || !end.isBefore(start), "Recurrence ends before it starts.");
+    this.end = end;
+    this.week = week;
+    this.dayOfWeek = dayOfWeek;
+  }
+
+  /**
+   * Every {@code interval} days from {@code start}.
+   */
+  public static Recurrence daily(DateMidnight start, int interval) {
+    return new Recurrence(Frequency.DAILY, interval, start, null, 0, 0);
+  }
+
+  /**
+   * Every {@code interval} weeks on the weekday of {@code start}.
+   */
+  public static Recurrence weekly(DateMidnight start, int interval) {
+    return new Recurrence(Frequency.WEEKLY, interval, start, null, 0, 0);
+  }
+
+  /**
+   * Every {@code interval} months on the day of the month of {@code start},
+   * or the last day of shorter months.
+   */
+  public static Recurrence monthly(DateMidnight start, int interval) {
+    return new Recurrence(Frequency.MONTHLY, interval, start, null, 0, 0);
+  }
+
+  /**
+   * Every {@code interval} months on the given weekday of the given week, such
+   * as the second Tuesday, starting with the month of {@code start}.
+   *
+   * @param week 1 to 4, or -1 for the last such weekday of the month
+   * @param dayOfWeek as in {@link DateTimeConstants#MONDAY} and so on
+   */
+  public static Recurrence nthWeekday(DateMidnight start, int interval, int week, int dayOfWeek) {
+    checkArgument(week == -1 || (week >= 1 && week <= 4), "Week must be 1 to 4 or -1.");
+    checkArgument(dayOfWeek >= DateTimeConstants.MONDAY && dayOfWeek <= DateTimeConstants.SUNDAY,
+        "Bad day of week.");
+    return new Recurrence(Frequency.NTH_WEEKDAY, interval, start, null, week, dayOfWeek);
+  }
+
+  /**
+   * Every {@code interval} years on the date of {@code start}.
+   */
+  public static Recurrence yearly(DateMidnight start, int interval) {
+    return new Recurrence(Frequency.YEARLY, interval, start, null, 0, 0);
+  }
+
+  /**
+   * @return this rule, stopping after the given date
+   */
+  public Recurrence until(DateMidnight end) {
+    return new Recurrence(frequency, interval, start, checkNotNull(end), week, dayOfWeek);
+  }
+
+  public Frequency getFrequency() {
+    return frequency;
+  }
+
+  public int getInterval() {
+    return interval;
+  }
+
+  public DateMidnight getStart() {
+    return start;
+  }
+
+  /**
+   * @return the last date occurrences may fall on, or null if there is none
+   */
+  public DateMidnight getEnd() {
+    return end;
+  }
+
+  /**
+   * @return the first occurrence on or after the given date, or null if the
+   *         rule has ended by then
+   */
+  public DateMidnight firstOnOrAfter(DateMidnight date) {
+    if (date.isBefore(start)) date = start;
+    for (int k = estimateIndex(date);; k++) {
+      DateMidnight occurrence = occurrence(k);
+      if (end != null && occurrence.isAfter(end)) return null;
+      if (!occurrence.isBefore(date)) return occurrence;
+    }
+  }
+
+  /**
+   * @return the first occurrence after the given date, or null if the rule
+   *         has ended by then
+   */
+  public DateMidnight firstAfter(DateMidnight date) {
+    return firstOnOrAfter(date.plusDays(1));
+  }
+
+  /**
+   * @return an index whose occurrence is no later than the first occurrence
+   *         on or after {@code date}, which must not be before the start
+   */
+  private int estimateIndex(DateMidnight date) {
+    int k;
+    switch (frequency) {
+      case DAILY:
+        k = Days.daysBetween(start, date).getDays() / interval;
+        break;
+      case WEEKLY:
+        k = Days.daysBetween(start, date).getDays() / (7 * interval);
+        break;
+      case YEARLY:
+        k = Years.yearsBetween(start, date).getYears() / interval;
+        break;
+      default:
+        k = Months.monthsBetween(start.withDayOfMonth(1), date.withDayOfMonth(1)).getMonths()
+            / interval;
+    }
+    // One step back covers rounding, and nth-weekday months that start late
+    return Math.max(0, k - 1);
+  }
+
+  /**
+   * @return the k-th date of the rule, ignoring the end date; for
+   *         {@link Frequency#NTH_WEEKDAY} the first may fall before the start
+   */
+  private DateMidnight occurrence(int k) {
+    switch (frequency) {
+      case DAILY:
+        return start.plusDays(k * interval);
+      case WEEKLY:
+        return start.plusWeeks(k * interval);
+      case MONTHLY:
+        // Always from the start, so the 31st comes back after a short month
+        return start.plusMonths(k * interval);
+      case NTH_WEEKDAY:
+        DateMidnight month = start.withDayOfMonth(1).plusMonths(k * interval);
+        if (week > 0) {
+          int offset = (dayOfWeek - month.getDayOfWeek() + 7) % 7;
+          return month.plusDays(offset + 7 * (week - 1));
+        }
+        DateMidnight last = month.dayOfMonth().withMaximumValue();
+        return last.minusDays((last.getDayOfWeek() - dayOfWeek + 7) % 7);
+      case YEARLY:
+        return start.plusYears(k * interval);
+      default:
+        throw new AssertionError(frequency);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof Recurrence)) return false;
+    Recurrence other = (Recurrence) o;
+    return frequency == other.frequency && interval == other.interval
+        && start.equals(other.start) && (end == null ? other.end == null : end.equals(other.end))
+        && week == other.week && dayOfWeek == other.dayOfWeek;
+  }
+
+  @Override
+  public int hashCode() {
+    return (frequency.hashCode() * 31 + interval) * 31 + start.hashCode();
+  }
+}
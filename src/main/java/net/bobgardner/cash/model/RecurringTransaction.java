@@ -0,0 +1,364 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedSet;
+
+/**
+ * A bill, salary or other transaction that repeats on a {@link Recurrence}.
+ *
+ * Future occurrences are not stored as transactions. A register or forecast
+ * asks for the {@link Occurrence}s in a date range and gets lightweight
+ * virtual rows. An occurrence becomes a real {@link Transaction} with
+ * {@link LineItem}s only when it comes due ({@link #materializeDue}) or the
+ * user wants to edit it ({@link Occurrence#materialize()}). Each occurrence
+ * is materialized or skipped at most once.
+ *
+ * Recurring transactions in a deleted account are ignored, so they come back
+ * if the deletion is undone. Which occurrences have been settled is not part
+ * of the undo history:
+ * undoing a materialization deletes the transaction but does not bring the
+ * occurrence back.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class RecurringTransaction {
+  /**
+   * Orders occurrences by date, then by payee.
+   */
+  private static final Comparator<Occurrence> BY_DATE = new Comparator<Occurrence>() {
+    @Override
+    public int compare(Occurrence o1, Occurrence o2) {
+      int ret = o1.date.compareTo(o2.date);
+      return ret != 0 ? ret : o1.getPayee().compareTo(o2.getPayee());
+    }
+  };
+
+  /**
+   * One line item of the template.
+   */
+  private static final class Split {
+    final BigDecimal amount;
+    final Category category;
+    final String description;
+
+    Split(BigDecimal amount, Category category, String description) {
+      this.amount = checkNotNull(amount);
+      this.category = checkNotNull(category);
+      this.description = checkNotNull(description).trim();
+    }
+  }
+
+  /**
+   * A date on which a {@link RecurringTransaction} is due and has not been
+   * materialized or skipped.
+   */
+  public static final class Occurrence {
+    private final RecurringTransaction recurring;
+    private final DateMidnight date;
+
+    Occurrence(RecurringTransaction recurring, DateMidnight date) {
+      this.recurring = recurring;
+      this.date = date;
+    }
+
+    public RecurringTransaction getRecurringTransaction() {
+      return recurring;
+    }
+
+    public DateMidnight getDate() {
+      return date;
+    }
+
+    public Account getAccount() {
+      return recurring.getAccount();
+    }
+
+    public String getPayee() {
+      return recurring.getPayee();
+    }
+
+    public BigDecimal getAmount() {
+      return recurring.getAmount();
+    }
+
+    /**
+     * Turns this occurrence into a real transaction, for example so that the
+     * user can edit it.
+     */
+    public Transaction materialize() {
+      return recurring.materialize(date);
+    }
+
+    /**
+     * Settles this occurrence without creating a transaction.
+     */
+    public void skip() {
+      recurring.skip(date);
+    }
+  }
+
+  private final Account account;
+  private Recurrence recurrence;
+  private String payee;
+  private String checkNr;
+  private final List<Split> splits = Lists.newArrayListWithCapacity(1);
+  /**
+   * Every occurrence up to this date is settled; null if none are.
+   */
+  private DateMidnight settledThrough;
+  /**
+   * Occurrences after {@link #settledThrough} settled out of order.
+   */
+  private final SortedSet<DateMidnight> settled = Sets.newTreeSet();
+  private boolean valid;
+
+  /**
+   * Creates a recurring transaction with no line items and adds it to the
+   * account's {@link Cashbox}.
+   */
+  public static RecurringTransaction newRecurringTransaction(Account account,
+      Recurrence recurrence, String payee, String checkNr) {
+    checkArgument(account.isValid(), "Account has been deleted.");
+    RecurringTransaction recurring =
+        new RecurringTransaction(account, recurrence, payee, checkNr);
+    account.getCashbox().addRecurringTransaction(recurring);
+    return recurring;
+  }
+
+  /**
+   * Stops a recurring transaction. Transactions already materialized are
+   * kept.
+   */
+  public static void deleteRecurringTransaction(RecurringTransaction recurring) {
+    if (!recurring.valid) return;
+    recurring.valid = false;
+    recurring.account.getCashbox().removeRecurringTransaction(recurring);
+  }
+
+  /**
+   * @return the occurrences of all the cashbox's recurring transactions in
+   *         the given account (or all accounts, if null) that fall within the
+   *         given dates, inclusive, ordered by date
+   */
+  public static List<Occurrence> getOccurrences(Cashbox cashbox, Account account,
+      DateMidnight from, DateMidnight to) {
+    List<Occurrence> occurrences = Lists.newArrayList();
+    for (RecurringTransaction recurring : cashbox.getRecurringTransactions()) {
+      if (!recurring.account.isValid()) continue;
+      if (account == null || recurring.account == account) {
+        occurrences.addAll(recurring.getOccurrences(from, to));
+      }
+    }
+    Collections.sort(occurrences, BY_DATE);
+    return occurrences;
+  }
+
+  /**
+   * Materializes every occurrence in the cashbox due on or before
+   * {@code today}.
+   *
+   * @return the new transactions
+   */
+  public static List<Transaction> materializeDue(Cashbox cashbox, DateMidnight today) {
+    List<Transaction> created = Lists.newArrayList();
+    // Copied, since materializing may run observers that change the list
+    for (RecurringTransaction recurring : Lists.newArrayList(cashbox.getRecurringTransactions())) {
+      if (recurring.account.isValid()) created.addAll(recurring.materializeDue(today));
+    }
+    return created;
+  }
+
+  /**
+   * @return the account's balance on the given date, counting the
+   *         occurrences due by then as if they had been materialized
+   */
+  public static BigDecimal getProjectedBalance(Account account, DateMidnight date) {
+    BigDecimal balance = account.getBalance(date);
+    for (RecurringTransaction recurring : account.getCashbox().getRecurringTransactions()) {
+      if (recurring.account != account) continue;
+      BigDecimal amount = recurring.getAmount();
+      int count = recurring.getOccurrences(recurring.recurrence.getStart(), date).size();
+      balance = balance.add(amount.multiply(BigDecimal.valueOf(count)));
+    }
+    return balance;
+  }
+
+  private RecurringTransaction(Account account, Recurrence recurrence, String payee,
+      String checkNr) {
+    this.account = checkNotNull(account);
+    this.recurrence = checkNotNull(recurrence);
+    this.payee = checkNotNull(payee).trim();
+    this.checkNr = checkNotNull(checkNr).trim();
+    this.valid = true;
+  }
+
+  public boolean isValid() {
+    return valid;
+  }
+
+  public Account getAccount() {
+    checkValidity();
+    return account;
+  }
+
+  public Recurrence getRecurrence() {
+    checkValidity();
+    return recurrence;
+  }
+
+  /**
+   * Changes the rule. Occurrences already settled stay settled.
+   */
+  public void setRecurrence(Recurrence recurrence) {
+    checkValidity();
+    this.recurrence = checkNotNull(recurrence);
+  }
+
+  public String getPayee() {
+    checkValidity();
+    return payee;
+  }
+
+  public void setPayee(String payee) {
+    checkValidity();
+    this.payee = checkNotNull(payee).trim();
+  }
+
+  public String getCheckNr() {
+    checkValidity();
+    return checkNr;
+  }
+
+  /**
+   * Adds a line item to those each occurrence will have.
+   */
+  public void addSplit(BigDecimal amount, Category category, String description) {
+    checkValidity();
+    splits.add(new Split(LineItem.checkAmount(amount), category, description));
+  }
+
+  /**
+   * @return the total of one occurrence's line items
+   */
+  public BigDecimal getAmount() {
+    checkValidity();
+    BigDecimal total = BigDecimal.ZERO;
+    for (Split split : splits) {
+      total = total.add(split.amount);
+    }
+    return total;
+  }
+
+  /**
+   * @return the unsettled occurrences within the given dates, inclusive
+   */
+  public List<Occurrence> getOccurrences(DateMidnight from, DateMidnight to) {
+    checkValidity();
+    List<Occurrence> occurrences = Lists.newArrayList();
+    if (settledThrough != null && !from.isAfter(settledThrough)) {
+      from = settledThrough.plusDays(1);
+    }
+    for (DateMidnight date = recurrence.firstOnOrAfter(from); date != null && !date.isAfter(to);
+        date = recurrence.firstAfter(date)) {
+      if (!settled.contains(date)) occurrences.add(new Occurrence(this, date));
+    }
+    return occurrences;
+  }
+
+  /**
+   * Materializes every occurrence due on or before {@code today}, as one undo
+   * step.
+   *
+   * @return the new transactions
+   */
+  public List<Transaction> materializeDue(DateMidnight today) {
+    checkValidity();
+    List<Occurrence> due = getOccurrences(recurrence.getStart(), today);
+    List<Transaction> created = Lists.newArrayListWithCapacity(due.size());
+    if (!due.isEmpty()) {
+      UndoLog undoLog = account.getCashbox().getUndoLog();
+      undoLog.beginUnit("Enter " + payee);
+      try {
+        for (Occurrence occurrence : due) {
+          created.add(create(occurrence.date));
+        }
+      } finally {
+        undoLog.endUnit();
+      }
+    }
+    if (settledThrough == null || today.isAfter(settledThrough)) {
+      settledThrough = today;
+      settled.headSet(today.plusDays(1)).clear();
+    }
+    return created;
+  }
+
+  Transaction materialize(DateMidnight date) {
+    checkPending(date);
+    UndoLog undoLog = account.getCashbox().getUndoLog();
+    undoLog.beginUnit("Enter " + payee);
+    try {
+      Transaction transaction = create(date);
+      settled.add(date);
+      return transaction;
+    } finally {
+      undoLog.endUnit();
+    }
+  }
+
+  void skip(DateMidnight date) {
+    checkPending(date);
+    settled.add(date);
+  }
+
+  private void checkPending(DateMidnight date) {
+    checkValidity();
+    checkState(isPending(checkNotNull(date)), "Not an unsettled occurrence: %s", date);
+  }
+
+  private boolean isPending(DateMidnight date) {
+    return (settledThrough == null || date.isAfter(settledThrough)) && !settled.contains(date)
+        && date.equals(recurrence.firstOnOrAfter(date));
+  }
+
+  private Transaction create(DateMidnight date) {
+    Transaction transaction = Transaction.newTransaction(account, date, payee, checkNr);
+    for (Split split : splits) {
+      LineItem.newLineItem(transaction, split.amount, split.category, split.description);
+    }
+    return transaction;
+  }
+
+  private void checkValidity() {
+    checkState(valid, "This recurring transaction has been deleted.");
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/**
+ * One ledger's canonical copies of the payees, check numbers and line item
+ * descriptions its model objects hold. The same few thousand strings repeat
+ * across a ledger's rows, so keeping one copy of each saves most of the
+ * memory the text would otherwise take.
+ *
+ * The pool holds at most {@link #MAX_SIZE} strings and never evicts: once
+ * full, new strings are kept as they are. The strings that repeat are almost
+ * always among the first seen, and a pool that stays put never costs a
+ * lookup's worth of churn.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+final class StringPool {
+  static final int MAX_SIZE = 1 << 16;
+
+  private final int maxSize;
+  private final Map<String, String> strings = Maps.newHashMap();
+  private long hits;
+  private long savedBytes;
+  /**
+   * Estimated size of the pooled strings, kept as they are added.
+   */
+  private long bytes;
+
+  StringPool() {
+    this(MAX_SIZE);
+  }
+
+  StringPool(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @return the pool's copy of the string, which becomes the given one if the
+   *         pool has none and room for it
+   */
+  synchronized String intern(String s) {
+    if (s.length() == 0) return "";
+    String pooled = strings.get(s);
+    if (pooled == null) {
+      if (strings.size() < maxSize) {
+        strings.put(s, s);
+        // Plus a hash map entry
+        bytes += bytes(s) + 32;
+      }
+      return s;
+    }
+    if (pooled != s) {
+      hits++;
+      savedBytes += bytes(s);
+    }
+    return pooled;
+  }
+
+  synchronized int size() {
+    return strings.size();
+  }
+
+  /**
+   * @return the number of strings replaced by a pooled copy
+   */
+  synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return an estimate of the memory the replaced strings would have held,
+   *         counted when they were replaced
+   */
+  synchronized long getSavedBytes() {
+    return savedBytes;
+  }
+
+  /**
+   * @return an estimate of the memory held by the pool itself
+   */
+  synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Rough size of a string and its character array.
+   */
+  private static long bytes(String s) {
+    return 40 + 2L * s.length();
+  }
+}
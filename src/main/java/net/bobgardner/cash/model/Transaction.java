@@ -21,14 +21,26 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import net.bobgardner.cash.metrics.Counter;
+import net.bobgardner.cash.metrics.Metrics;
+import net.bobgardner.cash.persistence.Schema;
+
 import org.joda.time.DateMidnight;
 
 import java.math.BigDecimal;
+import java.util.AbstractSet;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.SortedSet;
 
 /**
@@ -41,19 +53,47 @@ import java.util.SortedSet;
  * that violates a uniqueness constraint will fail with
  * {@link IllegalArgumentException}.
  * 
+ * Transactions are the ledger's most numerous objects, so they are kept
+ * small: the date is an {@link EpochDays} number, a single line item is held
+ * without a collection, and changes are reported through
+ * {@link Account#addRowObserver(java.util.Observer)} rather than by each
+ * transaction.
+ * 
  * @author wrg007 (Bob Gardner)
  * 
  * @invariant id >= 0 and is unique across all valid transactions
  */
-public class Transaction extends Observable implements Comparable<Transaction>, Observer {
+public class Transaction implements Comparable<Transaction> {
+  private static final Counter CREATES = Metrics.INSTANCE.counter("model.Transaction.create");
+  private static final Counter UPDATES = Metrics.INSTANCE.counter("model.Transaction.update");
+  private static final Counter DELETES = Metrics.INSTANCE.counter("model.Transaction.delete");
+
   /**
    * Record identifier.
    */
   private final int id;
-  private DateMidnight date;
+  private final Account account;
+  /**
+   * The date, as an {@link EpochDays} number.
+   */
+  private int day;
   private String payee;
   private String checkNr;
-  private final SortedSet<LineItem> items = Sets.newTreeSet();
+  /**
+   * True once the transaction has been matched against a bank statement.
+   */
+  private boolean cleared;
+  /**
+   * Cached total of the line items and {@link DuplicateIndex} fingerprint,
+   * kept current by the setters.
+   */
+  private BigDecimal amount = BigDecimal.ZERO;
+  private long fingerprint;
+  /**
+   * The line items, by id: null for none, the item itself for one, or an
+   * array for more.
+   */
+  private Object items;
 
   /**
    * True if this transaction is present in the database.
@@ -68,9 +108,13 @@ public class Transaction extends Observable implements Comparable<Transaction>,
   public static Transaction newTransaction(Account account, DateMidnight date, String payee,
       String checkNr) {
     // TODO interact with database
-    Transaction transaction = new Transaction(id_counter++, date, payee, checkNr);
+    Transaction transaction =
+        new Transaction(account, account.getCashbox().nextId(Schema.TRANSACTIONS),
+            EpochDays.of(date), payee, checkNr);
     transaction.valid = true;
     account.addTransaction(transaction);
+    CREATES.increment();
+    account.getCashbox().getUndoLog().recordCreate(transaction);
     return transaction;
   }
 
@@ -84,31 +128,134 @@ public class Transaction extends Observable implements Comparable<Transaction>,
    */
   public static void deleteTransaction(Transaction transaction) {
     if (!transaction.valid) return;
-    // TODO interact with database
-    transaction.valid = false;
-    transaction.setChanged();
-    transaction.notifyObservers();
+    deleteTransactions(Collections.singleton(transaction));
+  }
+
+  /**
+   * Deletes a batch of transactions in the database, including their line
+   * items and the other halves of any transfers among them, and removes them
+   * from their accounts. Each affected account notifies its observers once;
+   * the transactions and line items themselves are not notified.
+   * 
+   * @param transactions the transactions to be deleted (invalid ones are
+   *        ignored)
+   */
+  public static void deleteTransactions(Collection<? extends Transaction> transactions) {
+    deleteTransactions(transactions, true);
+  }
+
+  /**
+   * @param withPairs false when the caller deletes the other halves of
+   *        transfers itself, as {@link Account#deleteAccount(Account)} does
+   */
+  static void deleteTransactions(Collection<? extends Transaction> transactions,
+      boolean withPairs) {
+    Map<Account, Set<Transaction>> byAccount = Maps.newLinkedHashMap();
+    for (Transaction transaction : transactions) {
+      group(byAccount, transaction);
+      Transaction pair = transaction.getPair();
+      if (withPairs && pair != null) group(byAccount, pair);
+    }
+    List<Transaction> all = Lists.newArrayList();
+    for (Map.Entry<Account, Set<Transaction>> entry : byAccount.entrySet()) {
+      Set<Transaction> deleted = entry.getValue();
+      entry.getKey().getCashbox().getDataWriter().deleteTransactions(deleted);
+      for (Transaction transaction : deleted) {
+        transaction.invalidate();
+      }
+      entry.getKey().removeTransactions(deleted);
+      all.addAll(deleted);
+    }
+    if (!all.isEmpty()) {
+      all.get(0).account.getCashbox().getUndoLog().recordDelete(all.toArray());
+    }
+  }
+
+  /**
+   * Undoes {@link #deleteTransactions(Collection)}: revalidates the
+   * transactions with the line items they had when they were deleted, writes
+   * them back to the database and returns them to their accounts. Each affected
+   * account notifies its observers once.
+   * 
+   * If a write fails, the rows already written are deleted again and the
+   * transactions are left deleted, as they were.
+   */
+  static void restoreTransactions(Collection<? extends Transaction> transactions) {
+    Map<Account, Set<Transaction>> byAccount = Maps.newLinkedHashMap();
+    for (Transaction transaction : transactions) {
+      checkState(!transaction.valid, "Transaction is not deleted.");
+      Set<Transaction> group = byAccount.get(transaction.account);
+      if (group == null) {
+        group = Sets.newLinkedHashSet();
+        byAccount.put(transaction.account, group);
+      }
+      group.add(transaction);
+    }
+    // Both halves of a transfer must be valid before either is written
+    for (Transaction transaction : transactions) {
+      transaction.revalidate();
+    }
+    List<Map.Entry<Account, Set<Transaction>>> written = Lists.newArrayList();
+    try {
+      for (Map.Entry<Account, Set<Transaction>> entry : byAccount.entrySet()) {
+        entry.getKey().getCashbox().getDataWriter().insertTransactions(entry.getValue());
+        written.add(entry);
+      }
+    } catch (RuntimeException e) {
+      for (Map.Entry<Account, Set<Transaction>> entry : written) {
+        entry.getKey().getCashbox().getDataWriter().deleteTransactions(entry.getValue());
+      }
+      for (Transaction transaction : transactions) {
+        transaction.invalidate();
+      }
+      throw e;
+    }
+    for (Map.Entry<Account, Set<Transaction>> entry : byAccount.entrySet()) {
+      entry.getKey().addTransactions(entry.getValue());
+    }
   }
 
-  // TODO these will go away, I just need them for current use/testing
-  protected static int id_counter = 0;
+  private static void group(Map<Account, Set<Transaction>> byAccount, Transaction transaction) {
+    if (!transaction.valid) return;
+    Set<Transaction> group = byAccount.get(transaction.account);
+    if (group == null) {
+      group = Sets.newLinkedHashSet();
+      byAccount.put(transaction.account, group);
+    }
+    group.add(transaction);
+  }
 
+  /**
+   * Visible for testing.
+   */
   protected static void resetCounter() {
-    id_counter = 0;
+    Cashbox.INSTANCE.resetIds(Schema.TRANSACTIONS);
   }
 
-  private Transaction(int id, DateMidnight date, String payee, String checkNr) {
+  private Transaction(Account account, int id, int day, String payee, String checkNr) {
+    this.account = checkNotNull(account);
     this.id = id;
-    this.date = checkNotNull(date);
+    this.day = day;
     checkNotNull(payee);
-    this.payee = payee.trim();
+    StringPool strings = account.getCashbox().getStringPool();
+    this.payee = strings.intern(payee.trim());
     checkNotNull(checkNr);
-    this.checkNr = checkNr.trim();
+    this.checkNr = strings.intern(checkNr.trim());
+    recompute();
+  }
+
+  /**
+   * @return an invalid transaction that is only good for comparisons, to seek
+   *         within an account's sorted transactions
+   */
+  static Transaction probe(Account account, DateMidnight date, int id) {
+    return new Transaction(account, id, EpochDays.of(date), "", "");
   }
 
   // Visible for subclasses
-  protected Transaction(DateMidnight date, String payee, String checkNr) {
-    this(id_counter++, date, payee, checkNr);
+  protected Transaction(Account account, DateMidnight date, String payee, String checkNr) {
+    this(account, account.getCashbox().nextId(Schema.TRANSACTIONS), EpochDays.of(date), payee,
+        checkNr);
     this.valid = true;
   }
 
@@ -121,17 +268,203 @@ public class Transaction extends Observable implements Comparable<Transaction>,
     return id;
   }
 
+  /**
+   * @return the record identifier, even if this transaction is deleted
+   */
+  int id() {
+    return id;
+  }
+
+  public Account getAccount() {
+    checkValidity();
+    return account;
+  }
+
+  /**
+   * @return the other half of a transfer, or null for ordinary transactions
+   */
+  Transaction getPair() {
+    return null;
+  }
+
+  /**
+   * Builds a copy of this transaction and its line items in another account,
+   * with the same ids, for {@link UnitOfWork} to move it. The copy is valid
+   * but not yet in the account.
+   */
+  Transaction copyTo(Account other) {
+    Transaction copy = new Transaction(other, id, day, payee, checkNr);
+    copy.cleared = cleared;
+    copy.valid = true;
+    for (int i = 0; i < itemCount(); i++) {
+      copy.storeItem(item(i).copyTo(copy));
+    }
+    copy.recompute();
+    return copy;
+  }
+
+  /**
+   * Adds an item without notifying anyone, for {@link UnitOfWork}.
+   */
+  void attachItem(LineItem item) {
+    storeItem(item);
+    account.itemChanged(this, null, null, item.category(), item.amount());
+    refingerprint();
+  }
+
+  /**
+   * Removes an item without notifying anyone, for {@link UnitOfWork}.
+   */
+  void detachItem(LineItem item) {
+    dropItem(item);
+    account.itemChanged(this, item.category(), item.amount(), null, null);
+    refingerprint();
+  }
+
+  /**
+   * Adds the line items' amounts to, or takes them from, their categories'
+   * totals.
+   */
+  void tally(CategoryTree tree, boolean add) {
+    for (int i = 0; i < itemCount(); i++) {
+      LineItem item = item(i);
+      tree.add(item.category(), add ? item.amount() : item.amount().negate());
+    }
+  }
+
+  long fingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * @return the date as an {@link EpochDays} number, even if this
+   *         transaction is deleted
+   */
+  int day() {
+    return day;
+  }
+
+  /**
+   * Raw access for {@link TransactionCursor}, which checks validity once
+   * rather than per field.
+   */
+  String payee() {
+    return payee;
+  }
+
+  String checkNr() {
+    return checkNr;
+  }
+
+  boolean cleared() {
+    return cleared;
+  }
+
+  /**
+   * @return the total of the line items, even if this transaction is deleted
+   */
+  BigDecimal amount() {
+    return amount;
+  }
+
+  /**
+   * Recomputes the amount and fingerprint after a change to the date, payee,
+   * check number or line items, and tells the account.
+   */
+  void refingerprint() {
+    long oldFingerprint = fingerprint;
+    BigDecimal oldAmount = amount;
+    recompute();
+    if (valid) {
+      account.fingerprintChanged(oldFingerprint, fingerprint);
+      if (oldAmount.compareTo(amount) != 0) account.amountChanged(this, oldAmount);
+    }
+  }
+
+  /**
+   * Computes both values before storing either, so the cached pair is never
+   * left half updated.
+   */
+  private void recompute() {
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < itemCount(); i++) {
+      total = total.add(item(i).amount());
+    }
+    long newFingerprint = DuplicateIndex.fingerprint(account.getId(), day, total, payee, checkNr);
+    amount = total;
+    fingerprint = newFingerprint;
+  }
+
+  /**
+   * Marks this transaction and its line items deleted, without notifying
+   * anyone.
+   */
+  void invalidate() {
+    valid = false;
+    // The items stay so that undo can restore them
+    for (int i = 0; i < itemCount(); i++) {
+      item(i).invalidate();
+    }
+    DELETES.increment();
+  }
+
+  /**
+   * Reverses {@link #invalidate()}, without notifying anyone.
+   */
+  void revalidate() {
+    valid = true;
+    for (int i = 0; i < itemCount(); i++) {
+      item(i).revalidate();
+    }
+    CREATES.increment();
+  }
+
+  /**
+   * Number of line items, for {@link UndoLog}'s memory estimate. Works on
+   * deleted transactions.
+   */
+  int countItems() {
+    return itemCount();
+  }
+
+  /**
+   * Tells the account's row observers that this transaction changed, for
+   * model classes that change its state directly.
+   */
+  void fireChanged() {
+    account.rowChanged(this);
+  }
+
+  /**
+   * @return the date, made on each call from the stored day number
+   */
   public DateMidnight getDate() {
     checkValidity();
-    return date;
+    return EpochDays.toDate(day);
+  }
+
+  /**
+   * @return the date as an {@link EpochDays} number, which is cheaper to get
+   *         and compare than {@link #getDate()}
+   */
+  public int getDay() {
+    checkValidity();
+    return day;
   }
 
   public void setDate(DateMidnight date) {
     // TODO Interact with database
     checkValidity();
-    this.date = checkNotNull(date);
-    setChanged();
-    notifyObservers();
+    checkNotNull(date);
+    DateMidnight old = EpochDays.toDate(day);
+    // The date is part of the account's sort order
+    boolean present = account.dateChanging(this);
+    this.day = EpochDays.of(date);
+    account.dateChanged(this, present, old);
+    refingerprint();
+    UPDATES.increment();
+    undoLog().recordChange(UndoLog.Property.TRANSACTION_DATE, this, old, date);
+    account.rowChanged(this);
   }
 
   public String getPayee() {
@@ -143,9 +476,12 @@ public class Transaction extends Observable implements Comparable<Transaction>,
     // TODO Interact with database
     checkValidity();
     checkNotNull(payee);
-    this.payee = payee.trim();
-    setChanged();
-    notifyObservers();
+    String old = this.payee;
+    this.payee = account.getCashbox().getStringPool().intern(payee.trim());
+    refingerprint();
+    UPDATES.increment();
+    undoLog().recordChange(UndoLog.Property.TRANSACTION_PAYEE, this, old, this.payee);
+    account.rowChanged(this);
   }
 
   public String getCheckNr() {
@@ -157,91 +493,224 @@ public class Transaction extends Observable implements Comparable<Transaction>,
     // TODO Interact with database
     checkValidity();
     checkNotNull(checkNr);
-    this.checkNr = checkNr.trim();
-    setChanged();
-    notifyObservers();
+    String old = this.checkNr;
+    this.checkNr = account.getCashbox().getStringPool().intern(checkNr.trim());
+    refingerprint();
+    UPDATES.increment();
+    undoLog().recordChange(UndoLog.Property.TRANSACTION_CHECK_NR, this, old, this.checkNr);
+    account.rowChanged(this);
+  }
+
+  public boolean isCleared() {
+    checkValidity();
+    return cleared;
   }
 
+  public void setCleared(boolean cleared) {
+    // TODO Interact with database
+    checkValidity();
+    boolean old = this.cleared;
+    this.cleared = cleared;
+    UPDATES.increment();
+    undoLog().recordChange(UndoLog.Property.TRANSACTION_CLEARED, this, old, cleared);
+    account.rowChanged(this);
+  }
+
+  /**
+   * @return a live, read-only view of the line items, by id
+   */
   public SortedSet<LineItem> getItems() {
     checkValidity();
-    return Collections.unmodifiableSortedSet(items);
+    return new ItemSet();
   }
 
   protected void addItem(LineItem item) {
     checkValidity();
     checkNotNull(item);
     checkArgument(item.isValid(), "Line item is invalid.");
-    items.add(item);
-    item.addObserver(this);
-    addObserver(item);
-    setChanged();
-    notifyObservers();
+    storeItem(item);
+    account.itemChanged(this, null, null, item.category(), item.amount());
+    refingerprint();
+    account.rowChanged(this);
   }
 
   protected void removeItem(LineItem item) {
     checkValidity();
     checkNotNull(item);
     checkArgument(!item.isValid(), "Line item is still valid.");
-    item.deleteObserver(this);
-    deleteObserver(item);
-    items.remove(item);
-    setChanged();
-    notifyObservers();
+    dropItem(item);
+    account.itemChanged(this, item.category(), item.amount(), null, null);
+    refingerprint();
+    account.rowChanged(this);
   }
 
   public String getDescription() {
     checkValidity();
-    return items.size() == 1 ? items.first().getDescription() : "...";
+    return itemCount() == 1 ? item(0).getDescription() : "...";
   }
 
   public void setDescription(String description) {
     checkValidity();
-    checkState(items.size() == 1,
+    checkState(itemCount() == 1,
         "Description can only be set on transactions with exactly one line item.");
-    items.first().setDescription(description);
+    item(0).setDescription(description);
   }
 
   public Category getCategory() {
     checkValidity();
-    return items.size() == 1 ? items.first().getCategory() : Category.NULL_CATEGORY;
+    return itemCount() == 1 ? item(0).getCategory() : Category.NULL_CATEGORY;
   }
 
   public void setCategory(Category category) {
     checkValidity();
-    checkState(items.size() == 1,
+    checkState(itemCount() == 1,
         "Category can only be set on transactions with exactly one line item.");
-    items.first().setCategory(category);
-    setChanged();
-    notifyObservers();
+    item(0).setCategory(category);
+    account.rowChanged(this);
   }
 
   public BigDecimal getAmount() {
     checkValidity();
-    BigDecimal total = BigDecimal.ZERO;
-    for (LineItem li : items) {
-      total = total.add(li.getAmount());
-    }
-    return total;
+    return amount;
   }
 
   public void setAmount(BigDecimal amount) {
     checkValidity();
-    checkState(items.size() == 1,
+    checkState(itemCount() == 1,
         "Amount can only be set on transaction with exactly one line item.");
-    items.first().setAmount(amount);
-    setChanged();
-    notifyObservers();
+    item(0).setAmount(amount);
+    account.rowChanged(this);
   }
 
   protected void checkValidity() {
     checkState(valid, "This transaction has been deleted.");
   }
 
+  private UndoLog undoLog() {
+    return account.getCashbox().getUndoLog();
+  }
+
+  int itemCount() {
+    if (items == null) return 0;
+    return items instanceof LineItem ? 1 : ((LineItem[]) items).length;
+  }
+
+  LineItem item(int i) {
+    return items instanceof LineItem ? (LineItem) items : ((LineItem[]) items)[i];
+  }
+
+  /**
+   * Adds a line item in id order, unless one with its id is already here.
+   */
+  private void storeItem(LineItem item) {
+    int count = itemCount();
+    if (count == 0) {
+      items = item;
+      return;
+    }
+    int at = 0;
+    while (at < count && item(at).compareTo(item) < 0) {
+      at++;
+    }
+    if (at < count && item(at).compareTo(item) == 0) return;
+    LineItem[] grown = new LineItem[count + 1];
+    for (int i = 0, j = 0; i < grown.length; i++) {
+      grown[i] = i == at ? item : item(j++);
+    }
+    items = grown;
+  }
+
+  private void dropItem(LineItem item) {
+    int count = itemCount();
+    int at = 0;
+    while (at < count && item(at).compareTo(item) != 0) {
+      at++;
+    }
+    if (at == count) return;
+    if (count <= 2) {
+      items = count == 1 ? null : item(1 - at);
+      return;
+    }
+    LineItem[] shrunk = new LineItem[count - 1];
+    for (int i = 0, j = 0; i < count; i++) {
+      if (i != at) shrunk[j++] = item(i);
+    }
+    items = shrunk;
+  }
+
+  /**
+   * What {@link #getItems()} returns. Ranges are copied rather than live.
+   */
+  private final class ItemSet extends AbstractSet<LineItem> implements SortedSet<LineItem> {
+    @Override
+    public int size() {
+      return itemCount();
+    }
+
+    @Override
+    public Iterator<LineItem> iterator() {
+      return new Iterator<LineItem>() {
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+          return next < itemCount();
+        }
+
+        @Override
+        public LineItem next() {
+          if (!hasNext()) throw new NoSuchElementException();
+          return item(next++);
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    @Override
+    public Comparator<? super LineItem> comparator() {
+      return null;
+    }
+
+    @Override
+    public LineItem first() {
+      if (itemCount() == 0) throw new NoSuchElementException();
+      return item(0);
+    }
+
+    @Override
+    public LineItem last() {
+      if (itemCount() == 0) throw new NoSuchElementException();
+      return item(itemCount() - 1);
+    }
+
+    @Override
+    public SortedSet<LineItem> subSet(LineItem fromElement, LineItem toElement) {
+      return copy().subSet(fromElement, toElement);
+    }
+
+    @Override
+    public SortedSet<LineItem> headSet(LineItem toElement) {
+      return copy().headSet(toElement);
+    }
+
+    @Override
+    public SortedSet<LineItem> tailSet(LineItem fromElement) {
+      return copy().tailSet(fromElement);
+    }
+
+    private SortedSet<LineItem> copy() {
+      return Collections.unmodifiableSortedSet(Sets.newTreeSet(this));
+    }
+  }
+
   @Override
   public int compareTo(Transaction o) {
-    int ret = this.date.compareTo(o.date);
-    if (ret == 0) return this.id == o.id ? 0 : this.id > o.id ? 1 : -1;
-    return ret;
+    if (this.day != o.day) return this.day > o.day ? 1 : -1;
+    return this.id == o.id ? 0 : this.id > o.id ? 1 : -1;
   }
 
   @Override
@@ -252,25 +721,7 @@ public class Transaction extends Observable implements Comparable<Transaction>,
   }
 
   @Override
-  public void update(Observable o, Object arg) {
-    // Observes the account it belongs to
-    if (o instanceof Account) {
-      Account account = (Account) o;
-      // The only change we care about is deletion
-      if (!account.isValid()) {
-        // In which case we delete this transaction
-        deleteTransaction(this);
-      }
-    }
-
-    // Observing its line items
-    else if (o instanceof LineItem) {
-      LineItem item = (LineItem) o;
-      // The only change we care about is deletion
-      if (!item.isValid()) {
-        // In which case, we remove the item from the list
-        removeItem(item);
-      }
-    }
+  public int hashCode() {
+    return id;
   }
 }
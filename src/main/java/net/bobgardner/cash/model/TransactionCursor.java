@@ -0,0 +1,203 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+
+/**
+ * A read-only, forward-only pass over the transactions of one account or of a
+ * whole {@link Cashbox}, and over each transaction's line items, for exports,
+ * reports and indexes that read every row.
+ *
+ * The cursor is a flyweight: it stands for the current transaction and line
+ * item, and its getters read their fields directly. Only valid rows are ever
+ * current, so validity is checked once, when the cursor is made, rather than
+ * on every field; and moving to the next row allocates nothing.
+ *
+ * <pre>
+ * TransactionCursor cursor = account.cursor();
+ * while (cursor.next()) {
+ *   total = total.add(cursor.getAmount());
+ *   while (cursor.nextItem()) {
+ *     ...
+ *   }
+ * }
+ * </pre>
+ *
+ * Use it on the thread that edits the model. Adding or removing an account's
+ * transactions during a pass ends the pass with
+ * {@link java.util.ConcurrentModificationException}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class TransactionCursor {
+  private final Iterator<Account> accounts;
+  private Account account;
+  private Iterator<Transaction> transactions;
+  private Transaction transaction;
+  /**
+   * Index of the current line item, or -1 before the first.
+   */
+  private int itemIndex;
+  private LineItem item;
+
+  /**
+   * Created by {@link Account#cursor()} and {@link Cashbox#cursor()}.
+   */
+  TransactionCursor(Iterator<Account> accounts) {
+    this.accounts = accounts;
+  }
+
+  /**
+   * Moves to the next transaction.
+   *
+   * @return false once there are no more
+   */
+  public boolean next() {
+    while (transactions == null || !transactions.hasNext()) {
+      if (!accounts.hasNext()) {
+        transaction = null;
+        item = null;
+        return false;
+      }
+      account = accounts.next();
+      transactions = account.transactionIterator();
+    }
+    transaction = transactions.next();
+    itemIndex = -1;
+    item = null;
+    return true;
+  }
+
+  /**
+   * Moves to the current transaction's next line item.
+   *
+   * @return false once there are no more
+   */
+  public boolean nextItem() {
+    checkTransaction();
+    if (itemIndex + 1 >= transaction.itemCount()) {
+      item = null;
+      return false;
+    }
+    item = transaction.item(++itemIndex);
+    return true;
+  }
+
+  public Account getAccount() {
+    checkTransaction();
+    return account;
+  }
+
+  public Transaction getTransaction() {
+    checkTransaction();
+    return transaction;
+  }
+
+  public int getId() {
+    checkTransaction();
+    return transaction.id();
+  }
+
+  /**
+   * @return the date as an {@link EpochDays} number
+   */
+  public int getDay() {
+    checkTransaction();
+    return transaction.day();
+  }
+
+  /**
+   * @return the date, made on each call; {@link #getDay()} allocates nothing
+   */
+  public DateMidnight getDate() {
+    return EpochDays.toDate(getDay());
+  }
+
+  public String getPayee() {
+    checkTransaction();
+    return transaction.payee();
+  }
+
+  public String getCheckNr() {
+    checkTransaction();
+    return transaction.checkNr();
+  }
+
+  public boolean isCleared() {
+    checkTransaction();
+    return transaction.cleared();
+  }
+
+  public BigDecimal getAmount() {
+    checkTransaction();
+    return transaction.amount();
+  }
+
+  /**
+   * @return the account a transfer goes to, or null if the transaction is not
+   *         a transfer
+   */
+  public Account getDestAccount() {
+    checkTransaction();
+    return transaction instanceof Transfer ? ((Transfer) transaction).destAccount() : null;
+  }
+
+  public int getItemCount() {
+    checkTransaction();
+    return transaction.itemCount();
+  }
+
+  public LineItem getItem() {
+    checkItem();
+    return item;
+  }
+
+  public int getItemId() {
+    checkItem();
+    return item.id();
+  }
+
+  public BigDecimal getItemAmount() {
+    checkItem();
+    return item.amount();
+  }
+
+  public Category getItemCategory() {
+    checkItem();
+    return item.category();
+  }
+
+  public String getItemDescription() {
+    checkItem();
+    return item.description();
+  }
+
+  private void checkTransaction() {
+    checkState(transaction != null, "The cursor is not on a transaction.");
+  }
+
+  private void checkItem() {
+    checkState(item != null, "The cursor is not on a line item.");
+  }
+}
@@ -19,6 +19,9 @@ package net.bobgardner.cash.model;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import net.bobgardner.cash.metrics.Counter;
+import net.bobgardner.cash.metrics.Metrics;
+
 import org.joda.time.DateMidnight;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
@@ -29,40 +32,54 @@ import sun.reflect.generics.reflectiveObjects.NotImplementedException;
  * @author wrg007 (Bob Gardner)
  */
 public class Transfer extends Transaction {
+  private static final Counter CREATES = Metrics.INSTANCE.counter("model.Transfer.create");
+
   private final Account destAccount;
   private Transfer destTransfer;
 
   /**
    * Create a new transfer and its pair with the given information. Creates the
    * transfers, stores them in the database (thus retrieving ids), and adds them
-   * to {@link Cashbox}.
+   * to {@link Cashbox}. Both halves are committed together by a
+   * {@link UnitOfWork}.
    * 
    * @throws IllegalArgumentException if any uniqueness constraints are violated
    */
   public static Transfer newTransfer(Account account, Account destAccount, DateMidnight date,
       String payee, String checkNr) {
-    // TODO interact with database
-    // TODO possible chicken-and-egg problem
-    Transfer destTransfer = new Transfer(date, account, null, payee, checkNr);
-    Transfer transfer = new Transfer(date, destAccount, destTransfer, payee, checkNr);
+    UnitOfWork work = new UnitOfWork(account.getCashbox(), "Transfer");
+    Transfer transfer = work.transfer(account, destAccount, date, payee, checkNr);
+    work.commit();
+    return transfer;
+  }
+
+  /**
+   * Builds both halves of a transfer, linked to each other but not yet in
+   * their accounts.
+   * 
+   * @return the half in {@code account}
+   */
+  static Transfer newPair(Account account, Account destAccount, DateMidnight date, String payee,
+      String checkNr) {
+    Transfer destTransfer = new Transfer(destAccount, date, account, null, payee, checkNr);
+    Transfer transfer = new Transfer(account, date, destAccount, destTransfer, payee, checkNr);
     destTransfer.destTransfer = transfer;
-    destAccount.addTransaction(destTransfer);
-    account.addTransaction(transfer);
+    CREATES.increment();
     return transfer;
   }
 
   /**
    * Create a transfer between two accounts.
    * 
-   * @param id the ID of this transaction in the database
+   * @param account the {@link Account} this half of the transfer belongs to
    * @param date the date this transaction occurred
    * @param destAccount the {@link Account} the money from this transfer goes to
    * @param destTransfer the corresponding transfer in the destination
    *        {@link Account}
    */
-  private Transfer(DateMidnight date, Account destAccount, Transfer destTransfer, String payee,
-      String checkNr) {
-    super(date, payee, checkNr);
+  private Transfer(Account account, DateMidnight date, Account destAccount,
+      Transfer destTransfer, String payee, String checkNr) {
+    super(account, date, payee, checkNr);
     this.destAccount = checkNotNull(destAccount);
     this.destTransfer = destTransfer;
   }
@@ -77,6 +94,13 @@ public class Transfer extends Transaction {
     return destAccount;
   }
 
+  /**
+   * @return the destination account, even if this transfer is deleted
+   */
+  Account destAccount() {
+    return destAccount;
+  }
+
   /**
    * Get the destination transfer
    * 
@@ -87,6 +111,21 @@ public class Transfer extends Transaction {
     return destTransfer;
   }
 
+  /**
+   * Get the id of the destination transfer. Unlike
+   * {@code getDestTransfer().getId()}, this works while the destination is
+   * deleted, as it briefly is when a deletion is undone one half at a time.
+   */
+  public int getDestTransferId() {
+    checkValidity();
+    return destTransfer.id();
+  }
+
+  @Override
+  Transaction getPair() {
+    return destTransfer;
+  }
+
   @Override
   public String getDescription() {
     checkValidity();
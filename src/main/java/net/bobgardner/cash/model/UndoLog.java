@@ -0,0 +1,539 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Undo/redo history for one {@link Cashbox}. The model records every mutation
+ * here as it happens: a setter as its property, old value and new value, and a
+ * creation or deletion as the objects involved. Nothing is ever snapshotted.
+ *
+ * Undoing and redoing go back through the model's ordinary operations (the
+ * setters, {@link Transaction#deleteTransactions(Collection)} and so on), so
+ * they are batched, persisted and observed just like the original edits.
+ *
+ * Edits made between {@link #beginUnit(String)} and {@link #endUnit()} are
+ * undone together; imports and other bulk operations should bracket
+ * themselves this way. The log keeps an estimate of the memory it holds on to
+ * and forgets the oldest units once {@link #getMaxBytes()} is exceeded.
+ *
+ * Not thread-safe; use it from the thread that edits the model.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class UndoLog {
+  public static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+  private static final Logger LOG = Logger.getLogger(UndoLog.class.getName());
+
+  private final LinkedList<Unit> undo = Lists.newLinkedList();
+  private final LinkedList<Unit> redo = Lists.newLinkedList();
+  private long maxBytes = DEFAULT_MAX_BYTES;
+  private long bytes;
+
+  private List<Edit> open;
+  private String openName;
+  private int depth;
+  private boolean replaying;
+
+  /**
+   * Starts collecting edits into one undoable unit. Units nest; only the
+   * outermost one counts.
+   */
+  public void beginUnit(String name) {
+    if (depth++ == 0) {
+      open = Lists.newArrayList();
+      openName = checkNotNull(name);
+    }
+  }
+
+  /**
+   * Closes the unit opened by the matching {@link #beginUnit(String)}.
+   *
+   * @throws IllegalStateException if no unit is open
+   */
+  public void endUnit() {
+    checkState(depth > 0, "No unit is open.");
+    if (--depth == 0) {
+      List<Edit> edits = open;
+      open = null;
+      if (!edits.isEmpty()) push(new Unit(openName, edits.toArray(new Edit[edits.size()])));
+    }
+  }
+
+  public boolean canUndo() {
+    return depth == 0 && !undo.isEmpty();
+  }
+
+  public boolean canRedo() {
+    return depth == 0 && !redo.isEmpty();
+  }
+
+  /**
+   * @return the name of the unit {@link #undo()} would revert, or null
+   */
+  public String getUndoName() {
+    return undo.isEmpty() ? null : undo.getLast().name;
+  }
+
+  /**
+   * @return the name of the unit {@link #redo()} would reapply, or null
+   */
+  public String getRedoName() {
+    return redo.isEmpty() ? null : redo.getLast().name;
+  }
+
+  /**
+   * Reverts the most recent unit. If one of its edits fails, the edits already
+   * reverted are reapplied and the unit stays on the undo stack. Should
+   * reapplying fail as well, that failure is logged and the original one is
+   * thrown.
+   *
+   * @throws IllegalStateException if there is nothing to undo or a unit is open
+   */
+  public void undo() {
+    checkState(canUndo(), "Nothing to undo.");
+    Unit unit = undo.getLast();
+    replaying = true;
+    int i = unit.edits.length - 1;
+    try {
+      for (; i >= 0; i--) {
+        unit.edits[i].undo();
+      }
+    } catch (RuntimeException e) {
+      // Reapply what was already undone, so the unit still matches the model
+      for (i++; i < unit.edits.length; i++) {
+        compensate(unit.edits[i], true);
+      }
+      throw e;
+    } finally {
+      replaying = false;
+    }
+    redo.addLast(undo.removeLast());
+  }
+
+  /**
+   * Reapplies the most recently undone unit. If one of its edits fails, the
+   * edits already reapplied are reverted and the unit stays on the redo stack,
+   * with failures while reverting handled as in {@link #undo()}.
+   *
+   * @throws IllegalStateException if there is nothing to redo or a unit is open
+   */
+  public void redo() {
+    checkState(canRedo(), "Nothing to redo.");
+    Unit unit = redo.getLast();
+    replaying = true;
+    int i = 0;
+    try {
+      for (; i < unit.edits.length; i++) {
+        unit.edits[i].redo();
+      }
+    } catch (RuntimeException e) {
+      // Revert what was already redone, so the unit still matches the model
+      for (i--; i >= 0; i--) {
+        compensate(unit.edits[i], false);
+      }
+      throw e;
+    } finally {
+      replaying = false;
+    }
+    undo.addLast(redo.removeLast());
+  }
+
+  /**
+   * Puts back one edit of a unit whose replay failed. A failure here is only
+   * logged, so that the rest are still put back and the caller sees the
+   * failure that started it.
+   */
+  private static void compensate(Edit edit, boolean redo) {
+    try {
+      if (redo) {
+        edit.redo();
+      } else {
+        edit.undo();
+      }
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "Could not put back " + edit + " after a failed replay.", e);
+    }
+  }
+
+  public void clear() {
+    undo.clear();
+    redo.clear();
+    bytes = 0;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Sets the memory cap, forgetting old units if the log is already over it.
+   */
+  public void setMaxBytes(long maxBytes) {
+    checkArgument(maxBytes >= 0, "Memory cap must not be negative.");
+    this.maxBytes = maxBytes;
+    trim();
+  }
+
+  /**
+   * @return an estimate of the memory held by the log, including deleted
+   *         objects it keeps alive
+   */
+  public long getSizeBytes() {
+    return bytes;
+  }
+
+  void recordChange(Property property, Object target, Object oldValue, Object newValue) {
+    record(new Change(property, target, oldValue, newValue));
+  }
+
+  void recordCreate(Object... targets) {
+    record(new Existence(targets, true));
+  }
+
+  /**
+   * Records the deletion of objects that have been invalidated but otherwise
+   * left intact, so that they can be restored.
+   */
+  void recordDelete(Object... targets) {
+    record(new Existence(targets, false));
+  }
+
+  private void record(Edit edit) {
+    if (replaying) return;
+    if (open != null) {
+      open.add(edit);
+    } else {
+      push(new Unit(edit.toString(), new Edit[] {edit}));
+    }
+  }
+
+  private void push(Unit unit) {
+    // Redo only makes sense from the state it was undone to
+    for (Unit old : redo) {
+      bytes -= old.bytes;
+    }
+    redo.clear();
+    undo.addLast(unit);
+    bytes += unit.bytes;
+    trim();
+  }
+
+  private void trim() {
+    while (bytes > maxBytes && !undo.isEmpty()) {
+      bytes -= undo.removeFirst().bytes;
+    }
+  }
+
+  /**
+   * Rough shallow sizes, in bytes, used for the memory estimate.
+   */
+  private static final int OBJECT = 16;
+  private static final int REFERENCE = 8;
+  private static final int TRANSACTION = 64;
+  private static final int LINE_ITEM = 40;
+
+  private static int sizeOf(Object value) {
+    if (value instanceof String) return 40 + 2 * ((String) value).length();
+    if (value instanceof BigDecimal) return 40;
+    if (value instanceof DateMidnight) return 24;
+    // Enums and model objects are shared, not owned by the log
+    return 0;
+  }
+
+  /**
+   * A group of edits undone and redone together.
+   */
+  private static final class Unit {
+    final String name;
+    final Edit[] edits;
+    final long bytes;
+
+    Unit(String name, Edit[] edits) {
+      this.name = name;
+      this.edits = edits;
+      long total = OBJECT + REFERENCE * edits.length;
+      for (Edit edit : edits) {
+        total += edit.bytes();
+      }
+      this.bytes = total;
+    }
+  }
+
+  private abstract static class Edit {
+    abstract void undo();
+
+    abstract void redo();
+
+    abstract int bytes();
+  }
+
+  /**
+   * A setter call: which property of which object, and the values either side.
+   */
+  private static final class Change extends Edit {
+    private final Property property;
+    private final Object target;
+    private final Object oldValue;
+    private final Object newValue;
+
+    Change(Property property, Object target, Object oldValue, Object newValue) {
+      this.property = property;
+      this.target = target;
+      this.oldValue = oldValue;
+      this.newValue = newValue;
+    }
+
+    @Override
+    void undo() {
+      property.set(target, oldValue);
+    }
+
+    @Override
+    void redo() {
+      property.set(target, newValue);
+    }
+
+    @Override
+    int bytes() {
+      return OBJECT + 4 * REFERENCE + sizeOf(oldValue) + sizeOf(newValue);
+    }
+
+    @Override
+    public String toString() {
+      return "Change " + property.label;
+    }
+  }
+
+  /**
+   * Creation or deletion of a batch of objects of one kind. Deleted objects
+   * are kept (invalid) so that undoing the deletion can restore them as they
+   * were, with the same ids.
+   */
+  private static final class Existence extends Edit {
+    private final Object[] targets;
+    private final boolean created;
+
+    Existence(Object[] targets, boolean created) {
+      checkArgument(targets.length > 0, "Nothing was created or deleted.");
+      this.targets = targets;
+      this.created = created;
+    }
+
+    @Override
+    void undo() {
+      if (created) {
+        delete();
+      } else {
+        restore();
+      }
+    }
+
+    @Override
+    void redo() {
+      if (created) {
+        restore();
+      } else {
+        delete();
+      }
+    }
+
+    private void delete() {
+      if (targets[0] instanceof Transaction) {
+        Transaction.deleteTransactions(transactions(), false);
+        return;
+      }
+      for (Object target : targets) {
+        if (target instanceof Account) {
+          Account.deleteAccount((Account) target);
+        } else if (target instanceof LineItem) {
+          LineItem.deleteLineItem((LineItem) target);
+        } else {
+          Category.deleteCategory((Category) target);
+        }
+      }
+    }
+
+    private void restore() {
+      if (targets[0] instanceof Transaction) {
+        Transaction.restoreTransactions(transactions());
+        return;
+      }
+      for (Object target : targets) {
+        if (target instanceof Account) {
+          ((Account) target).restore();
+        } else if (target instanceof LineItem) {
+          ((LineItem) target).restore();
+        } else {
+          ((Category) target).restore();
+        }
+      }
+    }
+
+    private List<Transaction> transactions() {
+      List<Transaction> transactions = Lists.newArrayListWithCapacity(targets.length);
+      for (Object target : targets) {
+        transactions.add((Transaction) target);
+      }
+      return transactions;
+    }
+
+    @Override
+    int bytes() {
+      int total = OBJECT + 2 * REFERENCE + REFERENCE * targets.length;
+      if (!created) {
+        // Deleted objects are kept alive only by the log
+        for (Object target : targets) {
+          if (target instanceof Account) {
+            Account account = (Account) target;
+            total += TRANSACTION * account.countTransactions() + LINE_ITEM * account.countItems();
+          } else if (target instanceof Transaction) {
+            total += TRANSACTION + LINE_ITEM * ((Transaction) target).countItems();
+          } else if (target instanceof LineItem) {
+            total += LINE_ITEM;
+          }
+        }
+      }
+      return total;
+    }
+
+    @Override
+    public String toString() {
+      String kind = targets[0].getClass().getSimpleName();
+      return (created ? "Create " : "Delete ") + kind;
+    }
+  }
+
+  /**
+   * The properties that setters change, and how to set each one.
+   */
+  enum Property {
+    ACCOUNT_NAME("account name") {
+      @Override
+      void set(Object target, Object value) {
+        ((Account) target).setName((String) value);
+      }
+    },
+    ACCOUNT_INSTITUTION("institution") {
+      @Override
+      void set(Object target, Object value) {
+        ((Account) target).setInstitution((String) value);
+      }
+    },
+    ACCOUNT_NUMBER("account number") {
+      @Override
+      void set(Object target, Object value) {
+        ((Account) target).setNumber((String) value);
+      }
+    },
+    ACCOUNT_TYPE("account type") {
+      @Override
+      void set(Object target, Object value) {
+        ((Account) target).setType((Account.Type) value);
+      }
+    },
+    ACCOUNT_NOTES("notes") {
+      @Override
+      void set(Object target, Object value) {
+        ((Account) target).setNotes((String) value);
+      }
+    },
+    TRANSACTION_DATE("date") {
+      @Override
+      void set(Object target, Object value) {
+        ((Transaction) target).setDate((DateMidnight) value);
+      }
+    },
+    TRANSACTION_PAYEE("payee") {
+      @Override
+      void set(Object target, Object value) {
+        ((Transaction) target).setPayee((String) value);
+      }
+    },
+    TRANSACTION_CHECK_NR("check number") {
+      @Override
+      void set(Object target, Object value) {
+        ((Transaction) target).setCheckNr((String) value);
+      }
+    },
+    TRANSACTION_CLEARED("cleared") {
+      @Override
+      void set(Object target, Object value) {
+        ((Transaction) target).setCleared((Boolean) value);
+      }
+    },
+    LINE_ITEM_AMOUNT("amount") {
+      @Override
+      void set(Object target, Object value) {
+        ((LineItem) target).setAmount((BigDecimal) value);
+      }
+    },
+    LINE_ITEM_CATEGORY("category") {
+      @Override
+      void set(Object target, Object value) {
+        ((LineItem) target).setCategory((Category) value);
+      }
+    },
+    LINE_ITEM_DESCRIPTION("description") {
+      @Override
+      void set(Object target, Object value) {
+        ((LineItem) target).setDescription((String) value);
+      }
+    },
+    CATEGORY_NAME("category name") {
+      @Override
+      void set(Object target, Object value) {
+        ((Category) target).setName((String) value);
+      }
+    },
+    CATEGORY_DESCRIPTION("category description") {
+      @Override
+      void set(Object target, Object value) {
+        ((Category) target).setDescription((String) value);
+      }
+    },
+    CATEGORY_PARENT("category parent") {
+      @Override
+      void set(Object target, Object value) {
+        ((Category) target).setParent((Category) value);
+      }
+    };
+
+    private final String label;
+
+    Property(String label) {
+      this.label = label;
+    }
+
+    abstract void set(Object target, Object value);
+  }
+}
@@ -0,0 +1,258 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.joda.time.DateMidnight;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of changes spanning several accounts that are applied together:
+ * transfers, moves of transactions between accounts, and reassignment of line
+ * items to other transactions.
+ *
+ * Nothing is visible until {@link #commit()}, which checks that everything
+ * staged is still valid, writes all of it to the database in one transaction
+ * (see {@link net.bobgardner.cash.persistence.DataWriter#commit}), and then
+ * publishes it to the model. Each affected account notifies its observers
+ * once, as does each transaction whose line items changed. If the database
+ * write fails the model is left untouched. The whole unit is one entry in the
+ * {@link UndoLog}.
+ *
+ * Moved transactions and reassigned line items keep their ids; the model
+ * replaces the old objects, which become invalid, with new ones.
+ *
+ * Staging is not thread-safe, but commits to the same {@link Cashbox} are
+ * serialized.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class UnitOfWork {
+  private final Cashbox cashbox;
+  private final String name;
+
+  private final List<Transaction> inserted = Lists.newArrayList();
+  private final List<Transaction> deleted = Lists.newArrayList();
+  private final List<LineItem> insertedItems = Lists.newArrayList();
+  private final List<LineItem> deletedItems = Lists.newArrayList();
+  private boolean committed;
+
+  /**
+   * @param name how the unit is described in the undo history
+   */
+  public UnitOfWork(Cashbox cashbox, String name) {
+    this.cashbox = checkNotNull(cashbox);
+    this.name = checkNotNull(name);
+  }
+
+  /**
+   * Stages a transfer between two accounts.
+   *
+   * @return the half of the transfer in {@code account}; it becomes valid
+   *         immediately, but is not in its account until the commit
+   */
+  public Transfer transfer(Account account, Account destAccount, DateMidnight date, String payee,
+      String checkNr) {
+    checkStaging();
+    checkArgument(account.isValid() && destAccount.isValid(), "Account is invalid.");
+    checkOwned(account);
+    checkOwned(destAccount);
+    checkArgument(account != destAccount, "Cannot transfer within one account.");
+    Transfer transfer = Transfer.newPair(account, destAccount, date, payee, checkNr);
+    inserted.add(transfer);
+    inserted.add(transfer.getDestTransfer());
+    return transfer;
+  }
+
+  /**
+   * Stages moving a transaction, with its line items, to another account.
+   * Transfers cannot be moved.
+   *
+   * @return the transaction as it will appear in {@code to}
+   */
+  public Transaction move(Transaction transaction, Account to) {
+    checkStaging();
+    checkArgument(transaction.isValid(), "Transaction is invalid.");
+    checkArgument(to.isValid(), "Account is invalid.");
+    checkOwned(transaction.getAccount());
+    checkOwned(to);
+    checkArgument(!(transaction instanceof Transfer), "Transfers cannot be moved.");
+    checkArgument(transaction.getAccount() != to, "Transaction is already in that account.");
+    checkArgument(!deleted.contains(transaction), "Transaction is already being moved.");
+    for (int i = 0; i < deletedItems.size(); i++) {
+      checkArgument(deletedItems.get(i).getTransaction() != transaction
+          && insertedItems.get(i).getTransaction() != transaction,
+          "Transaction has line items being reassigned.");
+    }
+    Transaction copy = transaction.copyTo(to);
+    deleted.add(transaction);
+    inserted.add(copy);
+    return copy;
+  }
+
+  /**
+   * Stages moving a line item to another transaction, which may be in another
+   * account.
+   *
+   * @return the line item as it will appear in {@code to}
+   */
+  public LineItem reassign(LineItem item, Transaction to) {
+    checkStaging();
+    checkArgument(item.isValid(), "Line item is invalid.");
+    checkArgument(to.isValid(), "Transaction is invalid.");
+    checkOwned(item.getTransaction().getAccount());
+    checkOwned(to.getAccount());
+    checkArgument(item.getTransaction() != to, "Line item is already in that transaction.");
+    checkArgument(!deleted.contains(item.getTransaction()) && !deleted.contains(to),
+        "Transaction is being moved.");
+    checkArgument(!deletedItems.contains(item), "Line item is already being reassigned.");
+    LineItem copy = item.copyTo(to);
+    deletedItems.add(item);
+    insertedItems.add(copy);
+    return copy;
+  }
+
+  /**
+   * Validates, stores and publishes everything staged.
+   *
+   * @throws IllegalStateException if the unit was already committed, or
+   *         something it touches was deleted since it was staged
+   * @throws net.bobgardner.cash.persistence.PersistenceException if the
+   *         database write fails, in which case nothing has changed
+   */
+  public void commit() {
+    checkStaging();
+    synchronized (cashbox) {
+      validate();
+      cashbox.getDataWriter().commit(deleted, deletedItems, inserted, insertedItems);
+      publish();
+      committed = true;
+    }
+    record();
+  }
+
+  private void checkStaging() {
+    checkState(!committed, "This unit of work has been committed.");
+  }
+
+  /**
+   * The commit locks and records into this unit's cashbox only, and ids are
+   * only unique within one cashbox.
+   */
+  private void checkOwned(Account account) {
+    checkArgument(account.getCashbox() == cashbox, "Account %s is in another cashbox.",
+        account.getName());
+  }
+
+  private void validate() {
+    for (Transaction transaction : inserted) {
+      checkState(transaction.getAccount().isValid(), "Account has been deleted.");
+    }
+    for (Transaction transaction : deleted) {
+      checkState(transaction.isValid(), "Transaction has been deleted.");
+    }
+    for (LineItem item : deletedItems) {
+      checkState(item.isValid(), "Line item has been deleted.");
+    }
+    for (LineItem item : insertedItems) {
+      checkState(item.getTransaction().isValid(), "Transaction has been deleted.");
+    }
+  }
+
+  private void publish() {
+    Map<Account, List<Transaction>> added = Maps.newLinkedHashMap();
+    Map<Account, List<Transaction>> removed = Maps.newLinkedHashMap();
+    Set<Transaction> changed = Sets.newLinkedHashSet();
+    for (Transaction transaction : deleted) {
+      group(removed, added, transaction);
+    }
+    for (Transaction transaction : inserted) {
+      group(added, removed, transaction);
+    }
+
+    for (Transaction transaction : deleted) {
+      transaction.invalidate();
+    }
+    for (int i = 0; i < deletedItems.size(); i++) {
+      LineItem item = deletedItems.get(i);
+      LineItem copy = insertedItems.get(i);
+      Transaction from = item.getTransaction();
+      Transaction to = copy.getTransaction();
+      item.invalidate();
+      from.detachItem(item);
+      to.attachItem(copy);
+      changed.add(from);
+      changed.add(to);
+      touch(added, removed, from.getAccount());
+      touch(added, removed, to.getAccount());
+    }
+
+    for (Map.Entry<Account, List<Transaction>> entry : added.entrySet()) {
+      entry.getKey().apply(entry.getValue(), removed.get(entry.getKey()));
+    }
+    for (Transaction transaction : changed) {
+      transaction.fireChanged();
+    }
+  }
+
+  /**
+   * Adds the transaction to its account's list in {@code into}, making sure
+   * the account has an entry in both maps.
+   */
+  private static void group(Map<Account, List<Transaction>> into,
+      Map<Account, List<Transaction>> other, Transaction transaction) {
+    Account account = transaction.getAccount();
+    touch(into, other, account);
+    into.get(account).add(transaction);
+  }
+
+  /**
+   * Gives the account an entry, possibly empty, in both maps.
+   */
+  private static void touch(Map<Account, List<Transaction>> first,
+      Map<Account, List<Transaction>> second, Account account) {
+    if (!first.containsKey(account)) {
+      first.put(account, Lists.<Transaction>newArrayList());
+      second.put(account, Lists.<Transaction>newArrayList());
+    }
+  }
+
+  private void record() {
+    UndoLog undoLog = cashbox.getUndoLog();
+    undoLog.beginUnit(name);
+    try {
+      // Undone in reverse, so the new objects go before the old ones return
+      if (!deleted.isEmpty()) undoLog.recordDelete(deleted.toArray());
+      if (!deletedItems.isEmpty()) undoLog.recordDelete(deletedItems.toArray());
+      if (!inserted.isEmpty()) undoLog.recordCreate(inserted.toArray());
+      if (!insertedItems.isEmpty()) undoLog.recordCreate(insertedItems.toArray());
+    } finally {
+      undoLog.endUnit();
+    }
+  }
+}
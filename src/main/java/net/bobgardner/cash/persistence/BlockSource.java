@@ -0,0 +1,35 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.persistence;
+
+/**
+ * Hands out blocks of record identifiers for {@link IdGenerator}. Blocks from
+ * one source never overlap, even across restarts if the source is persistent.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public interface BlockSource {
+  /**
+   * Reserves {@code size} consecutive identifiers in the given sequence.
+   *
+   * @param sequence the sequence name, which is also the name of the table
+   *        whose rows the identifiers are for
+   * @return the first identifier of the block
+   */
+  long reserve(String sequence, int size);
+}
@@ -0,0 +1,287 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+package net.bobgardner.cash.persistence;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.Lists;
+
+import net.bobgardner.cash.metrics.Histogram;
+import net.bobgardner.cash.metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The connections to one ledger file: a single writer, which the
+ * {@link SqliteDataWriter} and {@link SqliteBlockSource} share, and a small
+ * pool of readers for reports and background loading, so that reads need not
+ * queue behind edits on one shared connection.
+ *
+ * The ledger is opened in write-ahead-log mode when the SQLite library
+ * supports it, letting readers see the last commit while the writer commits
+ * the next one. Older libraries keep the rollback journal; readers then still
+ * run alongside each other, and a commit waits up to the busy timeout for
+ * them to finish.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class ConnectionManager {
+  private static final Histogram READER_WAIT =
+      Metrics.INSTANCE.histogram("persistence.reader.wait.nanos");
+
+  /**
+   * How often SQLite syncs the file to disk; see {@code PRAGMA synchronous}.
+   * In write-ahead-log mode {@link #NORMAL} only syncs at checkpoints.
+   */
+  public static enum Sync {
+    OFF, NORMAL, FULL;
+  }
+
+  /**
+   * Tuning for a {@link ConnectionManager}. The setters return this, so
+   * settings chain.
+   */
+  public static final class Settings {
+    private int readers = 4;
+    private int statementCacheSize = 32;
+    private Sync sync = Sync.NORMAL;
+    private int checkpointPages = 1000;
+    private int busyTimeoutSeconds = 5;
+
+    /**
+     * Number of read connections; default 4.
+     */
+    public Settings setReaders(int readers) {
+      checkArgument(readers > 0, "Need at least one reader.");
+      this.readers = readers;
+      return this;
+    }
+
+    /**
+     * Statements cached on each connection; default 32, and at least
+     * {@value LedgerConnection#MIN_CACHE_SIZE}.
+     */
+    public Settings setStatementCacheSize(int size) {
+      checkArgument(size >= LedgerConnection.MIN_CACHE_SIZE,
+          "Statement cache must hold at least %s.", LedgerConnection.MIN_CACHE_SIZE);
+      this.statementCacheSize = size;
+      return this;
+    }
+
+    /**
+     * Default {@link Sync#NORMAL}.
+     */
+    public Settings setSync(Sync sync) {
+      this.sync = checkNotNull(sync);
+      return this;
+    }
+
+    /**
+     * Log size in pages at which a commit checkpoints the write-ahead log
+     * into the database, or 0 to leave it to {@link #checkpoint()}; default
+     * 1000.
+     */
+    public Settings setCheckpointPages(int pages) {
+      checkArgument(pages >= 0, "Checkpoint size must not be negative.");
+      this.checkpointPages = pages;
+      return this;
+    }
+
+    /**
+     * How long a connection waits for another's lock before failing; default
+     * 5 seconds.
+     */
+    public Settings setBusyTimeoutSeconds(int seconds) {
+      checkArgument(seconds >= 0, "Timeout must not be negative.");
+      this.busyTimeoutSeconds = seconds;
+      return this;
+    }
+  }
+
+  private final LedgerConnection writer;
+  private final List<LedgerConnection> readers;
+  private final BlockingQueue<LedgerConnection> idle;
+  private final String journalMode;
+  private volatile boolean closed;
+
+  /**
+   * Opens the ledger at the given path, creating its schema if needed.
+   */
+  public ConnectionManager(String path, Settings settings) throws SQLException {
+    try {
+      Class.forName("org.sqlite.JDBC");
+    } catch (ClassNotFoundException e) {
+      throw new SQLException("SQLite driver is not on the class path.");
+    }
+    String url = "jdbc:sqlite:" + checkNotNull(path);
+    Connection connection = DriverManager.getConnection(url);
+    journalMode = configure(connection, settings, true);
+    Schema.create(connection);
+    writer = new LedgerConnection(connection, true, settings.statementCacheSize);
+    readers = Lists.newArrayListWithCapacity(settings.readers);
+    idle = new ArrayBlockingQueue<LedgerConnection>(settings.readers);
+    for (int i = 0; i < settings.readers; i++) {
+      connection = DriverManager.getConnection(url);
+      configure(connection, settings, false);
+      connection.setReadOnly(true);
+      LedgerConnection reader =
+          new LedgerConnection(connection, false, settings.statementCacheSize);
+      readers.add(reader);
+      idle.add(reader);
+    }
+  }
+
+  public ConnectionManager(String path) throws SQLException {
+    this(path, new Settings());
+  }
+
+  /**
+   * @return true if the ledger is in write-ahead-log mode
+   */
+  public boolean isWriteAheadLog() {
+    return "wal".equalsIgnoreCase(journalMode);
+  }
+
+  /**
+   * @return the journal mode SQLite settled on, such as {@code wal} or
+   *         {@code delete}
+   */
+  public String getJournalMode() {
+    return journalMode;
+  }
+
+  /**
+   * @return the writer; everything that writes through it, such as
+   *         {@link SqliteDataWriter}, {@link SqliteBlockSource} and
+   *         {@link #checkpoint()}, synchronizes on this one object around
+   *         each of its database transactions
+   */
+  public LedgerConnection getWriter() {
+    checkState(!closed, "Connections are closed.");
+    return writer;
+  }
+
+  /**
+   * Takes a reader from the pool, waiting if all are in use. Each one
+   * acquired must be given back with {@link #release(LedgerConnection)}.
+   */
+  public LedgerConnection acquireReader() throws InterruptedException {
+    checkState(!closed, "Connections are closed.");
+    long start = System.nanoTime();
+    LedgerConnection reader = idle.take();
+    READER_WAIT.recordSince(start);
+    return reader;
+  }
+
+  public void release(LedgerConnection reader) {
+    checkArgument(readers.contains(reader), "Not one of this manager's readers.");
+    checkState(!idle.contains(reader), "Reader released twice.");
+    idle.add(reader);
+  }
+
+  /**
+   * @return readers not currently acquired
+   */
+  public int getIdleReaderCount() {
+    return idle.size();
+  }
+
+  /**
+   * Copies the write-ahead log into the database and restarts it. Does
+   * nothing with the rollback journal.
+   */
+  public void checkpoint() {
+    if (!isWriteAheadLog()) return;
+    synchronized (writer) {
+      try {
+        execute(writer.getConnection(), "PRAGMA wal_checkpoint");
+      } catch (SQLException e) {
+        throw new PersistenceException("Could not checkpoint.", e);
+      }
+    }
+  }
+
+  /**
+   * Closes every connection. Readers still acquired are closed too, so close
+   * after background work has stopped.
+   */
+  public void close() {
+    if (closed) return;
+    closed = true;
+    SQLException failure = null;
+    for (LedgerConnection connection : readers) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        failure = e;
+      }
+    }
+    try {
+      checkpoint();
+      writer.close();
+    } catch (SQLException e) {
+      failure = e;
+    }
+    if (failure != null) throw new PersistenceException("Could not close ledger.", failure);
+  }
+
+  /**
+   * Applies the settings to a new connection.
+   *
+   * @return the journal mode in effect
+   */
+  private static String configure(Connection connection, Settings settings, boolean writer)
+      throws SQLException {
+    Statement statement = connection.createStatement();
+    try {
+      // The driver implements this as the connection's busy timeout
+      statement.setQueryTimeout(settings.busyTimeoutSeconds);
+      String mode = null;
+      if (writer) {
+        // Answers with the mode in effect, which stays the old one if the
+        // library predates write-ahead logging
+        ResultSet rs = statement.executeQuery("PRAGMA journal_mode = WAL");
+        mode = rs.next() ? rs.getString(1) : "delete";
+        rs.close();
+        // Ignored, like any unknown pragma, by libraries without the log
+        statement.executeUpdate("PRAGMA wal_autocheckpoint = " + settings.checkpointPages);
+      }
+      statement.executeUpdate("PRAGMA synchronous = " + settings.sync.name());
+      return mode;
+    } finally {
+      statement.close();
+    }
+  }
+
+  private static void execute(Connection connection, String sql) throws SQLException {
+    Statement statement = connection.createStatement();
+    try {
+      statement.execute(sql);
+    } finally {
+      statement.close();
+    }
+  }
+}
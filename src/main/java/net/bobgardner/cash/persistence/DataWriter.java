@@ -18,11 +18,46 @@
 package net.bobgardner.cash.persistence;
 
 import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.LineItem;
+import net.bobgardner.cash.model.Transaction;
+
+import java.util.Collection;
 
 /**
+ * Writes model objects to backing storage. The model calls these while the
+ * objects are still valid, immediately before it invalidates them.
+ *
  * @author wrg007 (Bob Gardner)
- * 
+ *
  */
 public interface DataWriter {
   void write(Account account);
+
+  /**
+   * Deletes an account together with all of its transactions and line items.
+   */
+  void deleteAccount(Account account);
+
+  /**
+   * Inserts a set of transactions (possibly from several accounts) together
+   * with their line items. Their accounts must already be stored.
+   */
+  void insertTransactions(Collection<? extends Transaction> transactions);
+
+  /**
+   * Deletes a set of transactions (possibly from several accounts) together
+   * with their line items.
+   */
+  void deleteTransactions(Collection<? extends Transaction> transactions);
+
+  /**
+   * Applies a {@link net.bobgardner.cash.model.UnitOfWork} atomically: deletes
+   * the given transactions and line items, then inserts the new ones (which
+   * may reuse the deleted ids). Inserted transactions bring their line items
+   * with them; {@code insertedItems} are items added to existing
+   * transactions.
+   */
+  void commit(Collection<? extends Transaction> deleted,
+      Collection<? extends LineItem> deletedItems, Collection<? extends Transaction> inserted,
+      Collection<? extends LineItem> insertedItems);
 }
@@ -0,0 +1,80 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.persistence;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hi/lo record identifier generator for one sequence. Identifiers are reserved
+ * from a {@link BlockSource} a block at a time and handed out from the current
+ * block without locking; only the thread that exhausts a block goes back to
+ * the source. Identifiers left in a block at exit are skipped, never reused.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class IdGenerator {
+  private final BlockSource source;
+  private final String sequence;
+  private final int blockSize;
+  private volatile Block block = new Block(0, 0);
+
+  public IdGenerator(BlockSource source, String sequence, int blockSize) {
+    this.source = checkNotNull(source);
+    this.sequence = checkNotNull(sequence);
+    checkArgument(blockSize > 0, "Block size must be positive.");
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * @return an identifier never before returned for this sequence
+   * 
+   * @throws IllegalStateException if the sequence has run out of identifiers
+   */
+  public int nextId() {
+    while (true) {
+      Block current = block;
+      long id = current.next.getAndIncrement();
+      if (id < current.end) {
+        checkState(id <= Integer.MAX_VALUE, "Sequence %s is exhausted.", sequence);
+        return (int) id;
+      }
+      refill(current);
+    }
+  }
+
+  private synchronized void refill(Block exhausted) {
+    // Another thread may have refilled while we waited for the lock
+    if (block != exhausted) return;
+    long first = source.reserve(sequence, blockSize);
+    block = new Block(first, first + blockSize);
+  }
+
+  private static final class Block {
+    final AtomicLong next;
+    final long end;
+
+    Block(long first, long end) {
+      this.next = new AtomicLong(first);
+      this.end = end;
+    }
+  }
+}
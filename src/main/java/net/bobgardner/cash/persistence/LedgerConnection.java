@@ -0,0 +1,121 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+package net.bobgardner.cash.persistence;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One of a {@link ConnectionManager}'s connections together with a cache of
+ * the statements prepared on it, so a report or load that runs the same
+ * queries again skips compiling them.
+ *
+ * Cached statements belong to the cache: callers clear their parameters as
+ * they like but must not close them. A statement is closed as soon as it is
+ * evicted, so no caller may hold more than {@link #MIN_CACHE_SIZE} of them at
+ * once, and no cache is smaller than that. A connection is used by one thread
+ * at a time; the writer, which several objects share, is locked by
+ * synchronizing on it.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class LedgerConnection {
+  /**
+   * The most cached statements any one caller holds at once:
+   * {@link SqliteDataWriter} fills its transaction and line item inserts
+   * together.
+   */
+  static final int MIN_CACHE_SIZE = 2;
+
+  private final Connection connection;
+  private final boolean writer;
+  /**
+   * Least recently used first; the eldest is closed when the cache is full.
+   */
+  private final Map<String, PreparedStatement> statements;
+
+  LedgerConnection(Connection connection, boolean writer, final int cacheSize) {
+    checkArgument(cacheSize >= MIN_CACHE_SIZE, "Statement cache must hold at least %s.",
+        MIN_CACHE_SIZE);
+    this.connection = checkNotNull(connection);
+    this.writer = writer;
+    this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+        if (size() <= cacheSize) return false;
+        close(eldest.getValue());
+        return true;
+      }
+    };
+  }
+
+  /**
+   * @return the underlying connection, for transaction control and for
+   *         statements whose SQL varies too much to cache
+   */
+  public Connection getConnection() {
+    return connection;
+  }
+
+  /**
+   * @return true for the manager's single writer, false for a reader
+   */
+  public boolean isWriter() {
+    return writer;
+  }
+
+  /**
+   * @return a cached statement for the given SQL, prepared on first use
+   */
+  public PreparedStatement prepare(String sql) throws SQLException {
+    PreparedStatement statement = statements.get(sql);
+    if (statement == null) {
+      statement = connection.prepareStatement(sql);
+      statements.put(sql, statement);
+    }
+    return statement;
+  }
+
+  /**
+   * @return how many statements are cached
+   */
+  public int getCachedStatementCount() {
+    return statements.size();
+  }
+
+  void close() throws SQLException {
+    for (PreparedStatement statement : statements.values()) {
+      close(statement);
+    }
+    statements.clear();
+    connection.close();
+  }
+
+  private static void close(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // Nothing more to release
+    }
+  }
+}
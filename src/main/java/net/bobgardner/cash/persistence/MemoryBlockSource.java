@@ -0,0 +1,47 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.persistence;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link BlockSource} that starts every sequence at zero and forgets it on
+ * exit. Used until a database is attached.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class MemoryBlockSource implements BlockSource {
+  private final ConcurrentMap<String, AtomicLong> sequences =
+      new ConcurrentHashMap<String, AtomicLong>();
+
+  @Override
+  public long reserve(String sequence, int size) {
+    checkArgument(size > 0, "Block size must be positive.");
+    AtomicLong next = sequences.get(sequence);
+    if (next == null) {
+      AtomicLong created = new AtomicLong();
+      next = sequences.putIfAbsent(sequence, created);
+      if (next == null) next = created;
+    }
+    return next.getAndAdd(size);
+  }
+}
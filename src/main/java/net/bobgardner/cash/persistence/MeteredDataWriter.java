@@ -0,0 +1,108 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.persistence;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import net.bobgardner.cash.metrics.Histogram;
+import net.bobgardner.cash.metrics.Metrics;
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.LineItem;
+import net.bobgardner.cash.model.Transaction;
+
+import java.util.Collection;
+
+/**
+ * {@link DataWriter} decorator that records write and delete latency and the
+ * number of rows (account, transactions and line items) each call covers.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class MeteredDataWriter implements DataWriter {
+  private static final Histogram WRITE_NANOS =
+      Metrics.INSTANCE.histogram("persistence.write.nanos");
+  private static final Histogram BATCH_ROWS = Metrics.INSTANCE.histogram("persistence.write.rows");
+  private static final Histogram DELETE_NANOS =
+      Metrics.INSTANCE.histogram("persistence.delete.nanos");
+  private static final Histogram DELETE_ROWS =
+      Metrics.INSTANCE.histogram("persistence.delete.rows");
+
+  private final DataWriter delegate;
+
+  public MeteredDataWriter(DataWriter delegate) {
+    this.delegate = checkNotNull(delegate);
+  }
+
+  @Override
+  public void write(Account account) {
+    long start = System.nanoTime();
+    delegate.write(account);
+    WRITE_NANOS.recordSince(start);
+    BATCH_ROWS.record(rowCount(account));
+  }
+
+  @Override
+  public void deleteAccount(Account account) {
+    int rows = rowCount(account);
+    long start = System.nanoTime();
+    delegate.deleteAccount(account);
+    DELETE_NANOS.recordSince(start);
+    DELETE_ROWS.record(rows);
+  }
+
+  @Override
+  public void insertTransactions(Collection<? extends Transaction> transactions) {
+    long start = System.nanoTime();
+    delegate.insertTransactions(transactions);
+    WRITE_NANOS.recordSince(start);
+    BATCH_ROWS.record(rowCount(transactions));
+  }
+
+  @Override
+  public void deleteTransactions(Collection<? extends Transaction> transactions) {
+    int rows = rowCount(transactions);
+    long start = System.nanoTime();
+    delegate.deleteTransactions(transactions);
+    DELETE_NANOS.recordSince(start);
+    DELETE_ROWS.record(rows);
+  }
+
+  @Override
+  public void commit(Collection<? extends Transaction> deleted,
+      Collection<? extends LineItem> deletedItems, Collection<? extends Transaction> inserted,
+      Collection<? extends LineItem> insertedItems) {
+    int rows =
+        rowCount(deleted) + deletedItems.size() + rowCount(inserted) + insertedItems.size();
+    long start = System.nanoTime();
+    delegate.commit(deleted, deletedItems, inserted, insertedItems);
+    WRITE_NANOS.recordSince(start);
+    BATCH_ROWS.record(rows);
+  }
+
+  private static int rowCount(Account account) {
+    return 1 + rowCount(account.getTransactions());
+  }
+
+  private static int rowCount(Collection<? extends Transaction> transactions) {
+    int rows = 0;
+    for (Transaction transaction : transactions) {
+      rows += 1 + transaction.getItems().size();
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,60 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.persistence;
+
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.LineItem;
+import net.bobgardner.cash.model.Transaction;
+
+import java.util.Collection;
+
+/**
+ * {@link DataWriter} that stores nothing. Used until a database is attached.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public enum NullDataWriter implements DataWriter {
+  INSTANCE;
+
+  @Override
+  public void write(Account account) {
+    // Nothing to do
+  }
+
+  @Override
+  public void deleteAccount(Account account) {
+    // Nothing to do
+  }
+
+  @Override
+  public void insertTransactions(Collection<? extends Transaction> transactions) {
+    // Nothing to do
+  }
+
+  @Override
+  public void deleteTransactions(Collection<? extends Transaction> transactions) {
+    // Nothing to do
+  }
+
+  @Override
+  public void commit(Collection<? extends Transaction> deleted,
+      Collection<? extends LineItem> deletedItems, Collection<? extends Transaction> inserted,
+      Collection<? extends LineItem> insertedItems) {
+    // Nothing to do
+  }
+}
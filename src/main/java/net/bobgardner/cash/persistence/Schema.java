@@ -0,0 +1,293 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.persistence;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * SQLite schema for a QuickCash ledger. Dates are stored as ISO-8601 text and
+ * amounts as integer cents, so that SQL can group and sum them directly.
+ *
+ * Two summary tables, {@code balance_checkpoints} (each account's balance at
+ * the end of every month in which it has transactions) and
+ * {@code category_months} (each category's net total per month), are kept
+ * current by triggers on {@code transactions} and {@code line_items}, so
+ * reports read them with {@link SummaryQueries} instead of scanning every
+ * line item. Transfers are rows in {@code transactions} and are covered by
+ * the same triggers.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class Schema {
+  public static final String ACCOUNTS = "accounts";
+  public static final String CATEGORIES = "categories";
+  public static final String TRANSACTIONS = "transactions";
+  public static final String LINE_ITEMS = "line_items";
+
+  private static final String[] TABLES = {
+      "CREATE TABLE IF NOT EXISTS accounts ("
+          + "id INTEGER PRIMARY KEY, "
+          + "name TEXT NOT NULL UNIQUE, "
+          + "institution TEXT NOT NULL, "
+          + "number TEXT NOT NULL, "
+          + "type TEXT NOT NULL, "
+          + "notes TEXT NOT NULL)",
+      "CREATE TABLE IF NOT EXISTS categories ("
+          + "id INTEGER PRIMARY KEY, "
+          + "name TEXT NOT NULL UNIQUE, "
+          + "description TEXT NOT NULL)",
+      "CREATE TABLE IF NOT EXISTS transactions ("
+          + "id INTEGER PRIMARY KEY, "
+          + "account_id INTEGER NOT NULL REFERENCES accounts(id), "
+          + "date TEXT NOT NULL, "
+          + "payee TEXT NOT NULL, "
+          + "check_nr TEXT NOT NULL, "
+          + "cleared INTEGER NOT NULL DEFAULT 0, "
+          + "transfer_id INTEGER REFERENCES transactions(id))",
+      "CREATE INDEX IF NOT EXISTS transactions_account ON transactions (account_id, date)",
+      "CREATE TABLE IF NOT EXISTS line_items ("
+          + "id INTEGER PRIMARY KEY, "
+          + "transaction_id INTEGER NOT NULL REFERENCES transactions(id), "
+          + "amount INTEGER NOT NULL, "
+          + "category_id INTEGER NOT NULL, "
+          + "description TEXT NOT NULL)",
+      "CREATE INDEX IF NOT EXISTS line_items_transaction ON line_items (transaction_id)",
+      // Balance after each month (yyyy-MM) in which an account has transactions
+      "CREATE TABLE IF NOT EXISTS balance_checkpoints ("
+          + "account_id INTEGER NOT NULL REFERENCES accounts(id), "
+          + "month TEXT NOT NULL, "
+          + "balance INTEGER NOT NULL, "
+          + "PRIMARY KEY (account_id, month))",
+      // Net of each category's line items in each month (yyyy-MM) that has any
+      "CREATE TABLE IF NOT EXISTS category_months ("
+          + "category_id INTEGER NOT NULL, "
+          + "month TEXT NOT NULL, "
+          + "total INTEGER NOT NULL, "
+          + "PRIMARY KEY (category_id, month))",
+      "CREATE TABLE IF NOT EXISTS sequences ("
+          + "name TEXT PRIMARY KEY, "
+          + "next_id INTEGER NOT NULL)",
+  };
+
+  /**
+   * The month of a row of {@code transactions} aliased as {@code t}.
+   */
+  private static final String MONTH = "substr(t.date, 1, 7)";
+
+  private static final String[] TRIGGERS = {
+      // A new transaction's month starts from the balance before it
+      "CREATE TRIGGER IF NOT EXISTS transactions_insert AFTER INSERT ON transactions BEGIN "
+          + seedBalance("NEW.id")
+          + "END",
+      "CREATE TRIGGER IF NOT EXISTS transactions_update "
+          + "AFTER UPDATE OF account_id, date ON transactions BEGIN "
+          + seedBalance("NEW.id")
+          + addBalance("OLD.id", "-", "OLD")
+          + addBalance("NEW.id", "+", "NEW")
+          + addCategories("OLD", "-")
+          + addCategories("NEW", "+")
+          + dropEmptyBalance()
+          + dropEmptyCategories("month IN (substr(OLD.date, 1, 7), substr(NEW.date, 1, 7))")
+          + "END",
+      // Normally the line items are deleted first, and the sums are zero
+      "CREATE TRIGGER IF NOT EXISTS transactions_delete AFTER DELETE ON transactions BEGIN "
+          + addBalance("OLD.id", "-", "OLD")
+          + addCategories("OLD", "-")
+          + dropEmptyBalance()
+          + dropEmptyCategories("month = substr(OLD.date, 1, 7)")
+          + "END",
+      "CREATE TRIGGER IF NOT EXISTS line_items_insert AFTER INSERT ON line_items BEGIN "
+          + addItem("NEW", "+")
+          + "END",
+      "CREATE TRIGGER IF NOT EXISTS line_items_update "
+          + "AFTER UPDATE OF transaction_id, amount, category_id ON line_items BEGIN "
+          + addItem("OLD", "-")
+          + addItem("NEW", "+")
+          + "END",
+      "CREATE TRIGGER IF NOT EXISTS line_items_delete AFTER DELETE ON line_items BEGIN "
+          + addItem("OLD", "-")
+          + "END",
+  };
+
+  /**
+   * Adds a balance checkpoint for a transaction's month if there is none,
+   * starting from the balance at the end of the month before.
+   */
+  private static String seedBalance(String transactionId) {
+    return "INSERT OR IGNORE INTO balance_checkpoints (account_id, month, balance) "
+        + "SELECT t.account_id, " + MONTH + ", COALESCE((SELECT b.balance "
+        + "FROM balance_checkpoints b WHERE b.account_id = t.account_id AND b.month < " + MONTH
+        + " ORDER BY b.month DESC LIMIT 1), 0) "
+        + "FROM transactions t WHERE t.id = " + transactionId + "; ";
+  }
+
+  /**
+   * Adds or subtracts the sum of a transaction's line items to its account's
+   * balance at the end of its month and every later one.
+   */
+  private static String addBalance(String transactionId, String sign, String row) {
+    return "UPDATE balance_checkpoints SET balance = balance " + sign
+        + " (SELECT COALESCE(SUM(amount), 0) FROM line_items WHERE transaction_id = "
+        + transactionId + ") "
+        + "WHERE account_id = " + row + ".account_id AND month >= substr(" + row
+        + ".date, 1, 7); ";
+  }
+
+  /**
+   * Adds or subtracts a transaction's line items to their categories' totals
+   * for the month of the given version of the transaction row.
+   */
+  private static String addCategories(String row, String sign) {
+    String month = "substr(" + row + ".date, 1, 7)";
+    return "INSERT OR IGNORE INTO category_months (category_id, month, total) "
+        + "SELECT DISTINCT category_id, " + month + ", 0 FROM line_items "
+        + "WHERE transaction_id = " + row + ".id; "
+        + "UPDATE category_months SET total = total " + sign
+        + " (SELECT SUM(amount) FROM line_items WHERE transaction_id = " + row + ".id "
+        + "AND category_id = category_months.category_id) "
+        + "WHERE month = " + month + " AND category_id IN "
+        + "(SELECT category_id FROM line_items WHERE transaction_id = " + row + ".id); ";
+  }
+
+  /**
+   * Adds or subtracts one line item to its account's balances and its
+   * category's total.
+   */
+  private static String addItem(String row, String sign) {
+    String where = " FROM transactions t WHERE t.id = " + row + ".transaction_id)";
+    return "UPDATE balance_checkpoints SET balance = balance " + sign + " " + row + ".amount "
+        + "WHERE account_id = (SELECT t.account_id" + where
+        + " AND month >= (SELECT " + MONTH + where + "; "
+        + "INSERT OR IGNORE INTO category_months (category_id, month, total) "
+        + "SELECT " + row + ".category_id, " + MONTH + ", 0 FROM transactions t "
+        + "WHERE t.id = " + row + ".transaction_id; "
+        + "UPDATE category_months SET total = total " + sign + " " + row + ".amount "
+        + "WHERE category_id = " + row + ".category_id AND month = (SELECT " + MONTH + where
+        + "; "
+        + dropEmptyCategories("category_id = " + row + ".category_id");
+  }
+
+  /**
+   * Drops the old month's checkpoint if the account has no transactions left
+   * in it.
+   */
+  private static String dropEmptyBalance() {
+    return "DELETE FROM balance_checkpoints WHERE account_id = OLD.account_id "
+        + "AND month = substr(OLD.date, 1, 7) AND NOT EXISTS (SELECT 1 FROM transactions t "
+        + "WHERE t.account_id = OLD.account_id AND " + MONTH + " = substr(OLD.date, 1, 7)); ";
+  }
+
+  /**
+   * Drops the category months matching a condition that net to zero.
+   */
+  private static String dropEmptyCategories(String where) {
+    return "DELETE FROM category_months WHERE total = 0 AND " + where + "; ";
+  }
+
+  private Schema() {
+    // Utility class should not be instantiated
+  }
+
+  /**
+   * @throws ArithmeticException if the amount has fractions of a cent
+   */
+  public static long toCents(BigDecimal amount) {
+    return amount.setScale(2).unscaledValue().longValue();
+  }
+
+  public static BigDecimal fromCents(long cents) {
+    return BigDecimal.valueOf(cents, 2);
+  }
+
+  public static String toSqlDate(DateMidnight date) {
+    return date.toString("yyyy-MM-dd");
+  }
+
+  public static DateMidnight fromSqlDate(String date) {
+    return new DateMidnight(date);
+  }
+
+  /**
+   * @return the {@code yyyy-MM} month that the summary tables key by
+   */
+  public static String toSqlMonth(DateMidnight date) {
+    return date.toString("yyyy-MM");
+  }
+
+  /**
+   * @return the first day of a {@code yyyy-MM} month
+   */
+  public static DateMidnight fromSqlMonth(String month) {
+    return new DateMidnight(month + "-01");
+  }
+
+  /**
+   * Creates any tables, indexes and triggers that do not exist yet. A ledger
+   * written before the summary tables existed has them filled in.
+   */
+  public static void create(Connection connection) throws SQLException {
+    Statement statement = connection.createStatement();
+    try {
+      ResultSet rs = statement.executeQuery(
+          "SELECT COUNT(*) FROM sqlite_master WHERE type = 'trigger'");
+      boolean summarized = rs.next() && rs.getInt(1) > 0;
+      rs.close();
+      for (String sql : TABLES) {
+        statement.executeUpdate(sql);
+      }
+      for (String sql : TRIGGERS) {
+        statement.executeUpdate(sql);
+      }
+      if (!summarized) rebuildSummaries(connection);
+    } finally {
+      statement.close();
+    }
+  }
+
+  /**
+   * Recomputes the summary tables from scratch, for example after rows were
+   * changed with the triggers missing.
+   */
+  public static void rebuildSummaries(Connection connection) throws SQLException {
+    Statement statement = connection.createStatement();
+    try {
+      statement.executeUpdate("DELETE FROM balance_checkpoints");
+      statement.executeUpdate("INSERT INTO balance_checkpoints (account_id, month, balance) "
+          + "SELECT m.account_id, m.month, "
+          + "(SELECT COALESCE(SUM(li.amount), 0) FROM transactions t "
+          + "JOIN line_items li ON li.transaction_id = t.id "
+          // Dates are yyyy-MM-dd, so this is every date through the month
+          + "WHERE t.account_id = m.account_id AND t.date <= m.month || '-31') "
+          + "FROM (SELECT DISTINCT account_id, substr(date, 1, 7) AS month "
+          + "FROM transactions) m");
+      statement.executeUpdate("DELETE FROM category_months");
+      statement.executeUpdate("INSERT INTO category_months (category_id, month, total) "
+          + "SELECT li.category_id, " + MONTH + ", SUM(li.amount) FROM line_items li "
+          + "JOIN transactions t ON li.transaction_id = t.id "
+          + "GROUP BY li.category_id, " + MONTH + " HAVING SUM(li.amount) <> 0");
+    } finally {
+      statement.close();
+    }
+  }
+}
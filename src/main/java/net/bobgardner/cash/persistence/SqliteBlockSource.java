@@ -0,0 +1,105 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.persistence;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * {@link BlockSource} that keeps the high-water mark of each sequence in the
+ * {@code sequences} table, so identifiers survive restarts. A sequence seen
+ * for the first time starts after the largest id already in its table.
+ *
+ * Each reservation locks the {@link LedgerConnection}, so it cannot commit
+ * or interleave with a {@link SqliteDataWriter} call on the same writer.
+ * Its statements come from the connection's statement cache.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class SqliteBlockSource implements BlockSource {
+  private final LedgerConnection ledger;
+  private final Connection connection;
+
+  /**
+   * @param ledger the {@link ConnectionManager}'s writer
+   */
+  public SqliteBlockSource(LedgerConnection ledger) {
+    this.ledger = checkNotNull(ledger);
+    this.connection = ledger.getConnection();
+  }
+
+  @Override
+  public long reserve(String sequence, int size) {
+    checkArgument(size > 0, "Block size must be positive.");
+    // The name is spliced into SQL when seeding, so keep it to a bare table name
+    checkArgument(sequence.matches("[a-z_]+"), "Bad sequence name: %s", sequence);
+    synchronized (ledger) {
+      try {
+        connection.setAutoCommit(false);
+        try {
+          // Write first, so that the database lock is taken before reading
+          int updated =
+              update("UPDATE sequences SET next_id = next_id + ? WHERE name = ?", size, sequence);
+          if (updated == 0) {
+            long seed = query("SELECT COALESCE(MAX(id) + 1, 0) FROM " + sequence);
+            update("INSERT INTO sequences (name, next_id) VALUES (?, ?)", sequence, seed + size);
+          }
+          PreparedStatement statement =
+              ledger.prepare("SELECT next_id FROM sequences WHERE name = ?");
+          statement.setString(1, sequence);
+          long first = firstLong(statement) - size;
+          connection.commit();
+          return first;
+        } catch (SQLException e) {
+          connection.rollback();
+          throw e;
+        } finally {
+          connection.setAutoCommit(true);
+        }
+      } catch (SQLException e) {
+        throw new PersistenceException("Could not reserve ids for " + sequence + ".", e);
+      }
+    }
+  }
+
+  private int update(String sql, Object first, Object second) throws SQLException {
+    PreparedStatement statement = ledger.prepare(sql);
+    statement.setObject(1, first);
+    statement.setObject(2, second);
+    return statement.executeUpdate();
+  }
+
+  private long query(String sql) throws SQLException {
+    return firstLong(ledger.prepare(sql));
+  }
+
+  private static long firstLong(PreparedStatement statement) throws SQLException {
+    ResultSet rs = statement.executeQuery();
+    try {
+      rs.next();
+      return rs.getLong(1);
+    } finally {
+      rs.close();
+    }
+  }
+}
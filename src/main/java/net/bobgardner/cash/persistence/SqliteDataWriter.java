@@ -0,0 +1,290 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.persistence;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Lists;
+
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.LineItem;
+import net.bobgardner.cash.model.Transaction;
+import net.bobgardner.cash.model.Transfer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * {@link DataWriter} backed by a SQLite database laid out by {@link Schema}.
+ * Every call runs in its own database transaction, rolled back if anything
+ * goes wrong, and deletes are issued as a handful of set-based statements
+ * regardless of how many rows they cover.
+ * The summary tables are left to the triggers that {@link Schema} installs.
+ *
+ * Each call locks the {@link LedgerConnection}, as every other user of the
+ * writer does, so its transaction is not committed or interleaved by theirs.
+ * Statements with fixed SQL come from the connection's statement cache;
+ * deletes by id list vary with the list's length and are prepared each time.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class SqliteDataWriter implements DataWriter {
+  /**
+   * SQLite refuses statements with more than 999 parameters.
+   */
+  private static final int MAX_IN_LIST = 500;
+
+  private final LedgerConnection ledger;
+  private final Connection connection;
+
+  /**
+   * @param ledger the {@link ConnectionManager}'s writer
+   */
+  public SqliteDataWriter(LedgerConnection ledger) {
+    this.ledger = checkNotNull(ledger);
+    this.connection = ledger.getConnection();
+  }
+
+  @Override
+  public void write(Account account) {
+    synchronized (ledger) {
+      try {
+        connection.setAutoCommit(false);
+        boolean committed = false;
+        try {
+          deleteAccountRows(account.getId(), false);
+          PreparedStatement statement = ledger.prepare("INSERT OR REPLACE INTO accounts "
+              + "(id, name, institution, number, type, notes) VALUES (?, ?, ?, ?, ?, ?)");
+          statement.setInt(1, account.getId());
+          statement.setString(2, account.getName());
+          statement.setString(3, account.getInstitution());
+          statement.setString(4, account.getNumber());
+          statement.setString(5, account.getType().name());
+          statement.setString(6, account.getNotes());
+          statement.executeUpdate();
+          insertRows(account.getTransactions());
+          connection.commit();
+          committed = true;
+        } finally {
+          endTransaction(committed);
+        }
+      } catch (SQLException e) {
+        throw new PersistenceException("Could not write account.", e);
+      }
+    }
+  }
+
+  @Override
+  public void deleteAccount(Account account) {
+    synchronized (ledger) {
+      try {
+        connection.setAutoCommit(false);
+        boolean committed = false;
+        try {
+          deleteAccountRows(account.getId(), true);
+          connection.commit();
+          committed = true;
+        } finally {
+          endTransaction(committed);
+        }
+      } catch (SQLException e) {
+        throw new PersistenceException("Could not delete account.", e);
+      }
+    }
+  }
+
+  @Override
+  public void insertTransactions(Collection<? extends Transaction> transactions) {
+    synchronized (ledger) {
+      try {
+        connection.setAutoCommit(false);
+        boolean committed = false;
+        try {
+          insertRows(transactions);
+          connection.commit();
+          committed = true;
+        } finally {
+          endTransaction(committed);
+        }
+      } catch (SQLException e) {
+        throw new PersistenceException("Could not insert transactions.", e);
+      }
+    }
+  }
+
+  @Override
+  public void deleteTransactions(Collection<? extends Transaction> transactions) {
+    synchronized (ledger) {
+      try {
+        connection.setAutoCommit(false);
+        boolean committed = false;
+        try {
+          deleteRows(transactions);
+          connection.commit();
+          committed = true;
+        } finally {
+          endTransaction(committed);
+        }
+      } catch (SQLException e) {
+        throw new PersistenceException("Could not delete transactions.", e);
+      }
+    }
+  }
+
+  @Override
+  public void commit(Collection<? extends Transaction> deleted,
+      Collection<? extends LineItem> deletedItems, Collection<? extends Transaction> inserted,
+      Collection<? extends LineItem> insertedItems) {
+    synchronized (ledger) {
+      List<Integer> itemIds = Lists.newArrayListWithCapacity(deletedItems.size());
+      for (LineItem item : deletedItems) {
+        itemIds.add(item.getId());
+      }
+      try {
+        connection.setAutoCommit(false);
+        boolean committed = false;
+        try {
+          deleteRows(deleted);
+          for (List<Integer> chunk : Lists.partition(itemIds, MAX_IN_LIST)) {
+            executeForIds("DELETE FROM line_items WHERE id IN " + inList(chunk.size()), chunk);
+          }
+          insertRows(inserted);
+          PreparedStatement items = prepareItemInsert();
+          for (LineItem item : insertedItems) {
+            addItem(items, item);
+          }
+          items.executeBatch();
+          connection.commit();
+          committed = true;
+        } finally {
+          endTransaction(committed);
+        }
+      } catch (SQLException e) {
+        throw new PersistenceException("Could not commit unit of work.", e);
+      }
+    }
+  }
+
+  /**
+   * Rolls back unless the transaction was committed, whatever was thrown, so
+   * that turning auto-commit back on never commits part of a call.
+   */
+  private void endTransaction(boolean committed) throws SQLException {
+    try {
+      if (!committed) connection.rollback();
+    } finally {
+      connection.setAutoCommit(true);
+    }
+  }
+
+  private void deleteAccountRows(int accountId, boolean includingAccount) throws SQLException {
+    executeForId("DELETE FROM line_items WHERE transaction_id IN "
+        + "(SELECT id FROM transactions WHERE account_id = ?)", accountId);
+    executeForId("DELETE FROM transactions WHERE account_id = ?", accountId);
+    if (includingAccount) executeForId("DELETE FROM accounts WHERE id = ?", accountId);
+  }
+
+  private void deleteRows(Collection<? extends Transaction> transactions) throws SQLException {
+    List<Integer> ids = Lists.newArrayListWithCapacity(transactions.size());
+    for (Transaction transaction : transactions) {
+      ids.add(transaction.getId());
+    }
+    for (List<Integer> chunk : Lists.partition(ids, MAX_IN_LIST)) {
+      String in = inList(chunk.size());
+      executeForIds("DELETE FROM line_items WHERE transaction_id IN " + in, chunk);
+      executeForIds("DELETE FROM transactions WHERE id IN " + in, chunk);
+    }
+  }
+
+  private void insertRows(Collection<? extends Transaction> rows) throws SQLException {
+    PreparedStatement transactions = ledger.prepare("INSERT INTO transactions "
+        + "(id, account_id, date, payee, check_nr, cleared, transfer_id) "
+        + "VALUES (?, ?, ?, ?, ?, ?, ?)");
+    transactions.clearBatch();
+    PreparedStatement items = prepareItemInsert();
+    for (Transaction transaction : rows) {
+      transactions.setInt(1, transaction.getId());
+      transactions.setInt(2, transaction.getAccount().getId());
+      transactions.setString(3, Schema.toSqlDate(transaction.getDate()));
+      transactions.setString(4, transaction.getPayee());
+      transactions.setString(5, transaction.getCheckNr());
+      transactions.setInt(6, transaction.isCleared() ? 1 : 0);
+      if (transaction instanceof Transfer) {
+        transactions.setInt(7, ((Transfer) transaction).getDestTransferId());
+      } else {
+        transactions.setNull(7, Types.INTEGER);
+      }
+      transactions.addBatch();
+      for (LineItem item : transaction.getItems()) {
+        addItem(items, item);
+      }
+    }
+    transactions.executeBatch();
+    items.executeBatch();
+  }
+
+  /**
+   * @return the cached line item insert, with any batch left by a failed call
+   *         cleared
+   */
+  private PreparedStatement prepareItemInsert() throws SQLException {
+    PreparedStatement items = ledger.prepare("INSERT INTO line_items "
+        + "(id, transaction_id, amount, category_id, description) VALUES (?, ?, ?, ?, ?)");
+    items.clearBatch();
+    return items;
+  }
+
+  private static void addItem(PreparedStatement items, LineItem item) throws SQLException {
+    items.setInt(1, item.getId());
+    items.setInt(2, item.getTransaction().getId());
+    items.setLong(3, Schema.toCents(item.getAmount()));
+    items.setInt(4, item.getCategory().getId());
+    items.setString(5, item.getDescription());
+    items.addBatch();
+  }
+
+  private void executeForId(String sql, int id) throws SQLException {
+    PreparedStatement statement = ledger.prepare(sql);
+    statement.setInt(1, id);
+    statement.executeUpdate();
+  }
+
+  private void executeForIds(String sql, List<Integer> ids) throws SQLException {
+    PreparedStatement statement = connection.prepareStatement(sql);
+    try {
+      for (int i = 0; i < ids.size(); i++) {
+        statement.setInt(i + 1, ids.get(i));
+      }
+      statement.executeUpdate();
+    } finally {
+      statement.close();
+    }
+  }
+
+  private static String inList(int size) {
+    StringBuilder sb = new StringBuilder("(");
+    for (int i = 0; i < size; i++) {
+      sb.append(i == 0 ? "?" : ", ?");
+    }
+    return sb.append(')').toString();
+  }
+}
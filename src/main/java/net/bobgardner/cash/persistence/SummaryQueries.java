@@ -0,0 +1,163 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.persistence;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Maps;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Reports read straight from the summary tables that {@link Schema}'s
+ * triggers maintain, for batch jobs and other callers that have a database
+ * but no loaded {@link net.bobgardner.cash.model.Cashbox}. Each query touches
+ * one row per account or category per month, however many line items the
+ * ledger holds.
+ *
+ * Months are given as any date within them. The queries are prepared once
+ * per connection, through its statement cache.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class SummaryQueries {
+  private final LedgerConnection ledger;
+
+  /**
+   * @param ledger a connection to read with, such as a reader the caller
+   *        holds from a {@link ConnectionManager}
+   */
+  public SummaryQueries(LedgerConnection ledger) {
+    this.ledger = checkNotNull(ledger);
+  }
+
+  /**
+   * @return the account's balance at the end of each month whose
+   *         transactions change it, keyed by the last day of the month
+   */
+  public SortedMap<DateMidnight, BigDecimal> getMonthEndBalances(int accountId) {
+    SortedMap<DateMidnight, BigDecimal> balances = Maps.newTreeMap();
+    synchronized (ledger) {
+      try {
+        PreparedStatement statement = ledger.prepare("SELECT month, balance "
+            + "FROM balance_checkpoints WHERE account_id = ? ORDER BY month");
+        statement.setInt(1, accountId);
+        ResultSet rs = statement.executeQuery();
+        try {
+          while (rs.next()) {
+            balances.put(monthEnd(rs.getString(1)), Schema.fromCents(rs.getLong(2)));
+          }
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new PersistenceException("Could not read balances.", e);
+      }
+    }
+    return balances;
+  }
+
+  /**
+   * @return the account's balance at the end of the given month
+   */
+  public BigDecimal getMonthEndBalance(int accountId, DateMidnight month) {
+    synchronized (ledger) {
+      try {
+        PreparedStatement statement = ledger.prepare("SELECT balance "
+            + "FROM balance_checkpoints WHERE account_id = ? AND month <= ? "
+            + "ORDER BY month DESC LIMIT 1");
+        statement.setInt(1, accountId);
+        statement.setString(2, Schema.toSqlMonth(month));
+        ResultSet rs = statement.executeQuery();
+        try {
+          return rs.next() ? Schema.fromCents(rs.getLong(1)) : BigDecimal.ZERO;
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new PersistenceException("Could not read balance.", e);
+      }
+    }
+  }
+
+  /**
+   * @return the net of each category's line items in the given months,
+   *         inclusive, keyed by category id and leaving out categories that
+   *         net to zero
+   */
+  public Map<Integer, BigDecimal> getCategoryTotals(DateMidnight from, DateMidnight to) {
+    Map<Integer, BigDecimal> totals = Maps.newHashMap();
+    synchronized (ledger) {
+      try {
+        PreparedStatement statement = ledger.prepare("SELECT category_id, "
+            + "SUM(total) FROM category_months WHERE month BETWEEN ? AND ? "
+            + "GROUP BY category_id HAVING SUM(total) <> 0");
+        statement.setString(1, Schema.toSqlMonth(from));
+        statement.setString(2, Schema.toSqlMonth(to));
+        ResultSet rs = statement.executeQuery();
+        try {
+          while (rs.next()) {
+            totals.put(rs.getInt(1), Schema.fromCents(rs.getLong(2)));
+          }
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new PersistenceException("Could not read category totals.", e);
+      }
+    }
+    return totals;
+  }
+
+  /**
+   * @return the net of the category's line items in each month that has
+   *         any, keyed by the first day of the month
+   */
+  public SortedMap<DateMidnight, BigDecimal> getMonthlyTotals(int categoryId) {
+    SortedMap<DateMidnight, BigDecimal> totals = Maps.newTreeMap();
+    synchronized (ledger) {
+      try {
+        PreparedStatement statement = ledger.prepare("SELECT month, total "
+            + "FROM category_months WHERE category_id = ? ORDER BY month");
+        statement.setInt(1, categoryId);
+        ResultSet rs = statement.executeQuery();
+        try {
+          while (rs.next()) {
+            totals.put(Schema.fromSqlMonth(rs.getString(1)), Schema.fromCents(rs.getLong(2)));
+          }
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new PersistenceException("Could not read monthly totals.", e);
+      }
+    }
+    return totals;
+  }
+
+  private static DateMidnight monthEnd(String month) {
+    return Schema.fromSqlMonth(month).dayOfMonth().withMaximumValue();
+  }
+}
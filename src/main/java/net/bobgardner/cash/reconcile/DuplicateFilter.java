@@ -0,0 +1,74 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.reconcile;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.DuplicateIndex;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Import stage that drops statement lines already present in an account, as
+ * happens when a bank re-sends an overlapping date range. The line's
+ * description stands in for the payee.
+ *
+ * Identical lines are counted rather than collapsed: if the account has two
+ * matching transactions and the statement three matching lines, one line is
+ * new.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class DuplicateFilter {
+  private DuplicateFilter() {
+    // Utility class
+  }
+
+  /**
+   * @return the lines of the statement that are not yet in the account, in
+   *         statement order
+   */
+  public static List<StatementLine> removeDuplicates(Account account,
+      List<StatementLine> statement) {
+    DuplicateIndex index = account.getDuplicateIndex();
+    Map<Long, Integer> seen = Maps.newHashMap();
+    List<StatementLine> fresh = Lists.newArrayList();
+    for (StatementLine line : statement) {
+      long fingerprint =
+          index.fingerprint(line.getDate(), line.getAmount(), line.getDescription(),
+              line.getCheckNr());
+      int existing = index.count(fingerprint);
+      if (existing == 0) {
+        // The common case: the Bloom filter rules the line out
+        fresh.add(line);
+        continue;
+      }
+      Integer used = seen.get(fingerprint);
+      int matched = used == null ? 0 : used;
+      if (matched < existing) {
+        seen.put(fingerprint, matched + 1);
+      } else {
+        fresh.add(line);
+      }
+    }
+    return fresh;
+  }
+}
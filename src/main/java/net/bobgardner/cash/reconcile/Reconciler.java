@@ -0,0 +1,189 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.reconcile;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.Transaction;
+
+import org.joda.time.DateMidnight;
+import org.joda.time.Days;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Matches bank statement lines against the uncleared transactions of an
+ * account.
+ *
+ * The transactions are indexed once by check number and by amount (each
+ * amount's transactions in date order), so a statement of m lines against n
+ * transactions costs O(n + m log n) rather than O(n * m). A line with a check
+ * number is matched on check number and amount; otherwise, or if no check
+ * fits, it is matched on amount, to the transaction closest in date within
+ * the tolerance. A transaction matches at most one line, and a line is
+ * ambiguous when equally good candidates fall on different dates.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class Reconciler {
+  private final int toleranceDays;
+
+  /**
+   * @param toleranceDays how many days a statement date may differ from the
+   *        transaction date, to allow for clearing delays
+   */
+  public Reconciler(int toleranceDays) {
+    checkArgument(toleranceDays >= 0, "Tolerance must not be negative.");
+    this.toleranceDays = toleranceDays;
+  }
+
+  /**
+   * Matches the statement without changing the account.
+   */
+  public Reconciliation match(Account account, List<StatementLine> statement) {
+    checkNotNull(account);
+    Map<String, List<Transaction>> byCheckNr = Maps.newHashMap();
+    Map<BigDecimal, List<Transaction>> byAmount = Maps.newHashMap();
+    Map<Transaction, BigDecimal> amounts = Maps.newHashMap();
+    // Transactions come in date order, so each amount's list is sorted by date
+    for (Transaction transaction : account.getTransactions()) {
+      if (transaction.isCleared()) continue;
+      BigDecimal amount = key(transaction.getAmount());
+      amounts.put(transaction, amount);
+      add(byAmount, amount, transaction);
+      if (!"".equals(transaction.getCheckNr())) {
+        add(byCheckNr, transaction.getCheckNr(), transaction);
+      }
+    }
+
+    Reconciliation result = new Reconciliation(account);
+    Set<Transaction> claimed = Sets.newHashSet();
+    for (StatementLine line : statement) {
+      BigDecimal amount = key(line.getAmount());
+      List<Transaction> candidates = Lists.newArrayList();
+      List<Transaction> checks = byCheckNr.get(line.getCheckNr());
+      if (checks != null) {
+        for (Transaction transaction : checks) {
+          if (amounts.get(transaction).equals(amount) && !claimed.contains(transaction)) {
+            candidates.add(transaction);
+          }
+        }
+      }
+      if (candidates.isEmpty()) {
+        candidates = closest(byAmount.get(amount), line.getDate(), claimed);
+      }
+
+      if (candidates.isEmpty()) {
+        result.addUnmatched(line);
+      } else if (candidates.size() == 1 || sameDate(candidates)) {
+        claimed.add(candidates.get(0));
+        result.addMatch(line, candidates.get(0));
+      } else {
+        result.addAmbiguous(line, candidates);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Matches the statement and marks the matched transactions cleared.
+   */
+  public Reconciliation reconcile(Account account, List<StatementLine> statement) {
+    Reconciliation result = match(account, statement);
+    result.clearMatched();
+    return result;
+  }
+
+  /**
+   * @return the amount without trailing zeros, so that 1.5 and 1.50 are the
+   *         same key and amounts with fractions of a cent simply match only
+   *         themselves
+   */
+  private static BigDecimal key(BigDecimal amount) {
+    // stripTrailingZeros leaves zero's scale alone before Java 8
+    return amount.signum() == 0 ? BigDecimal.ZERO : amount.stripTrailingZeros();
+  }
+
+  /**
+   * @return the unclaimed transactions within the tolerance that are closest
+   *         in date to the given date
+   */
+  private List<Transaction> closest(List<Transaction> sameAmount, DateMidnight date,
+      Set<Transaction> claimed) {
+    List<Transaction> closest = Lists.newArrayList();
+    if (sameAmount == null) return closest;
+    DateMidnight from = date.minusDays(toleranceDays);
+    DateMidnight to = date.plusDays(toleranceDays);
+
+    // First transaction on or after the start of the window
+    int low = 0;
+    int high = sameAmount.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sameAmount.get(mid).getDate().isBefore(from)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    int best = Integer.MAX_VALUE;
+    for (int i = low; i < sameAmount.size(); i++) {
+      Transaction transaction = sameAmount.get(i);
+      if (transaction.getDate().isAfter(to)) break;
+      if (claimed.contains(transaction)) continue;
+      int distance = Math.abs(Days.daysBetween(date, transaction.getDate()).getDays());
+      if (distance < best) {
+        best = distance;
+        closest.clear();
+      }
+      if (distance == best) closest.add(transaction);
+    }
+    return closest;
+  }
+
+  /**
+   * Transactions with the same amount and date are interchangeable as far as
+   * the statement can tell, so any of them may be matched.
+   */
+  private static boolean sameDate(List<Transaction> candidates) {
+    DateMidnight date = candidates.get(0).getDate();
+    for (Transaction candidate : candidates) {
+      if (!candidate.getDate().equals(date)) return false;
+    }
+    return true;
+  }
+
+  private static <K> void add(Map<K, List<Transaction>> index, K key, Transaction transaction) {
+    List<Transaction> list = index.get(key);
+    if (list == null) {
+      list = Lists.newArrayList();
+      index.put(key, list);
+    }
+    list.add(transaction);
+  }
+}
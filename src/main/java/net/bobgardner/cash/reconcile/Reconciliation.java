@@ -0,0 +1,100 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.reconcile;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.Transaction;
+import net.bobgardner.cash.model.UndoLog;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of matching a statement against an account: each statement
+ * line is either matched to one transaction, ambiguous between several, or
+ * unmatched.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class Reconciliation {
+  private final Account account;
+  private final Map<StatementLine, Transaction> matches = Maps.newLinkedHashMap();
+  private final Map<StatementLine, List<Transaction>> ambiguous = Maps.newLinkedHashMap();
+  private final List<StatementLine> unmatched = Lists.newArrayList();
+
+  Reconciliation(Account account) {
+    this.account = account;
+  }
+
+  void addMatch(StatementLine line, Transaction transaction) {
+    matches.put(line, transaction);
+  }
+
+  void addAmbiguous(StatementLine line, List<Transaction> candidates) {
+    ambiguous.put(line, Collections.unmodifiableList(candidates));
+  }
+
+  void addUnmatched(StatementLine line) {
+    unmatched.add(line);
+  }
+
+  public Account getAccount() {
+    return account;
+  }
+
+  /**
+   * @return each matched line and its transaction, in statement order
+   */
+  public Map<StatementLine, Transaction> getMatches() {
+    return Collections.unmodifiableMap(matches);
+  }
+
+  /**
+   * @return each line that more than one transaction fits equally well, with
+   *         those transactions
+   */
+  public Map<StatementLine, List<Transaction>> getAmbiguous() {
+    return Collections.unmodifiableMap(ambiguous);
+  }
+
+  /**
+   * @return the lines no transaction fits
+   */
+  public List<StatementLine> getUnmatched() {
+    return Collections.unmodifiableList(unmatched);
+  }
+
+  /**
+   * Marks every matched transaction cleared, as one undoable unit.
+   */
+  public void clearMatched() {
+    UndoLog undoLog = account.getCashbox().getUndoLog();
+    undoLog.beginUnit("Reconcile " + account.getName());
+    try {
+      for (Transaction transaction : matches.values()) {
+        transaction.setCleared(true);
+      }
+    } finally {
+      undoLog.endUnit();
+    }
+  }
+}
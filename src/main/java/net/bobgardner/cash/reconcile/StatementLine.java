@@ -0,0 +1,71 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.reconcile;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+
+/**
+ * One line of a bank statement. Lines are compared by identity, so a
+ * statement may contain several identical lines.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class StatementLine {
+  private final DateMidnight date;
+  private final BigDecimal amount;
+  private final String checkNr;
+  private final String description;
+
+  /**
+   * @param checkNr the check number, or the empty string if the line is not a
+   *        check
+   */
+  public StatementLine(DateMidnight date, BigDecimal amount, String checkNr, String description) {
+    this.date = checkNotNull(date);
+    this.amount = checkNotNull(amount);
+    checkNotNull(checkNr);
+    this.checkNr = checkNr.trim();
+    checkNotNull(description);
+    this.description = description.trim();
+  }
+
+  public DateMidnight getDate() {
+    return date;
+  }
+
+  public BigDecimal getAmount() {
+    return amount;
+  }
+
+  public String getCheckNr() {
+    return checkNr;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  @Override
+  public String toString() {
+    return date.toString("yyyy-MM-dd") + " " + amount + " " + description;
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.server;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.sun.net.httpserver.HttpServer;
+
+import net.bobgardner.cash.model.Cashbox;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a {@link Cashbox} as JSON over HTTP without the Swing UI. See
+ * {@link ModelHandler} for the resources.
+ *
+ * Requests run on a fixed pool of daemon threads, so a slow client ties up
+ * only its own thread and the pool bounds how many responses are built at
+ * once.
+ *
+ * The API has no authentication, so by default it listens on the loopback
+ * interface only; serving other machines takes an explicit address.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class ApiServer {
+  public static final int DEFAULT_PORT = 8080;
+  public static final int DEFAULT_THREADS = 16;
+
+  private final Cashbox cashbox;
+  private final int threads;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  public ApiServer(Cashbox cashbox) {
+    this(cashbox, DEFAULT_THREADS);
+  }
+
+  public ApiServer(Cashbox cashbox, int threads) {
+    this.cashbox = checkNotNull(cashbox);
+    checkArgument(threads > 0, "Need at least one thread.");
+    this.threads = threads;
+  }
+
+  /**
+   * Starts listening on the loopback interface.
+   *
+   * @param port the port, or 0 for any free port
+   */
+  public void start(int port) throws IOException {
+    // A null host name is the loopback address
+    start(InetAddress.getByName(null), port);
+  }
+
+  /**
+   * Starts listening on the given address, such as the wildcard address
+   * {@code 0.0.0.0} to serve every interface.
+   *
+   * @param port the port, or 0 for any free port
+   */
+  public synchronized void start(InetAddress address, int port) throws IOException {
+    checkNotNull(address);
+    checkState(server == null, "Already started.");
+    final AtomicInteger count = new AtomicInteger();
+    executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "api-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    server = HttpServer.create(new InetSocketAddress(address, port), 0);
+    server.createContext("/", new ModelHandler(cashbox));
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * @return the address and port being listened on
+   */
+  public synchronized InetSocketAddress getAddress() {
+    checkState(server != null, "Not started.");
+    return server.getAddress();
+  }
+
+  /**
+   * @return the port being listened on
+   */
+  public synchronized int getPort() {
+    checkState(server != null, "Not started.");
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Stops listening, giving requests in progress up to a second to finish.
+   */
+  public synchronized void stop() {
+    checkState(server != null, "Not started.");
+    server.stop(1);
+    executor.shutdown();
+    server = null;
+    executor = null;
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.server;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.math.BigDecimal;
+
+/**
+ * Minimal JSON builder. Values and names are appended in document order;
+ * commas are inserted automatically.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+final class JsonWriter {
+  private static final int MAX_DEPTH = 32;
+
+  private final StringBuilder out = new StringBuilder();
+  /**
+   * Whether the container at each depth already has an element.
+   */
+  private final boolean[] nonEmpty = new boolean[MAX_DEPTH];
+  private int depth;
+  private boolean afterName;
+
+  JsonWriter beginObject() {
+    return open('{');
+  }
+
+  JsonWriter endObject() {
+    return close('}');
+  }
+
+  JsonWriter beginArray() {
+    return open('[');
+  }
+
+  JsonWriter endArray() {
+    return close(']');
+  }
+
+  JsonWriter name(String name) {
+    separate();
+    string(name);
+    out.append(':');
+    afterName = true;
+    return this;
+  }
+
+  JsonWriter value(String value) {
+    if (value == null) return nullValue();
+    separate();
+    string(value);
+    return this;
+  }
+
+  JsonWriter value(long value) {
+    separate();
+    out.append(value);
+    return this;
+  }
+
+  JsonWriter value(boolean value) {
+    separate();
+    out.append(value);
+    return this;
+  }
+
+  JsonWriter value(BigDecimal value) {
+    if (value == null) return nullValue();
+    separate();
+    out.append(value.toPlainString());
+    return this;
+  }
+
+  JsonWriter nullValue() {
+    separate();
+    out.append("null");
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    checkState(depth == 0, "Unclosed object or array.");
+    return out.toString();
+  }
+
+  private JsonWriter open(char c) {
+    separate();
+    checkState(depth < MAX_DEPTH, "Nested too deeply.");
+    out.append(c);
+    nonEmpty[depth++] = false;
+    return this;
+  }
+
+  private JsonWriter close(char c) {
+    checkState(depth > 0, "Nothing to close.");
+    depth--;
+    out.append(c);
+    return this;
+  }
+
+  private void separate() {
+    if (afterName) {
+      afterName = false;
+      return;
+    }
+    if (depth > 0) {
+      if (nonEmpty[depth - 1]) out.append(',');
+      nonEmpty[depth - 1] = true;
+    }
+  }
+
+  private void string(String s) {
+    out.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"':
+          out.append("\\\"");
+          break;
+        case '\\':
+          out.append("\\\\");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        case '\t':
+          out.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            out.append(String.format("\\u%04x", (int) c));
+          } else {
+            out.append(c);
+          }
+      }
+    }
+    out.append('"');
+  }
+}
@@ -0,0 +1,452 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.server;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import net.bobgardner.cash.metrics.Counter;
+import net.bobgardner.cash.metrics.Histogram;
+import net.bobgardner.cash.metrics.Metrics;
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.Budget;
+import net.bobgardner.cash.model.Cashbox;
+import net.bobgardner.cash.model.Category;
+import net.bobgardner.cash.model.LineItem;
+import net.bobgardner.cash.model.Transaction;
+import net.bobgardner.cash.model.Transfer;
+import net.bobgardner.cash.persistence.Schema;
+
+import org.joda.time.DateMidnight;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.URLDecoder;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+/**
+ * Serves the read-only JSON API over one {@link Cashbox}:
+ *
+ * <pre>
+ * GET /accounts
+ * GET /accounts/{id}
+ * GET /accounts/{id}/transactions?limit=&amp;cursor=
+ * GET /categories
+ * GET /budgets
+ * </pre>
+ *
+ * Transactions come with their line items, oldest first, a page at a time. A
+ * page carries a {@code next} cursor to pass back for the following page, or
+ * null at the end. Cursors stay valid while the account changes.
+ *
+ * The data for each response is copied out of the model while holding the
+ * cashbox's lock, which {@link net.bobgardner.cash.model.UnitOfWork} commits
+ * also take, so a response never sees half a commit; the JSON is built after
+ * the lock is released, so requests only queue behind each other for the
+ * copy. Setters called directly, as the Swing UI does, do not take the lock;
+ * the server is meant to run without the UI.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+class ModelHandler implements HttpHandler {
+  private static final Histogram REQUEST_NANOS =
+      Metrics.INSTANCE.histogram("server.request.nanos");
+  private static final Counter ERRORS = Metrics.INSTANCE.counter("server.request.error");
+
+  static final int DEFAULT_PAGE = 100;
+  static final int MAX_PAGE = 1000;
+
+  private final Cashbox cashbox;
+
+  ModelHandler(Cashbox cashbox) {
+    this.cashbox = checkNotNull(cashbox);
+  }
+
+  /**
+   * A request that cannot be served, with the status to report.
+   */
+  private static class ApiException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final int status;
+
+    ApiException(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+  }
+
+  /**
+   * Values copied out of the model under the cashbox's lock, written as JSON
+   * once it is released.
+   */
+  private interface Snapshot {
+    void write(JsonWriter json);
+  }
+
+  private static final class AccountRow implements Snapshot {
+    final int id;
+    final String name;
+    final String institution;
+    final String number;
+    final String type;
+    final String notes;
+    final BigDecimal clearedBalance;
+
+    AccountRow(Account account) {
+      id = account.getId();
+      name = account.getName();
+      institution = account.getInstitution();
+      number = account.getNumber();
+      type = account.getType().name();
+      notes = account.getNotes();
+      clearedBalance = account.getClearedBalance();
+    }
+
+    @Override
+    public void write(JsonWriter json) {
+      json.beginObject().name("id").value(id).name("name").value(name).name("institution")
+          .value(institution).name("number").value(number).name("type").value(type)
+          .name("notes").value(notes).name("clearedBalance").value(clearedBalance).endObject();
+    }
+  }
+
+  private static final class ItemRow implements Snapshot {
+    final int id;
+    final BigDecimal amount;
+    final int category;
+    final String description;
+
+    ItemRow(LineItem item) {
+      id = item.getId();
+      amount = item.getAmount();
+      category = item.getCategory().getId();
+      description = item.getDescription();
+    }
+
+    @Override
+    public void write(JsonWriter json) {
+      json.beginObject().name("id").value(id).name("amount").value(amount).name("category")
+          .value(category).name("description").value(description).endObject();
+    }
+  }
+
+  private static final class TransactionRow implements Snapshot {
+    final int id;
+    final DateMidnight date;
+    final String payee;
+    final String checkNr;
+    final boolean cleared;
+    final BigDecimal amount;
+    /**
+     * The other account of a transfer, or null.
+     */
+    final Integer transferAccount;
+    final List<ItemRow> items;
+
+    TransactionRow(Transaction transaction) {
+      id = transaction.getId();
+      date = transaction.getDate();
+      payee = transaction.getPayee();
+      checkNr = transaction.getCheckNr();
+      cleared = transaction.isCleared();
+      amount = transaction.getAmount();
+      transferAccount = transaction instanceof Transfer
+          ? ((Transfer) transaction).getDestAccount().getId() : null;
+      SortedSet<LineItem> lineItems = transaction.getItems();
+      items = Lists.newArrayListWithCapacity(lineItems.size());
+      for (LineItem item : lineItems) {
+        items.add(new ItemRow(item));
+      }
+    }
+
+    @Override
+    public void write(JsonWriter json) {
+      json.beginObject().name("id").value(id).name("date").value(Schema.toSqlDate(date))
+          .name("payee").value(payee).name("checkNr").value(checkNr).name("cleared")
+          .value(cleared).name("amount").value(amount);
+      if (transferAccount != null) json.name("transferAccount").value(transferAccount);
+      json.name("items");
+      writeArray(json, items);
+      json.endObject();
+    }
+  }
+
+  private static final class CategoryRow implements Snapshot {
+    final int id;
+    final String name;
+    final String description;
+
+    CategoryRow(Category category) {
+      id = category.getId();
+      name = category.getName();
+      description = category.getDescription();
+    }
+
+    @Override
+    public void write(JsonWriter json) {
+      json.beginObject().name("id").value(id).name("name").value(name).name("description")
+          .value(description).endObject();
+    }
+  }
+
+  private static final class BudgetRow implements Snapshot {
+    final int year;
+    final int category;
+    final BigDecimal[] deposits = new BigDecimal[Budget.Month.values().length];
+    final BigDecimal[] withdrawals = new BigDecimal[Budget.Month.values().length];
+
+    BudgetRow(Budget budget) {
+      year = budget.getYear();
+      category = budget.getCategory().getId();
+      for (Budget.Month month : Budget.Month.values()) {
+        deposits[month.ordinal()] = budget.getDeposit(month);
+        withdrawals[month.ordinal()] = budget.getWithdrawal(month);
+      }
+    }
+
+    @Override
+    public void write(JsonWriter json) {
+      json.beginObject().name("year").value(year).name("category").value(category);
+      json.name("deposits").beginObject();
+      for (Budget.Month month : Budget.Month.values()) {
+        json.name(month.name()).value(deposits[month.ordinal()]);
+      }
+      json.endObject().name("withdrawals").beginObject();
+      for (Budget.Month month : Budget.Month.values()) {
+        json.name(month.name()).value(withdrawals[month.ordinal()]);
+      }
+      json.endObject().endObject();
+    }
+  }
+
+  /**
+   * A page of transactions and the cursor for the next one, or null.
+   */
+  private static final class Page implements Snapshot {
+    final List<TransactionRow> rows;
+    final String next;
+
+    Page(List<TransactionRow> rows, String next) {
+      this.rows = rows;
+      this.next = next;
+    }
+
+    @Override
+    public void write(JsonWriter json) {
+      json.beginObject().name("transactions");
+      writeArray(json, rows);
+      json.name("next");
+      if (next != null) {
+        json.value(next);
+      } else {
+        json.nullValue();
+      }
+      json.endObject();
+    }
+  }
+
+  /**
+   * A list written as a JSON array.
+   */
+  private static final class ArraySnapshot implements Snapshot {
+    final List<? extends Snapshot> rows;
+
+    ArraySnapshot(List<? extends Snapshot> rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public void write(JsonWriter json) {
+      writeArray(json, rows);
+    }
+  }
+
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    long start = System.nanoTime();
+    int status = 200;
+    String body;
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        throw new ApiException(405, "Only GET is supported.");
+      }
+      List<String> path = Lists.newArrayList();
+      for (String part : exchange.getRequestURI().getPath().split("/")) {
+        if (part.length() > 0) path.add(part);
+      }
+      Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+      Snapshot snapshot;
+      synchronized (cashbox) {
+        snapshot = route(path, query);
+      }
+      JsonWriter json = new JsonWriter();
+      snapshot.write(json);
+      body = json.toString();
+    } catch (ApiException e) {
+      status = e.status;
+      body = error(e.getMessage());
+    } catch (RuntimeException e) {
+      // Such as a model object deleted while it was being read
+      ERRORS.increment();
+      status = 500;
+      body = error("Internal error.");
+    }
+
+    byte[] bytes = body.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+    REQUEST_NANOS.recordSince(start);
+  }
+
+  private static String error(String message) {
+    return new JsonWriter().beginObject().name("error").value(message).endObject().toString();
+  }
+
+  /**
+   * Called with the cashbox locked; copies what the response needs and
+   * nothing more.
+   */
+  private Snapshot route(List<String> path, Map<String, String> query) {
+    if (path.size() == 1 && "accounts".equals(path.get(0))) {
+      List<AccountRow> rows = Lists.newArrayList();
+      for (Account account : cashbox.getAccounts()) {
+        rows.add(new AccountRow(account));
+      }
+      return new ArraySnapshot(rows);
+    }
+    if (path.size() == 2 && "accounts".equals(path.get(0))) {
+      return new AccountRow(findAccount(path.get(1)));
+    }
+    if (path.size() == 3 && "accounts".equals(path.get(0))
+        && "transactions".equals(path.get(2))) {
+      return transactions(findAccount(path.get(1)), query);
+    }
+    if (path.size() == 1 && "categories".equals(path.get(0))) {
+      List<CategoryRow> rows = Lists.newArrayList();
+      for (Category category : cashbox.getCategories()) {
+        rows.add(new CategoryRow(category));
+      }
+      return new ArraySnapshot(rows);
+    }
+    if (path.size() == 1 && "budgets".equals(path.get(0))) {
+      List<BudgetRow> rows = Lists.newArrayList();
+      for (Budget budget : cashbox.getBudgets()) {
+        rows.add(new BudgetRow(budget));
+      }
+      return new ArraySnapshot(rows);
+    }
+    throw new ApiException(404, "No such resource.");
+  }
+
+  private Page transactions(Account account, Map<String, String> query) {
+    int limit = DEFAULT_PAGE;
+    if (query.containsKey("limit")) {
+      try {
+        limit = Integer.parseInt(query.get("limit"));
+      } catch (NumberFormatException e) {
+        throw new ApiException(400, "Bad limit.");
+      }
+      if (limit < 1 || limit > MAX_PAGE) {
+        throw new ApiException(400, "Limit must be between 1 and " + MAX_PAGE + ".");
+      }
+    }
+
+    SortedSet<Transaction> rest;
+    String cursor = query.get("cursor");
+    if (cursor == null) {
+      rest = account.getTransactions();
+    } else {
+      int colon = cursor.indexOf(':');
+      try {
+        rest =
+            account.getTransactionsAfter(Schema.fromSqlDate(cursor.substring(0, colon)),
+                Integer.parseInt(cursor.substring(colon + 1)));
+      } catch (RuntimeException e) {
+        throw new ApiException(400, "Bad cursor.");
+      }
+    }
+
+    List<TransactionRow> rows = Lists.newArrayListWithCapacity(Math.min(limit, rest.size()));
+    Iterator<Transaction> it = rest.iterator();
+    Transaction last = null;
+    for (int i = 0; i < limit && it.hasNext(); i++) {
+      last = it.next();
+      rows.add(new TransactionRow(last));
+    }
+    return new Page(rows, it.hasNext() ? cursor(last.getDate(), last.getId()) : null);
+  }
+
+  private static String cursor(DateMidnight date, int id) {
+    return Schema.toSqlDate(date) + ":" + id;
+  }
+
+  private Account findAccount(String id) {
+    int accountId;
+    try {
+      accountId = Integer.parseInt(id);
+    } catch (NumberFormatException e) {
+      throw new ApiException(404, "No such account.");
+    }
+    Account account = cashbox.getAccount(accountId);
+    if (account != null) return account;
+    throw new ApiException(404, "No such account.");
+  }
+
+  private static void writeArray(JsonWriter json, List<? extends Snapshot> rows) {
+    json.beginArray();
+    for (Snapshot row : rows) {
+      row.write(json);
+    }
+    json.endArray();
+  }
+
+  private static Map<String, String> parseQuery(String query) {
+    Map<String, String> params = Maps.newHashMap();
+    if (query == null) return params;
+    try {
+      for (String pair : query.split("&")) {
+        int equals = pair.indexOf('=');
+        if (equals < 0) continue;
+        params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+            URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+      }
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    } catch (IllegalArgumentException e) {
+      throw new ApiException(400, "Bad query string.");
+    }
+    return params;
+  }
+}
@@ -18,12 +18,11 @@
 package net.bobgardner.cash.view;
 
 import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.Cashbox;
 
 import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.Set;
-import java.util.SortedSet;
 
 import javax.swing.*;
 
@@ -36,33 +35,23 @@ import javax.swing.*;
 class AccountListBox extends JComboBox {
   private static final JSeparator SEPARATOR = new JSeparator(SwingConstants.HORIZONTAL);
   private static final String NEW_ACCOUNT = "New account...";
-  private final Set<Account> accounts;
 
   /**
-   * @param accounts the set of {@link Account}s to display
+   * @param cashbox the ledger whose {@link Account}s to display; the list
+   *        follows its changes
    */
-  public AccountListBox(SortedSet<Account> accounts) {
-    super();
-    this.accounts = accounts;
-    refreshList();
+  public AccountListBox(Cashbox cashbox) {
+    super(new AccountListModel(cashbox, SEPARATOR, NEW_ACCOUNT));
     setRenderer(new AccountComboBoxRenderer());
     addActionListener(new AccountComboBoxListener(this));
   }
 
   /**
-   * Refresh the list of accounts
+   * @return the selected account, or null if there is none
    */
-  private void refreshList() {
-    removeAllItems();
-    for (Account account : accounts) {
-      addItem(account);
-    }
-    addItem(SEPARATOR);
-    addItem(NEW_ACCOUNT);
-  }
-
   public Account getSelectedAccount() {
-    return (Account) getSelectedItem();
+    Object selected = getSelectedItem();
+    return selected instanceof Account ? (Account) selected : null;
   }
 
   private static class AccountComboBoxRenderer extends DefaultListCellRenderer {
@@ -80,19 +69,20 @@ class AccountListBox extends JComboBox {
 
   private static class AccountComboBoxListener implements ActionListener {
     private final JComboBox combo;
-    private int lastSel = 0;
+    // The item rather than its index, which moves as accounts come and go
+    private Object lastSel;
 
     public AccountComboBoxListener(JComboBox combo) {
       this.combo = combo;
-      combo.setSelectedIndex(lastSel);
+      lastSel = combo.getSelectedItem();
     }
 
     @Override
     public void actionPerformed(ActionEvent e) {
       if (combo.getSelectedItem() instanceof JSeparator)
-        combo.setSelectedIndex(lastSel);
+        combo.setSelectedItem(lastSel);
       else
-        lastSel = combo.getSelectedIndex();
+        lastSel = combo.getSelectedItem();
     }
   }
 }
@@ -0,0 +1,149 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.view;
+
+import com.google.common.collect.Lists;
+
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.Cashbox;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+
+/**
+ * Live view of a {@link Cashbox}'s accounts, sorted by name, followed by a
+ * fixed tail of extra entries such as "New account...".
+ * 
+ * Each account added, removed or renamed is found by binary search and
+ * reported as a single list event, so a change repaints one row rather than
+ * rebuilding the list.
+ * 
+ * @author wrg007 (Bob Gardner)
+ */
+class AccountListModel extends AbstractListModel implements ComboBoxModel, Observer {
+  private final List<Account> accounts;
+  /**
+   * The name each account is listed under, which for a renamed account is
+   * the old one until the change arrives.
+   */
+  private final List<String> names;
+  private final Object[] tail;
+  private Object selected;
+
+  /**
+   * @param tail entries listed after the accounts
+   */
+  AccountListModel(Cashbox cashbox, Object... tail) {
+    this.accounts = Lists.newArrayList(cashbox.getAccounts());
+    this.names = Lists.newArrayListWithCapacity(accounts.size());
+    for (Account account : accounts) {
+      names.add(account.getName());
+    }
+    this.tail = tail.clone();
+    if (!accounts.isEmpty()) selected = accounts.get(0);
+    cashbox.addObserver(this);
+  }
+
+  @Override
+  public int getSize() {
+    return accounts.size() + tail.length;
+  }
+
+  @Override
+  public Object getElementAt(int index) {
+    return index < accounts.size() ? accounts.get(index) : tail[index - accounts.size()];
+  }
+
+  @Override
+  public Object getSelectedItem() {
+    return selected;
+  }
+
+  @Override
+  public void setSelectedItem(Object item) {
+    if (item == selected || (item != null && item.equals(selected))) return;
+    selected = item;
+    fireContentsChanged(this, -1, -1);
+  }
+
+  @Override
+  public void update(Observable o, Object arg) {
+    if (!(arg instanceof Cashbox.AccountChange)) return;
+    Cashbox.AccountChange change = (Cashbox.AccountChange) arg;
+    Account account = change.getAccount();
+    switch (change.getKind()) {
+      case ADDED:
+        int added = insertionPoint(account.getName());
+        insert(added, account);
+        fireIntervalAdded(this, added, added);
+        break;
+      case REMOVED:
+        int removed = indexOf(account.getName());
+        delete(removed);
+        fireIntervalRemoved(this, removed, removed);
+        if (account == selected) setSelectedItem(accounts.isEmpty() ? null : accounts.get(0));
+        break;
+      case RENAMED:
+        int from = indexOf(change.getOldName());
+        delete(from);
+        int to = insertionPoint(account.getName());
+        insert(to, account);
+        if (from == to) {
+          fireContentsChanged(this, from, from);
+        } else {
+          fireIntervalRemoved(this, from, from);
+          fireIntervalAdded(this, to, to);
+        }
+        break;
+      default:
+        throw new AssertionError(change.getKind());
+    }
+  }
+
+  private void insert(int index, Account account) {
+    accounts.add(index, account);
+    names.add(index, account.getName());
+  }
+
+  private void delete(int index) {
+    accounts.remove(index);
+    names.remove(index);
+  }
+
+  /**
+   * @return the index of the account listed under the given name
+   */
+  private int indexOf(String name) {
+    int index = Collections.binarySearch(names, name);
+    if (index < 0) throw new IllegalStateException("Account list is out of step: no " + name);
+    return index;
+  }
+
+  /**
+   * @return where an account with the given name belongs
+   */
+  private int insertionPoint(String name) {
+    int index = Collections.binarySearch(names, name);
+    return index < 0 ? -index - 1 : index;
+  }
+}
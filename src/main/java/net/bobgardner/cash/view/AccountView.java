@@ -17,12 +17,15 @@
 
 package net.bobgardner.cash.view;
 
+import net.bobgardner.cash.model.Account;
 import net.bobgardner.cash.model.Cashbox;
 
 import java.awt.Container;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
 import javax.swing.*;
 
@@ -43,7 +46,7 @@ public class AccountView extends JFrame {
     AbstractButton button;
     GridBagConstraints c;
 
-    AccountListBox accountList = new AccountListBox(Cashbox.INSTANCE.getAccounts());
+    final AccountListBox accountList = new AccountListBox(Cashbox.INSTANCE);
     c = new GridBagConstraints();
     c.gridx = 0;
     c.gridy = 0;
@@ -95,7 +98,16 @@ public class AccountView extends JFrame {
     c.fill = GridBagConstraints.HORIZONTAL;
     pane.add(separator, c);
 
-    JScrollPane scrollPane = new TransactionPane(accountList.getSelectedAccount());
+    final TransactionPane scrollPane = new TransactionPane(accountList.getSelectedAccount());
+    accountList.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        Object selected = accountList.getSelectedItem();
+        if (selected instanceof Account && selected != scrollPane.getAccount()) {
+          scrollPane.setAccount((Account) selected);
+        }
+      }
+    });
     c = new GridBagConstraints();
     c.gridy = 2;
     c.gridwidth = GridBagConstraints.REMAINDER;
@@ -0,0 +1,88 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.view;
+
+import com.google.common.collect.Lists;
+
+import net.bobgardner.cash.model.Cashbox;
+import net.bobgardner.cash.model.Category;
+
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+
+/**
+ * Live view of a {@link Cashbox}'s categories, sorted by name, for the
+ * register's category editor.
+ * 
+ * Categories change rarely, so each {@link Cashbox.CategoryChange} simply
+ * reloads the list; unlike a copy taken when the editor is built, categories
+ * added after startup can be picked.
+ * 
+ * @author wrg007 (Bob Gardner)
+ */
+class CategoryListModel extends AbstractListModel implements ComboBoxModel, Observer {
+  private final Cashbox cashbox;
+  private List<Category> categories;
+  private Object selected;
+
+  CategoryListModel(Cashbox cashbox) {
+    this.cashbox = cashbox;
+    this.categories = Lists.newArrayList(cashbox.getCategories());
+    cashbox.addObserver(this);
+  }
+
+  @Override
+  public int getSize() {
+    return categories.size();
+  }
+
+  @Override
+  public Object getElementAt(int index) {
+    return categories.get(index);
+  }
+
+  @Override
+  public Object getSelectedItem() {
+    return selected;
+  }
+
+  @Override
+  public void setSelectedItem(Object item) {
+    if (item == selected || (item != null && item.equals(selected))) return;
+    selected = item;
+    fireContentsChanged(this, -1, -1);
+  }
+
+  @Override
+  public void update(Observable o, Object arg) {
+    if (!(arg instanceof Cashbox.CategoryChange)) return;
+    Cashbox.CategoryChange change = (Cashbox.CategoryChange) arg;
+    int oldSize = categories.size();
+    categories = Lists.newArrayList(cashbox.getCategories());
+    if (oldSize > 0) fireIntervalRemoved(this, 0, oldSize - 1);
+    if (!categories.isEmpty()) fireIntervalAdded(this, 0, categories.size() - 1);
+    if (change.getKind() == Cashbox.CategoryChange.Kind.REMOVED
+        && change.getCategory().equals(selected)) {
+      setSelectedItem(null);
+    }
+  }
+}
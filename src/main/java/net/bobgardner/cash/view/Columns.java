@@ -8,6 +8,8 @@ import net.bobgardner.cash.model.LineItem;
 import net.bobgardner.cash.model.Transaction;
 
 import org.joda.time.DateMidnight;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 
 import java.awt.Component;
 import java.math.BigDecimal;
@@ -25,9 +27,14 @@ import javax.swing.table.TableColumn;
  * @author wrg007 (Bob Gardner)
  */
 enum Columns {
-  DISCLOSURE("", false, ImageIcon.class, 20, new DisclosureCellRenderer(), null) {
+  DISCLOSURE("", false, ImageIcon.class, 20) {
     private final Map<Transaction, DisclosureIcon> icons = Maps.newHashMap();
 
+    @Override
+    protected TableCellRenderer createRenderer() {
+      return new DisclosureCellRenderer();
+    }
+
     @Override
     public void configureColumn(TableColumn column) {
       super.configureColumn(column);
@@ -49,8 +56,23 @@ enum Columns {
     public Object getValue(LineItem item) {
       return null;
     }
+
+    @Override
+    public boolean isSortable() {
+      return false;
+    }
   },
-  DATE("Date", true, DateMidnight.class, 83, new DateCellRenderer(), new DateCellEditor()) {
+  DATE("Date", true, DateMidnight.class, 83) {
+    @Override
+    protected TableCellRenderer createRenderer() {
+      return new DateCellRenderer();
+    }
+
+    @Override
+    protected TableCellEditor createEditor() {
+      return new DateCellEditor();
+    }
+
     @Override
     public Object getValue(Transaction item) {
       return item.getDate();
@@ -61,11 +83,10 @@ enum Columns {
       return null;
     }
   },
-  CATEGORY("Category", true, Category.class, 100, null, new CategoryCellEditor()) {
+  CATEGORY("Category", true, Category.class, 100) {
     @Override
-    public void configureColumn(TableColumn column) {
-      super.configureColumn(column);
-      column.setCellEditor(new CategoryCellEditor());
+    protected TableCellEditor createEditor() {
+      return new CategoryCellEditor();
     }
 
     @Override
@@ -78,7 +99,12 @@ enum Columns {
       return item.getCategory();
     }
   },
-  PAYEE("Payee", true, String.class, 65, null, new PayeeCellEditor()) {
+  PAYEE("Payee", true, String.class, 65) {
+    @Override
+    protected TableCellEditor createEditor() {
+      return new PayeeCellEditor();
+    }
+
     @Override
     public Object getValue(Transaction item) {
       return item.getPayee();
@@ -89,7 +115,12 @@ enum Columns {
       return "...";
     }
   },
-  DESCRIPTION("Description", true, String.class, 339, null, new DescriptionCellEditor()) {
+  DESCRIPTION("Description", true, String.class, 339) {
+    @Override
+    protected TableCellEditor createEditor() {
+      return new DescriptionCellEditor();
+    }
+
     @Override
     public Object getValue(Transaction item) {
       return item.getDescription();
@@ -100,7 +131,12 @@ enum Columns {
       return item.getDescription();
     }
   },
-  CHECK_NR("Check Nr", true, String.class, 61, null, new CheckNrCellEditor()) {
+  CHECK_NR("Check Nr", true, String.class, 61) {
+    @Override
+    protected TableCellEditor createEditor() {
+      return new CheckNrCellEditor();
+    }
+
     @Override
     public Object getValue(Transaction item) {
       return item.getCheckNr();
@@ -111,7 +147,17 @@ enum Columns {
       return "...";
     }
   },
-  AMOUNT("Amount", true, BigDecimal.class, 72, new MoneyCellRenderer(), new AmountCellEditor()) {
+  AMOUNT("Amount", true, BigDecimal.class, 72) {
+    @Override
+    protected TableCellRenderer createRenderer() {
+      return new MoneyCellRenderer();
+    }
+
+    @Override
+    protected TableCellEditor createEditor() {
+      return new AmountCellEditor();
+    }
+
     @Override
     public Object getValue(Transaction item) {
       return item.getAmount();
@@ -122,7 +168,12 @@ enum Columns {
       return item.getAmount();
     }
   },
-  TOTAL("Total", false, BigDecimal.class, 69, new MoneyCellRenderer(), null) {
+  TOTAL("Total", false, BigDecimal.class, 69) {
+    @Override
+    protected TableCellRenderer createRenderer() {
+      return new MoneyCellRenderer();
+    }
+
     @Override
     public Object getValue(Transaction item) {
       // TODO Auto-generated method stub
@@ -134,23 +185,30 @@ enum Columns {
       // TODO Auto-generated method stub
       return BigDecimal.ZERO;
     }
+
+    @Override
+    public boolean isSortable() {
+      // Running totals only mean something in date order
+      return false;
+    }
   };
 
   private final String name;
   private final boolean editable;
   private final Class<?> colClass;
   private final int preferredWidth;
-  private final TableCellRenderer renderer;
-  private final TableCellEditor editor;
+  /**
+   * Built on first use, on the event dispatch thread, so loading this class
+   * creates no Swing components.
+   */
+  private TableCellRenderer renderer;
+  private TableCellEditor editor;
 
-  Columns(String name, boolean editable, Class<?> colClass, int preferredWidth,
-      TableCellRenderer renderer, TableCellEditor editor) {
+  Columns(String name, boolean editable, Class<?> colClass, int preferredWidth) {
     this.name = name;
     this.editable = editable;
     this.colClass = colClass;
     this.preferredWidth = preferredWidth;
-    this.renderer = renderer;
-    this.editor = editor;
   }
 
   public String getName() {
@@ -169,10 +227,47 @@ enum Columns {
     return preferredWidth;
   }
 
+  /**
+   * Sets up a table column for this field. The editor is left out; tables
+   * ask {@link #getEditor()} when a cell is first edited.
+   */
   public void configureColumn(TableColumn column) {
     column.setPreferredWidth(preferredWidth);
+    TableCellRenderer renderer = getRenderer();
     if (renderer != null) column.setCellRenderer(renderer);
-    if (editor != null) column.setCellEditor(editor);
+  }
+
+  /**
+   * @return this column's renderer, or null for the table's default
+   */
+  public TableCellRenderer getRenderer() {
+    if (renderer == null) renderer = createRenderer();
+    return renderer;
+  }
+
+  /**
+   * @return this column's editor, built on the first call, or null for the
+   *         table's default
+   */
+  public TableCellEditor getEditor() {
+    if (editor == null) editor = createEditor();
+    return editor;
+  }
+
+  protected TableCellRenderer createRenderer() {
+    return null;
+  }
+
+  protected TableCellEditor createEditor() {
+    return null;
+  }
+
+  /**
+   * @return whether the register can be sorted by this column, whose values
+   *         are then {@link Comparable}
+   */
+  public boolean isSortable() {
+    return true;
   }
 
   public abstract Object getValue(Transaction item);
@@ -197,11 +292,16 @@ enum Columns {
   }
 
   private static class DateCellRenderer extends DefaultTableCellRenderer {
+    /**
+     * Parsed once rather than on every cell painted.
+     */
+    private static final DateTimeFormatter FORMAT = DateTimeFormat.forPattern("d-MMM-yy");
+
     @Override
     public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
         boolean hasFocus, int row, int column) {
       DateMidnight date = (DateMidnight) value;
-      return super.getTableCellRendererComponent(table, date.toString("d-MMM-yy"), isSelected,
+      return super.getTableCellRendererComponent(table, FORMAT.print(date), isSelected,
           hasFocus, row, column);
     }
   }
@@ -214,7 +314,7 @@ enum Columns {
 
   private static class CategoryCellEditor extends DefaultCellEditor {
     public CategoryCellEditor() {
-      super(new JComboBox(Cashbox.INSTANCE.getCategories().toArray()));
+      super(new JComboBox(new CategoryListModel(Cashbox.INSTANCE)));
     }
   }
 
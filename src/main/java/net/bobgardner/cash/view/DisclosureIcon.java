@@ -29,19 +29,27 @@ import javax.swing.ImageIcon;
  * @author wrg007 (Bob Gardner)
  */
 class DisclosureIcon extends ImageIcon {
-  private static java.net.URL OPEN_URL =
-      DisclosureIcon.class.getResource("/disclosurePanelOpen.png");
-  private static java.net.URL CLOSED_URL =
-      DisclosureIcon.class.getResource("/disclosurePanelClosed.png");
-  private static Image OPEN_IMG = Toolkit.getDefaultToolkit().createImage(OPEN_URL);
-  private static Image CLOSED_IMG = Toolkit.getDefaultToolkit().createImage(CLOSED_URL);
-  private static String OPEN_DESC = "Click to hide line items";
-  private static String CLOSED_DESC = "Click to show line items";
+  private static final String OPEN_DESC = "Click to hide line items";
+  private static final String CLOSED_DESC = "Click to show line items";
+
+  /**
+   * The images, loaded when the first icon is made (that is, when the
+   * disclosure column is first painted) rather than when the register class
+   * is loaded.
+   */
+  private static class Images {
+    static final Image OPEN = load("/disclosurePanelOpen.png");
+    static final Image CLOSED = load("/disclosurePanelClosed.png");
+
+    private static Image load(String resource) {
+      return Toolkit.getDefaultToolkit().createImage(DisclosureIcon.class.getResource(resource));
+    }
+  }
 
   private boolean open;
 
   public DisclosureIcon(boolean open) {
-    super(open ? OPEN_IMG : CLOSED_IMG, open ? OPEN_DESC : CLOSED_DESC);
+    super(open ? Images.OPEN : Images.CLOSED, open ? OPEN_DESC : CLOSED_DESC);
     this.open = open;
   }
 
@@ -51,7 +59,7 @@ class DisclosureIcon extends ImageIcon {
 
   public void toggle() {
     open = !open;
-    setImage(open ? OPEN_IMG : CLOSED_IMG);
+    setImage(open ? Images.OPEN : Images.CLOSED);
     setDescription(open ? OPEN_DESC : CLOSED_DESC);
   }
 }
@@ -0,0 +1,375 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.view;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import net.bobgardner.cash.metrics.Histogram;
+import net.bobgardner.cash.metrics.Metrics;
+import net.bobgardner.cash.model.Transaction;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.table.TableModel;
+
+/**
+ * Sorts and filters the register without going through
+ * {@link TableModel#getValueAt(int, int)}.
+ * 
+ * Each row's sort key is read once from {@link Columns} when the sort column
+ * is chosen or the row changes, and the view is an {@code int[]} permutation
+ * of the model rows ordered by (key, model row), so ties keep the base date
+ * order. Inserted, deleted and updated rows are placed by binary search into
+ * the permutation; a change to many rows at once re-sorts instead. With no
+ * sort column and no filter the view is the model order and costs nothing.
+ * 
+ * @author wrg007 (Bob Gardner)
+ */
+final class RegisterSorter extends RowSorter<TableModel> {
+  private static final Histogram SORT_NANOS = Metrics.INSTANCE.histogram("ui.register.sortNanos");
+
+  /**
+   * Changes touching more than one row in this many are applied by
+   * re-sorting rather than row by row.
+   */
+  private static final int REBUILD_FRACTION = 8;
+
+  private static final Comparator<Object> NATURAL = new Comparator<Object>() {
+    @SuppressWarnings("unchecked")
+    @Override
+    public int compare(Object o1, Object o2) {
+      if (o1 instanceof String && o2 instanceof String) {
+        return String.CASE_INSENSITIVE_ORDER.compare((String) o1, (String) o2);
+      }
+      return ((Comparable<Object>) o1).compareTo(o2);
+    }
+  };
+
+  private final TableModel model;
+  /**
+   * The transactions behind the model's rows, in model order.
+   */
+  private final List<Transaction> rows;
+  private final Columns[] columns = Columns.values();
+  private List<SortKey> sortKeys = Collections.emptyList();
+  private Predicate<? super Transaction> filter;
+  /**
+   * Sort key of each model row for the sort column; empty when unsorted.
+   */
+  private final List<Object> keys = Lists.newArrayList();
+  private int sortColumn = -1;
+  private boolean descending;
+  /**
+   * Model row of each view row in the first {@link #viewCount} slots, or null
+   * when the view is the model order.
+   */
+  private int[] viewToModel;
+  private int viewCount;
+  /**
+   * Inverse of {@link #viewToModel}, rebuilt when next asked for; null when
+   * stale.
+   */
+  private int[] modelToView;
+
+  /**
+   * @param rows the live list behind the model's rows
+   */
+  RegisterSorter(TableModel model, List<Transaction> rows) {
+    this.model = checkNotNull(model);
+    this.rows = checkNotNull(rows);
+  }
+
+  @Override
+  public TableModel getModel() {
+    return model;
+  }
+
+  /**
+   * Shows only the transactions the predicate accepts, or all if it is null.
+   */
+  public void setFilter(Predicate<? super Transaction> filter) {
+    this.filter = filter;
+    resort();
+  }
+
+  @Override
+  public void toggleSortOrder(int column) {
+    if (!columns[column].isSortable()) return;
+    SortOrder order = SortOrder.ASCENDING;
+    if (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column) {
+      switch (sortKeys.get(0).getSortOrder()) {
+        case ASCENDING:
+          order = SortOrder.DESCENDING;
+          break;
+        case DESCENDING:
+          // Third click goes back to the register's own order
+          setSortKeys(null);
+          return;
+        default:
+          break;
+      }
+    }
+    setSortKeys(ImmutableList.of(new SortKey(column, order)));
+  }
+
+  @Override
+  public List<? extends SortKey> getSortKeys() {
+    return sortKeys;
+  }
+
+  /**
+   * Sorts by the first key given; later keys are ignored, since ties keep
+   * the date order.
+   */
+  @Override
+  public void setSortKeys(List<? extends SortKey> keys) {
+    List<SortKey> first = Collections.emptyList();
+    if (keys != null && !keys.isEmpty() && keys.get(0).getSortOrder() != SortOrder.UNSORTED
+        && columns[keys.get(0).getColumn()].isSortable()) {
+      first = ImmutableList.of(keys.get(0));
+    }
+    if (first.equals(sortKeys)) return;
+    sortKeys = first;
+    fireSortOrderChanged();
+    resort();
+  }
+
+  @Override
+  public int convertRowIndexToModel(int index) {
+    if (viewToModel == null) {
+      checkIndex(index, model.getRowCount());
+      return index;
+    }
+    checkIndex(index, viewCount);
+    return viewToModel[index];
+  }
+
+  @Override
+  public int convertRowIndexToView(int index) {
+    checkIndex(index, model.getRowCount());
+    if (viewToModel == null) return index;
+    if (modelToView == null) {
+      modelToView = new int[rows.size()];
+      Arrays.fill(modelToView, -1);
+      for (int v = 0; v < viewCount; v++) {
+        modelToView[viewToModel[v]] = v;
+      }
+    }
+    return modelToView[index];
+  }
+
+  @Override
+  public int getViewRowCount() {
+    return viewToModel == null ? model.getRowCount() : viewCount;
+  }
+
+  @Override
+  public int getModelRowCount() {
+    return model.getRowCount();
+  }
+
+  @Override
+  public void modelStructureChanged() {
+    resort();
+  }
+
+  @Override
+  public void allRowsChanged() {
+    resort();
+  }
+
+  @Override
+  public void rowsInserted(int firstRow, int endRow) {
+    if (viewToModel == null) return;
+    int count = endRow - firstRow + 1;
+    if (count * REBUILD_FRACTION > rows.size()) {
+      resort();
+      return;
+    }
+    if (sortColumn >= 0) keys.addAll(firstRow, Collections.nCopies(count, null));
+    for (int v = 0; v < viewCount; v++) {
+      if (viewToModel[v] >= firstRow) viewToModel[v] += count;
+    }
+    for (int m = firstRow; m <= endRow; m++) {
+      place(m);
+    }
+    modelToView = null;
+  }
+
+  @Override
+  public void rowsDeleted(int firstRow, int endRow) {
+    if (viewToModel == null) return;
+    int count = endRow - firstRow + 1;
+    if (sortColumn >= 0) keys.subList(firstRow, endRow + 1).clear();
+    int kept = 0;
+    for (int v = 0; v < viewCount; v++) {
+      int m = viewToModel[v];
+      if (m < firstRow) {
+        viewToModel[kept++] = m;
+      } else if (m > endRow) {
+        viewToModel[kept++] = m - count;
+      }
+    }
+    viewCount = kept;
+    modelToView = null;
+  }
+
+  @Override
+  public void rowsUpdated(int firstRow, int endRow) {
+    if (viewToModel == null) return;
+    if ((endRow - firstRow + 1) * REBUILD_FRACTION > rows.size()) {
+      resort();
+      return;
+    }
+    // Out of the view, then back in where their new keys belong
+    int kept = 0;
+    for (int v = 0; v < viewCount; v++) {
+      int m = viewToModel[v];
+      if (m < firstRow || m > endRow) viewToModel[kept++] = m;
+    }
+    viewCount = kept;
+    for (int m = firstRow; m <= endRow; m++) {
+      place(m);
+    }
+    modelToView = null;
+  }
+
+  @Override
+  public void rowsUpdated(int firstRow, int endRow, int column) {
+    // Only the sort column and filtered rows can move
+    if (column != sortColumn && filter == null) return;
+    rowsUpdated(firstRow, endRow);
+  }
+
+  /**
+   * Reads the key of a model row and, if the filter accepts it, inserts it
+   * into the view.
+   */
+  private void place(int m) {
+    Transaction transaction = rows.get(m);
+    if (sortColumn >= 0) keys.set(m, columns[sortColumn].getValue(transaction));
+    if (filter != null && !filter.apply(transaction)) return;
+    int low = 0;
+    int high = viewCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (compare(viewToModel[mid], m) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    if (viewCount == viewToModel.length) {
+      viewToModel = Arrays.copyOf(viewToModel, Math.max(16, viewCount * 3 / 2));
+    }
+    System.arraycopy(viewToModel, low, viewToModel, low + 1, viewCount - low);
+    viewToModel[low] = m;
+    viewCount++;
+  }
+
+  /**
+   * Rebuilds the view from scratch and tells listeners the rows moved.
+   */
+  private void resort() {
+    long start = System.nanoTime();
+    int[] last = lastViewToModel();
+    keys.clear();
+    sortColumn = -1;
+    if (sortKeys.isEmpty() && filter == null) {
+      viewToModel = null;
+    } else {
+      if (!sortKeys.isEmpty()) {
+        sortColumn = sortKeys.get(0).getColumn();
+        descending = sortKeys.get(0).getSortOrder() == SortOrder.DESCENDING;
+        Columns column = columns[sortColumn];
+        for (Transaction transaction : rows) {
+          keys.add(column.getValue(transaction));
+        }
+      }
+      int[] view = new int[rows.size()];
+      int count = 0;
+      for (int m = 0; m < view.length; m++) {
+        if (filter == null || filter.apply(rows.get(m))) view[count++] = m;
+      }
+      if (sortColumn >= 0) mergeSort(view, new int[count], 0, count);
+      viewToModel = view;
+      viewCount = count;
+    }
+    modelToView = null;
+    SORT_NANOS.recordSince(start);
+    fireRowSorterChanged(last);
+  }
+
+  private int[] lastViewToModel() {
+    if (viewToModel != null) return Arrays.copyOf(viewToModel, viewCount);
+    // The model may already have changed, so only its old rows can be named
+    int[] identity = new int[Math.min(rows.size(), model.getRowCount())];
+    for (int i = 0; i < identity.length; i++) {
+      identity[i] = i;
+    }
+    return identity;
+  }
+
+  /**
+   * Orders model rows by key, then by model row.
+   */
+  private int compare(int m1, int m2) {
+    if (sortColumn >= 0) {
+      int cmp = NATURAL.compare(keys.get(m1), keys.get(m2));
+      if (cmp != 0) return descending ? -cmp : cmp;
+    }
+    return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+  }
+
+  /**
+   * Sorts {@code a[from, to)} by {@link #compare(int, int)}, using
+   * {@code scratch} for merging.
+   */
+  private void mergeSort(int[] a, int[] scratch, int from, int to) {
+    if (to - from < 2) return;
+    int mid = (from + to) >>> 1;
+    mergeSort(a, scratch, from, mid);
+    mergeSort(a, scratch, mid, to);
+    if (compare(a[mid - 1], a[mid]) <= 0) return;
+    System.arraycopy(a, from, scratch, from, to - from);
+    int i = from;
+    int j = mid;
+    for (int k = from; k < to; k++) {
+      if (j >= to || (i < mid && compare(scratch[i], scratch[j]) <= 0)) {
+        a[k] = scratch[i++];
+      } else {
+        a[k] = scratch[j++];
+      }
+    }
+  }
+
+  private static void checkIndex(int index, int size) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Row " + index + " of " + size);
+    }
+  }
+}
@@ -17,47 +17,124 @@
 
 package net.bobgardner.cash.view;
 
-import static com.google.common.collect.Iterables.get;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
 
+import net.bobgardner.cash.metrics.Counter;
+import net.bobgardner.cash.metrics.Histogram;
+import net.bobgardner.cash.metrics.Metrics;
 import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.EpochDays;
 import net.bobgardner.cash.model.LineItem;
 import net.bobgardner.cash.model.Transaction;
 
 import java.awt.Dimension;
-import java.util.SortedSet;
+import java.awt.Graphics;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
 
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableCellEditor;
+import javax.swing.table.TableModel;
 
 /**
  * Component for displaying {@link Transaction}s.
  * 
+ * Switching accounts keeps the table and its columns and loads the new rows on
+ * a {@link SwingWorker}: the first screenful is shown as soon as it is ready
+ * and the rest follows in chunks. Switching again before a load finishes
+ * cancels it.
+ * 
+ * Clicking a column header sorts by it through a {@link RegisterSorter}.
+ * 
  * @author wrg007 (Bob Gardner)
  */
 class TransactionPane extends JScrollPane {
+  private static final Counter VALUE_AT_CALLS = Metrics.INSTANCE.counter("ui.register.getValueAt");
+  private static final Histogram VALUE_AT_PER_PAINT =
+      Metrics.INSTANCE.histogram("ui.register.getValueAtPerPaint");
+  private static final Histogram PAINT_NANOS = Metrics.INSTANCE.histogram("ui.register.paintNanos");
+  private static final Histogram LOAD_NANOS = Metrics.INSTANCE.histogram("ui.register.loadNanos");
+
+  /**
+   * Rows in the first chunk, enough to fill the pane.
+   */
+  private static final int FIRST_CHUNK = 64;
+  private static final int CHUNK = 2048;
+
   private final JTable table;
+  private final TransactionTableModel model = new TransactionTableModel();
+  private final RegisterSorter sorter = new RegisterSorter(model, model.rows);
   private Account account;
+  private RowLoader loader;
 
   public TransactionPane(Account account) {
     super(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS, JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
-    this.account = account;
-    table = new JTable();
+    table = new MeteredTable();
+    configureTable();
     setViewportView(table);
-    refresh();
+    setAccount(account);
+  }
+
+  public Account getAccount() {
+    return account;
   }
 
+  /**
+   * Visible for testing.
+   */
+  TableModel getModel() {
+    return model;
+  }
+
+  /**
+   * Shows only the transactions the predicate accepts, or all if it is null.
+   */
+  public void setFilter(Predicate<? super Transaction> filter) {
+    sorter.setFilter(filter);
+  }
+
+  /**
+   * Shows another account's transactions, replacing the rows in the
+   * background. Must be called on the event dispatch thread.
+   */
   public void setAccount(Account account) {
     this.account = account;
     refresh();
   }
 
   private void refresh() {
-    table.setModel(new TransactionTableModel(account.getTransactions()));
+    if (loader != null) loader.cancel(false);
+    loader = null;
+    model.reset(account);
+    if (account == null) return;
+    // Copied here, on the thread that edits the model, like a LedgerSnapshot;
+    // this costs one reference per row
+    Transaction[] all = account.getTransactions().toArray(new Transaction[0]);
+    if (all.length == 0) {
+      model.loaded();
+      return;
+    }
+    loader = new RowLoader(all);
+    loader.execute();
+  }
+
+  private void configureTable() {
+    table.setModel(model);
+    table.setRowSorter(sorter);
     table.setFillsViewportHeight(true);
     table.setPreferredScrollableViewportSize(new Dimension(775, 325));
     table.getTableHeader().setReorderingAllowed(false);
@@ -73,17 +150,227 @@ class TransactionPane extends JScrollPane {
   }
 
   /**
-   * Table model that holds a set of transactions and arrays them based on the
+   * Splits a copy of an account's transactions into chunks off the event
+   * dispatch thread and hands them to the model as they are ready.
+   */
+  private class RowLoader extends SwingWorker<Void, Transaction[]> {
+    private final Transaction[] all;
+    private final long start = System.nanoTime();
+
+    RowLoader(Transaction[] all) {
+      this.all = all;
+    }
+
+    @Override
+    protected Void doInBackground() {
+      int from = 0;
+      int size = FIRST_CHUNK;
+      while (from < all.length && !isCancelled()) {
+        int to = Math.min(all.length, from + size);
+        publish(Arrays.copyOfRange(all, from, to));
+        from = to;
+        size = CHUNK;
+      }
+      return null;
+    }
+
+    @Override
+    protected void process(List<Transaction[]> chunks) {
+      // Chunks can arrive after a newer load has replaced this one
+      if (loader != this) return;
+      for (Transaction[] chunk : chunks) {
+        model.append(chunk);
+      }
+      if (model.getRowCount() == all.length) {
+        model.loaded();
+        LOAD_NANOS.recordSince(start);
+      }
+    }
+  }
+
+  /**
+   * Table model that holds a list of transactions and arrays them based on the
    * {@link Columns} enum.
    * 
+   * It observes the account and the account's rows, and turns every change
+   * into an event for just the rows it touches: inserted,
+   * deleted, updated or, for a new date, moved. Structural changes that
+   * arrive while rows are still loading restart the load instead.
+   * 
    * @author wrg007 (Bob Gardner)
    */
-  private static class TransactionTableModel extends AbstractTableModel {
-    private final SortedSet<Transaction> rows;
+  private class TransactionTableModel extends AbstractTableModel implements Observer {
+    private final List<Transaction> rows = Lists.newArrayList();
+    /**
+     * The day number each row is sorted under, parallel to {@link #rows}. For
+     * a transaction whose date just changed it is the old one until the
+     * account reports the move.
+     */
+    private int[] days = new int[16];
     private final Columns[] columns = Columns.values();
+    private Account account;
+    private boolean complete;
 
-    public TransactionTableModel(SortedSet<Transaction> rows) {
-      this.rows = rows;
+    /**
+     * Empties the table and starts following another account, or none.
+     */
+    void reset(Account account) {
+      if (this.account != null) {
+        this.account.deleteObserver(this);
+        this.account.deleteRowObserver(this);
+      }
+      int last = rows.size() - 1;
+      rows.clear();
+      if (last >= 0) fireTableRowsDeleted(0, last);
+      this.account = account;
+      complete = false;
+      if (account != null) {
+        account.addObserver(this);
+        account.addRowObserver(this);
+      }
+    }
+
+    void append(Transaction[] chunk) {
+      if (chunk.length == 0) return;
+      int first = rows.size();
+      for (Transaction transaction : chunk) {
+        insertRow(rows.size(), transaction);
+      }
+      fireTableRowsInserted(first, rows.size() - 1);
+    }
+
+    /**
+     * Marks every row as loaded, after which changes are applied row by row.
+     */
+    void loaded() {
+      complete = true;
+    }
+
+    @Override
+    public void update(Observable o, Object arg) {
+      if (o == account) {
+        if (!(arg instanceof Account.TransactionsChange)) return;
+        if (!complete) {
+          refresh();
+          return;
+        }
+        Account.TransactionsChange change = (Account.TransactionsChange) arg;
+        if (!change.getRemoved().isEmpty()) removeRows(change.getRemoved());
+        for (Transaction transaction : change.getAdded()) {
+          int row = insertionPoint(transaction.getDay(), transaction.getId());
+          insertRow(row, transaction);
+          fireTableRowsInserted(row, row);
+        }
+        if (change.getMoved() != null) {
+          moveRow(change.getMoved(), EpochDays.of(change.getOldDate()));
+        }
+      } else if (arg instanceof Transaction) {
+        // Deletions are reported by the account
+        if (((Transaction) arg).isValid()) rowChanged((Transaction) arg);
+      } else if (arg instanceof LineItem) {
+        LineItem item = (LineItem) arg;
+        // The transaction reports a deleted line item
+        if (item.isValid()) rowChanged(item.getTransaction());
+      }
+    }
+
+    private void rowChanged(Transaction transaction) {
+      int row = indexOf(transaction.getDay(), transaction.getId());
+      if (row < 0) return;
+      fireTableRowsUpdated(row, row);
+    }
+
+    private void moveRow(Transaction transaction, int oldDay) {
+      int from = indexOf(oldDay, transaction.getId());
+      if (from < 0) return;
+      removeRows(from, from);
+      int to = insertionPoint(transaction.getDay(), transaction.getId());
+      insertRow(to, transaction);
+      if (from == to) {
+        fireTableRowsUpdated(from, from);
+      } else {
+        fireTableRowsDeleted(from, from);
+        fireTableRowsInserted(to, to);
+      }
+    }
+
+    /**
+     * Deletes the rows of invalidated transactions, which can no longer be
+     * asked for their sort keys, in one pass from the bottom up with one
+     * event per run of adjacent rows.
+     */
+    private void removeRows(Collection<Transaction> removed) {
+      Set<Transaction> gone =
+          Collections.newSetFromMap(new IdentityHashMap<Transaction, Boolean>());
+      gone.addAll(removed);
+      for (int high = rows.size() - 1; high >= 0; high--) {
+        if (!gone.contains(rows.get(high))) continue;
+        int low = high;
+        while (low > 0 && gone.contains(rows.get(low - 1))) {
+          low--;
+        }
+        removeRows(low, high);
+        fireTableRowsDeleted(low, high);
+        high = low;
+      }
+    }
+
+    private void insertRow(int row, Transaction transaction) {
+      rows.add(row, transaction);
+      if (rows.size() > days.length) days = Arrays.copyOf(days, 2 * days.length);
+      System.arraycopy(days, row, days, row + 1, rows.size() - 1 - row);
+      days[row] = transaction.getDay();
+    }
+
+    /**
+     * Takes out the rows from {@code low} to {@code high}, inclusive, without
+     * firing an event.
+     */
+    private void removeRows(int low, int high) {
+      System.arraycopy(days, high + 1, days, low, rows.size() - high - 1);
+      rows.subList(low, high + 1).clear();
+    }
+
+    /**
+     * @return the row listed under the given date and id, or -1
+     */
+    private int indexOf(int day, int id) {
+      int row = search(day, id);
+      return row >= 0 ? row : -1;
+    }
+
+    /**
+     * @return where a transaction with the given date and id belongs
+     */
+    private int insertionPoint(int day, int id) {
+      int row = search(day, id);
+      return row >= 0 ? row : -row - 1;
+    }
+
+    /**
+     * Binary search by (date, id), the order of {@link Account#getTransactions()}.
+     * 
+     * @return the row, or (-(insertion point) - 1) if there is none
+     */
+    private int search(int day, int id) {
+      int low = 0;
+      int high = rows.size() - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int cmp = days[mid] < day ? -1 : (days[mid] == day ? 0 : 1);
+        if (cmp == 0) {
+          int other = rows.get(mid).getId();
+          cmp = other < id ? -1 : (other == id ? 0 : 1);
+        }
+        if (cmp < 0) {
+          low = mid + 1;
+        } else if (cmp > 0) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -(low + 1);
     }
 
     @Override
@@ -108,7 +395,8 @@ class TransactionPane extends JScrollPane {
 
     @Override
     public Object getValueAt(int rowIndex, int columnIndex) {
-      return columns[columnIndex].getValue(get(rows, rowIndex));
+      VALUE_AT_CALLS.increment();
+      return columns[columnIndex].getValue(rows.get(rowIndex));
     }
 
     @Override
@@ -125,6 +413,33 @@ class TransactionPane extends JScrollPane {
     }
   }
 
+  /**
+   * Table that records how many cells each repaint asks the model for, and how
+   * long the repaint takes.
+   */
+  private static class MeteredTable extends JTable {
+    private static final Columns[] COLUMNS = Columns.values();
+
+    @Override
+    protected void paintComponent(Graphics g) {
+      long calls = VALUE_AT_CALLS.getCount();
+      long start = System.nanoTime();
+      super.paintComponent(g);
+      PAINT_NANOS.recordSince(start);
+      VALUE_AT_PER_PAINT.record(VALUE_AT_CALLS.getCount() - calls);
+    }
+
+    /**
+     * Editors are built when a column is first edited rather than when the
+     * register is laid out.
+     */
+    @Override
+    public TableCellEditor getCellEditor(int row, int column) {
+      TableCellEditor editor = COLUMNS[convertColumnIndexToModel(column)].getEditor();
+      return editor != null ? editor : super.getCellEditor(row, column);
+    }
+  }
+
   /**
    * Custom slection listener that knows how to toggle disclosure of
    * {@link LineItem}s.
@@ -148,7 +463,8 @@ class TransactionPane extends JScrollPane {
         SwingUtilities.invokeLater(new Runnable() {
           @Override
           public void run() {
-            ((DisclosureIcon) table.getModel().getValueAt(row, 0)).toggle();
+            int modelRow = table.convertRowIndexToModel(row);
+            ((DisclosureIcon) table.getModel().getValueAt(modelRow, 0)).toggle();
             table.removeRowSelectionInterval(row, row);
             isAdjusting = false;
           }
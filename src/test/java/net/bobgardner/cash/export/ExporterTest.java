@@ -0,0 +1,126 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.export;
+
+import junit.framework.TestCase;
+
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.Cashbox;
+import net.bobgardner.cash.model.Category;
+import net.bobgardner.cash.model.LineItem;
+import net.bobgardner.cash.model.Transaction;
+import net.bobgardner.cash.model.Transfer;
+
+import org.joda.time.DateMidnight;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link Exporter}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class ExporterTest extends TestCase {
+  private Cashbox cashbox;
+  private Transaction groceries;
+
+  @Override
+  public void setUp() {
+    cashbox = new Cashbox();
+    Account checking =
+        Account.newAccount(cashbox, "checking", "bank", "1", Account.Type.CHECKING, "");
+    Account savings = Account.newAccount(cashbox, "savings", "bank", "2", Account.Type.SAVINGS, "");
+    Category food = Category.newCategory(cashbox, "food", "");
+    groceries =
+        Transaction.newTransaction(checking, new DateMidnight(2009, 3, 7), "Caf\u00e9, \"Le\"", "");
+    groceries.setCleared(true);
+    LineItem.newLineItem(groceries, new BigDecimal("-10.05"), food, "bread\nand milk");
+    LineItem.newLineItem(groceries, new BigDecimal("0.05"), food, "refund");
+    Transfer transfer =
+        Transfer.newTransfer(checking, savings, new DateMidnight(2009, 3, 8), "move", "101");
+    LineItem.newLineItem(transfer, new BigDecimal("25"), Category.NONE, "");
+  }
+
+  public void testCsv() throws IOException {
+    String csv = export(Format.CSV, Exporter.DEFAULT_BUFFER);
+    String none = Category.NONE.getName();
+    assertEquals("account,date,check,payee,cleared,transfer,category,description,amount\r\n"
+        + "checking,2009-03-07,,\"Caf\u00e9, \"\"Le\"\"\",Y,,food,\"bread\nand milk\",-10.05\r\n"
+        + "checking,2009-03-07,,\"Caf\u00e9, \"\"Le\"\"\",Y,,food,refund,0.05\r\n"
+        + "checking,2009-03-08,101,move,N,savings," + none + ",,25\r\n"
+        + "savings,2009-03-08,101,move,N,checking,,,0\r\n", csv);
+  }
+
+  public void testQif() throws IOException {
+    String qif = export(Format.QIF, Exporter.DEFAULT_BUFFER);
+    assertTrue(qif, qif.startsWith("!Option:AutoSwitch\n!Account\nNchecking\nTBank\n^\n"));
+    assertTrue(qif, qif.contains("D03/07/2009\nT-10.00\nPCaf\u00e9, \"Le\"\nCX\n"
+        + "Sfood\nEbread and milk\n$-10.05\nSfood\nErefund\n$0.05\n^\n"));
+    assertTrue(qif, qif.contains("N101\nL[savings]\n"));
+    assertTrue(qif, qif.contains("!Account\nNsavings\n"));
+  }
+
+  public void testSmallBuffer() throws IOException {
+    for (int i = 0; i < 200; i++) {
+      Transaction t = Transaction.newTransaction(groceries.getAccount(), new DateMidnight(),
+          "payee \u20ac\ud834\udd1e " + i, "");
+      LineItem.newLineItem(t, new BigDecimal(i).movePointLeft(2), Category.NONE, "item " + i);
+    }
+    for (Format format : Format.values()) {
+      assertEquals(export(format, Exporter.DEFAULT_BUFFER), export(format, 64));
+    }
+  }
+
+  public void testSnapshot() throws IOException {
+    LedgerSnapshot snapshot = LedgerSnapshot.of(cashbox);
+    assertEquals(2, snapshot.getAccountCount());
+    assertEquals(3, snapshot.getTransactionCount());
+    assertEquals(3, snapshot.getItemCount());
+    groceries.setPayee("changed");
+    Transaction.newTransaction(groceries.getAccount(), new DateMidnight(), "later", "");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Exporter.Result result = new Exporter().export(snapshot, Format.CSV, out);
+    String csv = out.toString("UTF-8");
+    assertTrue(csv.contains("Caf\u00e9"));
+    assertFalse(csv.contains("changed"));
+    assertFalse(csv.contains("later"));
+    assertEquals(4, result.getRecords());
+    assertEquals(out.size(), result.getBytes());
+  }
+
+  public void testSnapshot_otherCashbox() {
+    Account elsewhere =
+        Account.newAccount(new Cashbox(), "elsewhere", "", "", Account.Type.CHECKING, "");
+    try {
+      LedgerSnapshot.of(cashbox, Arrays.asList(groceries.getAccount(), elsewhere));
+      fail("IllegalArgumentException expected for another cashbox's account");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+  }
+
+  private String export(Format format, int bufferSize) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new Exporter(bufferSize).export(LedgerSnapshot.of(cashbox), format, out);
+    return out.toString("UTF-8");
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.metrics;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes the current thread allocates, for tests that hold hot
+ * paths to an allocation budget. Relies on the HotSpot extension of
+ * {@link java.lang.management.ThreadMXBean}; where that is missing,
+ * {@link #isSupported()} is false and the tests skip their checks.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public final class Allocations {
+  private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+  private Allocations() {
+    // Static methods only
+  }
+
+  private static com.sun.management.ThreadMXBean threads() {
+    Object bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    if (!threads.isThreadAllocatedMemorySupported()) return null;
+    threads.setThreadAllocatedMemoryEnabled(true);
+    return threads;
+  }
+
+  public static boolean isSupported() {
+    return THREADS != null;
+  }
+
+  /**
+   * Runs the task {@code runs} times to warm it up, then {@code runs} times
+   * more while counting.
+   *
+   * @return the average number of bytes allocated per run, or 0 if
+   *         allocations cannot be measured
+   */
+  public static double perRun(int runs, Runnable task) {
+    if (THREADS == null) return 0;
+    for (int i = 0; i < runs; i++) {
+      task.run();
+    }
+    long thread = Thread.currentThread().getId();
+    long before = THREADS.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < runs; i++) {
+      task.run();
+    }
+    long after = THREADS.getThreadAllocatedBytes(thread);
+    return (after - before) / (double) runs;
+  }
+
+  /**
+   * Collects garbage and measures the heap in use. Only differences between
+   * two calls mean anything, and only for allocations large enough to swamp
+   * whatever else the JVM is doing.
+   */
+  public static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 4; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.metrics;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Tests for {@link Metrics}, {@link Counter} and {@link Histogram}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class MetricsTest extends TestCase {
+  @Override
+  public void setUp() {
+    Metrics.INSTANCE.reset();
+  }
+
+  public void testCounter() {
+    Counter counter = Metrics.INSTANCE.counter("test.counter");
+    assertSame(counter, Metrics.INSTANCE.counter("test.counter"));
+    counter.increment();
+    counter.add(4);
+    assertEquals(5, counter.getCount());
+    assertEquals(Long.valueOf(5), Metrics.INSTANCE.getCounters().get("test.counter"));
+
+    Metrics.INSTANCE.reset();
+    assertEquals(0, counter.getCount());
+  }
+
+  public void testHistogram() {
+    Histogram histogram = Metrics.INSTANCE.histogram("test.histogram");
+    assertSame(histogram, Metrics.INSTANCE.histogram("test.histogram"));
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile50());
+
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(100, histogram.getMax());
+    assertEquals(50.5, histogram.getMean(), 0.001);
+    // Buckets are powers of two, so percentiles are bucket upper bounds
+    assertEquals(63, histogram.getPercentile50());
+    assertEquals(100, histogram.getPercentile99());
+    assertEquals(0, Metrics.INSTANCE.histogram("test.empty").getPercentile(1.0));
+
+    histogram.record(0);
+    assertEquals(0, histogram.getPercentile(0.0));
+  }
+
+  public void testHistogram_negative() {
+    try {
+      Metrics.INSTANCE.histogram("test.histogram").record(-1);
+      fail("IllegalArgumentException expected for negative value");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+  }
+
+  public void testRegister() throws Exception {
+    Metrics.INSTANCE.histogram("test.before").record(1);
+    Metrics.INSTANCE.register();
+    Metrics.INSTANCE.register();
+    Metrics.INSTANCE.histogram("test.after").record(1);
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    assertTrue(server.isRegistered(new ObjectName(Metrics.DOMAIN + ":type=Metrics")));
+    assertTrue(server.isRegistered(new ObjectName(Metrics.DOMAIN + ":type=Histogram,name="
+        + ObjectName.quote("test.before"))));
+    ObjectName after =
+        new ObjectName(Metrics.DOMAIN + ":type=Histogram,name=" + ObjectName.quote("test.after"));
+    assertEquals(Long.valueOf(1), server.getAttribute(after, "Count"));
+  }
+
+  public void testStartupTrace() throws Exception {
+    StartupTrace trace = StartupTrace.INSTANCE;
+    trace.mark("test.first");
+    Long first = trace.getMarks().get("test.first");
+    Thread.sleep(5);
+    trace.mark("test.second");
+    // Only the first time a phase is reached counts
+    trace.mark("test.first");
+    assertEquals(first, trace.getMarks().get("test.first"));
+    assertTrue(trace.getMarks().get("test.second") >= first);
+    assertTrue(trace.format().contains("test.second"));
+  }
+}
@@ -19,6 +19,17 @@ package net.bobgardner.cash.model;
 
 import junit.framework.TestCase;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.SortedMap;
+
 /**
  * Tests for {@link Account}.
  * 
@@ -31,6 +42,85 @@ public class AccountTest extends TestCase {
     Cashbox.INSTANCE.clearAccounts();
   }
 
+  public void testDelete() {
+    Account acc = Account.newAccount(Cashbox.INSTANCE, "name", "", "", Account.Type.CHECKING, "");
+    Account other = Account.newAccount(Cashbox.INSTANCE, "other", "", "", Account.Type.SAVINGS, "");
+    Category category = Category.NONE;
+    Transaction t1 = Transaction.newTransaction(acc, new DateMidnight(), "payee", "");
+    LineItem item = LineItem.newLineItem(t1, BigDecimal.ONE, category, "desc");
+    Transaction t2 = Transaction.newTransaction(acc, new DateMidnight(), "payee", "");
+    LineItem.newLineItem(t2, BigDecimal.TEN, category, "desc");
+    Transfer transfer = Transfer.newTransfer(acc, other, new DateMidnight(), "payee", "");
+    Transaction kept = Transaction.newTransaction(other, new DateMidnight(), "payee", "");
+    assertEquals(2, other.getTransactions().size());
+
+    final int[] notifications = new int[1];
+    acc.addObserver(new Observer() {
+      @Override
+      public void update(Observable o, Object arg) {
+        notifications[0]++;
+      }
+    });
+    Account.deleteAccount(acc);
+
+    assertEquals(1, notifications[0]);
+    assertFalse(acc.isValid());
+    assertEquals(1, Cashbox.INSTANCE.getAccounts().size());
+    assertTrue(Cashbox.INSTANCE.getAccounts().contains(other));
+    assertFalse(t1.isValid());
+    assertFalse(t2.isValid());
+    assertFalse(item.isValid());
+    assertFalse(transfer.isValid());
+    // The other half of the transfer goes too
+    assertEquals(1, other.getTransactions().size());
+    assertTrue(other.getTransactions().contains(kept));
+
+    // Deleting twice is harmless
+    Account.deleteAccount(acc);
+    assertEquals(1, notifications[0]);
+
+    try {
+      acc.getTransactions();
+      fail("IllegalStateException expected for deleted account");
+    } catch (IllegalStateException e) {
+      // exception expected
+    }
+  }
+
+  public void testRowCounts() {
+    Cashbox cashbox = new Cashbox();
+    Account account = Account.newAccount(cashbox, "counted", "", "", Account.Type.CHECKING, "");
+    Transaction first = Transaction.newTransaction(account, new DateMidnight(2009, 1, 1), "a", "");
+    LineItem.newLineItem(first, BigDecimal.ONE, Category.NONE, "");
+    LineItem item = LineItem.newLineItem(first, BigDecimal.ONE, Category.NONE, "");
+    Transaction second = Transaction.newTransaction(account, new DateMidnight(2009, 1, 2), "b", "");
+    LineItem.newLineItem(second, BigDecimal.ONE, Category.NONE, "");
+    assertEquals(2, account.countTransactions());
+    assertEquals(3, account.countItems());
+
+    second.setDate(new DateMidnight(2008, 12, 31));
+    LineItem.deleteLineItem(item);
+    assertEquals(2, account.countTransactions());
+    assertEquals(2, account.countItems());
+    Transaction.deleteTransaction(first);
+    assertEquals(1, account.countTransactions());
+    assertEquals(1, account.countItems());
+
+    cashbox.getUndoLog().undo();
+    cashbox.getUndoLog().undo();
+    assertEquals(2, account.countTransactions());
+    assertEquals(3, account.countItems());
+    assertEquals(ImmutableMap.of("counted", 2), cashbox.getTransactionCounts());
+    assertEquals(ImmutableMap.of("counted", 3), cashbox.getLineItemCounts());
+    account.setName("recounted");
+    assertEquals(ImmutableMap.of("recounted", 2), cashbox.getTransactionCounts());
+    // Kept for the undo log, which holds a deleted account's rows
+    Account.deleteAccount(account);
+    assertEquals(2, account.countTransactions());
+    assertEquals(3, account.countItems());
+    assertTrue(cashbox.getTransactionCounts().isEmpty());
+  }
+
   public void testInstantiation() {
     Account account =
         Account.newAccount(Cashbox.INSTANCE, "name", "institution", "number",
@@ -121,6 +211,41 @@ public class AccountTest extends TestCase {
     assertEquals("new name", acc.getName());
   }
 
+  public void testRename() {
+    Cashbox cashbox = new Cashbox();
+    Account a = Account.newAccount(cashbox, "a", "", "", Account.Type.CHECKING, "");
+    Account b = Account.newAccount(cashbox, "b", "", "", Account.Type.CHECKING, "");
+    final List<Cashbox.AccountChange> changes = Lists.newArrayList();
+    cashbox.addObserver(new Observer() {
+      @Override
+      public void update(Observable o, Object arg) {
+        changes.add((Cashbox.AccountChange) arg);
+      }
+    });
+
+    // Re-sorted under the new name
+    a.setName("c");
+    assertSame(b, cashbox.getAccounts().first());
+    assertTrue(cashbox.getAccounts().contains(a));
+    assertEquals(1, changes.size());
+    assertEquals(Cashbox.AccountChange.Kind.RENAMED, changes.get(0).getKind());
+    assertEquals("a", changes.get(0).getOldName());
+
+    try {
+      a.setName("b");
+      fail("IllegalArgumentException expected for a duplicate name");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+    assertEquals("c", a.getName());
+    assertEquals(2, cashbox.getAccounts().size());
+
+    Account.deleteAccount(b);
+    assertEquals(Cashbox.AccountChange.Kind.REMOVED, changes.get(1).getKind());
+    cashbox.getUndoLog().undo();
+    assertEquals(Cashbox.AccountChange.Kind.ADDED, changes.get(2).getKind());
+  }
+
   public void testInstitution() {
     Account acc =
         Account.newAccount(Cashbox.INSTANCE, "name", "institution", "", Account.Type.CHECKING, "");
@@ -200,6 +325,42 @@ public class AccountTest extends TestCase {
     assertTrue(acc2.compareTo(acc1) < 0);
   }
 
+  public void testGetBalance() {
+    Account acc = Account.newAccount(Cashbox.INSTANCE, "name", "", "", Account.Type.CHECKING, "");
+    add(acc, new DateMidnight(2019, 11, 30), "100");
+    Transaction dec = add(acc, new DateMidnight(2019, 12, 15), "-30");
+    add(acc, new DateMidnight(2019, 12, 31), "5");
+    Transaction jan = add(acc, new DateMidnight(2020, 1, 2), "1");
+
+    assertEquals(BigDecimal.ZERO, acc.getBalance(new DateMidnight(2019, 11, 29)));
+    assertEquals(new BigDecimal("100"), acc.getBalance(new DateMidnight(2019, 12, 14)));
+    assertEquals(new BigDecimal("75"), acc.getBalance(new DateMidnight(2019, 12, 31)));
+    assertEquals(new BigDecimal("76"), acc.getBalance());
+
+    // Edits move the checkpoints with them
+    dec.getItems().first().setAmount(new BigDecimal("-50"));
+    assertEquals(new BigDecimal("55"), acc.getBalance(new DateMidnight(2019, 12, 31)));
+    jan.setDate(new DateMidnight(2019, 12, 20));
+    assertEquals(new BigDecimal("56"), acc.getBalance(new DateMidnight(2019, 12, 31)));
+    // and re-sort the transaction
+    assertEquals(new DateMidnight(2019, 12, 31), acc.getTransactions().last().getDate());
+    Transaction.deleteTransaction(dec);
+    assertEquals(new BigDecimal("106"), acc.getBalance(new DateMidnight(2020, 6, 1)));
+    Cashbox.INSTANCE.getUndoLog().undo();
+    assertEquals(new BigDecimal("56"), acc.getBalance());
+
+    SortedMap<DateMidnight, BigDecimal> months = acc.getMonthEndBalances();
+    assertEquals(2, months.size());
+    assertEquals(new BigDecimal("100"), months.get(new DateMidnight(2019, 11, 30)));
+    assertEquals(new BigDecimal("56"), months.get(new DateMidnight(2019, 12, 31)));
+  }
+
+  private static Transaction add(Account acc, DateMidnight date, String amount) {
+    Transaction t = Transaction.newTransaction(acc, date, "payee", "");
+    LineItem.newLineItem(t, new BigDecimal(amount), Category.NONE, "");
+    return t;
+  }
+
   public void testEquals() {
     Account acc1 = Account.newAccount(Cashbox.INSTANCE, "b", "", "", Account.Type.CHECKING, "");
     Account acc2 = Account.newAccount(Cashbox.INSTANCE, "c", "d", "", Account.Type.SAVINGS, "");
@@ -0,0 +1,161 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import junit.framework.TestCase;
+
+import net.bobgardner.cash.metrics.Allocations;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.Observable;
+import java.util.Observer;
+
+/**
+ * Holds the model's hot paths to allocation budgets, in bytes per
+ * operation, so that new garbage in code the register calls for every row
+ * shows up as a test failure. The budgets are about twice what the code
+ * allocates today. The heap a row keeps alive has a budget too.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class AllocationTest extends TestCase {
+  private static final int RUNS = 20000;
+
+  private Cashbox cashbox;
+  private Account account;
+  private Transaction transaction;
+  private LineItem item;
+  private int notifications;
+
+  @Override
+  public void setUp() {
+    cashbox = new Cashbox();
+    account = Account.newAccount(cashbox, "checking", "", "", Account.Type.CHECKING, "");
+    Category food = Category.newCategory(cashbox, "food", "");
+    for (int i = 0; i < 100; i++) {
+      Transaction t = Transaction.newTransaction(account, new DateMidnight(2009, 1, 1)
+          .plusDays(i), "payee" + i % 10, "");
+      LineItem.newLineItem(t, BigDecimal.valueOf(i), food, "desc");
+    }
+    transaction = account.getTransactions().first();
+    item = transaction.getItems().first();
+    // Three observers, as many as a window with two registers open has
+    for (int i = 0; i < 3; i++) {
+      account.addRowObserver(new Observer() {
+        @Override
+        public void update(Observable o, Object arg) {
+          notifications++;
+        }
+      });
+    }
+  }
+
+  public void testGetters() {
+    // Under a byte a call: nothing, give or take a stray allocation
+    assertBudget("Transaction getters", 1, new Runnable() {
+      @Override
+      public void run() {
+        transaction.getAmount();
+        transaction.getDate();
+        transaction.getPayee();
+        transaction.getCategory();
+        transaction.getDescription();
+        item.getAmount();
+      }
+    });
+  }
+
+  public void testCursor() {
+    // The cursor and its iterators, spread over the rows
+    assertBudget("cursor pass, per row", 2, new Runnable() {
+      @Override
+      public void run() {
+        TransactionCursor cursor = account.cursor();
+        while (cursor.next()) {
+          cursor.getAmount();
+          while (cursor.nextItem()) {
+            cursor.getItemAmount();
+          }
+        }
+      }
+    }, account.countTransactions());
+  }
+
+  public void testTransactionSetter() {
+    // Mostly the undo record and the notification
+    assertBudget("Transaction.setPayee", 1024, new Runnable() {
+      private int i;
+
+      @Override
+      public void run() {
+        transaction.setPayee(i++ % 2 == 0 ? "payee1" : "payee2");
+      }
+    });
+  }
+
+  public void testLineItemSetter() {
+    final BigDecimal[] amounts = {BigDecimal.ONE, BigDecimal.TEN};
+    // Also the balance and category total updates
+    assertBudget("LineItem.setAmount", 1536, new Runnable() {
+      private int i;
+
+      @Override
+      public void run() {
+        item.setAmount(amounts[i++ % 2]);
+      }
+    });
+    assertTrue(notifications > 0);
+  }
+
+  public void testRetainedHeap() {
+    int rows = 100000;
+    Cashbox ledger = new Cashbox();
+    Account big = Account.newAccount(ledger, "big", "", "", Account.Type.CHECKING, "");
+    Category food = Category.newCategory(ledger, "food", "");
+    DateMidnight start = new DateMidnight(2000, 1, 1);
+    long before = Allocations.usedHeap();
+    for (int i = 0; i < rows; i++) {
+      Transaction t =
+          Transaction.newTransaction(big, start.plusDays(i % 3650), "payee" + i % 100, "");
+      LineItem.newLineItem(t, BigDecimal.valueOf(i % 1000, 2), food, "");
+    }
+    // The undo history is capped separately
+    ledger.getUndoLog().clear();
+    double bytes = (Allocations.usedHeap() - before) / (double) rows;
+    // A one-item row, with its amount, index entry and share of the pooled
+    // payees, keeps about 240 bytes; the layout before rows were compacted
+    // kept about 560
+    assertTrue("A row retains " + bytes + " bytes, over its budget of 300", bytes <= 300);
+    assertEquals(rows, big.countTransactions());
+  }
+
+  private static void assertBudget(String operation, int budget, Runnable task) {
+    assertBudget(operation, budget, task, 1);
+  }
+
+  /**
+   * @param perRun how many operations one run of the task performs
+   */
+  private static void assertBudget(String operation, int budget, Runnable task, int perRun) {
+    double bytes = Allocations.perRun(RUNS / perRun + 1, task) / perRun;
+    assertTrue(operation + " allocated " + bytes + " bytes, over its budget of " + budget,
+        bytes <= budget);
+  }
+}
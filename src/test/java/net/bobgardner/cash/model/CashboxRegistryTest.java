@@ -0,0 +1,130 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Tests for {@link CashboxRegistry} and independent {@link Cashbox}es.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class CashboxRegistryTest extends TestCase {
+  private final List<String> loaded = Lists.newArrayList();
+  private final List<String> unloaded = Lists.newArrayList();
+  private final CashboxRegistry.Loader loader = new CashboxRegistry.Loader() {
+    @Override
+    public Cashbox load(String key) {
+      loaded.add(key);
+      return new Cashbox();
+    }
+
+    @Override
+    public void unload(String key, Cashbox cashbox) {
+      unloaded.add(key);
+    }
+  };
+
+  public void testIndependentLedgers() {
+    Cashbox first = new Cashbox();
+    Cashbox second = new Cashbox();
+    Account a = Account.newAccount(first, "checking", "", "", Account.Type.CHECKING, "");
+    Account b = Account.newAccount(second, "checking", "", "", Account.Type.CHECKING, "");
+    assertEquals(0, a.getId());
+    assertEquals(0, b.getId());
+    Category.newCategory(first, "food", "");
+    assertEquals(1, first.getCategories().size());
+    assertTrue(second.getCategories().isEmpty());
+
+    a.setName("renamed");
+    assertTrue(first.getUndoLog().canUndo());
+    assertFalse(second.getUndoLog().canRedo());
+    second.getUndoLog().clear();
+    assertFalse(second.getUndoLog().canUndo());
+    assertEquals("checking", b.getName());
+  }
+
+  public void testLru() {
+    CashboxRegistry registry = new CashboxRegistry(loader, 2, Long.MAX_VALUE);
+    Cashbox a = use(registry, "a");
+    use(registry, "b");
+    assertSame(a, use(registry, "a"));
+    use(registry, "c");
+    // b was least recently used
+    assertEquals(Lists.newArrayList("b"), unloaded);
+    assertTrue(registry.isResident("a"));
+    assertEquals(2, registry.getResidentCount());
+
+    use(registry, "b");
+    assertEquals(Lists.newArrayList("a", "b", "c", "b"), loaded);
+  }
+
+  public void testAcquiredNotEvicted() {
+    CashboxRegistry registry = new CashboxRegistry(loader, 1, Long.MAX_VALUE);
+    registry.acquire("a");
+    use(registry, "b");
+    assertTrue(registry.isResident("a"));
+    assertFalse(registry.isResident("b"));
+    registry.release("a");
+    assertTrue(registry.isResident("a"));
+
+    try {
+      registry.release("a");
+      fail("IllegalStateException expected for release without acquire");
+    } catch (IllegalStateException e) {
+      // exception expected
+    }
+  }
+
+  public void testMemoryBudget() {
+    CashboxRegistry registry = new CashboxRegistry(loader, 100, 10000);
+    Cashbox big = registry.acquire("big");
+    Account account = Account.newAccount(big, "checking", "", "", Account.Type.CHECKING, "");
+    for (int i = 0; i < 100; i++) {
+      Transaction t = Transaction.newTransaction(account, new DateMidnight(), "payee", "");
+      LineItem.newLineItem(t, BigDecimal.ONE, Category.NONE, "");
+    }
+    registry.release("big");
+    assertTrue(big.estimateBytes() > 10000);
+    assertFalse(registry.isResident("big"));
+    assertEquals(0, registry.getResidentBytes());
+  }
+
+  public void testEvictIdle() throws Exception {
+    CashboxRegistry registry = new CashboxRegistry(loader, 100, Long.MAX_VALUE);
+    use(registry, "old");
+    Thread.sleep(20);
+    use(registry, "new");
+    registry.evictIdle(10);
+    assertEquals(Lists.newArrayList("old"), unloaded);
+    assertTrue(registry.isResident("new"));
+  }
+
+  private static Cashbox use(CashboxRegistry registry, String key) {
+    Cashbox cashbox = registry.acquire(key);
+    registry.release(key);
+    return cashbox;
+  }
+}
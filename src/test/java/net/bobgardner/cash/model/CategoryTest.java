@@ -104,8 +104,8 @@ public class CategoryTest extends TestCase {
 
   public void testEquals() {
     Category cat1 = Category.newCategory("a", "desc");
-    Category.resetCounter();
-    Category cat2 = Category.newCategory("b", "desc");
+    // A second ledger, since one will not hold two categories with the same id
+    Category cat2 = Category.newCategory(new Cashbox(), "b", "desc");
     assertEquals(cat1, cat2);
     assertEquals(cat2, cat1);
 
@@ -113,4 +113,41 @@ public class CategoryTest extends TestCase {
     assertFalse(cat1.equals(cat2));
     assertFalse(cat2.equals(cat1));
   }
+
+  public void testLookup() {
+    Cashbox cashbox = Cashbox.INSTANCE;
+    Category food = Category.newCategory("Food", "desc");
+    Category fuel = Category.newCategory("Fuel", "desc");
+    assertSame(food, cashbox.getCategory(food.getId()));
+    assertSame(fuel, cashbox.getCategory(" fuel "));
+    assertNull(cashbox.getCategory("Rent"));
+
+    try {
+      Category.newCategory("FOOD", "desc");
+      fail("IllegalArgumentException expected for duplicate name");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+    try {
+      fuel.setName("food");
+      fail("IllegalArgumentException expected for duplicate name");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+    assertEquals("Fuel", fuel.getName());
+
+    // Renaming moves the category in the index and in the sorted set
+    food.setName("Groceries");
+    assertNull(cashbox.getCategory("food"));
+    assertSame(food, cashbox.getCategory("groceries"));
+    assertEquals(fuel, cashbox.getCategories().first());
+    food.setName("food");
+    assertSame(food, cashbox.getCategory("Food"));
+
+    Category.deleteCategory(fuel);
+    assertNull(cashbox.getCategory(fuel.id()));
+    assertNull(cashbox.getCategory("Fuel"));
+    cashbox.getUndoLog().undo();
+    assertSame(fuel, cashbox.getCategory("Fuel"));
+  }
 }
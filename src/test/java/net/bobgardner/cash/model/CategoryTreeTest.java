@@ -0,0 +1,138 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+
+/**
+ * Tests for {@link CategoryTree} and the {@link Category} hierarchy.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class CategoryTreeTest extends TestCase {
+  private Cashbox cashbox;
+  private CategoryTree tree;
+  private Account account;
+  private Category auto;
+  private Category fuel;
+  private Category repairs;
+
+  @Override
+  public void setUp() {
+    cashbox = new Cashbox();
+    tree = cashbox.getCategoryTree();
+    account = Account.newAccount(cashbox, "checking", "", "", Account.Type.CHECKING, "");
+    auto = Category.newCategory(cashbox, "Auto", "");
+    fuel = Category.newCategory(cashbox, "Fuel", "");
+    repairs = Category.newCategory(cashbox, "Repairs", "");
+    fuel.setParent(auto);
+    repairs.setParent(auto);
+  }
+
+  public void testRollUp() {
+    LineItem gas = item("-40", fuel);
+    item("-200", repairs);
+    item("-10", auto);
+    assertEquals(new BigDecimal("-40"), tree.getTotal(fuel));
+    assertEquals(new BigDecimal("-10"), tree.getTotal(auto));
+    assertEquals(new BigDecimal("-250"), tree.getRolledUpTotal(auto));
+    assertEquals(2, auto.getChildren().size());
+    assertFalse(tree.getRoots().contains(fuel));
+
+    gas.setAmount(new BigDecimal("-45"));
+    assertEquals(new BigDecimal("-255"), tree.getRolledUpTotal(auto));
+    gas.setCategory(Category.NONE);
+    assertEquals(0, tree.getRolledUpTotal(fuel).signum());
+    assertEquals(new BigDecimal("-210"), tree.getRolledUpTotal(auto));
+    assertEquals(new BigDecimal("-45"), tree.getTotal(Category.NONE));
+    cashbox.getUndoLog().undo();
+    assertEquals(new BigDecimal("-255"), tree.getRolledUpTotal(auto));
+
+    Transaction.deleteTransaction(gas.getTransaction());
+    assertEquals(new BigDecimal("-210"), tree.getRolledUpTotal(auto));
+  }
+
+  public void testReparent() {
+    item("-40", fuel);
+    Category travel = Category.newCategory(cashbox, "Travel", "");
+    fuel.setParent(travel);
+    assertEquals(0, tree.getRolledUpTotal(auto).signum());
+    assertEquals(new BigDecimal("-40"), tree.getRolledUpTotal(travel));
+    assertEquals(travel, fuel.getParent());
+
+    cashbox.getUndoLog().undo();
+    assertEquals(new BigDecimal("-40"), tree.getRolledUpTotal(auto));
+    assertEquals(0, tree.getRolledUpTotal(travel).signum());
+
+    try {
+      auto.setParent(fuel);
+      fail("IllegalArgumentException expected for a cycle");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+  }
+
+  public void testDeleteParent() {
+    Category vehicles = Category.newCategory(cashbox, "Vehicles", "");
+    auto.setParent(vehicles);
+    item("-40", fuel);
+    item("-10", auto);
+    assertEquals(new BigDecimal("-50"), tree.getRolledUpTotal(vehicles));
+
+    Category.deleteCategory(auto);
+    assertEquals(vehicles, fuel.getParent());
+    assertEquals(vehicles, repairs.getParent());
+    assertEquals(2, vehicles.getChildren().size());
+    assertEquals(new BigDecimal("-40"), tree.getRolledUpTotal(vehicles));
+
+    cashbox.getUndoLog().undo();
+    assertTrue(auto.isValid());
+    assertEquals(vehicles, auto.getParent());
+    assertEquals(auto, fuel.getParent());
+    assertEquals(1, vehicles.getChildren().size());
+    assertEquals(new BigDecimal("-50"), tree.getRolledUpTotal(vehicles));
+    assertEquals(new BigDecimal("-50"), tree.getRolledUpTotal(auto));
+
+    cashbox.getUndoLog().redo();
+    assertFalse(auto.isValid());
+    assertEquals(new BigDecimal("-40"), tree.getRolledUpTotal(vehicles));
+
+    // Deleting a root makes its subcategories roots
+    Category.deleteCategory(vehicles);
+    assertTrue(tree.getRoots().contains(fuel));
+    assertTrue(tree.getRoots().contains(repairs));
+  }
+
+  public void testDeletedAccount() {
+    item("-40", fuel);
+    Account.deleteAccount(account);
+    assertEquals(0, tree.getRolledUpTotal(auto).signum());
+    cashbox.getUndoLog().undo();
+    assertEquals(new BigDecimal("-40"), tree.getRolledUpTotal(auto));
+  }
+
+  private LineItem item(String amount, Category category) {
+    Transaction transaction =
+        Transaction.newTransaction(account, new DateMidnight(2009, 3, 1), "payee", "");
+    return LineItem.newLineItem(transaction, new BigDecimal(amount), category, "");
+  }
+}
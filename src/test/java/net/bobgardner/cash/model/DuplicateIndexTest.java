@@ -0,0 +1,121 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+
+/**
+ * Tests for {@link DuplicateIndex} and {@link BloomFilter}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class DuplicateIndexTest extends TestCase {
+  private static final DateMidnight DATE = new DateMidnight("2009-04-01");
+
+  private Account account;
+  private DuplicateIndex index;
+
+  @Override
+  public void setUp() {
+    Cashbox.INSTANCE.clearAccounts();
+    Account.resetCounter();
+    account = Account.newAccount(Cashbox.INSTANCE, "dupes", "", "", Account.Type.CHECKING, "");
+    index = account.getDuplicateIndex();
+  }
+
+  public void testFingerprint() {
+    long fingerprint = index.fingerprint(DATE, new BigDecimal("-3.50"), "Cafe", "");
+    assertEquals(fingerprint, index.fingerprint(DATE, new BigDecimal("-3.5"), " cafe ", ""));
+    assertFalse(fingerprint == index.fingerprint(DATE, new BigDecimal("-3.51"), "Cafe", ""));
+    assertFalse(fingerprint == index.fingerprint(DATE, new BigDecimal("-3.505"), "Cafe", ""));
+    assertEquals(index.fingerprint(DATE, new BigDecimal("0.00"), "Cafe", ""),
+        index.fingerprint(DATE, BigDecimal.ZERO, "Cafe", ""));
+    assertFalse(fingerprint == index.fingerprint(DATE.plusDays(1), new BigDecimal("-3.50"),
+        "Cafe", ""));
+    assertFalse(fingerprint == index.fingerprint(DATE, new BigDecimal("-3.50"), "Cafe", "12"));
+    assertFalse(fingerprint == DuplicateIndex.fingerprint(account.getId() + 1, DATE,
+        new BigDecimal("-3.50"), "Cafe", ""));
+  }
+
+  public void testFingerprint_locale() {
+    long fingerprint = index.fingerprint(DATE, BigDecimal.ONE, "invoice", "");
+    Locale locale = Locale.getDefault();
+    // Turkish lowercases I to a dotless i
+    Locale.setDefault(new Locale("tr", "TR"));
+    try {
+      assertEquals(fingerprint, index.fingerprint(DATE, BigDecimal.ONE, "INVOICE", ""));
+    } finally {
+      Locale.setDefault(locale);
+    }
+  }
+
+  public void testIncremental() {
+    Transaction t = Transaction.newTransaction(account, DATE, "Cafe", "");
+    LineItem item = LineItem.newLineItem(t, new BigDecimal("-3.50"), Category.NONE, "");
+    long original = index.fingerprint(DATE, new BigDecimal("-3.50"), "Cafe", "");
+    assertEquals(1, index.count(original));
+
+    t.setPayee("Bakery");
+    assertEquals(0, index.count(original));
+    long renamed = index.fingerprint(DATE, new BigDecimal("-3.50"), "Bakery", "");
+    assertEquals(1, index.count(renamed));
+
+    item.setAmount(new BigDecimal("-4"));
+    long repriced = index.fingerprint(DATE, new BigDecimal("-4"), "Bakery", "");
+    assertEquals(0, index.count(renamed));
+    assertEquals(1, index.count(repriced));
+
+    Transaction.deleteTransaction(t);
+    assertEquals(0, index.count(repriced));
+  }
+
+  public void testManyTransactions() {
+    for (int i = 0; i < 1000; i++) {
+      Transaction t = Transaction.newTransaction(account, DATE.plusDays(i % 30), "payee " + i, "");
+      LineItem.newLineItem(t, BigDecimal.ONE, Category.NONE, "");
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(index.contains(index.fingerprint(DATE.plusDays(i % 30), BigDecimal.ONE,
+          "payee " + i, "")));
+    }
+    assertFalse(index.contains(index.fingerprint(DATE, BigDecimal.ONE, "payee 1000", "")));
+  }
+
+  public void testBloomFilter() {
+    BloomFilter filter = new BloomFilter(1000);
+    for (long key = 0; key < 1000; key++) {
+      filter.add(DuplicateIndex.fingerprint(0, DATE, BigDecimal.valueOf(key), "", ""));
+    }
+    int falsePositives = 0;
+    for (long key = 0; key < 2000; key++) {
+      long fingerprint = DuplicateIndex.fingerprint(0, DATE, BigDecimal.valueOf(key), "", "");
+      if (key < 1000) {
+        assertTrue(filter.mightContain(fingerprint));
+      } else if (filter.mightContain(fingerprint)) {
+        falsePositives++;
+      }
+    }
+    // About 1% expected
+    assertTrue("false positives: " + falsePositives, falsePositives < 50);
+  }
+}
@@ -0,0 +1,48 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateMidnight;
+
+/**
+ * Tests for {@link EpochDays}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class EpochDaysTest extends TestCase {
+  public void testKnownDays() {
+    assertEquals(0, EpochDays.of(1970, 1, 1));
+    assertEquals(-1, EpochDays.of(1969, 12, 31));
+    assertEquals(11016, EpochDays.of(2000, 2, 29));
+    assertEquals(new DateMidnight(2000, 3, 1), EpochDays.toDate(11017));
+    assertEquals(new DateMidnight(1900, 2, 28), EpochDays.toDate(EpochDays.of(1900, 2, 28)));
+  }
+
+  public void testRoundTrip() {
+    DateMidnight date = new DateMidnight(1890, 1, 1);
+    int day = EpochDays.of(date);
+    for (int i = 0; i < 100000; i++, day++) {
+      assertEquals(day, EpochDays.of(date));
+      assertEquals(date, EpochDays.toDate(day));
+      assertEquals(BalanceCheckpoints.month(date), EpochDays.month(day));
+      date = date.plusDays(1);
+    }
+  }
+}
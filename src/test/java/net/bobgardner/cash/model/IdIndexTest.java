@@ -0,0 +1,57 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link IdIndex}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class IdIndexTest extends TestCase {
+  public void testPutGetRemove() {
+    IdIndex<String> index = new IdIndex<String>();
+    assertNull(index.get(7));
+    assertNull(index.put(7, "seven"));
+    assertEquals("seven", index.put(7, "SEVEN"));
+    assertEquals("SEVEN", index.get(7));
+    assertEquals(1, index.size());
+    assertEquals("SEVEN", index.remove(7));
+    assertNull(index.remove(7));
+    assertEquals(0, index.size());
+  }
+
+  public void testGrowAndRemoveMany() {
+    IdIndex<Integer> index = new IdIndex<Integer>();
+    for (int id = -500; id < 1000; id++) {
+      index.put(id, id);
+    }
+    assertEquals(1500, index.size());
+    // Removing every third entry must not cut later entries off their probe runs
+    for (int id = -500; id < 1000; id += 3) {
+      assertEquals(Integer.valueOf(id), index.remove(id));
+    }
+    for (int id = -500; id < 1000; id++) {
+      assertEquals((id + 500) % 3 == 0 ? null : Integer.valueOf(id), index.get(id));
+    }
+    index.clear();
+    assertNull(index.get(1));
+    assertEquals(0, index.size());
+  }
+}
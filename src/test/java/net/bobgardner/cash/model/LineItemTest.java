@@ -103,6 +103,30 @@ public class LineItemTest extends TestCase {
     }
   }
 
+  public void testAmount_fractionOfCent() {
+    LineItem item = LineItem.newLineItem(transaction, new BigDecimal("1.00"), category, "desc");
+    try {
+      item.setAmount(new BigDecimal("0.005"));
+      fail("IllegalArgumentException expected for a fraction of a cent");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+    assertEquals(new BigDecimal("1.00"), item.getAmount());
+    try {
+      LineItem.newLineItem(transaction, new BigDecimal("-0.001"), category, "desc");
+      fail("IllegalArgumentException expected for a fraction of a cent");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+    assertEquals(1, transaction.getItems().size());
+
+    // Trailing zeros are still whole cents
+    item.setAmount(new BigDecimal("0.050"));
+    assertEquals(0, new BigDecimal("0.05").compareTo(account.getBalance()));
+    assertTrue(account.getDuplicateIndex().contains(account.getDuplicateIndex()
+        .fingerprint(transaction.getDate(), new BigDecimal("0.05"), "payee", "checkNr")));
+  }
+
   public void testCategory() {
     LineItem item = LineItem.newLineItem(transaction, new BigDecimal("1"), category, "desc");
     assertEquals(category, item.getCategory());
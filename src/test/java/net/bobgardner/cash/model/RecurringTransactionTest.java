@@ -0,0 +1,132 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateMidnight;
+import org.joda.time.DateTimeConstants;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Tests for {@link RecurringTransaction} and {@link Recurrence}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class RecurringTransactionTest extends TestCase {
+  private Cashbox cashbox;
+  private Account account;
+
+  @Override
+  public void setUp() {
+    cashbox = new Cashbox();
+    account = Account.newAccount(cashbox, "checking", "", "", Account.Type.CHECKING, "");
+  }
+
+  public void testMonthly() {
+    Recurrence rule = Recurrence.monthly(new DateMidnight(2009, 1, 31), 1);
+    assertEquals(new DateMidnight(2009, 2, 28), rule.firstAfter(new DateMidnight(2009, 1, 31)));
+    assertEquals(new DateMidnight(2009, 3, 31), rule.firstAfter(new DateMidnight(2009, 2, 28)));
+    assertEquals(new DateMidnight(2009, 1, 31), rule.firstOnOrAfter(new DateMidnight(2000, 1, 1)));
+    // Far from the start costs the same
+    assertEquals(new DateMidnight(2109, 2, 28), rule.firstOnOrAfter(new DateMidnight(2109, 2, 1)));
+    assertNull(rule.until(new DateMidnight(2009, 6, 1)).firstAfter(new DateMidnight(2009, 5, 31)));
+  }
+
+  public void testNthWeekday() {
+    Recurrence second =
+        Recurrence.nthWeekday(new DateMidnight(2009, 1, 20), 1, 2, DateTimeConstants.TUESDAY);
+    // The second Tuesday of January 2009 is before the start
+    assertEquals(new DateMidnight(2009, 2, 10),
+        second.firstOnOrAfter(new DateMidnight(2009, 1, 1)));
+    assertEquals(new DateMidnight(2009, 3, 10), second.firstAfter(new DateMidnight(2009, 2, 10)));
+
+    Recurrence last =
+        Recurrence.nthWeekday(new DateMidnight(2009, 1, 1), 3, -1, DateTimeConstants.FRIDAY);
+    assertEquals(new DateMidnight(2009, 1, 30), last.firstOnOrAfter(new DateMidnight(2009, 1, 1)));
+    assertEquals(new DateMidnight(2009, 4, 24), last.firstAfter(new DateMidnight(2009, 1, 30)));
+  }
+
+  public void testWeekly() {
+    Recurrence rule = Recurrence.weekly(new DateMidnight(2009, 1, 2), 2);
+    assertEquals(new DateMidnight(2009, 1, 16), rule.firstAfter(new DateMidnight(2009, 1, 2)));
+    assertEquals(new DateMidnight(2009, 1, 30), rule.firstOnOrAfter(new DateMidnight(2009, 1, 17)));
+  }
+
+  public void testOccurrencesAreVirtual() {
+    RecurringTransaction rent = monthly("rent", "-1000");
+    List<RecurringTransaction.Occurrence> year =
+        RecurringTransaction.getOccurrences(cashbox, account, new DateMidnight(2009, 1, 1),
+            new DateMidnight(2009, 12, 31));
+    assertEquals(12, year.size());
+    assertEquals(new BigDecimal("-1000"), year.get(0).getAmount());
+    assertTrue(account.getTransactions().isEmpty());
+    assertEquals(new BigDecimal("-3000"),
+        RecurringTransaction.getProjectedBalance(account, new DateMidnight(2009, 3, 1)));
+
+    year.get(5).skip();
+    assertEquals(11, rent.getOccurrences(new DateMidnight(2009, 1, 1),
+        new DateMidnight(2009, 12, 31)).size());
+  }
+
+  public void testMaterialize() {
+    RecurringTransaction rent = monthly("rent", "-1000");
+    RecurringTransaction.Occurrence march =
+        rent.getOccurrences(new DateMidnight(2009, 3, 1), new DateMidnight(2009, 3, 31)).get(0);
+    Transaction edited = march.materialize();
+    edited.setAmount(new BigDecimal("-1100"));
+    try {
+      march.materialize();
+      fail("IllegalStateException expected for settled occurrence");
+    } catch (IllegalStateException e) {
+      // exception expected
+    }
+
+    List<Transaction> due =
+        RecurringTransaction.materializeDue(cashbox, new DateMidnight(2009, 4, 15));
+    // January, February and April; March was already entered
+    assertEquals(3, due.size());
+    assertEquals(4, account.getTransactions().size());
+    assertEquals(new BigDecimal("-4100"), account.getBalance());
+    assertTrue(RecurringTransaction.materializeDue(cashbox, new DateMidnight(2009, 4, 15))
+        .isEmpty());
+
+    // One undo step takes back the whole batch
+    cashbox.getUndoLog().undo();
+    assertEquals(1, account.getTransactions().size());
+  }
+
+  public void testDeletedAccount() {
+    monthly("rent", "-1000");
+    Account.deleteAccount(account);
+    assertTrue(RecurringTransaction.getOccurrences(cashbox, null, new DateMidnight(2009, 1, 1),
+        new DateMidnight(2009, 12, 31)).isEmpty());
+    cashbox.getUndoLog().undo();
+    assertEquals(12, RecurringTransaction.getOccurrences(cashbox, null,
+        new DateMidnight(2009, 1, 1), new DateMidnight(2009, 12, 31)).size());
+  }
+
+  private RecurringTransaction monthly(String payee, String amount) {
+    RecurringTransaction recurring = RecurringTransaction.newRecurringTransaction(account,
+        Recurrence.monthly(new DateMidnight(2009, 1, 1), 1), payee, "");
+    recurring.addSplit(new BigDecimal(amount), Category.NONE, payee);
+    return recurring;
+  }
+}
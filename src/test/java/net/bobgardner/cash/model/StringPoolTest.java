@@ -0,0 +1,64 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+
+/**
+ * Tests for {@link StringPool}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class StringPoolTest extends TestCase {
+  public void testIntern() {
+    StringPool pool = new StringPool(2);
+    String first = new String("Grocer");
+    assertSame(first, pool.intern(first));
+    assertSame(first, pool.intern(new String("Grocer")));
+    assertSame(first, pool.intern(first));
+    assertEquals(1, pool.getHits());
+    assertEquals(52, pool.getSavedBytes());
+
+    // Full: new strings pass through
+    pool.intern("Landlord");
+    String third = new String("Utility");
+    assertSame(third, pool.intern(third));
+    assertNotSame(third, pool.intern(new String("Utility")));
+    assertEquals(2, pool.size());
+  }
+
+  public void testModelShares() {
+    Cashbox cashbox = new Cashbox();
+    Account account = Account.newAccount(cashbox, "checking", "", "", Account.Type.CHECKING, "");
+    DateMidnight date = new DateMidnight(2009, 1, 1);
+    Transaction t1 = Transaction.newTransaction(account, date, new String("Grocer "), "");
+    Transaction t2 = Transaction.newTransaction(account, date, new String("Bank"), "");
+    t2.setPayee(new String(" Grocer"));
+    assertSame(t1.getPayee(), t2.getPayee());
+
+    LineItem i1 = LineItem.newLineItem(t1, BigDecimal.ONE, Category.NONE, new String("Milk"));
+    LineItem i2 = LineItem.newLineItem(t2, BigDecimal.ONE, Category.NONE, new String("Milk"));
+    assertSame(i1.getDescription(), i2.getDescription());
+    assertEquals(2, cashbox.getPooledStringHits());
+    assertTrue(cashbox.getPooledStringSavedBytes() > 0);
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+
+/**
+ * Tests for {@link TransactionCursor}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class TransactionCursorTest extends TestCase {
+  private Cashbox cashbox;
+  private Account checking;
+  private Account savings;
+  private Category food;
+
+  @Override
+  public void setUp() {
+    cashbox = new Cashbox();
+    checking = Account.newAccount(cashbox, "checking", "", "", Account.Type.CHECKING, "");
+    savings = Account.newAccount(cashbox, "savings", "", "", Account.Type.SAVINGS, "");
+    food = Category.newCategory(cashbox, "food", "");
+  }
+
+  public void testAccount() {
+    Transaction late = Transaction.newTransaction(checking, new DateMidnight(2009, 2, 1), "b", "7");
+    LineItem.newLineItem(late, BigDecimal.ONE, food, "x");
+    LineItem.newLineItem(late, BigDecimal.TEN, food, "y");
+    Transaction early = Transaction.newTransaction(checking, new DateMidnight(2009, 1, 1), "a", "");
+
+    TransactionCursor cursor = checking.cursor();
+    assertTrue(cursor.next());
+    assertSame(early, cursor.getTransaction());
+    assertEquals(0, cursor.getItemCount());
+    assertFalse(cursor.nextItem());
+
+    assertTrue(cursor.next());
+    assertEquals(late.getId(), cursor.getId());
+    assertEquals(EpochDays.of(2009, 2, 1), cursor.getDay());
+    assertEquals("b", cursor.getPayee());
+    assertEquals("7", cursor.getCheckNr());
+    assertEquals(new BigDecimal("11"), cursor.getAmount());
+    assertNull(cursor.getDestAccount());
+    assertTrue(cursor.nextItem());
+    assertEquals("x", cursor.getItemDescription());
+    assertTrue(cursor.nextItem());
+    assertEquals(BigDecimal.TEN, cursor.getItemAmount());
+    assertSame(food, cursor.getItemCategory());
+    assertFalse(cursor.nextItem());
+    try {
+      cursor.getItemAmount();
+      fail("IllegalStateException expected past the last item");
+    } catch (IllegalStateException e) {
+      // exception expected
+    }
+
+    assertFalse(cursor.next());
+    try {
+      cursor.getPayee();
+      fail("IllegalStateException expected past the last transaction");
+    } catch (IllegalStateException e) {
+      // exception expected
+    }
+  }
+
+  public void testCashbox() {
+    Transaction.newTransaction(savings, new DateMidnight(2009, 1, 1), "s", "");
+    Transfer.newTransfer(checking, savings, new DateMidnight(2009, 1, 2), "t", "");
+
+    TransactionCursor cursor = cashbox.cursor();
+    assertTrue(cursor.next());
+    assertSame(checking, cursor.getAccount());
+    assertSame(savings, cursor.getDestAccount());
+    assertTrue(cursor.next());
+    assertSame(savings, cursor.getAccount());
+    assertEquals("s", cursor.getPayee());
+    assertTrue(cursor.next());
+    assertSame(checking, cursor.getDestAccount());
+    assertFalse(cursor.next());
+  }
+
+  public void testDeletedAccount() {
+    Account.deleteAccount(savings);
+    try {
+      savings.cursor();
+      fail("IllegalStateException expected for deleted account");
+    } catch (IllegalStateException e) {
+      // exception expected
+    }
+  }
+}
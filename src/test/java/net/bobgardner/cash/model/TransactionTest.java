@@ -22,6 +22,9 @@ import junit.framework.TestCase;
 import org.joda.time.DateMidnight;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Observable;
+import java.util.Observer;
 import java.util.SortedSet;
 
 /**
@@ -163,6 +166,67 @@ public class TransactionTest extends TestCase {
     assertEquals(2, items.size());
   }
 
+  public void testDelete() {
+    Transaction t1 = Transaction.newTransaction(account, new DateMidnight(), "payee", "checkNr");
+    LineItem item = LineItem.newLineItem(t1, BigDecimal.ONE, category, "desc");
+    LineItem.newLineItem(t1, BigDecimal.TEN, category, "desc");
+    Transaction t2 = Transaction.newTransaction(account, new DateMidnight(), "payee", "checkNr");
+    Transaction t3 = Transaction.newTransaction(account, new DateMidnight(), "payee", "checkNr");
+
+    final int[] notifications = new int[1];
+    account.addObserver(new Observer() {
+      @Override
+      public void update(Observable o, Object arg) {
+        notifications[0]++;
+      }
+    });
+    Transaction.deleteTransactions(Arrays.asList(t1, t2));
+    assertEquals(1, notifications[0]);
+    assertFalse(t1.isValid());
+    assertFalse(t2.isValid());
+    assertFalse(item.isValid());
+    assertEquals(1, account.getTransactions().size());
+    assertTrue(account.getTransactions().contains(t3));
+
+    Transaction.deleteTransaction(t3);
+    assertEquals(2, notifications[0]);
+    assertTrue(account.getTransactions().isEmpty());
+  }
+
+  public void testChangeEvents() {
+    Transaction t = Transaction.newTransaction(account, new DateMidnight(2009, 1, 1), "p", "");
+    final Account.TransactionsChange[] last = new Account.TransactionsChange[1];
+    account.addObserver(new Observer() {
+      @Override
+      public void update(Observable o, Object arg) {
+        last[0] = (Account.TransactionsChange) arg;
+      }
+    });
+    t.setDate(new DateMidnight(2009, 2, 1));
+    assertSame(t, last[0].getMoved());
+    assertEquals(new DateMidnight(2009, 1, 1), last[0].getOldDate());
+
+    Transaction.deleteTransaction(t);
+    assertNull(last[0].getMoved());
+    assertTrue(last[0].getRemoved().contains(t));
+    Cashbox.INSTANCE.getUndoLog().undo();
+    assertTrue(last[0].getAdded().contains(t));
+  }
+
+  public void testDelete_transfer() {
+    Account other =
+        Account.newAccount(Cashbox.INSTANCE, "other", "institution", "number2",
+            Account.Type.SAVINGS, "notes");
+    Transfer transfer = Transfer.newTransfer(account, other, new DateMidnight(), "payee", "");
+    Transfer pair = transfer.getDestTransfer();
+    assertSame(other, pair.getAccount());
+
+    Transaction.deleteTransaction(pair);
+    assertFalse(transfer.isValid());
+    assertTrue(account.getTransactions().isEmpty());
+    assertTrue(other.getTransactions().isEmpty());
+  }
+
   public void testCompare() {
     Transaction t1 = Transaction.newTransaction(account, new DateMidnight(), "payee", "checkNr");
     Transaction t2 = Transaction.newTransaction(account, new DateMidnight(), "payee", "checkNr");
@@ -190,4 +254,51 @@ public class TransactionTest extends TestCase {
     assertFalse(t1.equals(t2));
     assertFalse(t2.equals(t1));
   }
+
+  public void testItemStorage() {
+    Transaction t = Transaction.newTransaction(account, new DateMidnight(), "payee", "");
+    SortedSet<LineItem> items = t.getItems();
+    LineItem a = LineItem.newLineItem(t, BigDecimal.ONE, category, "a");
+    LineItem b = LineItem.newLineItem(t, BigDecimal.TEN, category, "b");
+    LineItem c = LineItem.newLineItem(t, BigDecimal.ONE, category, "c");
+    assertEquals(Arrays.asList(a, b, c), Arrays.asList(items.toArray()));
+    assertSame(c, items.last());
+    assertEquals(1, items.headSet(b).size());
+
+    LineItem.deleteLineItem(b);
+    assertEquals(Arrays.asList(a, c), Arrays.asList(items.toArray()));
+    LineItem.deleteLineItem(a);
+    assertSame(c, items.first());
+    assertEquals("c", t.getDescription());
+    assertEquals(BigDecimal.ONE, t.getAmount());
+
+    Cashbox.INSTANCE.getUndoLog().undo();
+    assertEquals(Arrays.asList(a, c), Arrays.asList(items.toArray()));
+    try {
+      items.clear();
+      fail("UnsupportedOperationException expected for read-only view");
+    } catch (UnsupportedOperationException e) {
+      // exception expected
+    }
+  }
+
+  public void testRowObservers() {
+    Transaction t = Transaction.newTransaction(account, new DateMidnight(2009, 1, 1), "p", "");
+    LineItem item = LineItem.newLineItem(t, BigDecimal.ONE, category, "desc");
+    final Object[] last = new Object[1];
+    account.addRowObserver(new Observer() {
+      @Override
+      public void update(Observable o, Object arg) {
+        last[0] = arg;
+      }
+    });
+    item.setDescription("other");
+    assertSame(item, last[0]);
+    t.setPayee("q");
+    assertSame(t, last[0]);
+
+    t.setDate(new DateMidnight(2009, 3, 1));
+    assertEquals(EpochDays.of(2009, 3, 1), t.getDay());
+    assertEquals(new DateMidnight(2009, 3, 1), t.getDate());
+  }
 }
@@ -0,0 +1,350 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import junit.framework.TestCase;
+
+import com.google.common.collect.Lists;
+
+import net.bobgardner.cash.persistence.DataWriter;
+import net.bobgardner.cash.persistence.NullDataWriter;
+import net.bobgardner.cash.persistence.PersistenceException;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tests for {@link UndoLog}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class UndoLogTest extends TestCase {
+  private UndoLog log;
+  private Account account;
+  private Category category;
+
+  @Override
+  public void setUp() {
+    Cashbox.INSTANCE.clearAccounts();
+    Cashbox.INSTANCE.clearCategories();
+    Account.resetCounter();
+    Transaction.resetCounter();
+    LineItem.resetCounter();
+    Category.resetCounter();
+    account =
+        Account.newAccount(Cashbox.INSTANCE, "undo", "institution", "number",
+            Account.Type.CHECKING, "notes");
+    category = Category.newCategory("undo", "desc");
+    log = Cashbox.INSTANCE.getUndoLog();
+    log.setMaxBytes(UndoLog.DEFAULT_MAX_BYTES);
+    log.clear();
+  }
+
+  public void testSetter() {
+    assertFalse(log.canUndo());
+    account.setName("renamed");
+    assertTrue(log.canUndo());
+    assertEquals("Change account name", log.getUndoName());
+
+    log.undo();
+    assertEquals("undo", account.getName());
+    assertFalse(log.canUndo());
+    assertTrue(log.canRedo());
+
+    log.redo();
+    assertEquals("renamed", account.getName());
+    assertFalse(log.canRedo());
+  }
+
+  public void testNewEditClearsRedo() {
+    account.setNotes("first");
+    log.undo();
+    assertTrue(log.canRedo());
+    account.setNotes("second");
+    assertFalse(log.canRedo());
+  }
+
+  public void testUnit() {
+    Transaction t = Transaction.newTransaction(account, new DateMidnight(), "payee", "");
+    LineItem a = LineItem.newLineItem(t, BigDecimal.ONE, Category.NONE, "a");
+    LineItem b = LineItem.newLineItem(t, BigDecimal.TEN, Category.NONE, "b");
+    log.clear();
+
+    log.beginUnit("Recategorize");
+    a.setCategory(category);
+    log.beginUnit("Nested");
+    b.setCategory(category);
+    log.endUnit();
+    assertFalse(log.canUndo());
+    log.endUnit();
+    assertEquals("Recategorize", log.getUndoName());
+
+    log.undo();
+    assertEquals(Category.NONE, a.getCategory());
+    assertEquals(Category.NONE, b.getCategory());
+    assertFalse(log.canUndo());
+
+    log.redo();
+    assertEquals(category, a.getCategory());
+    assertEquals(category, b.getCategory());
+  }
+
+  public void testUnit_failedEdit() {
+    Account other =
+        Account.newAccount(Cashbox.INSTANCE, "other", "institution", "number",
+            Account.Type.CHECKING, "notes");
+    log.clear();
+    log.beginUnit("Edit account");
+    account.setNotes("changed");
+    account.setName("renamed");
+    account.setInstitution("bank");
+    log.endUnit();
+
+    // Renamed behind the log's back, so undoing the rename collides
+    Cashbox.INSTANCE.renameAccount(other, "undo");
+    try {
+      log.undo();
+      fail("IllegalArgumentException expected for duplicate name");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+    assertEquals("bank", account.getInstitution());
+    assertEquals("Edit account", log.getUndoName());
+    assertFalse(log.canRedo());
+
+    Cashbox.INSTANCE.renameAccount(other, "other");
+    log.undo();
+    assertEquals("undo", account.getName());
+    assertEquals("institution", account.getInstitution());
+
+    Cashbox.INSTANCE.renameAccount(other, "renamed");
+    try {
+      log.redo();
+      fail("IllegalArgumentException expected for duplicate name");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+    assertEquals("notes", account.getNotes());
+    assertEquals("Edit account", log.getRedoName());
+    assertFalse(log.canUndo());
+
+    Cashbox.INSTANCE.renameAccount(other, "other");
+    log.redo();
+    assertEquals("renamed", account.getName());
+    assertEquals("changed", account.getNotes());
+    assertEquals("bank", account.getInstitution());
+  }
+
+  public void testUnit_failedCompensation() {
+    final Account other =
+        Account.newAccount(Cashbox.INSTANCE, "other", "institution", "number",
+            Account.Type.CHECKING, "notes");
+    Account blocker =
+        Account.newAccount(Cashbox.INSTANCE, "blocker", "institution", "number",
+            Account.Type.CHECKING, "notes");
+    log.clear();
+    log.beginUnit("Rename both");
+    account.setName("first");
+    other.setName("second");
+    log.endUnit();
+
+    // Undoing the first rename collides, and putting the second back fails too
+    Cashbox.INSTANCE.renameAccount(blocker, "undo");
+    other.addObserver(new Observer() {
+      @Override
+      public void update(Observable o, Object arg) {
+        if ("second".equals(other.getName())) throw new IllegalStateException("observer");
+      }
+    });
+    Logger logger = Logger.getLogger(UndoLog.class.getName());
+    logger.setLevel(Level.OFF);
+    try {
+      log.undo();
+      fail("IllegalArgumentException expected for duplicate name");
+    } catch (IllegalArgumentException e) {
+      // The original failure, not the one while putting back
+    } finally {
+      logger.setLevel(null);
+    }
+    assertEquals("first", account.getName());
+    assertEquals("second", other.getName());
+    assertEquals("Rename both", log.getUndoName());
+  }
+
+  public void testEndUnit_notOpen() {
+    try {
+      log.endUnit();
+      fail("IllegalStateException expected with no open unit");
+    } catch (IllegalStateException e) {
+      // exception expected
+    }
+  }
+
+  public void testDeleteTransaction() {
+    Transaction t = Transaction.newTransaction(account, new DateMidnight(), "payee", "");
+    LineItem item = LineItem.newLineItem(t, BigDecimal.ONE, category, "desc");
+    Transaction.deleteTransaction(t);
+    assertFalse(t.isValid());
+
+    final int[] notifications = new int[1];
+    account.addObserver(new Observer() {
+      @Override
+      public void update(Observable o, Object arg) {
+        notifications[0]++;
+      }
+    });
+    log.undo();
+    assertEquals(1, notifications[0]);
+    assertTrue(t.isValid());
+    assertTrue(item.isValid());
+    assertTrue(account.getTransactions().contains(t));
+    assertEquals(BigDecimal.ONE, t.getAmount());
+
+    log.redo();
+    assertFalse(t.isValid());
+    assertTrue(account.getTransactions().isEmpty());
+  }
+
+  public void testDeleteTransaction_restoreFails() {
+    Account savings =
+        Account.newAccount(Cashbox.INSTANCE, "undo savings", "", "", Account.Type.SAVINGS, "");
+    Transfer transfer = Transfer.newTransfer(account, savings, new DateMidnight(), "payee", "");
+    Transaction pair = transfer.getPair();
+    Transaction.deleteTransaction(transfer);
+
+    // The second account's half fails to write
+    FailingInsertWriter writer = new FailingInsertWriter();
+    Cashbox.INSTANCE.setDataWriter(writer);
+    try {
+      log.undo();
+      fail("PersistenceException expected for failed write");
+    } catch (PersistenceException e) {
+      // exception expected
+    } finally {
+      Cashbox.INSTANCE.setDataWriter(NullDataWriter.INSTANCE);
+    }
+    assertFalse(transfer.isValid());
+    assertFalse(pair.isValid());
+    assertTrue(account.getTransactions().isEmpty());
+    assertTrue(savings.getTransactions().isEmpty());
+    assertEquals(1, writer.deleted.size());
+    assertTrue(log.canUndo());
+
+    log.undo();
+    assertTrue(transfer.isValid());
+    assertTrue(pair.isValid());
+    assertEquals(1, savings.getTransactions().size());
+  }
+
+  public void testDeleteAccount_withTransfer() {
+    Account other = Account.newAccount(Cashbox.INSTANCE, "other", "", "", Account.Type.SAVINGS, "");
+    Transfer transfer = Transfer.newTransfer(account, other, new DateMidnight(), "payee", "");
+    Transfer pair = transfer.getDestTransfer();
+    Account.deleteAccount(account);
+    assertFalse(pair.isValid());
+    assertEquals("Delete account", log.getUndoName());
+
+    log.undo();
+    assertTrue(account.isValid());
+    assertTrue(Cashbox.INSTANCE.getAccounts().contains(account));
+    assertTrue(transfer.isValid());
+    assertTrue(pair.isValid());
+    assertTrue(other.getTransactions().contains(pair));
+
+    // Then the transfer, then the other account
+    log.undo();
+    assertFalse(transfer.isValid());
+    assertFalse(pair.isValid());
+    assertTrue(other.getTransactions().isEmpty());
+    log.undo();
+    assertFalse(other.isValid());
+
+    log.redo();
+    log.redo();
+    assertTrue(transfer.isValid());
+    assertTrue(pair.isValid());
+  }
+
+  public void testDeleteCategory() {
+    Category.deleteCategory(category);
+    assertFalse(Cashbox.INSTANCE.getCategories().contains(category));
+    log.undo();
+    assertTrue(category.isValid());
+    assertTrue(Cashbox.INSTANCE.getCategories().contains(category));
+  }
+
+  public void testMemoryCap() {
+    for (int i = 0; i < 100; i++) {
+      account.setNotes("notes " + i);
+    }
+    long full = log.getSizeBytes();
+    assertTrue(full > 0);
+
+    log.setMaxBytes(full / 2);
+    assertTrue(log.getSizeBytes() <= full / 2);
+    // The most recent edits survive
+    log.undo();
+    assertEquals("notes 98", account.getNotes());
+
+    log.clear();
+    assertEquals(0, log.getSizeBytes());
+    assertFalse(log.canUndo());
+  }
+
+  /**
+   * Fails the second insert, and remembers what it was asked to delete.
+   */
+  private static class FailingInsertWriter implements DataWriter {
+    final List<Transaction> deleted = Lists.newArrayList();
+    private int inserts;
+
+    @Override
+    public void write(Account account) {
+      // Nothing to do
+    }
+
+    @Override
+    public void deleteAccount(Account account) {
+      // Nothing to do
+    }
+
+    @Override
+    public void insertTransactions(Collection<? extends Transaction> transactions) {
+      if (++inserts == 2) throw new PersistenceException("Disk full", null);
+    }
+
+    @Override
+    public void deleteTransactions(Collection<? extends Transaction> transactions) {
+      deleted.addAll(transactions);
+    }
+
+    @Override
+    public void commit(Collection<? extends Transaction> deleted,
+        Collection<? extends LineItem> deletedItems, Collection<? extends Transaction> inserted,
+        Collection<? extends LineItem> insertedItems) {
+      // Nothing to do
+    }
+  }
+}
@@ -0,0 +1,238 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.model;
+
+import junit.framework.TestCase;
+
+import net.bobgardner.cash.persistence.DataWriter;
+import net.bobgardner.cash.persistence.NullDataWriter;
+import net.bobgardner.cash.persistence.PersistenceException;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Observable;
+import java.util.Observer;
+
+/**
+ * Tests for {@link UnitOfWork}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class UnitOfWorkTest extends TestCase {
+  private Account checking;
+  private Account savings;
+  private int[] notifications;
+
+  @Override
+  public void setUp() {
+    Cashbox.INSTANCE.clearAccounts();
+    Account.resetCounter();
+    Transaction.resetCounter();
+    LineItem.resetCounter();
+    checking = Account.newAccount(Cashbox.INSTANCE, "checking", "", "", Account.Type.CHECKING, "");
+    savings = Account.newAccount(Cashbox.INSTANCE, "savings", "", "", Account.Type.SAVINGS, "");
+    notifications = new int[2];
+    checking.addObserver(counter(0));
+    savings.addObserver(counter(1));
+  }
+
+  @Override
+  public void tearDown() {
+    Cashbox.INSTANCE.setDataWriter(NullDataWriter.INSTANCE);
+  }
+
+  public void testTransfer() {
+    Transfer transfer = Transfer.newTransfer(checking, savings, new DateMidnight(), "payee", "");
+    assertTrue(checking.getTransactions().contains(transfer));
+    assertTrue(savings.getTransactions().contains(transfer.getDestTransfer()));
+    assertEquals(1, notifications[0]);
+    assertEquals(1, notifications[1]);
+  }
+
+  public void testMove() {
+    UnitOfWork work = new UnitOfWork(Cashbox.INSTANCE, "Move");
+    Transaction[] originals = new Transaction[3];
+    Transaction[] moved = new Transaction[3];
+    for (int i = 0; i < 3; i++) {
+      originals[i] = Transaction.newTransaction(checking, new DateMidnight(), "payee", "");
+      LineItem.newLineItem(originals[i], BigDecimal.ONE, Category.NONE, "item");
+    }
+    notifications[0] = 0;
+    int[] ids = new int[3];
+    for (int i = 0; i < 3; i++) {
+      ids[i] = originals[i].getId();
+      moved[i] = work.move(originals[i], savings);
+    }
+    // Nothing happens before the commit
+    assertEquals(3, checking.getTransactions().size());
+    work.commit();
+
+    assertEquals(1, notifications[0]);
+    assertEquals(1, notifications[1]);
+    assertTrue(checking.getTransactions().isEmpty());
+    assertEquals(3, savings.getTransactions().size());
+    for (int i = 0; i < 3; i++) {
+      assertFalse(originals[i].isValid());
+      assertEquals(ids[i], moved[i].getId());
+      assertSame(savings, moved[i].getAccount());
+      assertEquals(BigDecimal.ONE, moved[i].getAmount());
+    }
+
+    Cashbox.INSTANCE.getUndoLog().undo();
+    assertEquals(3, checking.getTransactions().size());
+    assertTrue(savings.getTransactions().isEmpty());
+    assertTrue(originals[0].isValid());
+  }
+
+  public void testReassign() {
+    Transaction from = Transaction.newTransaction(checking, new DateMidnight(), "split", "");
+    LineItem kept = LineItem.newLineItem(from, BigDecimal.ONE, Category.NONE, "kept");
+    LineItem item = LineItem.newLineItem(from, BigDecimal.TEN, Category.NONE, "moved");
+    Transaction to = Transaction.newTransaction(savings, new DateMidnight(), "other", "");
+    notifications[0] = notifications[1] = 0;
+
+    UnitOfWork work = new UnitOfWork(Cashbox.INSTANCE, "Reassign");
+    int id = item.getId();
+    LineItem copy = work.reassign(item, to);
+    work.commit();
+    assertFalse(item.isValid());
+    assertTrue(copy.isValid());
+    assertEquals(id, copy.getId());
+    assertEquals(1, from.getItems().size());
+    assertTrue(from.getItems().contains(kept));
+    assertEquals(BigDecimal.TEN, to.getAmount());
+    assertEquals(1, notifications[0]);
+    assertEquals(1, notifications[1]);
+  }
+
+  public void testCommit_invalid() {
+    Transaction t = Transaction.newTransaction(checking, new DateMidnight(), "payee", "");
+    UnitOfWork work = new UnitOfWork(Cashbox.INSTANCE, "Move");
+    work.move(t, savings);
+    Account.deleteAccount(savings);
+    try {
+      work.commit();
+      fail("IllegalStateException expected for deleted account");
+    } catch (IllegalStateException e) {
+      // exception expected
+    }
+    assertTrue(t.isValid());
+    assertTrue(checking.getTransactions().contains(t));
+  }
+
+  public void testCommit_databaseFailure() {
+    Cashbox.INSTANCE.setDataWriter(new FailingDataWriter());
+    UnitOfWork work = new UnitOfWork(Cashbox.INSTANCE, "Transfer");
+    Transfer transfer = work.transfer(checking, savings, new DateMidnight(), "payee", "");
+    try {
+      work.commit();
+      fail("PersistenceException expected for failed write");
+    } catch (PersistenceException e) {
+      // exception expected
+    }
+    assertFalse(checking.getTransactions().contains(transfer));
+    assertTrue(savings.getTransactions().isEmpty());
+    assertEquals(0, notifications[0]);
+  }
+
+  public void testOtherCashbox() {
+    Cashbox other = new Cashbox();
+    Account elsewhere = Account.newAccount(other, "elsewhere", "", "", Account.Type.CHECKING, "");
+    Transaction foreign = Transaction.newTransaction(elsewhere, new DateMidnight(), "payee", "");
+    LineItem item = LineItem.newLineItem(foreign, BigDecimal.ONE, Category.NONE, "");
+    Transaction local = Transaction.newTransaction(checking, new DateMidnight(), "payee", "");
+    UnitOfWork work = new UnitOfWork(Cashbox.INSTANCE, "Mixed");
+    try {
+      work.transfer(checking, elsewhere, new DateMidnight(), "payee", "");
+      fail("IllegalArgumentException expected for another cashbox's account");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+    try {
+      work.move(local, elsewhere);
+      fail("IllegalArgumentException expected for another cashbox's account");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+    try {
+      work.move(foreign, savings);
+      fail("IllegalArgumentException expected for another cashbox's transaction");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+    try {
+      work.reassign(item, local);
+      fail("IllegalArgumentException expected for another cashbox's line item");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+    work.commit();
+    assertEquals(1, checking.getTransactions().size());
+    assertEquals(1, elsewhere.getTransactions().size());
+  }
+
+  public void testMove_transfer() {
+    Transfer transfer = Transfer.newTransfer(checking, savings, new DateMidnight(), "payee", "");
+    try {
+      new UnitOfWork(Cashbox.INSTANCE, "Move").move(transfer, savings);
+      fail("IllegalArgumentException expected for moving a transfer");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+  }
+
+  private Observer counter(final int index) {
+    return new Observer() {
+      @Override
+      public void update(Observable o, Object arg) {
+        notifications[index]++;
+      }
+    };
+  }
+
+  private static class FailingDataWriter implements DataWriter {
+    @Override
+    public void write(Account account) {
+      // Nothing to do
+    }
+
+    @Override
+    public void deleteAccount(Account account) {
+      // Nothing to do
+    }
+
+    @Override
+    public void insertTransactions(Collection<? extends Transaction> transactions) {
+      // Nothing to do
+    }
+
+    @Override
+    public void deleteTransactions(Collection<? extends Transaction> transactions) {
+      // Nothing to do
+    }
+
+    @Override
+    public void commit(Collection<? extends Transaction> deleted,
+        Collection<? extends LineItem> deletedItems, Collection<? extends Transaction> inserted,
+        Collection<? extends LineItem> insertedItems) {
+      throw new PersistenceException("Disk full", null);
+    }
+  }
+}
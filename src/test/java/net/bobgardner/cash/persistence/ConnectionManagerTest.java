@@ -0,0 +1,127 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.persistence;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Tests for {@link ConnectionManager}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class ConnectionManagerTest extends TestCase {
+  private File file;
+  private ConnectionManager manager;
+
+  @Override
+  public void setUp() throws Exception {
+    file = File.createTempFile("ledger", ".db");
+    manager = new ConnectionManager(file.getPath(),
+        new ConnectionManager.Settings().setReaders(2).setStatementCacheSize(2));
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    manager.close();
+    file.delete();
+    new File(file.getPath() + "-wal").delete();
+    new File(file.getPath() + "-shm").delete();
+  }
+
+  public void testReadersSeeCommits() throws Exception {
+    assertNotNull(manager.getJournalMode());
+    Statement statement = manager.getWriter().getConnection().createStatement();
+    try {
+      statement.executeUpdate("INSERT INTO categories (id, name, description) "
+          + "VALUES (1, 'Fuel', '')");
+    } finally {
+      statement.close();
+    }
+
+    LedgerConnection first = manager.acquireReader();
+    LedgerConnection second = manager.acquireReader();
+    assertEquals(0, manager.getIdleReaderCount());
+    assertFalse(first.isWriter());
+    assertEquals(1, count(first));
+    assertEquals(1, count(second));
+    manager.release(first);
+    manager.release(second);
+    assertEquals(2, manager.getIdleReaderCount());
+    try {
+      manager.release(first);
+      fail("IllegalStateException expected for double release");
+    } catch (IllegalStateException e) {
+      // exception expected
+    }
+  }
+
+  public void testWriterLock() throws Exception {
+    final LedgerConnection writer = manager.getWriter();
+    final long[] first = new long[1];
+    Thread reserver = new Thread() {
+      @Override
+      public void run() {
+        first[0] = new SqliteBlockSource(writer).reserve("accounts", 10);
+      }
+    };
+    // A reservation waits for whoever holds the writer, such as a data writer commit
+    synchronized (writer) {
+      reserver.start();
+      reserver.join(200);
+      assertEquals(Thread.State.BLOCKED, reserver.getState());
+    }
+    reserver.join();
+    assertEquals(0, first[0]);
+  }
+
+  public void testStatementCache() throws Exception {
+    LedgerConnection reader = manager.acquireReader();
+    try {
+      PreparedStatement statement = reader.prepare("SELECT 1");
+      assertSame(statement, reader.prepare("SELECT 1"));
+      reader.prepare("SELECT 2");
+      reader.prepare("SELECT 3");
+      // The least recently used one is closed and dropped
+      assertEquals(2, reader.getCachedStatementCount());
+      assertNotSame(statement, reader.prepare("SELECT 1"));
+    } finally {
+      manager.release(reader);
+    }
+    try {
+      new ConnectionManager.Settings().setStatementCacheSize(1);
+      fail("IllegalArgumentException expected for a cache too small for the writer");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+  }
+
+  private static int count(LedgerConnection reader) throws Exception {
+    ResultSet rs = reader.prepare("SELECT COUNT(*) FROM categories").executeQuery();
+    try {
+      rs.next();
+      return rs.getInt(1);
+    } finally {
+      rs.close();
+    }
+  }
+}
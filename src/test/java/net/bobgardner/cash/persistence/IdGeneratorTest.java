@@ -0,0 +1,119 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.persistence;
+
+import com.google.common.collect.Sets;
+
+import junit.framework.TestCase;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link IdGenerator}, {@link MemoryBlockSource} and
+ * {@link SqliteBlockSource}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class IdGeneratorTest extends TestCase {
+  @Override
+  public void setUp() throws Exception {
+    Class.forName("org.sqlite.JDBC");
+  }
+
+  public void testBlocks() {
+    final AtomicInteger reservations = new AtomicInteger();
+    BlockSource source = new BlockSource() {
+      private final MemoryBlockSource delegate = new MemoryBlockSource();
+
+      @Override
+      public long reserve(String sequence, int size) {
+        reservations.incrementAndGet();
+        return delegate.reserve(sequence, size);
+      }
+    };
+    IdGenerator generator = new IdGenerator(source, "things", 10);
+    assertEquals(0, reservations.get());
+    for (int i = 0; i < 25; i++) {
+      assertEquals(i, generator.nextId());
+    }
+    assertEquals(3, reservations.get());
+  }
+
+  public void testConcurrent() throws Exception {
+    final IdGenerator generator = new IdGenerator(new MemoryBlockSource(), "things", 7);
+    final Set<Integer> seen = Sets.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    final int threads = 8;
+    final int perThread = 5000;
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < perThread; i++) {
+            seen.add(generator.nextId());
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+    done.await();
+    assertEquals(threads * perThread, seen.size());
+  }
+
+  public void testSqlite() throws Exception {
+    Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+    try {
+      Schema.create(connection);
+      LedgerConnection writer = new LedgerConnection(connection, true, 8);
+      Statement statement = connection.createStatement();
+      statement.executeUpdate("INSERT INTO categories (id, name, description) VALUES (41, 'x', '')");
+      statement.close();
+
+      // Seeded from the rows already in the table
+      IdGenerator generator = new IdGenerator(new SqliteBlockSource(writer), "categories", 5);
+      assertEquals(42, generator.nextId());
+      assertEquals(43, generator.nextId());
+
+      // A restart skips the rest of the old block rather than reusing it
+      generator = new IdGenerator(new SqliteBlockSource(writer), "categories", 5);
+      assertEquals(47, generator.nextId());
+
+      generator = new IdGenerator(new SqliteBlockSource(writer), "accounts", 5);
+      assertEquals(0, generator.nextId());
+    } finally {
+      connection.close();
+    }
+  }
+
+  public void testSqlite_badName() throws Exception {
+    try {
+      LedgerConnection writer =
+          new LedgerConnection(DriverManager.getConnection("jdbc:sqlite::memory:"), true, 8);
+      new SqliteBlockSource(writer).reserve("accounts; DROP TABLE accounts", 1);
+      fail("IllegalArgumentException expected for bad sequence name");
+    } catch (IllegalArgumentException e) {
+      // exception expected
+    }
+  }
+}
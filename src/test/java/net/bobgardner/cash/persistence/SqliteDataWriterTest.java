@@ -0,0 +1,192 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.persistence;
+
+import junit.framework.TestCase;
+
+import net.bobgardner.cash.metrics.Histogram;
+import net.bobgardner.cash.metrics.Metrics;
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.Cashbox;
+import net.bobgardner.cash.model.Category;
+import net.bobgardner.cash.model.LineItem;
+import net.bobgardner.cash.model.Transaction;
+import net.bobgardner.cash.model.Transfer;
+import net.bobgardner.cash.model.UnitOfWork;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link SqliteDataWriter}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class SqliteDataWriterTest extends TestCase {
+  private Connection connection;
+  private Account checking;
+  private Account savings;
+
+  @Override
+  public void setUp() throws Exception {
+    Class.forName("org.sqlite.JDBC");
+    connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+    Schema.create(connection);
+    Cashbox.INSTANCE.setDataWriter(
+        // The smallest cache allowed, so that every call evicts statements
+        new SqliteDataWriter(new LedgerConnection(connection, true,
+            LedgerConnection.MIN_CACHE_SIZE)));
+
+    checking = Account.newAccount(Cashbox.INSTANCE, "writer checking", "", "1",
+        Account.Type.CHECKING, "");
+    savings = Account.newAccount(Cashbox.INSTANCE, "writer savings", "", "2",
+        Account.Type.SAVINGS, "");
+    for (int i = 0; i < 3; i++) {
+      Transaction t = Transaction.newTransaction(checking, new DateMidnight(), "payee", "");
+      LineItem.newLineItem(t, new BigDecimal("1.50"), Category.NONE, "a");
+      LineItem.newLineItem(t, new BigDecimal("-2"), Category.NONE, "b");
+    }
+    Transfer.newTransfer(checking, savings, new DateMidnight(), "transfer", "");
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    Cashbox.INSTANCE.setDataWriter(NullDataWriter.INSTANCE);
+    Account.deleteAccount(checking);
+    Account.deleteAccount(savings);
+    connection.close();
+  }
+
+  public void testWrite() throws Exception {
+    DataWriter writer = Cashbox.INSTANCE.getDataWriter();
+    assertTrue(writer instanceof MeteredDataWriter);
+    Histogram rows = Metrics.INSTANCE.histogram("persistence.write.rows");
+    long writes = rows.getCount();
+    writer.write(checking);
+    assertEquals(writes + 1, rows.getCount());
+    writer.write(savings);
+    assertEquals(2, count("accounts"));
+    assertEquals(5, count("transactions"));
+    assertEquals(6, count("line_items"));
+    assertEquals(-150, sum("SELECT SUM(amount) FROM line_items"));
+
+    // Rewriting replaces rather than duplicates
+    writer.write(checking);
+    assertEquals(5, count("transactions"));
+  }
+
+  public void testWrite_failure() throws Exception {
+    Category gone = Category.newCategory("writer gone", "");
+    LineItem.newLineItem(checking.getTransactions().first(), BigDecimal.ONE, gone, "c");
+    DataWriter writer = Cashbox.INSTANCE.getDataWriter();
+    writer.write(checking);
+    int transactions = count("transactions");
+    assertEquals(7, count("line_items"));
+
+    // Items in a deleted category cannot be written, which is found only after
+    // the account's old rows are deleted
+    Category.deleteCategory(gone);
+    try {
+      writer.write(checking);
+      fail("IllegalStateException expected for deleted category");
+    } catch (IllegalStateException e) {
+      // exception expected
+    }
+    assertEquals(transactions, count("transactions"));
+    assertEquals(7, count("line_items"));
+  }
+
+  public void testDeleteTransactions() throws Exception {
+    DataWriter writer = Cashbox.INSTANCE.getDataWriter();
+    writer.write(checking);
+    writer.write(savings);
+    Transaction first = checking.getTransactions().first();
+    Transaction second = checking.getTransactions().headSet(checking.getTransactions().last())
+        .last();
+    Transaction.deleteTransactions(Arrays.asList(first, second));
+    assertEquals(3, count("transactions"));
+    assertEquals(6 - 2 * 2, count("line_items"));
+  }
+
+  public void testDeleteAccount() throws Exception {
+    DataWriter writer = Cashbox.INSTANCE.getDataWriter();
+    writer.write(checking);
+    writer.write(savings);
+    Account.deleteAccount(checking);
+    assertEquals(1, count("accounts"));
+    // Including the savings half of the transfer
+    assertEquals(0, count("transactions"));
+    assertEquals(0, count("line_items"));
+  }
+
+  public void testCommit() throws Exception {
+    DataWriter writer = Cashbox.INSTANCE.getDataWriter();
+    writer.write(checking);
+    writer.write(savings);
+    Transaction moved = checking.getTransactions().first();
+    Transaction split = checking.getTransactions().last();
+    if (split instanceof Transfer) split = checking.getTransactions().headSet(split).last();
+    UnitOfWork work = new UnitOfWork(Cashbox.INSTANCE, "Move");
+    work.move(moved, savings);
+    work.reassign(split.getItems().first(), savings.getTransactions().first());
+    work.commit();
+    assertEquals(5, count("transactions"));
+    assertEquals(6, count("line_items"));
+    assertEquals(2, sum("SELECT COUNT(*) FROM transactions WHERE account_id = "
+        + savings.getId()));
+    assertEquals(3, sum("SELECT COUNT(*) FROM line_items WHERE transaction_id IN "
+        + "(SELECT id FROM transactions WHERE account_id = " + savings.getId() + ")"));
+  }
+
+  public void testCheckpoints() throws Exception {
+    Transaction old = Transaction.newTransaction(checking, new DateMidnight(2009, 1, 31), "", "");
+    LineItem.newLineItem(old, new BigDecimal("10"), Category.NONE, "");
+    DataWriter writer = Cashbox.INSTANCE.getDataWriter();
+    writer.write(checking);
+    String select =
+        "SELECT balance FROM balance_checkpoints WHERE account_id = " + checking.getId();
+    assertEquals(2, sum("SELECT COUNT(*) FROM (" + select + ")"));
+    assertEquals(1000, sum(select + " AND month = '2009-01'"));
+    assertEquals(1000 - 150, sum(select + " AND month <> '2009-01'"));
+
+    Transaction.deleteTransaction(old);
+    assertEquals(1, sum("SELECT COUNT(*) FROM (" + select + ")"));
+    assertEquals(-150, sum(select));
+  }
+
+  private int count(String table) throws Exception {
+    return (int) sum("SELECT COUNT(*) FROM " + table);
+  }
+
+  private long sum(String sql) throws Exception {
+    Statement statement = connection.createStatement();
+    try {
+      ResultSet rs = statement.executeQuery(sql);
+      rs.next();
+      return rs.getLong(1);
+    } finally {
+      statement.close();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.persistence;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Tests for {@link SummaryQueries} and the triggers behind it.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class SummaryQueriesTest extends TestCase {
+  private static final DateMidnight JAN = new DateMidnight(2009, 1, 1);
+  private static final DateMidnight MAR = new DateMidnight(2009, 3, 1);
+
+  private Connection connection;
+  private LedgerConnection ledger;
+  private SummaryQueries queries;
+
+  @Override
+  public void setUp() throws Exception {
+    Class.forName("org.sqlite.JDBC");
+    connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+    Schema.create(connection);
+    ledger = new LedgerConnection(connection, false, 8);
+    queries = new SummaryQueries(ledger);
+    execute("INSERT INTO accounts (id, name, institution, number, type, notes) "
+        + "VALUES (1, 'checking', '', '', 'CHECKING', '')");
+    execute("INSERT INTO transactions (id, account_id, date, payee, check_nr) "
+        + "VALUES (1, 1, '2009-01-15', 'pay', '')");
+    execute("INSERT INTO line_items (id, transaction_id, amount, category_id, description) "
+        + "VALUES (1, 1, 100000, 7, '')");
+    execute("INSERT INTO transactions (id, account_id, date, payee, check_nr) "
+        + "VALUES (2, 1, '2009-03-02', 'rent', '')");
+    execute("INSERT INTO line_items (id, transaction_id, amount, category_id, description) "
+        + "VALUES (2, 2, -60000, 8, '')");
+    execute("INSERT INTO line_items (id, transaction_id, amount, category_id, description) "
+        + "VALUES (3, 2, -5000, 9, '')");
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    connection.close();
+  }
+
+  public void testInsert() throws Exception {
+    SortedMap<DateMidnight, BigDecimal> balances = queries.getMonthEndBalances(1);
+    assertEquals(2, balances.size());
+    assertEquals(new BigDecimal("1000.00"), balances.get(new DateMidnight(2009, 1, 31)));
+    assertEquals(new BigDecimal("350.00"), balances.get(new DateMidnight(2009, 3, 31)));
+    assertEquals(new BigDecimal("1000.00"), queries.getMonthEndBalance(1, new DateMidnight(2009,
+        2, 10)));
+    assertEquals(0, queries.getMonthEndBalance(1, new DateMidnight(2008, 12, 1)).signum());
+
+    Map<Integer, BigDecimal> totals = queries.getCategoryTotals(JAN, MAR);
+    assertEquals(3, totals.size());
+    assertEquals(new BigDecimal("-600.00"), totals.get(8));
+    assertEquals(2, queries.getCategoryTotals(MAR, MAR).size());
+    // Each query is prepared once, however often it runs
+    assertEquals(3, ledger.getCachedStatementCount());
+  }
+
+  public void testUpdate() throws Exception {
+    // Rent moves to February; March is left without transactions
+    execute("UPDATE transactions SET date = '2009-02-27' WHERE id = 2");
+    SortedMap<DateMidnight, BigDecimal> balances = queries.getMonthEndBalances(1);
+    assertEquals(2, balances.size());
+    assertEquals(new BigDecimal("350.00"), balances.get(new DateMidnight(2009, 2, 28)));
+    assertTrue(queries.getCategoryTotals(MAR, MAR).isEmpty());
+    assertEquals(new BigDecimal("-600.00"),
+        queries.getMonthlyTotals(8).get(new DateMidnight(2009, 2, 1)));
+
+    execute("UPDATE line_items SET amount = 120000, category_id = 8 WHERE id = 1");
+    assertEquals(new BigDecimal("550.00"), queries.getMonthEndBalance(1, MAR));
+    assertEquals(2, queries.getMonthlyTotals(8).size());
+    assertTrue(queries.getMonthlyTotals(7).isEmpty());
+    assertMatchesRebuild();
+  }
+
+  public void testDelete() throws Exception {
+    execute("DELETE FROM line_items WHERE transaction_id = 1");
+    execute("DELETE FROM transactions WHERE id = 1");
+    SortedMap<DateMidnight, BigDecimal> balances = queries.getMonthEndBalances(1);
+    assertEquals(1, balances.size());
+    assertEquals(new BigDecimal("-650.00"), balances.get(new DateMidnight(2009, 3, 31)));
+    assertFalse(queries.getCategoryTotals(JAN, MAR).containsKey(7));
+
+    // Without deleting the line items first
+    execute("DELETE FROM transactions WHERE id = 2");
+    assertTrue(queries.getMonthEndBalances(1).isEmpty());
+    assertTrue(queries.getCategoryTotals(JAN, MAR).isEmpty());
+  }
+
+  private void assertMatchesRebuild() throws Exception {
+    SortedMap<DateMidnight, BigDecimal> balances = queries.getMonthEndBalances(1);
+    Map<Integer, BigDecimal> totals = queries.getCategoryTotals(JAN, MAR);
+    Schema.rebuildSummaries(connection);
+    assertEquals(balances, queries.getMonthEndBalances(1));
+    assertEquals(totals, queries.getCategoryTotals(JAN, MAR));
+  }
+
+  private void execute(String sql) throws Exception {
+    Statement statement = connection.createStatement();
+    try {
+      statement.executeUpdate(sql);
+    } finally {
+      statement.close();
+    }
+  }
+}
@@ -0,0 +1,68 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.reconcile;
+
+import junit.framework.TestCase;
+
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.Cashbox;
+import net.bobgardner.cash.model.Category;
+import net.bobgardner.cash.model.LineItem;
+import net.bobgardner.cash.model.Transaction;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link DuplicateFilter}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class DuplicateFilterTest extends TestCase {
+  private Account account;
+
+  @Override
+  public void setUp() {
+    account = Account.newAccount(Cashbox.INSTANCE, "imported", "", "", Account.Type.CHECKING, "");
+  }
+
+  @Override
+  public void tearDown() {
+    Account.deleteAccount(account);
+  }
+
+  public void testRemoveDuplicates() {
+    for (int i = 0; i < 2; i++) {
+      Transaction t =
+          Transaction.newTransaction(account, new DateMidnight("2009-05-01"), "Coffee", "");
+      LineItem.newLineItem(t, new BigDecimal("-2"), Category.NONE, "");
+    }
+    StatementLine first = line("2009-05-01", "-2", "Coffee");
+    StatementLine second = line("2009-05-01", "-2", "coffee");
+    StatementLine third = line("2009-05-01", "-2", "Coffee");
+    StatementLine other = line("2009-05-02", "-2", "Coffee");
+    assertEquals(Arrays.asList(third, other),
+        DuplicateFilter.removeDuplicates(account, Arrays.asList(first, second, third, other)));
+  }
+
+  private static StatementLine line(String date, String amount, String description) {
+    return new StatementLine(new DateMidnight(date), new BigDecimal(amount), "", description);
+  }
+}
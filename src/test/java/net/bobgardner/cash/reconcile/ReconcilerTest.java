@@ -0,0 +1,135 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.reconcile;
+
+import junit.framework.TestCase;
+
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.Cashbox;
+import net.bobgardner.cash.model.Category;
+import net.bobgardner.cash.model.LineItem;
+import net.bobgardner.cash.model.Transaction;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link Reconciler}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class ReconcilerTest extends TestCase {
+  private Account account;
+
+  @Override
+  public void setUp() {
+    account = Account.newAccount(Cashbox.INSTANCE, "reconciled", "", "", Account.Type.CHECKING, "");
+  }
+
+  @Override
+  public void tearDown() {
+    Account.deleteAccount(account);
+  }
+
+  public void testMatch() {
+    Transaction groceries = transaction("2009-03-02", "-42.10", "");
+    Transaction check = transaction("2009-03-03", "-100", "1001");
+    Transaction sameAmount = transaction("2009-03-03", "-100", "");
+    transaction("2009-03-20", "-5", "");
+
+    StatementLine groceriesLine = line("2009-03-04", "-42.10", "");
+    StatementLine checkLine = line("2009-03-09", "-100.00", "1001");
+    StatementLine sameAmountLine = line("2009-03-03", "-100", "");
+    StatementLine unknown = line("2009-03-05", "-7", "");
+    Reconciliation result =
+        new Reconciler(3).match(account,
+            Arrays.asList(groceriesLine, checkLine, sameAmountLine, unknown));
+
+    assertEquals(3, result.getMatches().size());
+    assertSame(groceries, result.getMatches().get(groceriesLine));
+    // Matched by check number even outside the date window
+    assertSame(check, result.getMatches().get(checkLine));
+    assertSame(sameAmount, result.getMatches().get(sameAmountLine));
+    assertEquals(Arrays.asList(unknown), result.getUnmatched());
+    assertTrue(result.getAmbiguous().isEmpty());
+    assertFalse(groceries.isCleared());
+  }
+
+  public void testMatch_dateWindow() {
+    transaction("2009-03-01", "-10", "");
+    Reconciliation result =
+        new Reconciler(2).match(account, Arrays.asList(line("2009-03-04", "-10", "")));
+    assertEquals(1, result.getUnmatched().size());
+  }
+
+  public void testMatch_fractionOfCent() {
+    // Ledger amounts are whole cents, but statements may carry finer fractions
+    Transaction interest = transaction("2009-03-01", "0.01", "");
+    transaction("2009-03-01", "0.02", "");
+    StatementLine exact = line("2009-03-01", "0.0100", "");
+    StatementLine rounded = line("2009-03-02", "0.005", "");
+    Reconciliation result = new Reconciler(3).match(account, Arrays.asList(exact, rounded));
+    assertSame(interest, result.getMatches().get(exact));
+    assertEquals(Arrays.asList(rounded), result.getUnmatched());
+  }
+
+  public void testMatch_ambiguous() {
+    Transaction first = transaction("2009-03-01", "-10", "");
+    Transaction second = transaction("2009-03-03", "-10", "");
+    StatementLine line = line("2009-03-02", "-10", "");
+    Reconciliation result = new Reconciler(3).match(account, Arrays.asList(line));
+    assertEquals(Arrays.asList(first, second), result.getAmbiguous().get(line));
+    assertTrue(result.getMatches().isEmpty());
+  }
+
+  public void testReconcile() {
+    Transaction first = transaction("2009-03-01", "-10", "");
+    Transaction second = transaction("2009-03-01", "-10", "");
+    transaction("2009-03-02", "25", "");
+    // Two identical lines take one transaction each
+    Reconciliation result =
+        new Reconciler(0).reconcile(account,
+            Arrays.asList(line("2009-03-01", "-10", ""), line("2009-03-01", "-10", "")));
+    assertEquals(0, result.getAmbiguous().size());
+    assertEquals(2, result.getMatches().size());
+    assertTrue(first.isCleared());
+    assertTrue(second.isCleared());
+    assertEquals(new BigDecimal("-20"), account.getClearedBalance());
+
+    // Cleared transactions are not matched again
+    result = new Reconciler(0).match(account, Arrays.asList(line("2009-03-01", "-10", "")));
+    assertEquals(1, result.getUnmatched().size());
+
+    Cashbox.INSTANCE.getUndoLog().undo();
+    assertFalse(first.isCleared());
+    assertFalse(second.isCleared());
+  }
+
+  private Transaction transaction(String date, String amount, String checkNr) {
+    Transaction transaction =
+        Transaction.newTransaction(account, new DateMidnight(date), "payee", checkNr);
+    LineItem.newLineItem(transaction, new BigDecimal(amount), Category.NONE, "");
+    return transaction;
+  }
+
+  private static StatementLine line(String date, String amount, String checkNr) {
+    return new StatementLine(new DateMidnight(date), new BigDecimal(amount), checkNr, "");
+  }
+}
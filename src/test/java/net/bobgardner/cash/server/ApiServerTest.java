@@ -0,0 +1,151 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.server;
+
+import junit.framework.TestCase;
+
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.Cashbox;
+import net.bobgardner.cash.model.Category;
+import net.bobgardner.cash.model.LineItem;
+import net.bobgardner.cash.model.Transaction;
+
+import org.joda.time.DateMidnight;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for {@link ApiServer}.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class ApiServerTest extends TestCase {
+  private static final Pattern NEXT = Pattern.compile("\"next\":\"([^\"]*)\"");
+
+  private Cashbox cashbox;
+  private Account account;
+  private ApiServer server;
+
+  @Override
+  public void setUp() throws IOException {
+    cashbox = new Cashbox();
+    account = Account.newAccount(cashbox, "checking", "bank", "1", Account.Type.CHECKING, "");
+    Category food = Category.newCategory(cashbox, "food", "groceries");
+    for (int i = 1; i <= 5; i++) {
+      Transaction t =
+          Transaction.newTransaction(account, new DateMidnight(2009, 1, i), "payee " + i, "");
+      LineItem.newLineItem(t, BigDecimal.ONE, food, "item \"" + i + "\"");
+    }
+    server = new ApiServer(cashbox, 2);
+    server.start(0);
+  }
+
+  @Override
+  public void tearDown() {
+    server.stop();
+  }
+
+  public void testLoopbackByDefault() {
+    assertTrue(server.getAddress().getAddress().isLoopbackAddress());
+  }
+
+  public void testAccounts() throws IOException {
+    String body = get("/accounts", 200);
+    assertTrue(body, body.startsWith("[{\"id\":" + account.getId() + ",\"name\":\"checking\""));
+    assertEquals(body, get("/accounts/", 200));
+    assertTrue(get("/accounts/" + account.getId(), 200).startsWith("{\"id\":"));
+    get("/accounts/99", 404);
+    get("/accounts/x", 404);
+  }
+
+  public void testCategories() throws IOException {
+    String body = get("/categories", 200);
+    assertTrue(body, body.contains("\"name\":\"food\",\"description\":\"groceries\""));
+    assertEquals("[]", get("/budgets", 200));
+  }
+
+  public void testTransactionPages() throws IOException {
+    String base = "/accounts/" + account.getId() + "/transactions?limit=2";
+    String page = get(base, 200);
+    assertTrue(page, page.contains("\"payee\":\"payee 1\""));
+    assertTrue(page, page.contains("\"description\":\"item \\\"1\\\"\""));
+    assertFalse(page, page.contains("payee 3"));
+
+    // A transaction inserted behind the cursor does not shift later pages
+    Transaction.newTransaction(account, new DateMidnight(2008, 1, 1), "early", "");
+    page = get(base + "&cursor=" + next(page), 200);
+    assertTrue(page, page.contains("payee 3"));
+    assertTrue(page, page.contains("payee 4"));
+    page = get(base + "&cursor=" + next(page), 200);
+    assertTrue(page, page.contains("payee 5"));
+    assertTrue(page, page.endsWith("\"next\":null}"));
+  }
+
+  public void testErrors() throws IOException {
+    get("/nothing", 404);
+    get("/accounts/" + account.getId() + "/transactions?limit=0", 400);
+    get("/accounts/" + account.getId() + "/transactions?cursor=bogus", 400);
+
+    // Line items whose category is gone cannot be written; the client still gets an answer
+    Category.deleteCategory(cashbox.getCategory("food"));
+    String body = get("/accounts/" + account.getId() + "/transactions", 500);
+    assertEquals("{\"error\":\"Internal error.\"}", body);
+
+    HttpURLConnection connection = open("/accounts");
+    connection.setRequestMethod("DELETE");
+    assertEquals(405, connection.getResponseCode());
+    connection.disconnect();
+  }
+
+  private static String next(String page) {
+    Matcher matcher = NEXT.matcher(page);
+    assertTrue(page, matcher.find());
+    return matcher.group(1);
+  }
+
+  private HttpURLConnection open(String path) throws IOException {
+    URL url = new URL("http://localhost:" + server.getPort() + path);
+    return (HttpURLConnection) url.openConnection();
+  }
+
+  private String get(String path, int status) throws IOException {
+    HttpURLConnection connection = open(path);
+    try {
+      assertEquals(path, status, connection.getResponseCode());
+      assertEquals("application/json; charset=UTF-8", connection.getContentType());
+      InputStream in =
+          status == 200 ? connection.getInputStream() : connection.getErrorStream();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+        out.write(buffer, 0, n);
+      }
+      in.close();
+      return out.toString("UTF-8");
+    } finally {
+      connection.disconnect();
+    }
+  }
+}
@@ -0,0 +1,75 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.view;
+
+import junit.framework.TestCase;
+
+import net.bobgardner.cash.model.Cashbox;
+import net.bobgardner.cash.model.Category;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+/**
+ * Tests for {@link CategoryListModel}.
+ * 
+ * @author wrg007 (Bob Gardner)
+ */
+public class CategoryListModelTest extends TestCase {
+  private Cashbox cashbox;
+  private CategoryListModel model;
+  private int events;
+
+  @Override
+  public void setUp() {
+    cashbox = new Cashbox();
+    Category.newCategory(cashbox, "Groceries", "");
+    model = new CategoryListModel(cashbox);
+    model.addListDataListener(new ListDataListener() {
+      public void intervalAdded(ListDataEvent e) {
+        events++;
+      }
+
+      public void intervalRemoved(ListDataEvent e) {
+        events++;
+      }
+
+      public void contentsChanged(ListDataEvent e) {
+        events++;
+      }
+    });
+  }
+
+  public void testTracksCategories() {
+    assertEquals(1, model.getSize());
+    Category rent = Category.newCategory(cashbox, "Rent", "");
+    assertEquals(2, model.getSize());
+    assertSame(rent, model.getElementAt(1));
+    assertTrue(events > 0);
+
+    // Renaming moves the category to its new place
+    rent.setName("Apartment");
+    assertSame(rent, model.getElementAt(0));
+
+    model.setSelectedItem(rent);
+    Category.deleteCategory(rent);
+    assertEquals(1, model.getSize());
+    assertEquals("Groceries", ((Category) model.getElementAt(0)).getName());
+    assertNull(model.getSelectedItem());
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.view;
+
+import junit.framework.TestCase;
+
+import net.bobgardner.cash.metrics.Allocations;
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.Cashbox;
+import net.bobgardner.cash.model.Category;
+import net.bobgardner.cash.model.LineItem;
+import net.bobgardner.cash.model.Transaction;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.table.TableCellRenderer;
+import javax.swing.table.TableColumn;
+import javax.swing.table.TableModel;
+
+/**
+ * Holds the register's per-cell work to allocation budgets, in bytes per
+ * cell, so that new garbage in painting shows up as a test failure. Runs on
+ * the event dispatch thread, where the register does this work.
+ *
+ * @author wrg007 (Bob Gardner)
+ */
+public class RegisterAllocationTest extends TestCase {
+  private static final int ROWS = 200;
+  private static final int RUNS = 100;
+
+  private Account account;
+
+  @Override
+  public void setUp() {
+    Cashbox cashbox = new Cashbox();
+    account = Account.newAccount(cashbox, "checking", "", "", Account.Type.CHECKING, "");
+    Category food = Category.newCategory(cashbox, "food", "");
+    for (int i = 0; i < ROWS; i++) {
+      Transaction t = Transaction.newTransaction(account, new DateMidnight(2009, 1, 1)
+          .plusDays(i), "payee", "");
+      LineItem.newLineItem(t, BigDecimal.valueOf(i, 2), food, "desc");
+    }
+  }
+
+  public void testGetValueAt() throws Exception {
+    final TransactionPane[] pane = new TransactionPane[1];
+    SwingUtilities.invokeAndWait(new Runnable() {
+      @Override
+      public void run() {
+        pane[0] = new TransactionPane(account);
+      }
+    });
+    final TableModel model = pane[0].getModel();
+    // The rows load in the background and arrive on the event dispatch thread
+    long deadline = System.currentTimeMillis() + 10000;
+    final int[] rows = new int[1];
+    while (rows[0] < ROWS && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+      SwingUtilities.invokeAndWait(new Runnable() {
+        @Override
+        public void run() {
+          rows[0] = model.getRowCount();
+        }
+      });
+    }
+    assertEquals(ROWS, rows[0]);
+
+    // Every column of every row, as one paint of a tall register would
+    assertBudget("getValueAt", 1, new Runnable() {
+      @Override
+      public void run() {
+        for (int row = 0; row < ROWS; row++) {
+          for (int column = 0; column < model.getColumnCount(); column++) {
+            model.getValueAt(row, column);
+          }
+        }
+      }
+    }, ROWS * model.getColumnCount());
+  }
+
+  public void testDateRenderer() throws Exception {
+    // Formatting the text is most of it
+    assertRendererBudget(Columns.DATE, new DateMidnight(2009, 12, 31), 256);
+  }
+
+  public void testMoneyRenderer() throws Exception {
+    assertRendererBudget(Columns.AMOUNT, new BigDecimal("-1234.5"), 768);
+  }
+
+  private void assertRendererBudget(Columns columns, final Object value, int budget)
+      throws Exception {
+    TableColumn column = new TableColumn();
+    columns.configureColumn(column);
+    final TableCellRenderer renderer = column.getCellRenderer();
+    final JTable table = new JTable();
+    assertBudget(columns.getName() + " renderer", budget, new Runnable() {
+      @Override
+      public void run() {
+        renderer.getTableCellRendererComponent(table, value, false, false, 0, 0);
+      }
+    }, 1);
+  }
+
+  /**
+   * @param perRun how many cells one run of the task covers
+   */
+  private static void assertBudget(final String operation, final int budget,
+      final Runnable task, final int perRun) throws Exception {
+    final double[] bytes = new double[1];
+    SwingUtilities.invokeAndWait(new Runnable() {
+      @Override
+      public void run() {
+        bytes[0] = Allocations.perRun(Math.max(RUNS, 20000 / perRun), task) / perRun;
+      }
+    });
+    assertTrue(operation + " allocated " + bytes[0] + " bytes, over its budget of " + budget,
+        bytes[0] <= budget);
+  }
+}
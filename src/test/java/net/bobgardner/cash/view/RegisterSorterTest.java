@@ -0,0 +1,144 @@
+// Copyright 2009 Bob Gardner.
+//
+// This file is part of QuickCash.
+//
+// QuickCash is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// QuickCash is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with QuickCash. If not, see <http://www.gnu.org/licenses/>.
+
+package net.bobgardner.cash.view;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import net.bobgardner.cash.model.Account;
+import net.bobgardner.cash.model.Cashbox;
+import net.bobgardner.cash.model.Category;
+import net.bobgardner.cash.model.LineItem;
+import net.bobgardner.cash.model.Transaction;
+
+import org.joda.time.DateMidnight;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Tests for {@link RegisterSorter}.
+ * 
+ * @author wrg007 (Bob Gardner)
+ */
+public class RegisterSorterTest extends TestCase {
+  private static final int AMOUNT = Columns.AMOUNT.ordinal();
+
+  private Account account;
+  private final List<Transaction> rows = Lists.newArrayList();
+  private final AbstractTableModel model = new AbstractTableModel() {
+    @Override
+    public int getRowCount() {
+      return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+      return Columns.values().length;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+      throw new AssertionError("Sorting must not read cells");
+    }
+  };
+  private RegisterSorter sorter;
+
+  @Override
+  public void setUp() {
+    account = Account.newAccount(new Cashbox(), "checking", "", "", Account.Type.CHECKING, "");
+    // In date order, with amounts out of order
+    for (int amount : new int[] {30, 10, 50, 20, 40}) {
+      rows.add(transaction(rows.size() + 1, amount));
+    }
+    sorter = new RegisterSorter(model, rows);
+  }
+
+  public void testSort() {
+    assertEquals(2, sorter.convertRowIndexToModel(2));
+    sorter.toggleSortOrder(AMOUNT);
+    assertOrder(10, 20, 30, 40, 50);
+    assertEquals(4, sorter.convertRowIndexToView(2));
+    sorter.toggleSortOrder(AMOUNT);
+    assertOrder(50, 40, 30, 20, 10);
+    sorter.toggleSortOrder(AMOUNT);
+    assertOrder(30, 10, 50, 20, 40);
+
+    // Not sortable
+    sorter.toggleSortOrder(Columns.TOTAL.ordinal());
+    assertTrue(sorter.getSortKeys().isEmpty());
+  }
+
+  public void testFilter() {
+    sorter.setSortKeys(ImmutableList.of(new RowSorter.SortKey(AMOUNT, SortOrder.ASCENDING)));
+    sorter.setFilter(new Predicate<Transaction>() {
+      @Override
+      public boolean apply(Transaction transaction) {
+        return transaction.getAmount().intValue() > 15;
+      }
+    });
+    assertOrder(20, 30, 40, 50);
+    assertEquals(-1, sorter.convertRowIndexToView(1));
+  }
+
+  public void testIncremental() {
+    for (int i = 0; i < 20; i++) {
+      rows.add(transaction(rows.size() + 1, 100 + i));
+    }
+    sorter.allRowsChanged();
+    sorter.setSortKeys(ImmutableList.of(new RowSorter.SortKey(AMOUNT, SortOrder.ASCENDING)));
+
+    rows.add(2, transaction(3, 25));
+    sorter.rowsInserted(2, 2);
+    assertEquals(2, sorter.convertRowIndexToModel(2));
+    assertEquals(26, sorter.getViewRowCount());
+
+    // 30 goes, and 20 moves up from model row 4 to 3
+    rows.remove(0);
+    sorter.rowsDeleted(0, 0);
+    assertEquals(3, sorter.convertRowIndexToModel(1));
+
+    // 50 becomes the smallest
+    rows.get(2).setAmount(new BigDecimal(5));
+    sorter.rowsUpdated(2, 2, AMOUNT);
+    assertEquals(2, sorter.convertRowIndexToModel(0));
+    assertEquals(25, sorter.getViewRowCount());
+  }
+
+  private void assertOrder(int... amounts) {
+    assertEquals(amounts.length, sorter.getViewRowCount());
+    for (int i = 0; i < amounts.length; i++) {
+      Transaction transaction = rows.get(sorter.convertRowIndexToModel(i));
+      assertEquals(amounts[i], transaction.getAmount().intValue());
+    }
+  }
+
+  private Transaction transaction(int day, int amount) {
+    Transaction transaction =
+        Transaction.newTransaction(account, new DateMidnight(2009, 1, day), "payee", "");
+    LineItem.newLineItem(transaction, new BigDecimal(amount), Category.NONE, "");
+    return transaction;
+  }
+}